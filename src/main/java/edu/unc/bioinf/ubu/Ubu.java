@@ -4,9 +4,11 @@ import java.util.Arrays;
 
 import edu.unc.bioinf.ubu.assembly.ReAligner;
 import edu.unc.bioinf.ubu.fastq.FastqFormatter;
+import edu.unc.bioinf.ubu.fastq.FastqIndex;
 import edu.unc.bioinf.ubu.fastq.FastqSplitter;
 import edu.unc.bioinf.ubu.fastq.Sam2Fastq;
 import edu.unc.bioinf.ubu.sam.GenomeToTranscriptome;
+import edu.unc.bioinf.ubu.sam.IsoformIndexFile;
 import edu.unc.bioinf.ubu.sam.SAMFilter;
 import edu.unc.bioinf.ubu.sam.SamConverter;
 import edu.unc.bioinf.ubu.sam.SamFileDiff;
@@ -30,6 +32,8 @@ public class Ubu {
 	private static final String FASTQ_FORMAT = "fastq-format";
 	private static final String REALIGN = "realign";
 	private static final String SPLIT_FASTQ = "fastq-split";
+	private static final String INDEX_FASTQ = "fastq-index";
+	private static final String BUILD_INDEX = "build-index";
 	
 	private static final int MAX_CMD_LEN = 15;
 	
@@ -65,6 +69,10 @@ public class Ubu {
 				Sam2Fastq.run(argz);
 			} else if (cmd.equals(SPLIT_FASTQ)) {
 				FastqSplitter.run(argz);
+			} else if (cmd.equals(INDEX_FASTQ)) {
+				FastqIndex.run(argz);
+			} else if (cmd.equals(BUILD_INDEX)) {
+				IsoformIndexFile.run(argz);
 			} else {
 				System.out.println("Command [" + cmd + "] is unrecognized.");
 				printAvailablePrograms();
@@ -77,6 +85,7 @@ public class Ubu {
 		System.out.println("Available commands:");
 		
 		printProgram(getPaddedString(TRANSLATE), "Translate from genome to transcriptome coordinates");
+		printProgram(getPaddedString(BUILD_INDEX), "Prebuild the binary isoform annotation index used by " + TRANSLATE);
 		printProgram(getPaddedString(SAM_DIFF), "Diff two SAM/BAM files outputting discrepant reads in corresponding SAM/BAM files");
 		printProgram(getPaddedString(SAM_FILTER), "Filter reads from a paired end SAM or BAM file (only outputs paired reads)");
 		printProgram(getPaddedString(SAM_SUMMARIZE), "Output summary statistics per reference for a SAM/BAM file (Aligned reads only).");
@@ -84,7 +93,8 @@ public class Ubu {
 		printProgram(getPaddedString(JUNC), "Count splice junctions in a SAM or BAM file");
 		printProgram(getPaddedString(SAM2FASTQ), "Convert SAM/BAM file to FASTQ");
 		printProgram(getPaddedString(FASTQ_FORMAT), "Format a single FASTQ file (clean up read ids and/or convert quality scoring)");
-		printProgram(getPaddedString(FASTQ_FORMAT), "Split a single FASTQ file containing concatenated paired end reads into 2 FASTQ files");
+		printProgram(getPaddedString(SPLIT_FASTQ), "Split a single FASTQ file containing concatenated paired end reads into 2 FASTQ files or scatter it into chunk files");
+		printProgram(getPaddedString(INDEX_FASTQ), "Index record offsets of a FASTQ file for random access and parallel processing");
 //		printProgram(getPaddedString(REALIGN), "");
 	}
 	
@@ -36,6 +36,7 @@ import edu.unc.bioinf.ubu.fastq.Sam2Fastq;
 import edu.unc.bioinf.ubu.gtf.Feature;
 import edu.unc.bioinf.ubu.gtf.GtfLoader;
 import edu.unc.bioinf.ubu.sam.ReadBlock;
+import edu.unc.bioinf.ubu.sam.ReadBlockIterator;
 import edu.unc.bioinf.ubu.sam.ReverseComplementor;
 
 public class ReAligner {
@@ -1064,6 +1065,7 @@ public class ReAligner {
 		SAMRecord cachedContig = null;
 		
 		SamStringReader samStringReader = new SamStringReader();
+		ReadBlockIterator contigReadBlocks = new ReadBlockIterator();
 		
 		int ctr = 0;
 		
@@ -1175,7 +1177,7 @@ public class ReAligner {
 						// greater than the original read's quality.
 						if (contigRead.getMappingQuality() > orig.getMappingQuality()) {
 	
-							List<ReadBlock> contigReadBlocks = ReadBlock.getReadBlocks(contigRead);
+							contigReadBlocks.reset(contigRead);
 							
 							ReadPosition readPosition = new ReadPosition(origRead, position, -1);
 							SAMRecord updatedRead = updateReadAlignment(contigRead,
@@ -1291,7 +1293,7 @@ public class ReAligner {
 	}
 	
 	SAMRecord updateReadAlignment(SAMRecord contigRead,
-			List<ReadBlock> contigReadBlocks, ReadPosition orig) {
+			ReadBlockIterator contigBlock, ReadPosition orig) {
 		List<ReadBlock> blocks = new ArrayList<ReadBlock>();
 		SAMRecord read = cloneRead(orig.getRead());
 
@@ -1303,7 +1305,7 @@ public class ReAligner {
 		// read block positions are one based
 		// ReadPosition is zero based
 
-		for (ReadBlock contigBlock : contigReadBlocks) {
+		while (contigBlock.next()) {
 			if ((contigBlock.getReadStart() + contigBlock.getReferenceLength()) >= orig
 					.getPosition() + 1) {
 				ReadBlock block = contigBlock.getSubBlock(accumulatedLength,
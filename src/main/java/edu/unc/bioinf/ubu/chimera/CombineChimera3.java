@@ -14,10 +14,13 @@ import net.sf.samtools.SAMFileWriter;
 import net.sf.samtools.SAMFileWriterFactory;
 import net.sf.samtools.SAMRecord;
 import net.sf.samtools.SAMFileHeader.SortOrder;
-import edu.unc.bioinf.ubu.sam.ReadBlock;
+import edu.unc.bioinf.ubu.sam.ReadBlockIterator;
 import edu.unc.bioinf.ubu.sam.SamMultiMappingReader;
 
 public class CombineChimera3 {
+	
+	private ReadBlockIterator blocks = new ReadBlockIterator();
+	
 	public void combine(String input, String output) {
 		SamMultiMappingReader reader = new SamMultiMappingReader(input);
 		
@@ -117,22 +120,23 @@ public class CombineChimera3 {
 //				return null;
 //			}
 			
-			List<ReadBlock> leftBlocks = ReadBlock.getReadBlocks(left);
-			ReadBlock lastLeftBlock = leftBlocks.get(leftBlocks.size()-2);
+			// Last block on the left side preceding the trailing S
+			blocks.reset(left);
+			if (!blocks.advanceTo(blocks.getNumBlocks()-2)) {
+				return null;
+			}
+			int leftStop = blocks.getReferenceStop();
+			int leftReadStop = blocks.getReadStart() + blocks.getLength() - 1;
 			
-			List<ReadBlock> rightBlocks = ReadBlock.getReadBlocks(right);
-			ReadBlock firstRightBlock = rightBlocks.get(1);
+			// First block on the right side following the leading S
+			blocks.reset(right);
+			if (!blocks.advanceTo(1)) {
+				return null;
+			}
+			int rightStart = blocks.getReferenceStart();
+			int rightReadStart = blocks.getReadStart();
 			
 			// Confirm no shared bases in read
-//			int leftStop = lastLeftBlock.getReadStart() + lastLeftBlock.getLength() - 1;
-//			int rightStart = firstRightBlock.getReadStart();
-			
-			int leftStop = lastLeftBlock.getReferenceStop();
-			int rightStart = firstRightBlock.getReferenceStart();
-			
-			int leftReadStop = lastLeftBlock.getReadStart() + lastLeftBlock.getLength() - 1;
-			int rightReadStart = firstRightBlock.getReadStart();
-
 			
 			int trimLength = 0;
 			if ((leftStop >= rightStart) || (leftReadStop >= rightReadStart)) {
@@ -147,9 +151,9 @@ public class CombineChimera3 {
 			}
 			
 			// Build indel
-			int leftAlignmentStop = lastLeftBlock.getReferenceStop();
+			int leftAlignmentStop = leftStop;
 			leftAlignmentStop -= trimLength;
-			int rightAlignmentStart = firstRightBlock.getReferenceStart();
+			int rightAlignmentStart = rightStart;
 			
 			int alignmentGap = rightAlignmentStart - leftAlignmentStop - 1;
 			
@@ -170,7 +174,7 @@ public class CombineChimera3 {
 			
 			// Create combined read
 			SAMRecord combinedRead = cloneRead(read1);
-			combinedRead.setAlignmentStart(leftBlocks.get(0).getReferenceStart());
+			combinedRead.setAlignmentStart(left.getAlignmentStart());
 			combinedRead.setCigar(new Cigar(elements));
 //			combinedRead.setMappingQuality((read1.getMappingQuality() + read2.getMappingQuality()) / 2);
 			combinedRead.setMappingQuality(Math.min(read1.getMappingQuality(), read2.getMappingQuality()));
@@ -219,13 +223,15 @@ public class CombineChimera3 {
 	}
 	
 	static class ReadComparator implements Comparator<SAMRecord> {
+		
+		private ReadBlockIterator blocks = new ReadBlockIterator();
 
 		@Override
 		public int compare(SAMRecord read1, SAMRecord read2) {
-			int cmp = getMappedReadStart(read2) - getMappedReadStart(read1);
+			int cmp = getMappedReadStart(read2, blocks) - getMappedReadStart(read1, blocks);
 			
 			if (cmp == 0) {
-				cmp = getMappedReadEnd(read2) - getMappedReadEnd(read1);
+				cmp = getMappedReadEnd(read2, blocks) - getMappedReadEnd(read1, blocks);
 			}
 						
 			return cmp;
@@ -260,20 +266,20 @@ public class CombineChimera3 {
 			
 			int FUDGE_FACTOR = 5;
 			
-			if ((getMappedReadStart(middle) <= getMappedReadEnd(first) + FUDGE_FACTOR) && (getMappedReadEnd(middle) >= getMappedReadStart(last) - FUDGE_FACTOR)) {
+			if ((getMappedReadStart(middle, blocks) <= getMappedReadEnd(first, blocks) + FUDGE_FACTOR) && (getMappedReadEnd(middle, blocks) >= getMappedReadStart(last, blocks) - FUDGE_FACTOR)) {
 				sortedReads.remove(middle);
 			}
 		}
 	}
 	
 	// 1 based read start
-	private static int getMappedReadStart(SAMRecord read) {
+	private static int getMappedReadStart(SAMRecord read, ReadBlockIterator blocks) {
 		
-		List<ReadBlock> blocks = ReadBlock.getReadBlocks(read);
+		blocks.reset(read);
 		
-		for (ReadBlock block : blocks) {
-			if (block.getType() != CigarOperator.S) {
-				return block.getReadStart();
+		while (blocks.next()) {
+			if (blocks.getType() != CigarOperator.S) {
+				return blocks.getReadStart();
 			}
 		}
 
@@ -281,17 +287,19 @@ public class CombineChimera3 {
 	}
 	
 	// 1 based read start (inclusive)
-	private static int getMappedReadEnd(SAMRecord read) {
-		List<ReadBlock> blocks = ReadBlock.getReadBlocks(read);
+	private static int getMappedReadEnd(SAMRecord read, ReadBlockIterator blocks) {
+		int end = -1;
 		
-		for (int i=blocks.size()-1; i>=0; i--) {
-			ReadBlock block = blocks.get(i);
-			if (block.getType() != CigarOperator.S) {
-				return block.getReadStart() + block.getLength() - 1; 
+		blocks.reset(read);
+		
+		// Walk forward and keep the end of the last non soft clipped block
+		while (blocks.next()) {
+			if (blocks.getType() != CigarOperator.S) {
+				end = blocks.getReadStart() + blocks.getLength() - 1; 
 			}
 		}
 		
-		return -1;
+		return end;
 	}
 	
 	public static void main(String[] args) {
@@ -0,0 +1,226 @@
+package edu.unc.bioinf.ubu.fastq;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads Fastq records as raw bytes from an uncompressed fastq file, optionally
+ * restricted to a byte range.  A record belongs to the range if it starts within it.
+ * <p>
+ * Also provides {@code findRecordStart} for locating the first record at or after
+ * an arbitrary byte offset, allowing a single file to be processed in parallel.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class FastqByteReader {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int SEEK_WINDOW_SIZE = 1 << 16;
+
+	private InputStream in;
+	private byte[] buf = new byte[BUFFER_SIZE];
+	private int pos = 0;
+	private int limit = 0;
+
+	// File offset of buf[pos]
+	private long offset;
+	private long end;
+
+	/**
+	 * Reads all records in the specified file.
+	 */
+	public FastqByteReader(String filename) throws IOException {
+		this(filename, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Reads records starting within [start, end).  start must be the start of a record.
+	 */
+	public FastqByteReader(String filename, long start, long end) throws IOException {
+		FileInputStream fis = new FileInputStream(filename);
+		fis.getChannel().position(start);
+		this.in = fis;
+		this.offset = start;
+		this.end = end;
+	}
+
+	/**
+	 * Reads the next record into the specified record.
+	 * Returns false if there are no more records in range.
+	 * Throws an IOException if the input ends part way through a record.
+	 */
+	public boolean next(FastqByteRecord record) throws IOException {
+		if (offset >= end) {
+			return false;
+		}
+
+		long recordStart = offset;
+		record.setOffset(recordStart);
+
+		if (!readLine(record, 0)) {
+			return false;
+		}
+
+		for (int i=1; i<FastqRecord.NUM_LINES; i++) {
+			if (!readLine(record, i)) {
+				throw new IOException("Incomplete fastq record at offset: " + recordStart);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the file offset of the next unread byte.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private boolean readLine(FastqByteRecord record, int idx) throws IOException {
+		record.clear(idx);
+		boolean hasData = false;
+
+		while (true) {
+			if (pos == limit) {
+				if (!fill()) {
+					return hasData;
+				}
+			}
+
+			hasData = true;
+			int start = pos;
+			while ((pos < limit) && (buf[pos] != '\n')) {
+				pos++;
+			}
+
+			int len = pos - start;
+			if ((pos < limit) && (len > 0) && (buf[pos-1] == '\r')) {
+				len--;
+			}
+
+			record.append(idx, buf, start, len);
+			offset += pos - start;
+
+			if (pos < limit) {
+				// Consume newline
+				pos++;
+				offset++;
+				return true;
+			}
+		}
+	}
+
+	private boolean fill() throws IOException {
+		int read = in.read(buf, 0, buf.length);
+		if (read <= 0) {
+			return false;
+		}
+
+		pos = 0;
+		limit = read;
+		return true;
+	}
+
+	/**
+	 * Returns the offset of the first record starting at or after the specified offset,
+	 * or the file length if there is none.
+	 * <p>
+	 * A record start is a line beginning with '@' followed by a bases line,
+	 * a line beginning with '+' and a quality line of the same length as the bases.
+	 * The quality line itself may begin with '@', so the '+' line is what disambiguates.
+	 */
+	public static long findRecordStart(RandomAccessFile file, long offset) throws IOException {
+		if (offset <= 0) {
+			return 0;
+		}
+
+		long fileLength = file.length();
+		int windowSize = SEEK_WINDOW_SIZE;
+
+		while (true) {
+			if (offset >= fileLength) {
+				return fileLength;
+			}
+
+			// Back up one byte so that an offset at the start of a line is detected as such
+			long windowStart = offset - 1;
+			int len = (int) Math.min(windowSize, fileLength - windowStart);
+			byte[] window = new byte[len];
+			file.seek(windowStart);
+			file.readFully(window);
+
+			boolean isWindowAtEof = windowStart + len == fileLength;
+
+			// Line starts within the window.  The first is the first line fully after offset-1.
+			int[] lineStarts = new int[10];
+			int numLines = 0;
+
+			for (int i=0; i<len-1 && numLines < lineStarts.length; i++) {
+				if (window[i] == '\n') {
+					lineStarts[numLines++] = i+1;
+				}
+			}
+
+			if ((numLines < lineStarts.length) && (isWindowAtEof)) {
+				// Treat end of file as the start of a (non-existent) final line,
+				// accounting for a missing trailing newline.
+				lineStarts[numLines++] = window[len-1] == '\n' ? len : len + 1;
+			}
+
+			for (int i=0; i+4<numLines && i<FastqRecord.NUM_LINES; i++) {
+				if (isRecordStart(window, lineStarts, i, len)) {
+					return windowStart + lineStarts[i];
+				}
+			}
+
+			if (isWindowAtEof) {
+				return fileLength;
+			}
+
+			if (windowSize >= (1 << 28)) {
+				throw new IOException("Unable to locate fastq record start near offset: " + offset);
+			}
+
+			// Lines are longer than the window.  Try again with a larger window.
+			windowSize *= 4;
+		}
+	}
+
+	private static boolean isRecordStart(byte[] window, int[] lineStarts, int idx, int len) {
+		int idStart = lineStarts[idx];
+		int basesStart = lineStarts[idx+1];
+		int plusStart = lineStarts[idx+2];
+		int qualStart = lineStarts[idx+3];
+		int nextStart = lineStarts[idx+4];
+
+		if ((idStart >= len) || (window[idStart] != '@')) {
+			return false;
+		}
+
+		if ((plusStart >= len) || (window[plusStart] != '+')) {
+			return false;
+		}
+
+		int basesLength = lineLength(window, basesStart, plusStart);
+		int qualLength = lineLength(window, qualStart, Math.min(nextStart, len+1));
+
+		return basesLength == qualLength;
+	}
+
+	private static int lineLength(byte[] window, int start, int nextStart) {
+		// Exclude newline and optional carriage return
+		int end = nextStart - 1;
+		if ((end > start) && (end-1 < window.length) && (window[end-1] == '\r')) {
+			end--;
+		}
+
+		return end - start;
+	}
+}
@@ -0,0 +1,89 @@
+package edu.unc.bioinf.ubu.fastq;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Reusable, byte level representation of a single Fastq record.
+ * Line buffers are grown as needed and re-used across records to avoid
+ * per record allocation.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class FastqByteRecord {
+
+	private static final int INITIAL_LINE_SIZE = 256;
+
+	private byte[][] lines = new byte[FastqRecord.NUM_LINES][INITIAL_LINE_SIZE];
+	private int[] lengths = new int[FastqRecord.NUM_LINES];
+	private long offset;
+
+	public byte[] getLine(int idx) {
+		return lines[idx];
+	}
+
+	public int getLength(int idx) {
+		return lengths[idx];
+	}
+
+	/**
+	 * Returns the byte offset of the start of this record within the input file.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	void setOffset(long offset) {
+		this.offset = offset;
+	}
+
+	void clear(int idx) {
+		lengths[idx] = 0;
+	}
+
+	void append(int idx, byte[] src, int start, int len) {
+		int newLength = lengths[idx] + len;
+		if (newLength > lines[idx].length) {
+			lines[idx] = Arrays.copyOf(lines[idx], Math.max(newLength, lines[idx].length * 2));
+		}
+
+		System.arraycopy(src, start, lines[idx], lengths[idx], len);
+		lengths[idx] = newLength;
+	}
+
+	/**
+	 * Writes the full record, newline terminated.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		for (int i=0; i<FastqRecord.NUM_LINES; i++) {
+			out.write(lines[i], 0, lengths[i]);
+			out.write('\n');
+		}
+	}
+
+	/**
+	 * Writes the portion of the record's bases and qualities in the range [start, end)
+	 * with the specified suffix appended to the id.
+	 */
+	public void writeTo(OutputStream out, int start, int end, byte[] idSuffix) throws IOException {
+		out.write(lines[0], 0, lengths[0]);
+		out.write(idSuffix);
+		out.write('\n');
+		out.write(lines[1], start, end-start);
+		out.write('\n');
+		out.write('+');
+		out.write('\n');
+		out.write(lines[3], start, end-start);
+		out.write('\n');
+	}
+
+	public FastqRecord toFastqRecord() {
+		String[] strs = new String[FastqRecord.NUM_LINES];
+		for (int i=0; i<FastqRecord.NUM_LINES; i++) {
+			strs[i] = new String(lines[i], 0, lengths[i]);
+		}
+
+		return new FastqRecord(strs);
+	}
+}
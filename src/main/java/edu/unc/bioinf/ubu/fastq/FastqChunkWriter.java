@@ -0,0 +1,142 @@
+package edu.unc.bioinf.ubu.fastq;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes batches of formatted fastq bytes to a single output file on its own thread.
+ * Compression (if enabled) happens on the writer thread, so multiple outputs
+ * compress in parallel while the reader continues.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class FastqChunkWriter implements Runnable {
+
+	private static final int MAX_QUEUED_BATCHES = 16;
+	private static final byte[] END_OF_INPUT = new byte[0];
+
+	private String filename;
+	private boolean isCompressed;
+	private BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(MAX_QUEUED_BATCHES);
+	private Thread thread;
+	private volatile Exception error;
+
+	public FastqChunkWriter(String filename, boolean isCompressed) {
+		this.filename = filename;
+		this.isCompressed = isCompressed;
+	}
+
+	public void start() {
+		thread = new Thread(this);
+		thread.start();
+	}
+
+	/**
+	 * Queues a batch for writing, blocking if the writer has fallen behind.
+	 */
+	public void write(byte[] batch) throws IOException, InterruptedException {
+		enqueue(batch);
+	}
+
+	/**
+	 * Signals end of input.  Queued batches continue to be written in the background.
+	 */
+	public void endInput() throws IOException, InterruptedException {
+		enqueue(END_OF_INPUT);
+	}
+	
+	/**
+	 * Waits for all queued batches to be written and the output to be closed.
+	 */
+	public void awaitCompletion() throws IOException, InterruptedException {
+		thread.join();
+		checkError();
+	}
+	
+	/**
+	 * Signals end of input and waits for all queued batches to be written.
+	 */
+	public void finish() throws IOException, InterruptedException {
+		endInput();
+		awaitCompletion();
+	}
+	
+	/**
+	 * Stops the writer thread without writing any remaining queued batches and waits for
+	 * it to close the output.  Does not throw, so may be called from a finally block while
+	 * another exception propagates.
+	 */
+	public void abort() {
+		if (thread == null) {
+			return;
+		}
+		
+		thread.interrupt();
+		
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void enqueue(byte[] batch) throws IOException, InterruptedException {
+		// Poll so that a failed writer thread is detected rather than blocking indefinitely
+		while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+			checkError();
+		}
+		checkError();
+	}
+
+	@Override
+	public void run() {
+		OutputStream out = null;
+		try {
+			out = openOutput(filename, isCompressed);
+
+			byte[] batch = queue.take();
+			while (batch != END_OF_INPUT) {
+				out.write(batch);
+				batch = queue.take();
+			}
+		} catch (InterruptedException e) {
+			// Aborted
+			error = e;
+		} catch (Exception e) {
+			e.printStackTrace();
+			error = e;
+		} finally {
+			try {
+				if (out != null) {
+					out.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				if (error == null) {
+					error = e;
+				}
+			}
+		}
+	}
+
+	private void checkError() throws IOException {
+		if (error != null) {
+			throw new IOException("Error writing: " + filename, error);
+		}
+	}
+
+	static OutputStream openOutput(String filename, boolean isCompressed) throws IOException {
+		OutputStream out = new FileOutputStream(filename, false);
+		if (isCompressed) {
+			return new GZIPOutputStream(out, 1 << 16);
+		} else {
+			return new BufferedOutputStream(out, 1 << 16);
+		}
+	}
+}
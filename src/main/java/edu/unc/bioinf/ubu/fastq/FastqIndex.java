@@ -0,0 +1,225 @@
+package edu.unc.bioinf.ubu.fastq;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sidecar index for an uncompressed fastq file containing the byte offset of every Nth
+ * record and the total record count.  Allows seeking to an arbitrary record and dividing
+ * a fastq into record aligned byte ranges for parallel processing.
+ * <p>
+ * The index is stored alongside the fastq as {@code <fastq>.fqi} and records the fastq
+ * length and modification time so that a stale index is ignored.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class FastqIndex {
+
+	public static final String INDEX_SUFFIX = ".fqi";
+	public static final int DEFAULT_INTERVAL = 10000;
+
+	private static final int MAGIC = 0x46514931; // FQI1
+
+	private int interval;
+	private long numRecords;
+	private long[] offsets = new long[1024];
+	private int numOffsets = 0;
+	private long fastqLength;
+	private long fastqLastModified;
+
+	FastqIndex(int interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * Builds the index for the specified fastq in a single pass.
+	 */
+	public static FastqIndex build(String fastq, int interval) throws IOException {
+		FastqIndex index = new FastqIndex(interval);
+		FastqByteReader reader = new FastqByteReader(fastq);
+		FastqByteRecord rec = new FastqByteRecord();
+
+		long count = 0;
+		while (reader.next(rec)) {
+			index.addRecord(count++, rec.getOffset());
+		}
+
+		reader.close();
+		index.complete(fastq, count);
+
+		return index;
+	}
+
+	/**
+	 * Loads the index for the specified fastq.  Returns null if there is no index
+	 * or the index is out of date.
+	 */
+	public static FastqIndex load(String fastq) throws IOException {
+		File indexFile = new File(getIndexFilename(fastq));
+		if (!indexFile.exists()) {
+			return null;
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Invalid fastq index: " + indexFile);
+			}
+
+			FastqIndex index = new FastqIndex(in.readInt());
+			index.fastqLength = in.readLong();
+			index.fastqLastModified = in.readLong();
+			index.numRecords = in.readLong();
+			index.numOffsets = in.readInt();
+			index.offsets = new long[index.numOffsets];
+			for (int i=0; i<index.numOffsets; i++) {
+				index.offsets[i] = in.readLong();
+			}
+
+			File fastqFile = new File(fastq);
+			if ((fastqFile.length() != index.fastqLength) || (fastqFile.lastModified() != index.fastqLastModified)) {
+				System.err.println("Ignoring out of date fastq index: " + indexFile);
+				return null;
+			}
+
+			return index;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Loads the index for the specified fastq, building and writing it if necessary.
+	 */
+	public static FastqIndex loadOrBuild(String fastq) throws IOException {
+		FastqIndex index = load(fastq);
+		if (index == null) {
+			index = build(fastq, DEFAULT_INTERVAL);
+			index.write(fastq);
+		}
+
+		return index;
+	}
+
+	public static String getIndexFilename(String fastq) {
+		return fastq + INDEX_SUFFIX;
+	}
+
+	/**
+	 * Writes the index to the sidecar file for the specified fastq.
+	 */
+	public void write(String fastq) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexFilename(fastq))));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(interval);
+			out.writeLong(fastqLength);
+			out.writeLong(fastqLastModified);
+			out.writeLong(numRecords);
+			out.writeInt(numOffsets);
+			for (int i=0; i<numOffsets; i++) {
+				out.writeLong(offsets[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Called for each record (0 based) in order while building.
+	 */
+	void addRecord(long recordIdx, long offset) {
+		if ((recordIdx % interval) == 0) {
+			if (numOffsets == offsets.length) {
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			}
+			offsets[numOffsets++] = offset;
+		}
+	}
+
+	/**
+	 * Called after the last record has been added.
+	 */
+	void complete(String fastq, long numRecords) {
+		File fastqFile = new File(fastq);
+		this.numRecords = numRecords;
+		this.fastqLength = fastqFile.length();
+		this.fastqLastModified = fastqFile.lastModified();
+		this.offsets = Arrays.copyOf(offsets, numOffsets);
+	}
+
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Returns the 0 based number of the closest indexed record at or before the specified record.
+	 */
+	public long getIndexedRecord(long recordIdx) {
+		return (recordIdx / interval) * interval;
+	}
+
+	/**
+	 * Returns the byte offset of the closest indexed record at or before the specified (0 based) record.
+	 */
+	public long getIndexedOffset(long recordIdx) {
+		if ((recordIdx < 0) || (recordIdx >= numRecords)) {
+			throw new IllegalArgumentException("Record index out of range: [" + recordIdx + "].  Num records: " + numRecords);
+		}
+
+		return offsets[(int) (recordIdx / interval)];
+	}
+
+	/**
+	 * Divides the fastq into at most the specified number of record aligned ranges of approximately
+	 * equal record count.  Ranges begin on indexed records.
+	 */
+	public FastqRange[] split(int parts) {
+		if (parts < 1) {
+			throw new IllegalArgumentException("Number of parts must be at least 1: [" + parts + "]");
+		}
+
+		int numParts = Math.max(1, Math.min(parts, numOffsets));
+		FastqRange[] ranges = new FastqRange[numParts];
+
+		for (int i=0; i<numParts; i++) {
+			int startOffsetIdx = (int) ((long) numOffsets * i / numParts);
+			int endOffsetIdx = (int) ((long) numOffsets * (i+1) / numParts);
+
+			long start = numOffsets == 0 ? 0 : offsets[startOffsetIdx];
+			long end = endOffsetIdx < numOffsets ? offsets[endOffsetIdx] : fastqLength;
+			long firstRecord = (long) startOffsetIdx * interval;
+			long lastRecord = endOffsetIdx < numOffsets ? (long) endOffsetIdx * interval : numRecords;
+
+			ranges[i] = new FastqRange(start, end, firstRecord, lastRecord - firstRecord);
+		}
+
+		return ranges;
+	}
+
+	public static void run(String[] args) throws IOException {
+		FastqIndexOptions options = new FastqIndexOptions();
+		options.parseOptions(args);
+
+		if (options.isValid()) {
+			long s = System.currentTimeMillis();
+
+			FastqIndex index = build(options.getInputFile(), options.getInterval());
+			index.write(options.getInputFile());
+
+			long e = System.currentTimeMillis();
+			System.out.println("Indexed " + index.getNumRecords() + " records.  Elapsed secs: " + (e-s)/1000);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package edu.unc.bioinf.ubu.fastq;
+
+import joptsimple.OptionParser;
+import edu.unc.bioinf.ubu.util.Options;
+
+/**
+ * Options parser for {@code FastqIndex}
+ * 
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class FastqIndexOptions extends Options {
+	
+	private static final String INPUT = "in";
+	private static final String INTERVAL = "interval";
+
+	private OptionParser parser;
+	private boolean isValid;
+	
+	@Override
+	protected OptionParser getOptionParser() {
+    	if (parser == null) {
+            parser = new OptionParser();
+            parser.accepts(INPUT, "Input (uncompressed) FASTQ file").withRequiredArg().ofType(String.class);
+            parser.accepts(INTERVAL, "Index the offset of every Nth record (default " + FastqIndex.DEFAULT_INTERVAL + ")").withRequiredArg().ofType(Integer.class);
+            parser.accepts(HELP, "Print this help message");
+    	}
+    	
+    	return parser;
+	}
+
+	@Override
+	protected void validate() {
+        isValid = true;
+        
+        if (!getOptions().hasArgument(INPUT)) {
+            isValid = false;
+            System.err.println("Missing required input FASTQ file");
+        }
+        
+        if (getInterval() < 1) {
+        	isValid = false;
+        	System.err.println(INTERVAL + " must be greater than zero");
+        }
+        
+        if (!isValid) {
+            printHelp();
+        }
+	}
+	
+	public String getInputFile() {
+		return (String) getOptions().valueOf(INPUT);
+	}
+	
+	public int getInterval() {
+		int interval = FastqIndex.DEFAULT_INTERVAL;
+		if (getOptions().hasArgument(INTERVAL)) {
+			interval = (Integer) getOptions().valueOf(INTERVAL);
+		}
+		
+		return interval;
+	}
+	
+    public boolean isValid() {
+        return isValid;
+    }
+}
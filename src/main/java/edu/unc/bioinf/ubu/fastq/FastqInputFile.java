@@ -1,8 +1,7 @@
 package edu.unc.bioinf.ubu.fastq;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
@@ -12,20 +11,33 @@ import edu.unc.bioinf.ubu.util.QualityConverter;
 /**
  * Handles reading FastqRecords from file.
  * 
+ * Supports random access by record number and division into byte ranges via
+ * a sidecar {@code FastqIndex}.  The index is built on demand, or optionally
+ * while the file is first scanned sequentially.
+ * 
  * @author Lisle Mose (lmose at unc dot edu)
  */
 public class FastqInputFile {
     
     private static final int CACHING_DISABLED = -1;
     
-    private BufferedReader reader;
+    private String filename;
+    private FastqByteReader reader;
+    private FastqByteRecord byteRecord = new FastqByteRecord();
     private Map<Integer, FastqRecord> records = new HashMap<Integer, FastqRecord>();
     private int recordNum = 0;
     private int maxCachedLines;
     private QualityConverter qualityConverter = new QualityConverter();
     
+    private FastqIndex index;
+    private FastqIndex indexBuilder;
+    // 0 based number of the next record to be read.  FastqRange.UNKNOWN if reading an un-indexed range.
+    private long nextRecordIdx = 0;
+    // True if the reader was opened on the whole file rather than a byte range
+    private boolean isWholeFile;
+    
     public void init(String filename, int maxCachedLines) throws FileNotFoundException {
-        openFile(filename);
+        openFile(filename, 0, Long.MAX_VALUE);
         this.maxCachedLines = maxCachedLines;
     }
     
@@ -33,26 +45,127 @@ public class FastqInputFile {
         init(filename, CACHING_DISABLED);
     }
     
-    private void openFile(String filename) throws FileNotFoundException {
-        reader = new BufferedReader(new FileReader(filename));
+    /**
+     * Reads only the records within the specified range.  See {@code split}
+     */
+    public void init(String filename, FastqRange range) throws FileNotFoundException {
+        openFile(filename, range.getStart(), range.getEnd());
+        this.maxCachedLines = CACHING_DISABLED;
+        this.nextRecordIdx = range.getFirstRecord();
+    }
+    
+    private void openFile(String filename, long start, long end) throws FileNotFoundException {
+        this.filename = filename;
+        this.isWholeFile = (start == 0) && (end == Long.MAX_VALUE);
+        try {
+            reader = new FastqByteReader(filename, start, end);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            FileNotFoundException fnfe = new FileNotFoundException("Unable to open: " + filename);
+            fnfe.initCause(e);
+            throw fnfe;
+        }
     }
 
     public FastqRecord getNextRecord() throws IOException {
-        String[] lines = new String[FastqRecord.NUM_LINES];
+        if (!reader.next(byteRecord)) {
+            completeIndex();
+            return null;
+        }
         
-        for (int i=0; i<4; i++) {
-            String line = reader.readLine();
-            if (line == null) {
-                return null;
-            }
-            lines[i] = line;
+        if (indexBuilder != null) {
+            indexBuilder.addRecord(nextRecordIdx, byteRecord.getOffset());
+        }
+        
+        if (nextRecordIdx != FastqRange.UNKNOWN) {
+            nextRecordIdx++;
         }
         
-        FastqRecord fastqRecord = new FastqRecord(lines);
+        FastqRecord fastqRecord = byteRecord.toFastqRecord();
         fastqRecord.setQualityConverter(qualityConverter);
         return fastqRecord;
     }
     
+    /**
+     * Build the index while reading sequentially from the start of the file.
+     * The index is written when the end of the file is reached.  Not supported when
+     * reading a range, as the index would cover only the range.
+     */
+    public void enableIndexing() {
+        if (!isWholeFile) {
+            throw new IllegalStateException("Indexing requires reading the whole file: " + filename);
+        }
+        
+        if (nextRecordIdx != 0) {
+            throw new IllegalStateException("Indexing must be enabled prior to reading.");
+        }
+        
+        indexBuilder = new FastqIndex(FastqIndex.DEFAULT_INTERVAL);
+    }
+    
+    private void completeIndex() throws IOException {
+        if (indexBuilder != null) {
+            indexBuilder.complete(filename, nextRecordIdx);
+            indexBuilder.write(filename);
+            index = indexBuilder;
+            indexBuilder = null;
+        }
+    }
+    
+    /**
+     * Returns the index for this file, loading or building it if necessary.
+     */
+    public FastqIndex getIndex() throws IOException {
+        if (index == null) {
+            index = FastqIndex.loadOrBuild(filename);
+        }
+        
+        return index;
+    }
+    
+    /**
+     * Positions the file such that the next call to getNextRecord returns the specified record.
+     * As with getRecord, the record number is 1 based.  Any cached records are discarded.
+     */
+    public void seekToRecord(long recordNum) throws IOException {
+        if (recordNum < 1) {
+            throw new IllegalArgumentException("Read index cannot be less than 1.  Index: [" + recordNum + "]");
+        }
+        
+        FastqIndex index = getIndex();
+        long recordIdx = recordNum - 1;
+        
+        reader.close();
+        indexBuilder = null;
+        records.clear();
+        
+        if (recordIdx >= index.getNumRecords()) {
+            // Position at end of file
+            long length = new File(filename).length();
+            openFile(filename, length, length);
+            nextRecordIdx = index.getNumRecords();
+        } else {
+            openFile(filename, index.getIndexedOffset(recordIdx), Long.MAX_VALUE);
+            nextRecordIdx = index.getIndexedRecord(recordIdx);
+            
+            while (nextRecordIdx < recordIdx) {
+                reader.next(byteRecord);
+                nextRecordIdx++;
+            }
+        }
+        
+        this.recordNum = (int) Math.min(Integer.MAX_VALUE, recordIdx);
+    }
+    
+    /**
+     * Divides this file into at most the specified number of record aligned byte ranges
+     * which may be read independently via {@code init(String, FastqRange)}.
+     */
+    public FastqRange[] split(int parts) throws IOException {
+        return getIndex().split(parts);
+    }
+    
     /**
      *  Retrieves the record 
      */
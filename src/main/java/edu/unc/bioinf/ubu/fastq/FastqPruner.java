@@ -3,8 +3,6 @@ package edu.unc.bioinf.ubu.fastq;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
 
 import net.sf.samtools.SAMFileReader;
 import net.sf.samtools.SAMFileReader.ValidationStringency;
@@ -12,10 +10,13 @@ import net.sf.samtools.SAMRecord;
 
 public class FastqPruner {
 	
-	private Set<String> readsToFilter = new HashSet<String>();
+	private ReadNameIndex readsToFilter;
+	private boolean isExact = false;
 
 	public void prune(String inputSam, String inFastq1, String inFastq2, String outFastq1, String outFastq2, int bit, String tag) 
-		throws FileNotFoundException, IOException {
+		throws FileNotFoundException, IOException, InterruptedException {
+		
+		readsToFilter = new ReadNameIndex(isExact);
 		
         SAMFileReader reader = new SAMFileReader(new File(inputSam));
         reader.setValidationStringency(ValidationStringency.SILENT);
@@ -25,34 +26,47 @@ public class FastqPruner {
         for (SAMRecord read : reader) {
         	if (bit > 0) {
 	        	if ((read.getFlags() & bit) == bit) {
-	        		readsToFilter.add("@" + getBaseId(read.getReadName()));
+	        		readsToFilter.add(read.getReadName());
 	        	}
         	}
         	
         	if (tag != null) {
         		if (read.getAttribute(tag) != null) {
-        			readsToFilter.add("@" + getBaseId(read.getReadName()));
+        			readsToFilter.add(read.getReadName());
         		}
         	}
         }
         
+        reader.close();
+        
+        readsToFilter.freeze();
+        
         System.out.println("Filter size: " + readsToFilter.size());
+        System.out.println("Filter bytes: " + readsToFilter.getMemoryUsage());
         
-        reader.close();
+        // The 2 fastq files are independent, so prune them concurrently.
+        System.out.println("Pruning " + inFastq1 + " and " + inFastq2);
+        FastqPrunerRunnable runnable1 = new FastqPrunerRunnable(this, inFastq1, outFastq1);
+        Thread thread1 = new Thread(runnable1);
+        thread1.start();
+        
+        FastqPrunerRunnable runnable2 = new FastqPrunerRunnable(this, inFastq2, outFastq2);
+        Thread thread2 = new Thread(runnable2);
+        thread2.start();
         
-        System.out.println("Pruning " + inFastq1);
-        int count1 = prune(inFastq1, outFastq1);
+        thread1.join();
+        thread2.join();
         
-        System.out.println("Pruning " + inFastq2);
-        int count2 = prune(inFastq2, outFastq2);
+        runnable1.checkError();
+        runnable2.checkError();
         
-        System.out.println("Num records written to " + outFastq1 + " : " + count1);
-        System.out.println("Num records written to " + outFastq2 + " : " + count2);
+        System.out.println("Num records written to " + outFastq1 + " : " + runnable1.getCount());
+        System.out.println("Num records written to " + outFastq2 + " : " + runnable2.getCount());
         
         System.out.println("Done.");
 	}
 	
-	private int prune(String inFastq, String outFastq) throws FileNotFoundException, IOException {
+	int prune(String inFastq, String outFastq) throws FileNotFoundException, IOException {
         FastqInputFile in = new FastqInputFile();
         in.init(inFastq);
         
@@ -64,7 +78,7 @@ public class FastqPruner {
         FastqRecord rec = in.getNextRecord();
         
         while (rec != null) {
-        	if (!readsToFilter.contains((rec.getBaseId()))) {
+        	if (!readsToFilter.containsFastqId(rec.getId())) {
         		out.write(rec);
         		count += 1;
         	}
@@ -78,27 +92,14 @@ public class FastqPruner {
         return count;
 	}
 	
-	// TODO: dupe of FastqRecord.getBaseId
-    private String getBaseId(String id) {
-        int slashIdx = id.indexOf("/");
-        int spaceIdx = id.indexOf(" ");
-        
-        if ((slashIdx == -1) && (spaceIdx == -1)) {
-            return id;
-        }
-        
-        int idx = -1;
-        if (slashIdx == -1) {
-            idx = spaceIdx;
-        } else if (spaceIdx == -1) {
-            idx = slashIdx;
-        } else {
-            idx = spaceIdx < slashIdx ? spaceIdx : slashIdx;
-        }
-        
-        return id.substring(0, idx);
-    }
-    
+	/**
+	 * If true, read names are verified exactly on a hash match, guarding against hash collisions
+	 * at the cost of retaining the read names in memory.
+	 */
+	public void setExact(boolean isExact) {
+		this.isExact = isExact;
+	}
+	
     public static void main(String[] args) throws Exception {
     	String inputSam  = args[0];
     	String inFastq1  = args[1];
@@ -107,8 +108,13 @@ public class FastqPruner {
     	String outFastq2 = args[4];
     	int bit          = Integer.parseInt(args[5]);
     	String tag = null;
-    	if (args.length == 7) {
-    		tag = args[6];
+    	boolean isExact = false;
+    	for (int i=6; i<args.length; i++) {
+    		if (args[i].equals("--exact")) {
+    			isExact = true;
+    		} else {
+    			tag = args[i];
+    		}
     	}
     	
 //    	String inputSam  = "/home/lisle/sam2fastq/prune/prune.sam";
@@ -121,7 +127,9 @@ public class FastqPruner {
     	
     	long s = System.currentTimeMillis();
     	
-    	new FastqPruner().prune(inputSam, inFastq1, inFastq2, outFastq1, outFastq2, bit, tag);
+    	FastqPruner pruner = new FastqPruner();
+    	pruner.setExact(isExact);
+    	pruner.prune(inputSam, inFastq1, inFastq2, outFastq1, outFastq2, bit, tag);
     	
     	long e = System.currentTimeMillis();
     	
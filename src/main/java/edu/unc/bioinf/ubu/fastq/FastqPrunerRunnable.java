@@ -0,0 +1,49 @@
+package edu.unc.bioinf.ubu.fastq;
+
+import java.io.IOException;
+
+/**
+ * Prunes a single fastq file on its own thread.
+ * 
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class FastqPrunerRunnable implements Runnable {
+	
+	private FastqPruner pruner;
+	private String inFastq;
+	private String outFastq;
+	private int count;
+	private volatile Exception error;
+	
+	public FastqPrunerRunnable(FastqPruner pruner, String inFastq, String outFastq) {
+		this.pruner = pruner;
+		this.inFastq = inFastq;
+		this.outFastq = outFastq;
+	}
+
+	@Override
+	public void run() {
+		try {
+			count = pruner.prune(inFastq, outFastq);
+		} catch (Exception e) {
+			error = e;
+		}
+	}
+	
+	/**
+	 * Re-throws any exception encountered while pruning.  Call after the thread has been joined.
+	 */
+	public void checkError() throws IOException {
+		if (error instanceof IOException) {
+			throw (IOException) error;
+		} else if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error != null) {
+			throw new IOException("Error pruning: " + inFastq, error);
+		}
+	}
+	
+	public int getCount() {
+		return count;
+	}
+}
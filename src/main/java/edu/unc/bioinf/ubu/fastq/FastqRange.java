@@ -0,0 +1,55 @@
+package edu.unc.bioinf.ubu.fastq;
+
+/**
+ * A record aligned byte range within a fastq file.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class FastqRange {
+
+	public static final long UNKNOWN = -1;
+
+	private long start;
+	private long end;
+	private long firstRecord;
+	private long numRecords;
+
+	public FastqRange(long start, long end, long firstRecord, long numRecords) {
+		this.start = start;
+		this.end = end;
+		this.firstRecord = firstRecord;
+		this.numRecords = numRecords;
+	}
+
+	/**
+	 * Byte offset of the first record in the range.
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Byte offset following the last record in the range (exclusive).
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * 0 based number of the first record in the range, or UNKNOWN if the range was not derived from an index.
+	 */
+	public long getFirstRecord() {
+		return firstRecord;
+	}
+
+	/**
+	 * Number of records in the range, or UNKNOWN if the range was not derived from an index.
+	 */
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	public String toString() {
+		return "[" + start + "," + end + ") records: " + firstRecord + " + " + numRecords;
+	}
+}
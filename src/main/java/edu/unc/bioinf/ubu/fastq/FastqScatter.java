@@ -0,0 +1,362 @@
+package edu.unc.bioinf.ubu.fastq;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scatters a single fastq file into multiple chunk files for parallel downstream processing.
+ * <p>
+ * Chunks may be defined by record count, by approximate byte size or by N-way round robin.
+ * Optionally, concatenated paired end reads are split at a configurable position,
+ * producing an end 1 and end 2 file per chunk.
+ * <p>
+ * Record count and round robin modes use a single reader feeding per output writer threads.
+ * Byte size mode locates chunk boundaries by seeking to the next record start, so each chunk
+ * is read and written independently in parallel.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class FastqScatter {
+
+	public static final int SPLIT_AT_HALF = -1;
+
+	private static final int BATCH_SIZE = 1 << 20;
+	private static final byte[] END1_SUFFIX = "/1".getBytes();
+	private static final byte[] END2_SUFFIX = "/2".getBytes();
+
+	private boolean isPaired = false;
+	private int splitPosition = SPLIT_AT_HALF;
+	private boolean isCompressed = false;
+	private int numThreads = 1;
+
+	/**
+	 * Writes every recordsPerChunk records to a new chunk.
+	 */
+	public void splitByRecords(String input, String outputPrefix, long recordsPerChunk) throws IOException, InterruptedException {
+		FastqByteReader reader = new FastqByteReader(input);
+		FastqByteRecord rec = new FastqByteRecord();
+
+		int chunk = 0;
+		long total = 0;
+		List<ChunkOutput> outputs = new ArrayList<ChunkOutput>();
+		ChunkOutput output = null;
+		boolean isComplete = false;
+
+		try {
+			while (reader.next(rec)) {
+				if ((output == null) || (output.getNumRecords() == recordsPerChunk)) {
+					if (output != null) {
+						// Writer completes in the background while the next chunk is read.
+						output.flush();
+						output.endInput();
+					}
+					output = new ChunkOutput(outputPrefix, chunk++);
+					outputs.add(output);
+				}
+
+				output.add(rec);
+				total += 1;
+			}
+
+			if (output != null) {
+				output.flush();
+				output.endInput();
+			}
+
+			for (ChunkOutput out : outputs) {
+				out.awaitCompletion();
+			}
+
+			isComplete = true;
+		} finally {
+			reader.close();
+
+			if (!isComplete) {
+				abort(outputs);
+			}
+		}
+
+		System.out.println("Wrote " + total + " records to " + chunk + " chunks.");
+	}
+
+	/**
+	 * Writes record i to output (i % numOutputs).
+	 */
+	public void splitRoundRobin(String input, String outputPrefix, int numOutputs) throws IOException, InterruptedException {
+		FastqByteReader reader = new FastqByteReader(input);
+		FastqByteRecord rec = new FastqByteRecord();
+
+		List<ChunkOutput> outputs = new ArrayList<ChunkOutput>();
+		long total = 0;
+		boolean isComplete = false;
+
+		try {
+			for (int i=0; i<numOutputs; i++) {
+				outputs.add(new ChunkOutput(outputPrefix, i));
+			}
+
+			while (reader.next(rec)) {
+				outputs.get((int) (total % numOutputs)).add(rec);
+				total += 1;
+			}
+
+			for (ChunkOutput output : outputs) {
+				output.flush();
+				output.endInput();
+			}
+
+			for (ChunkOutput output : outputs) {
+				output.awaitCompletion();
+			}
+
+			isComplete = true;
+		} finally {
+			reader.close();
+
+			if (!isComplete) {
+				abort(outputs);
+			}
+		}
+
+		System.out.println("Wrote " + total + " records to " + numOutputs + " outputs.");
+	}
+
+	/**
+	 * Writes chunks of approximately bytesPerChunk input bytes.
+	 * Chunks are processed in parallel using up to numThreads threads.
+	 */
+	public void splitByBytes(String input, String outputPrefix, long bytesPerChunk) throws IOException, InterruptedException {
+		List<Long> boundaries = getChunkBoundaries(input, bytesPerChunk);
+		int numChunks = boundaries.size() - 1;
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+
+		for (int i=0; i<numChunks; i++) {
+			results.add(executor.submit(
+					new ByteRangeTask(input, outputPrefix, i, boundaries.get(i), boundaries.get(i+1))));
+		}
+
+		executor.shutdown();
+
+		long total = 0;
+		try {
+			for (Future<Long> result : results) {
+				total += result.get();
+			}
+		} catch (ExecutionException e) {
+			executor.shutdownNow();
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+
+		System.out.println("Wrote " + total + " records to " + numChunks + " chunks.");
+	}
+
+	/**
+	 * Stops the writer threads of all outputs following a failure.
+	 */
+	private void abort(List<ChunkOutput> outputs) {
+		for (ChunkOutput output : outputs) {
+			output.abort();
+		}
+	}
+
+	/**
+	 * Returns the record aligned start offsets of each chunk, followed by the file length.
+	 */
+	static List<Long> getChunkBoundaries(String input, long bytesPerChunk) throws IOException {
+		List<Long> boundaries = new ArrayList<Long>();
+
+		RandomAccessFile file = new RandomAccessFile(input, "r");
+		try {
+			long length = file.length();
+			long last = -1;
+
+			for (long offset = 0; offset < length; offset += bytesPerChunk) {
+				long start = FastqByteReader.findRecordStart(file, offset);
+				// Very long records may cause multiple seeks to resolve to the same record
+				if ((start > last) && (start < length)) {
+					boundaries.add(start);
+					last = start;
+				}
+			}
+
+			boundaries.add(length);
+		} finally {
+			file.close();
+		}
+
+		return boundaries;
+	}
+
+	String getOutputFilename(String outputPrefix, int chunk, int end) {
+		StringBuffer name = new StringBuffer(outputPrefix);
+		name.append('.');
+		name.append(String.format("%03d", chunk));
+		if (isPaired) {
+			name.append('_');
+			name.append(end);
+		}
+		name.append(".fastq");
+		if (isCompressed) {
+			name.append(".gz");
+		}
+
+		return name.toString();
+	}
+
+	/**
+	 * Split concatenated reads into an end 1 and end 2 output.
+	 */
+	public void setPaired(boolean isPaired) {
+		this.isPaired = isPaired;
+	}
+
+	/**
+	 * Number of bases assigned to end 1 when splitting concatenated reads.
+	 * Defaults to half of the read length.
+	 */
+	public void setSplitPosition(int splitPosition) {
+		this.splitPosition = splitPosition;
+	}
+
+	public void setCompressed(boolean isCompressed) {
+		this.isCompressed = isCompressed;
+	}
+
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Writes all records starting within a byte range to a single chunk.
+	 */
+	private class ByteRangeTask implements Callable<Long> {
+
+		private String input;
+		private String outputPrefix;
+		private int chunk;
+		private long start;
+		private long end;
+
+		ByteRangeTask(String input, String outputPrefix, int chunk, long start, long end) {
+			this.input = input;
+			this.outputPrefix = outputPrefix;
+			this.chunk = chunk;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Long call() throws IOException, InterruptedException {
+			FastqByteReader reader = new FastqByteReader(input, start, end);
+			FastqByteRecord rec = new FastqByteRecord();
+			List<ChunkOutput> outputs = new ArrayList<ChunkOutput>(1);
+			boolean isComplete = false;
+
+			try {
+				ChunkOutput output = new ChunkOutput(outputPrefix, chunk);
+				outputs.add(output);
+
+				while (reader.next(rec)) {
+					output.add(rec);
+				}
+
+				output.flush();
+				output.endInput();
+				output.awaitCompletion();
+
+				isComplete = true;
+
+				return output.getNumRecords();
+			} finally {
+				reader.close();
+
+				if (!isComplete) {
+					abort(outputs);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A single chunk's output file(s) with the batches currently being filled.
+	 */
+	private class ChunkOutput {
+
+		private FastqChunkWriter[] writers;
+		private ByteArrayOutputStream[] batches;
+		private long numRecords = 0;
+
+		ChunkOutput(String outputPrefix, int chunk) {
+			int numEnds = isPaired ? 2 : 1;
+			writers = new FastqChunkWriter[numEnds];
+			batches = new ByteArrayOutputStream[numEnds];
+
+			for (int i=0; i<numEnds; i++) {
+				writers[i] = new FastqChunkWriter(getOutputFilename(outputPrefix, chunk, i+1), isCompressed);
+				writers[i].start();
+				batches[i] = new ByteArrayOutputStream(BATCH_SIZE + (BATCH_SIZE >> 2));
+			}
+		}
+
+		void add(FastqByteRecord rec) throws IOException, InterruptedException {
+			if (isPaired) {
+				int len = rec.getLength(1);
+				int pos = splitPosition == SPLIT_AT_HALF ? len/2 : Math.min(splitPosition, len);
+				rec.writeTo(batches[0], 0, pos, END1_SUFFIX);
+				rec.writeTo(batches[1], pos, len, END2_SUFFIX);
+			} else {
+				rec.writeTo(batches[0]);
+			}
+
+			numRecords += 1;
+
+			if (batches[0].size() >= BATCH_SIZE) {
+				flush();
+			}
+		}
+
+		void flush() throws IOException, InterruptedException {
+			for (int i=0; i<writers.length; i++) {
+				if (batches[i].size() > 0) {
+					writers[i].write(batches[i].toByteArray());
+					batches[i].reset();
+				}
+			}
+		}
+
+		void endInput() throws IOException, InterruptedException {
+			for (FastqChunkWriter writer : writers) {
+				writer.endInput();
+			}
+		}
+
+		void awaitCompletion() throws IOException, InterruptedException {
+			for (FastqChunkWriter writer : writers) {
+				writer.awaitCompletion();
+			}
+		}
+
+		void abort() {
+			for (FastqChunkWriter writer : writers) {
+				writer.abort();
+			}
+		}
+
+		long getNumRecords() {
+			return numRecords;
+		}
+	}
+}
@@ -1,42 +1,38 @@
 package edu.unc.bioinf.ubu.fastq;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * Splits a single fastq file containing concatenated paired end reads
  * into 2 fastq files.
  * 
+ * Alternatively scatters a single fastq file into multiple chunk files.
+ * See {@code FastqScatter}
+ * 
  * @author Lisle Mose (lmose at unc dot edu)
  */
 public class FastqSplitter {
 	
+	private static final byte[] END1_SUFFIX = "/1".getBytes();
+	private static final byte[] END2_SUFFIX = "/2".getBytes();
+	
+	private int splitPosition = FastqScatter.SPLIT_AT_HALF;
+	private boolean isCompressed = false;
+	
 	public void split(String input, String output1, String output2) throws IOException {
-	    FastqInputFile in = new FastqInputFile();
-	    FastqOutputFile out1 = new FastqOutputFile();
-	    FastqOutputFile out2 = new FastqOutputFile();
+	    FastqByteReader in = new FastqByteReader(input);
+	    OutputStream out1 = FastqChunkWriter.openOutput(output1, isCompressed);
+	    OutputStream out2 = FastqChunkWriter.openOutput(output2, isCompressed);
 	    
-	    in.init(input);
-	    out1.init(output1);
-	    out2.init(output2);
+	    FastqByteRecord rec = new FastqByteRecord();
 	    
-	    FastqRecord rec = in.getNextRecord();
-	    
-	    while (rec != null) {
-	    	int len = rec.getSequence().length();
-	    	
-	    	String id1 = rec.getId() + "/1";
-	    	String bases1 = rec.getSequence().substring(0, len/2);
-	    	String qualities1 = rec.getQuality().substring(0, len/2);
-	    	FastqRecord outRec1 = new FastqRecord(id1, bases1, qualities1);
-	    	out1.write(outRec1);
+	    while (in.next(rec)) {
+	    	int len = rec.getLength(1);
+	    	int pos = splitPosition == FastqScatter.SPLIT_AT_HALF ? len/2 : Math.min(splitPosition, len);
 	    	
-	    	String id2 = rec.getId() + "/2";
-	    	String bases2 = rec.getSequence().substring(len/2, len);
-	    	String qualities2 = rec.getQuality().substring(len/2, len);
-	    	FastqRecord outRec2 = new FastqRecord(id2, bases2, qualities2);
-	    	out2.write(outRec2);
-	    	
-	    	rec = in.getNextRecord();
+	    	rec.writeTo(out1, 0, pos, END1_SUFFIX);
+	    	rec.writeTo(out2, pos, len, END2_SUFFIX);
 	    }
 	    
 	    in.close();
@@ -44,14 +40,48 @@ public class FastqSplitter {
 	    out2.close();
 	}
 	
-	public static void run(String[] args) throws IOException {
+	/**
+	 * Number of bases assigned to end 1.  Defaults to half of the read length.
+	 */
+	public void setSplitPosition(int splitPosition) {
+		this.splitPosition = splitPosition;
+	}
+	
+	public void setCompressed(boolean isCompressed) {
+		this.isCompressed = isCompressed;
+	}
+	
+	public static void run(String[] args) throws IOException, InterruptedException {
 		FastqSplitterOptions options = new FastqSplitterOptions();
 		options.parseOptions(args);
 		
 		if (options.isValid()) {
-			FastqSplitter splitter = new FastqSplitter();
-		    
-			splitter.split(options.getInputFile(), options.getOutputFile1(), options.getOutputFile2());
+			long s = System.currentTimeMillis();
+			
+			if (options.isScatter()) {
+				FastqScatter scatter = new FastqScatter();
+				scatter.setPaired(options.isPaired());
+				scatter.setSplitPosition(options.getSplitPosition());
+				scatter.setCompressed(options.isCompressed());
+				scatter.setNumThreads(options.getNumThreads());
+				
+				if (options.hasChunkRecords()) {
+					scatter.splitByRecords(options.getInputFile(), options.getOutputPrefix(), options.getChunkRecords());
+				} else if (options.hasChunkBytes()) {
+					scatter.splitByBytes(options.getInputFile(), options.getOutputPrefix(), options.getChunkBytes());
+				} else {
+					scatter.splitRoundRobin(options.getInputFile(), options.getOutputPrefix(), options.getNumOutputs());
+				}
+			} else {
+				FastqSplitter splitter = new FastqSplitter();
+				splitter.setSplitPosition(options.getSplitPosition());
+				splitter.setCompressed(options.isCompressed());
+			    
+				splitter.split(options.getInputFile(), options.getOutputFile1(), options.getOutputFile2());
+			}
+			
+			long e = System.currentTimeMillis();
+			System.out.println("fastq-split done.  Elapsed secs: " + (e-s)/1000);
 		}
 	}
 }
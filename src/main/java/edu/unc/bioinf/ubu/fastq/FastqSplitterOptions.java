@@ -4,7 +4,7 @@ import joptsimple.OptionParser;
 import edu.unc.bioinf.ubu.util.Options;
 
 /**
- * Options parser for {@code FastqMapsplicePrep}
+ * Options parser for {@code FastqSplitter}
  * 
  * @author Lisle Mose (lmose at unc dot edu)
  */
@@ -13,6 +13,14 @@ public class FastqSplitterOptions extends Options {
 	private static final String INPUT = "in";
 	private static final String OUTPUT1 = "out1";
 	private static final String OUTPUT2 = "out2";
+	private static final String OUTPUT_PREFIX = "prefix";
+	private static final String CHUNK_RECORDS = "records";
+	private static final String CHUNK_BYTES = "bytes";
+	private static final String NUM_OUTPUTS = "outputs";
+	private static final String PAIRED = "paired";
+	private static final String SPLIT_POSITION = "split-pos";
+	private static final String GZIP = "gzip";
+	private static final String NUM_THREADS = "threads";
 
 	private OptionParser parser;
 	private boolean isValid;
@@ -24,6 +32,14 @@ public class FastqSplitterOptions extends Options {
             parser.accepts(INPUT, "Input FASTQ file").withRequiredArg().ofType(String.class);
             parser.accepts(OUTPUT1, "Output FASTQ file 1").withRequiredArg().ofType(String.class);
             parser.accepts(OUTPUT2, "Output FASTQ file 2").withRequiredArg().ofType(String.class);
+            parser.accepts(OUTPUT_PREFIX, "Output prefix for scattering into chunk files (i.e. prefix.000.fastq)").withRequiredArg().ofType(String.class);
+            parser.accepts(CHUNK_RECORDS, "Scatter into chunks of this many records").withRequiredArg().ofType(Long.class);
+            parser.accepts(CHUNK_BYTES, "Scatter into chunks of approximately this many input bytes (chunks processed in parallel)").withRequiredArg().ofType(Long.class);
+            parser.accepts(NUM_OUTPUTS, "Scatter round robin into this many outputs").withRequiredArg().ofType(Integer.class);
+            parser.accepts(PAIRED, "When scattering, split concatenated paired end reads into end 1 and end 2 chunk files");
+            parser.accepts(SPLIT_POSITION, "Number of bases assigned to end 1 when splitting concatenated reads (default: half of read length)").withRequiredArg().ofType(Integer.class);
+            parser.accepts(GZIP, "Compress output files");
+            parser.accepts(NUM_THREADS, "Number of threads used when scattering by bytes (default 1)").withRequiredArg().ofType(Integer.class);
             parser.accepts(HELP, "Print this help message");
     	}
     	
@@ -39,14 +55,51 @@ public class FastqSplitterOptions extends Options {
             System.err.println("Missing required input FASTQ file");
         }
         
-        if (!getOptions().hasArgument(OUTPUT1)) {
-            isValid = false;
-            System.err.println("Missing required output FASTQ file 1");
+        if (isScatter()) {
+        	int numModes = 0;
+        	numModes += hasChunkRecords() ? 1 : 0;
+        	numModes += hasChunkBytes() ? 1 : 0;
+        	numModes += getOptions().hasArgument(NUM_OUTPUTS) ? 1 : 0;
+        	
+        	if (numModes != 1) {
+        		isValid = false;
+        		System.err.println("Please specify exactly one of " + CHUNK_RECORDS + ", " + CHUNK_BYTES + " or " + NUM_OUTPUTS);
+        	}
+        	
+        	if ((hasChunkRecords()) && (getChunkRecords() < 1)) {
+        		isValid = false;
+        		System.err.println(CHUNK_RECORDS + " must be greater than zero");
+        	}
+        	
+        	if ((hasChunkBytes()) && (getChunkBytes() < 1)) {
+        		isValid = false;
+        		System.err.println(CHUNK_BYTES + " must be greater than zero");
+        	}
+        	
+        	if ((getOptions().hasArgument(NUM_OUTPUTS)) && (getNumOutputs() < 1)) {
+        		isValid = false;
+        		System.err.println(NUM_OUTPUTS + " must be greater than zero");
+        	}
+        } else {
+	        if (!getOptions().hasArgument(OUTPUT1)) {
+	            isValid = false;
+	            System.err.println("Missing required output FASTQ file 1");
+	        }
+	        
+	        if (!getOptions().hasArgument(OUTPUT2)) {
+	            isValid = false;
+	            System.err.println("Missing required output FASTQ file 2");
+	        }
         }
         
-        if (!getOptions().hasArgument(OUTPUT2)) {
-            isValid = false;
-            System.err.println("Missing required output FASTQ file 2");
+        if ((getOptions().hasArgument(SPLIT_POSITION)) && (getSplitPosition() < 0)) {
+        	isValid = false;
+        	System.err.println(SPLIT_POSITION + " cannot be negative");
+        }
+        
+        if (getNumThreads() < 1) {
+        	isValid = false;
+        	System.err.println(NUM_THREADS + " must be greater than zero");
         }
         
         if (!isValid) {
@@ -66,6 +119,60 @@ public class FastqSplitterOptions extends Options {
 		return (String) getOptions().valueOf(OUTPUT2);
 	}
 	
+	public boolean isScatter() {
+		return getOptions().hasArgument(OUTPUT_PREFIX);
+	}
+	
+	public String getOutputPrefix() {
+		return (String) getOptions().valueOf(OUTPUT_PREFIX);
+	}
+	
+	public boolean hasChunkRecords() {
+		return getOptions().hasArgument(CHUNK_RECORDS);
+	}
+	
+	public long getChunkRecords() {
+		return (Long) getOptions().valueOf(CHUNK_RECORDS);
+	}
+	
+	public boolean hasChunkBytes() {
+		return getOptions().hasArgument(CHUNK_BYTES);
+	}
+	
+	public long getChunkBytes() {
+		return (Long) getOptions().valueOf(CHUNK_BYTES);
+	}
+	
+	public int getNumOutputs() {
+		return (Integer) getOptions().valueOf(NUM_OUTPUTS);
+	}
+	
+	public boolean isPaired() {
+		return getOptions().has(PAIRED);
+	}
+	
+	public int getSplitPosition() {
+		int pos = FastqScatter.SPLIT_AT_HALF;
+		if (getOptions().hasArgument(SPLIT_POSITION)) {
+			pos = (Integer) getOptions().valueOf(SPLIT_POSITION);
+		}
+		
+		return pos;
+	}
+	
+	public boolean isCompressed() {
+		return getOptions().has(GZIP);
+	}
+	
+	public int getNumThreads() {
+		int threads = 1;
+		if (getOptions().hasArgument(NUM_THREADS)) {
+			threads = (Integer) getOptions().valueOf(NUM_THREADS);
+		}
+		
+		return threads;
+	}
+	
     public boolean isValid() {
         return isValid;
     }
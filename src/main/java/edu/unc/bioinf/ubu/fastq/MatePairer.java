@@ -0,0 +1,392 @@
+package edu.unc.bioinf.ubu.fastq;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Pairs formatted fastq mates arriving in arbitrary order (i.e. from a coordinate sorted BAM)
+ * and writes each pair to the end 1 and end 2 outputs as soon as both mates are seen.
+ * <p>
+ * Records of a read name are paired in arrival order.  A record pairs with the pending
+ * record of the other end.  A record of the same end as the pending record is a duplicate
+ * and is discarded.  A record arriving after its name was paired is pending again, so a third
+ * record is an orphan unless a record of the other end follows it.  Records still pending at
+ * {@code finish} are orphans.
+ * <p>
+ * Unmatched mates are held in memory keyed by read name.  When the memory budget is exceeded,
+ * pending mates are spilled to temp files partitioned by read name hash, and the spilled names
+ * are added to a bloom filter.  Later records of a possibly spilled name are appended to its
+ * partition rather than paired in memory, so each name's records are paired in arrival order
+ * whether or not they were spilled.  The filter takes up to 1/8 of the memory budget.
+ * <p>
+ * Spilled mates are paired partition by partition when {@code finish} is called.  A partition
+ * that may not fit in the memory budget is first split into smaller partitions.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class MatePairer {
+
+	// Rough per entry overhead of the HashMap entry, key String and value
+	private static final int ENTRY_OVERHEAD = 96;
+	private static final int DEFAULT_NUM_PARTITIONS = 64;
+
+	// Bounds the recursion when splitting partitions that are too large, i.e. due to many duplicates
+	private static final int MAX_PARTITION_LEVELS = 4;
+
+	private static final long MAX_FILTER_BITS = 1L << 30;
+
+	// Hash seeds for each partition level and the spilled name filter
+	private static final int LEVEL_SEED = 0x9e3779b9;
+	private static final int FILTER_SEED1 = 0x7f4a7c15;
+	private static final int FILTER_SEED2 = 0x1b873593;
+
+	private Map<String, PendingMate> pending = new HashMap<String, PendingMate>();
+	private long pendingBytes = 0;
+	private long maxBytes;
+	private long maxPendingBytes;
+
+	private File tempDir;
+	private int numPartitions;
+	private File[] partitionFiles;
+	private DataOutputStream[] partitionOutputs;
+
+	// Estimated in memory size of each partition's records
+	private long[] partitionBytes;
+
+	// Bloom filter of spilled read names
+	private long[] spilledNames;
+	private int numFilterBits;
+
+	private int numSpills = 0;
+	private int numSplits = 0;
+
+	private OutputStream output1;
+	private OutputStream output2;
+
+	private long numPairs = 0;
+	private long numDuplicates = 0;
+	private long numOrphans = 0;
+
+	public MatePairer(OutputStream output1, OutputStream output2, long maxBytes, File tempDir) {
+		this.output1 = output1;
+		this.output2 = output2;
+		this.maxBytes = maxBytes;
+		this.maxPendingBytes = maxBytes;
+		this.tempDir = tempDir;
+		this.numPartitions = DEFAULT_NUM_PARTITIONS;
+	}
+
+	/**
+	 * Adds a formatted fastq record for the specified end (0 or 1) of the named read.
+	 * If the mate is pending, the pair is written immediately.
+	 */
+	public void add(String name, int end, byte[] fastq) throws IOException {
+		if ((spilledNames != null) && (isMaybeSpilled(name))) {
+			// Earlier records may be on disk, so this one must be paired with them in finish
+			PendingMate mate = pending.remove(name);
+			if (mate != null) {
+				// Filter false positive.  Move the pending mate first to keep arrival order.
+				pendingBytes -= getSize(name, mate.fastq);
+				writePartitionEntry(name, mate.end, mate.fastq);
+			}
+
+			writePartitionEntry(name, end, fastq);
+			return;
+		}
+
+		PendingMate mate = pending.remove(name);
+
+		if (mate == null) {
+			pending.put(name, new PendingMate(end, fastq));
+			pendingBytes += getSize(name, fastq);
+
+			if (pendingBytes > maxPendingBytes) {
+				spill();
+			}
+		} else {
+			pendingBytes -= getSize(name, mate.fastq);
+
+			if (mate.end == end) {
+				// Same end seen twice.  Keep the first.
+				pending.put(name, mate);
+				pendingBytes += getSize(name, mate.fastq);
+				numDuplicates += 1;
+			} else {
+				writePair(mate, end, fastq);
+			}
+		}
+	}
+
+	/**
+	 * Pairs any spilled mates and releases temp files.  Mates that are never paired are discarded.
+	 */
+	public void finish() throws IOException {
+		if (partitionOutputs == null) {
+			numOrphans += pending.size();
+			pending.clear();
+			return;
+		}
+
+		// Push remaining in memory mates to the partitions so each partition is complete on disk.
+		spill();
+
+		for (int i=0; i<numPartitions; i++) {
+			partitionOutputs[i].close();
+		}
+
+		// All names are on disk, so the filter's memory is available for pairing partitions
+		spilledNames = null;
+
+		for (int i=0; i<numPartitions; i++) {
+			pairPartition(partitionFiles[i], partitionBytes[i], 1);
+		}
+
+		partitionOutputs = null;
+	}
+
+	public long getNumPairs() {
+		return numPairs;
+	}
+
+	public long getNumDuplicates() {
+		return numDuplicates;
+	}
+
+	public long getNumOrphans() {
+		return numOrphans;
+	}
+
+	public int getNumSpills() {
+		return numSpills;
+	}
+
+	/**
+	 * Returns the number of spilled partitions that were split to fit the memory budget.
+	 */
+	public int getNumSplits() {
+		return numSplits;
+	}
+
+	private void writePair(PendingMate mate, int end, byte[] fastq) throws IOException {
+		if (mate.end == 0) {
+			output1.write(mate.fastq);
+			output2.write(fastq);
+		} else {
+			output1.write(fastq);
+			output2.write(mate.fastq);
+		}
+
+		numPairs += 1;
+	}
+
+	private void spill() throws IOException {
+		if (partitionOutputs == null) {
+			openPartitions();
+		}
+
+		Iterator<Map.Entry<String, PendingMate>> iter = pending.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, PendingMate> entry = iter.next();
+			writePartitionEntry(entry.getKey(), entry.getValue().end, entry.getValue().fastq);
+			addSpilledName(entry.getKey());
+		}
+
+		pending.clear();
+		pendingBytes = 0;
+		numSpills += 1;
+	}
+
+	/**
+	 * Pairs the records of a partition file and deletes it.  A partition whose records may
+	 * not fit in the memory budget is split by a hash of the read name for the next level first.
+	 */
+	private void pairPartition(File file, long size, int level) throws IOException {
+		if ((size > maxBytes) && (level < MAX_PARTITION_LEVELS)) {
+			splitPartition(file, size, level);
+			return;
+		}
+
+		Map<String, PendingMate> partition = new HashMap<String, PendingMate>();
+		DataInputStream in = openPartition(file);
+
+		try {
+			while (true) {
+				String name;
+				try {
+					name = in.readUTF();
+				} catch (EOFException e) {
+					break;
+				}
+
+				int end = in.readByte();
+				byte[] fastq = new byte[in.readInt()];
+				in.readFully(fastq);
+
+				PendingMate mate = partition.remove(name);
+				if (mate == null) {
+					partition.put(name, new PendingMate(end, fastq));
+				} else if (mate.end == end) {
+					partition.put(name, mate);
+					numDuplicates += 1;
+				} else {
+					writePair(mate, end, fastq);
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		numOrphans += partition.size();
+		file.delete();
+	}
+
+	private void splitPartition(File file, long size, int level) throws IOException {
+		// Leave room for an uneven split
+		int numSubPartitions = (int) Math.min(DEFAULT_NUM_PARTITIONS, 2 * (size / maxBytes) + 1);
+
+		File[] splitFiles = new File[numSubPartitions];
+		DataOutputStream[] splitOutputs = new DataOutputStream[numSubPartitions];
+		long[] splitBytes = new long[numSubPartitions];
+
+		DataInputStream in = openPartition(file);
+
+		try {
+			for (int i=0; i<numSubPartitions; i++) {
+				splitFiles[i] = createPartitionFile(level + "_" + i);
+				splitOutputs[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(splitFiles[i]), 1 << 16));
+			}
+
+			// Records are copied in order, so each name's records remain in arrival order
+			while (true) {
+				String name;
+				try {
+					name = in.readUTF();
+				} catch (EOFException e) {
+					break;
+				}
+
+				int end = in.readByte();
+				byte[] fastq = new byte[in.readInt()];
+				in.readFully(fastq);
+
+				int split = getPartition(name, level, numSubPartitions);
+				writeEntry(splitOutputs[split], name, end, fastq);
+				splitBytes[split] += getSize(name, fastq);
+			}
+		} finally {
+			in.close();
+
+			for (DataOutputStream out : splitOutputs) {
+				if (out != null) {
+					out.close();
+				}
+			}
+		}
+
+		file.delete();
+		numSplits += 1;
+
+		for (int i=0; i<numSubPartitions; i++) {
+			pairPartition(splitFiles[i], splitBytes[i], level + 1);
+		}
+	}
+
+	private void openPartitions() throws IOException {
+		partitionFiles = new File[numPartitions];
+		partitionOutputs = new DataOutputStream[numPartitions];
+		partitionBytes = new long[numPartitions];
+
+		for (int i=0; i<numPartitions; i++) {
+			partitionFiles[i] = createPartitionFile(String.valueOf(i));
+			partitionOutputs[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partitionFiles[i]), 1 << 16));
+		}
+
+		// The filter is counted against the memory budget
+		numFilterBits = (int) Math.max(64, Math.min(MAX_FILTER_BITS, maxBytes));
+		spilledNames = new long[(numFilterBits + 63) / 64];
+		maxPendingBytes = maxBytes - spilledNames.length * 8L;
+	}
+
+	private File createPartitionFile(String id) throws IOException {
+		File file = File.createTempFile("mates_" + id + "_", ".bin", tempDir);
+		file.deleteOnExit();
+		return file;
+	}
+
+	private DataInputStream openPartition(File file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+	}
+
+	private void writePartitionEntry(String name, int end, byte[] fastq) throws IOException {
+		int partition = getPartition(name, 0, numPartitions);
+		writeEntry(partitionOutputs[partition], name, end, fastq);
+		partitionBytes[partition] += getSize(name, fastq);
+	}
+
+	private void writeEntry(DataOutputStream out, String name, int end, byte[] fastq) throws IOException {
+		out.writeUTF(name);
+		out.writeByte(end);
+		out.writeInt(fastq.length);
+		out.write(fastq);
+	}
+
+	private int getPartition(String name, int level, int count) {
+		return (mix(name.hashCode() + level * LEVEL_SEED) & 0x7fffffff) % count;
+	}
+
+	private void addSpilledName(String name) {
+		int hash = name.hashCode();
+		setFilterBit(mix(hash + FILTER_SEED1));
+		setFilterBit(mix(hash + FILTER_SEED2));
+	}
+
+	private boolean isMaybeSpilled(String name) {
+		int hash = name.hashCode();
+		return (isFilterBitSet(mix(hash + FILTER_SEED1))) && (isFilterBitSet(mix(hash + FILTER_SEED2)));
+	}
+
+	private void setFilterBit(int hash) {
+		int bit = (hash & 0x7fffffff) % numFilterBits;
+		spilledNames[bit >>> 6] |= 1L << (bit & 63);
+	}
+
+	private boolean isFilterBitSet(int hash) {
+		int bit = (hash & 0x7fffffff) % numFilterBits;
+		return (spilledNames[bit >>> 6] & (1L << (bit & 63))) != 0;
+	}
+
+	// Spread the String hash, as read names often differ only in trailing characters
+	private static int mix(int h) {
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		h *= 0xc2b2ae35;
+		h ^= (h >>> 16);
+		return h;
+	}
+
+	private long getSize(String name, byte[] fastq) {
+		return ENTRY_OVERHEAD + name.length() * 2 + fastq.length;
+	}
+
+	static class PendingMate {
+		int end;
+		byte[] fastq;
+
+		PendingMate(int end, byte[] fastq) {
+			this.end = end;
+			this.fastq = fastq;
+		}
+	}
+}
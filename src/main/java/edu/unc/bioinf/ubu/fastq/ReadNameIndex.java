@@ -0,0 +1,400 @@
+package edu.unc.bioinf.ubu.fastq;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact set of read names.  Names are stored as 64 bit hashes in a sorted
+ * long array, fronted by a Bloom filter to cheaply reject names that are not present.
+ * <p>
+ * Only the base portion of a read id (up to the first "/" or space) is considered.
+ * <p>
+ * In exact mode, the name bytes are also retained and compared on a hash hit
+ * so that hash collisions can never produce a false positive.
+ * <p>
+ * Names are added via {@code add}, after which {@code freeze} must be called
+ * prior to lookups.  A frozen index is immutable and safe to share across threads.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class ReadNameIndex {
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int BLOOM_BITS_PER_ENTRY = 10;
+	private static final int BLOOM_NUM_HASHES = 7;
+
+	private static final int ARENA_CHUNK_BITS = 24;
+	private static final int ARENA_CHUNK_SIZE = 1 << ARENA_CHUNK_BITS;
+	private static final int MAX_NAME_LENGTH = 255;
+
+	private long[] hashes = new long[INITIAL_CAPACITY];
+	private long[] nameRefs;
+	private int size = 0;
+	private boolean isFrozen = false;
+	private boolean isExact;
+
+	private long[] bloom;
+	private long bloomBits;
+
+	// Name storage for exact mode.  Each name is a length byte followed by the name bytes.
+	private List<byte[]> arena;
+	private int arenaOffset;
+
+	public ReadNameIndex() {
+		this(false);
+	}
+
+	public ReadNameIndex(boolean isExact) {
+		this.isExact = isExact;
+
+		if (isExact) {
+			nameRefs = new long[INITIAL_CAPACITY];
+			arena = new ArrayList<byte[]>();
+			arena.add(new byte[ARENA_CHUNK_SIZE]);
+		}
+	}
+
+	/**
+	 * Adds the base portion of the specified read name to the index.
+	 */
+	public void add(String readName) {
+		if (isFrozen) {
+			throw new IllegalStateException("Cannot add to a frozen ReadNameIndex.");
+		}
+
+		int end = getBaseIdEnd(readName, 0);
+
+		if (size == hashes.length) {
+			hashes = Arrays.copyOf(hashes, grow(size));
+			if (isExact) {
+				nameRefs = Arrays.copyOf(nameRefs, hashes.length);
+			}
+		}
+
+		hashes[size] = hash(readName, 0, end);
+		if (isExact) {
+			nameRefs[size] = storeName(readName, 0, end);
+		}
+
+		size++;
+	}
+
+	/**
+	 * Sorts and de-duplicates the index and builds the Bloom filter.
+	 */
+	public void freeze() {
+		if (isFrozen) {
+			return;
+		}
+
+		if (isExact) {
+			sort(hashes, nameRefs, size);
+		} else {
+			Arrays.sort(hashes, 0, size);
+		}
+
+		size = dedupe();
+
+		// Release unused capacity
+		hashes = Arrays.copyOf(hashes, size);
+		if (isExact) {
+			nameRefs = Arrays.copyOf(nameRefs, size);
+		}
+
+		buildBloomFilter();
+
+		isFrozen = true;
+	}
+
+	/**
+	 * Returns true if the base portion of the specified read name is in the index.
+	 */
+	public boolean contains(String readName) {
+		return contains(readName, 0);
+	}
+
+	/**
+	 * Returns true if the base portion of the specified fastq id
+	 * (i.e. with leading '@') is in the index.
+	 */
+	public boolean containsFastqId(String id) {
+		int start = (id.length() > 0) && (id.charAt(0) == '@') ? 1 : 0;
+		return contains(id, start);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by this index.
+	 */
+	public long getMemoryUsage() {
+		long bytes = (long) hashes.length * 8;
+
+		if (bloom != null) {
+			bytes += (long) bloom.length * 8;
+		}
+
+		if (isExact) {
+			bytes += (long) nameRefs.length * 8;
+			bytes += (long) arena.size() * ARENA_CHUNK_SIZE;
+		}
+
+		return bytes;
+	}
+
+	private boolean contains(String name, int start) {
+		if (!isFrozen) {
+			throw new IllegalStateException("ReadNameIndex must be frozen prior to lookup.");
+		}
+
+		int end = getBaseIdEnd(name, start);
+		long hash = hash(name, start, end);
+
+		if (!mightContain(hash)) {
+			return false;
+		}
+
+		int idx = Arrays.binarySearch(hashes, 0, size, hash);
+
+		if (idx < 0) {
+			return false;
+		}
+
+		if (!isExact) {
+			return true;
+		}
+
+		// Walk back to the first entry with this hash, then compare names for all entries with this hash
+		while ((idx > 0) && (hashes[idx-1] == hash)) {
+			idx--;
+		}
+
+		while ((idx < size) && (hashes[idx] == hash)) {
+			if (isNameEqual(nameRefs[idx], name, start, end)) {
+				return true;
+			}
+			idx++;
+		}
+
+		return false;
+	}
+
+	private int dedupe() {
+		if (size == 0) {
+			return 0;
+		}
+
+		int last = 0;
+		for (int i=1; i<size; i++) {
+			boolean isDupe = hashes[i] == hashes[last];
+
+			if ((isDupe) && (isExact)) {
+				isDupe = isNameEqual(nameRefs[i], nameRefs[last]);
+			}
+
+			if (!isDupe) {
+				last++;
+				hashes[last] = hashes[i];
+				if (isExact) {
+					nameRefs[last] = nameRefs[i];
+				}
+			}
+		}
+
+		return last + 1;
+	}
+
+	private void buildBloomFilter() {
+		long bits = Math.max(64, (long) size * BLOOM_BITS_PER_ENTRY);
+		int words = (int) Math.min(Integer.MAX_VALUE - 8, (bits + 63) / 64);
+		bloom = new long[words];
+		bloomBits = (long) words * 64;
+
+		for (int i=0; i<size; i++) {
+			long hash = hashes[i];
+			int h1 = (int) hash;
+			int h2 = (int) (hash >>> 32);
+
+			for (int k=1; k<=BLOOM_NUM_HASHES; k++) {
+				long bit = bloomBit(h1, h2, k);
+				bloom[(int) (bit >>> 6)] |= 1L << bit;
+			}
+		}
+	}
+
+	private boolean mightContain(long hash) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+
+		for (int k=1; k<=BLOOM_NUM_HASHES; k++) {
+			long bit = bloomBit(h1, h2, k);
+			if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private long bloomBit(int h1, int h2, int k) {
+		long combined = (long) h1 + (long) k * h2;
+		if (combined < 0) {
+			combined = ~combined;
+		}
+
+		return combined % bloomBits;
+	}
+
+	private long storeName(String name, int start, int end) {
+		int len = end - start;
+		if (len > MAX_NAME_LENGTH) {
+			throw new IllegalArgumentException("Read name too long for ReadNameIndex: [" + name + "]");
+		}
+
+		if (arenaOffset + len + 1 > ARENA_CHUNK_SIZE) {
+			arena.add(new byte[ARENA_CHUNK_SIZE]);
+			arenaOffset = 0;
+		}
+
+		byte[] chunk = arena.get(arena.size()-1);
+		long ref = ((long) (arena.size()-1) << ARENA_CHUNK_BITS) | arenaOffset;
+
+		chunk[arenaOffset++] = (byte) len;
+		for (int i=start; i<end; i++) {
+			chunk[arenaOffset++] = (byte) name.charAt(i);
+		}
+
+		return ref;
+	}
+
+	private boolean isNameEqual(long ref, String name, int start, int end) {
+		byte[] chunk = arena.get((int) (ref >>> ARENA_CHUNK_BITS));
+		int offset = (int) (ref & (ARENA_CHUNK_SIZE-1));
+		int len = chunk[offset] & 0xFF;
+
+		if (len != end - start) {
+			return false;
+		}
+
+		for (int i=0; i<len; i++) {
+			if (chunk[offset+1+i] != (byte) name.charAt(start+i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private boolean isNameEqual(long ref1, long ref2) {
+		byte[] chunk1 = arena.get((int) (ref1 >>> ARENA_CHUNK_BITS));
+		int offset1 = (int) (ref1 & (ARENA_CHUNK_SIZE-1));
+		byte[] chunk2 = arena.get((int) (ref2 >>> ARENA_CHUNK_BITS));
+		int offset2 = (int) (ref2 & (ARENA_CHUNK_SIZE-1));
+
+		int len = chunk1[offset1] & 0xFF;
+		if (len != (chunk2[offset2] & 0xFF)) {
+			return false;
+		}
+
+		for (int i=1; i<=len; i++) {
+			if (chunk1[offset1+i] != chunk2[offset2+i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private int grow(int current) {
+		long newSize = (long) current + (current >> 1);
+		if (newSize > Integer.MAX_VALUE - 8) {
+			newSize = Integer.MAX_VALUE - 8;
+			if (newSize <= current) {
+				throw new IllegalStateException("ReadNameIndex capacity exceeded.");
+			}
+		}
+
+		return (int) newSize;
+	}
+
+	/**
+	 * Returns the index of the end of the base id (exclusive).  i.e. the first "/" or space.
+	 */
+	static int getBaseIdEnd(String id, int start) {
+		int len = id.length();
+		for (int i=start; i<len; i++) {
+			char ch = id.charAt(i);
+			if ((ch == '/') || (ch == ' ')) {
+				return i;
+			}
+		}
+
+		return len;
+	}
+
+	/**
+	 * 64 bit FNV-1a with a murmur3 finalizer to spread bits for the Bloom filter.
+	 */
+	static long hash(String str, int start, int end) {
+		long h = 0xcbf29ce484222325L;
+		for (int i=start; i<end; i++) {
+			h ^= str.charAt(i);
+			h *= 0x100000001b3L;
+		}
+
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+
+		return h;
+	}
+
+	/**
+	 * In place heap sort of keys, carrying the values array along.
+	 */
+	private static void sort(long[] keys, long[] values, int len) {
+		for (int i=len/2-1; i>=0; i--) {
+			siftDown(keys, values, i, len);
+		}
+
+		for (int end=len-1; end>0; end--) {
+			swap(keys, values, 0, end);
+			siftDown(keys, values, 0, end);
+		}
+	}
+
+	private static void siftDown(long[] keys, long[] values, int root, int len) {
+		while (true) {
+			int child = 2*root + 1;
+			if (child >= len) {
+				return;
+			}
+
+			if ((child+1 < len) && (keys[child+1] > keys[child])) {
+				child++;
+			}
+
+			if (keys[root] >= keys[child]) {
+				return;
+			}
+
+			swap(keys, values, root, child);
+			root = child;
+		}
+	}
+
+	private static void swap(long[] keys, long[] values, int i, int j) {
+		long key = keys[i];
+		keys[i] = keys[j];
+		keys[j] = key;
+
+		long value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+}
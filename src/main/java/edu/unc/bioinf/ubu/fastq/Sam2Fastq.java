@@ -1,7 +1,15 @@
 package edu.unc.bioinf.ubu.fastq;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import edu.unc.bioinf.ubu.sam.ReverseComplementor;
 
@@ -18,6 +26,10 @@ import net.sf.samtools.SAMFileReader.ValidationStringency;
  */
 public class Sam2Fastq {
 	
+	private static final int BATCH_SIZE = 10000;
+	private static final int SUPPLEMENTARY_ALIGNMENT_FLAG = 0x800;
+	private static final long DEFAULT_MATE_BUFFER_BYTES = 1024L * 1024 * 1024;
+	
 	private FastqOutputFile output1;
 	private FastqOutputFile output2;
 	private ReverseComplementor reverseComplementor = new ReverseComplementor();
@@ -25,12 +37,20 @@ public class Sam2Fastq {
 	private boolean isMapspliceFusions = false;
 	private String end1Suffix;
 	private String end2Suffix;
+	private int numThreads = 1;
+	private long mateBufferBytes = DEFAULT_MATE_BUFFER_BYTES;
+	private File tempDir = null;
 
 	/**
 	 * Convert the input paired end SAM/BAM file into 2 fastq files.
 	 * Input SAM files that contain multiple mappings should be sorted by read name.
 	 */
 	public void convert(String inputSam, String outputFastq1, String outputFastq2) throws IOException {
+		if (numThreads > 1) {
+			convertParallel(inputSam, new String[] { outputFastq1, outputFastq2 });
+			return;
+		}
+		
 		String last1Read = "";
 		String last2Read = "";
 		
@@ -83,6 +103,11 @@ public class Sam2Fastq {
 	 * Input SAM files that contain multiple mappings should be sorted by read name.
 	 */
 	public void convert(String inputSam, String outputFastq) throws IOException {
+		if (numThreads > 1) {
+			convertParallel(inputSam, new String[] { outputFastq });
+			return;
+		}
+		
 		String last1Read = "";
 		
         SAMFileReader reader = new SAMFileReader(new File(inputSam));
@@ -108,6 +133,261 @@ public class Sam2Fastq {
         reader.close();
 	}
 	
+	/**
+	 * Convert the input paired end SAM/BAM file into 2 fastq files without requiring the input
+	 * to be sorted by read name (i.e. coordinate sorted input).
+	 * Only primary alignments are output.  Each pair is written as soon as both mates are seen.
+	 * Unpaired mates are buffered in memory up to the mate buffer size and spilled to temp
+	 * files beyond that.  Reads whose mate is never found are discarded.
+	 */
+	public void convertCoordinateSorted(String inputSam, String outputFastq1, String outputFastq2) throws IOException {
+        SAMFileReader reader = new SAMFileReader(new File(inputSam));
+        reader.setValidationStringency(ValidationStringency.SILENT);
+        
+        OutputStream out1 = FastqChunkWriter.openOutput(outputFastq1, false);
+        OutputStream out2 = FastqChunkWriter.openOutput(outputFastq2, false);
+        MatePairer pairer = new MatePairer(out1, out2, mateBufferBytes, tempDir);
+        
+        ByteArrayOutputStream fastq = new ByteArrayOutputStream(512);
+        byte[] scratch = new byte[256];
+        int lineCnt = 0;
+        
+        for (SAMRecord read : reader) {
+        	if ((!read.getNotPrimaryAlignmentFlag()) && ((read.getFlags() & SUPPLEMENTARY_ALIGNMENT_FLAG) == 0)) {
+	        	int end = -1;
+	        	if (isFirstInPair(read)) {
+	        		end = 0;
+	        	} else if (isSecondInPair(read)) {
+	        		end = 1;
+	        	} else {
+	        		System.out.println("Don't know what to do with unpaired read: " + read.getSAMString());
+	        	}
+	        	
+	        	if (end >= 0) {
+	        		fastq.reset();
+	        		scratch = writeFastq(read, fastq, scratch);
+	        		pairer.add(getPairName(read), end, fastq.toByteArray());
+	        	}
+        	}
+        	
+            lineCnt++;
+            if ((lineCnt % 1000000) == 0) {
+                System.out.println("record: " + lineCnt);
+            }
+        }
+        
+        reader.close();
+        pairer.finish();
+        out1.close();
+        out2.close();
+        
+        System.out.println("Pairs written: " + pairer.getNumPairs());
+        System.out.println("Mate buffer spills: " + pairer.getNumSpills());
+        System.out.println("Spilled partitions split: " + pairer.getNumSplits());
+        System.out.println("Duplicate primary reads skipped: " + pairer.getNumDuplicates());
+        System.out.println("Reads discarded due to missing mate: " + pairer.getNumOrphans());
+	}
+	
+	/**
+	 * Returns the read name shared by both mates of a pair.
+	 */
+	private String getPairName(SAMRecord read) {
+		String name = read.getReadName();
+		
+		if (shouldIdentifyEndByReadId) {
+			if (name.endsWith(end1Suffix)) {
+				name = name.substring(0, name.length() - end1Suffix.length());
+			} else if (name.endsWith(end2Suffix)) {
+				name = name.substring(0, name.length() - end2Suffix.length());
+			}
+		}
+		
+		return name;
+	}
+	
+	/**
+	 * Multi-threaded equivalent of convert.  The reader thread de-duplicates and batches records.
+	 * Batches are formatted directly from the records' byte arrays on a worker pool (which also
+	 * forces lazy BAM record decoding onto the workers).  Formatted batches are handed to the
+	 * output writer threads in input order.
+	 */
+	void convertParallel(String inputSam, String[] outputFastqs) throws IOException {
+		boolean isPaired = outputFastqs.length == 2;
+		String[] lastRead = new String[] { "", "" };
+		long[] outputCounts = new long[outputFastqs.length];
+		
+        SAMFileReader reader = new SAMFileReader(new File(inputSam));
+        reader.setValidationStringency(ValidationStringency.SILENT);
+        
+        FastqChunkWriter[] writers = new FastqChunkWriter[outputFastqs.length];
+        for (int i=0; i<writers.length; i++) {
+        	writers[i] = new FastqChunkWriter(outputFastqs[i], false);
+        	writers[i].start();
+        }
+        
+        ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+        LinkedList<Future<byte[][]>> pending = new LinkedList<Future<byte[][]>>();
+        int maxPending = numThreads * 2;
+        boolean isComplete = false;
+        
+        try {
+	        Sam2FastqBatch batch = new Sam2FastqBatch(this, BATCH_SIZE, outputFastqs.length);
+	        int lineCnt = 0;
+	        
+	        for (SAMRecord read : reader) {
+	        	int end;
+	        	if (!isPaired) {
+	        		end = 0;
+	        	} else if (isFirstInPair(read)) {
+	        		end = 0;
+	        	} else if (isSecondInPair(read)) {
+	        		end = 1;
+	        	} else {
+	        		System.out.println("Don't know what to do with unpaired read: " + read.getSAMString());
+	        		end = -1;
+	        	}
+	        	
+	        	if ((end >= 0) && (!read.getReadName().equals(lastRead[end]))) {
+	        		batch.add(read, end);
+	        		lastRead[end] = read.getReadName();
+	        		outputCounts[end] += 1;
+	        		
+	        		if (batch.isFull()) {
+	        			pending.add(workers.submit(batch));
+	        			batch = new Sam2FastqBatch(this, BATCH_SIZE, outputFastqs.length);
+	        			
+	        			while (pending.size() > maxPending) {
+	        				writeBatch(pending.removeFirst(), writers);
+	        			}
+	        		}
+	        	}
+	        	
+	            lineCnt++;
+	            if ((lineCnt % 1000000) == 0) {
+	                System.out.println("record: " + lineCnt);
+	            }
+	        }
+	        
+	        if (!batch.isEmpty()) {
+	        	pending.add(workers.submit(batch));
+	        }
+	        
+	        while (!pending.isEmpty()) {
+	        	writeBatch(pending.removeFirst(), writers);
+	        }
+	        
+	        // Signal all writers before waiting, so a failed writer cannot strand the others
+	        for (FastqChunkWriter writer : writers) {
+	        	writer.endInput();
+	        }
+	        
+	        for (FastqChunkWriter writer : writers) {
+	        	writer.awaitCompletion();
+	        }
+	        
+	        isComplete = true;
+        } catch (InterruptedException e) {
+        	Thread.currentThread().interrupt();
+        	InterruptedIOException ie = new InterruptedIOException("Interrupted converting: " + inputSam);
+        	ie.initCause(e);
+        	throw ie;
+        } finally {
+        	workers.shutdownNow();
+        	reader.close();
+        	
+        	if (!isComplete) {
+        		for (FastqChunkWriter writer : writers) {
+        			writer.abort();
+        		}
+        	}
+        }
+        
+        if ((isPaired) && (outputCounts[0] != outputCounts[1])) {
+        	throw new IllegalStateException("Non-symmetrical read counts found for " + inputSam + ".  Your reads may not be paired properly.");
+        }
+	}
+	
+	private void writeBatch(Future<byte[][]> future, FastqChunkWriter[] writers) throws IOException, InterruptedException {
+		byte[][] formatted;
+		
+		try {
+			formatted = future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		
+		for (int i=0; i<writers.length; i++) {
+			if (formatted[i].length > 0) {
+				writers[i].write(formatted[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the read in fastq format directly from the read's base and quality byte arrays.
+	 * scratch is used for reverse complementing and is returned, grown if necessary.
+	 */
+	byte[] writeFastq(SAMRecord read, OutputStream out, byte[] scratch) throws IOException {
+		if ((isMapspliceFusions) && (isFusion(read))) {
+			FastqRecord fastq = samReadToFastqRecord(read);
+			for (String line : fastq.getLines()) {
+				writeAscii(out, line);
+				out.write('\n');
+			}
+			
+			return scratch;
+		}
+		
+		byte[] bases = read.getReadBases();
+		byte[] qualities = read.getBaseQualities();
+		
+		if (scratch.length < Math.max(bases.length, qualities.length)) {
+			scratch = new byte[Math.max(bases.length, qualities.length) * 2];
+		}
+		
+		out.write('@');
+		writeAscii(out, read.getReadName());
+		out.write('\n');
+		
+		if (bases.length == 0) {
+			out.write('*');
+		} else if (read.getReadNegativeStrandFlag()) {
+			reverseComplementor.reverseComplement(bases, bases.length, scratch);
+			out.write(scratch, 0, bases.length);
+		} else {
+			out.write(bases);
+		}
+		
+		out.write('\n');
+		out.write('+');
+		out.write('\n');
+		
+		if (qualities.length == 0) {
+			out.write('*');
+		} else {
+			boolean isReversed = read.getReadNegativeStrandFlag();
+			int len = qualities.length;
+			for (int i=0; i<len; i++) {
+				scratch[i] = (byte) ((isReversed ? qualities[len-1-i] : qualities[i]) + 33);
+			}
+			out.write(scratch, 0, len);
+		}
+		
+		out.write('\n');
+		
+		return scratch;
+	}
+	
+	private void writeAscii(OutputStream out, String str) throws IOException {
+		int len = str.length();
+		for (int i=0; i<len; i++) {
+			out.write(str.charAt(i));
+		}
+	}
+	
 	private FastqRecord samReadToFastqRecord(SAMRecord read) {
 		String bases = read.getReadString();
 		String qualities = read.getBaseQualityString();
@@ -200,6 +480,24 @@ public class Sam2Fastq {
 	public void setMapspliceFusions(boolean isMapspliceFusions) {
 		this.isMapspliceFusions = isMapspliceFusions;
 	}
+	
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+	
+	/**
+	 * Memory budget for buffering unpaired mates when converting coordinate sorted input.
+	 */
+	public void setMateBufferBytes(long mateBufferBytes) {
+		this.mateBufferBytes = mateBufferBytes;
+	}
+	
+	/**
+	 * Directory for mate buffer spill files.  Defaults to the system temp dir.
+	 */
+	public void setTempDir(File tempDir) {
+		this.tempDir = tempDir;
+	}
 
 	public static void run(String[] args) throws IOException {
 		Sam2FastqOptions options = new Sam2FastqOptions();
@@ -210,6 +508,7 @@ public class Sam2Fastq {
 			System.out.println("sam2fastq starting");
 			
 			Sam2Fastq sam2Fastq = new Sam2Fastq();
+			sam2Fastq.setNumThreads(options.getNumThreads());
 			if (options.isPairedEnd()) {
 				
 				if (options.shouldIdEndByReadName()) {
@@ -218,7 +517,15 @@ public class Sam2Fastq {
 				
 				sam2Fastq.setMapspliceFusions(options.isMapspliceFusions());
 				
-				sam2Fastq.convert(options.getInputFile(), options.getFastq1(), options.getFastq2());
+				if (options.isCoordinateSorted()) {
+					sam2Fastq.setMateBufferBytes(options.getMateBufferMb() * 1024L * 1024L);
+					if (options.getTempDir() != null) {
+						sam2Fastq.setTempDir(new File(options.getTempDir()));
+					}
+					sam2Fastq.convertCoordinateSorted(options.getInputFile(), options.getFastq1(), options.getFastq2());
+				} else {
+					sam2Fastq.convert(options.getInputFile(), options.getFastq1(), options.getFastq2());
+				}
 			} else {
 				sam2Fastq.convert(options.getInputFile(), options.getFastq1());
 			}
@@ -0,0 +1,70 @@
+package edu.unc.bioinf.ubu.fastq;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Callable;
+
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Formats a batch of SAM records as fastq bytes on a worker thread.
+ * Returns one byte array per output end.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class Sam2FastqBatch implements Callable<byte[][]> {
+
+	private static final int ESTIMATED_RECORD_SIZE = 256;
+
+	private Sam2Fastq sam2Fastq;
+	private SAMRecord[] reads;
+	private int[] ends;
+	private int size;
+	private int numEnds;
+
+	public Sam2FastqBatch(Sam2Fastq sam2Fastq, int capacity, int numEnds) {
+		this.sam2Fastq = sam2Fastq;
+		this.reads = new SAMRecord[capacity];
+		this.ends = new int[capacity];
+		this.numEnds = numEnds;
+	}
+
+	/**
+	 * Adds a read destined for the specified (0 based) end.
+	 */
+	public void add(SAMRecord read, int end) {
+		reads[size] = read;
+		ends[size] = end;
+		size++;
+	}
+
+	public boolean isFull() {
+		return size == reads.length;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public byte[][] call() throws Exception {
+		ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[numEnds];
+		for (int i=0; i<numEnds; i++) {
+			outputs[i] = new ByteArrayOutputStream(size * ESTIMATED_RECORD_SIZE / numEnds);
+		}
+
+		byte[] scratch = new byte[ESTIMATED_RECORD_SIZE];
+
+		for (int i=0; i<size; i++) {
+			scratch = sam2Fastq.writeFastq(reads[i], outputs[ends[i]], scratch);
+			// Release the record as soon as it is formatted
+			reads[i] = null;
+		}
+
+		byte[][] formatted = new byte[numEnds][];
+		for (int i=0; i<numEnds; i++) {
+			formatted[i] = outputs[i].toByteArray();
+		}
+
+		return formatted;
+	}
+}
@@ -15,6 +15,12 @@ public class Sam2FastqOptions extends Options {
     private static final String END1_SUFFIX = "end1";
     private static final String END2_SUFFIX = "end2";
     private static final String MAPSPLICE_FUSIONS = "mapsplice";
+    private static final String NUM_THREADS = "threads";
+    private static final String COORDINATE_SORTED = "coord";
+    private static final String MATE_BUFFER_MB = "mate-buffer-mb";
+    private static final String TEMP_DIR = "tmp";
+    
+    private static final int DEFAULT_MATE_BUFFER_MB = 1024;
     
 	private OptionParser parser;
 	private boolean isValid;
@@ -29,6 +35,10 @@ public class Sam2FastqOptions extends Options {
             parser.accepts(END1_SUFFIX, "Id suffix used to identify the first read in a pair.  i.e. /1 (omit this option to use bit flag)").withRequiredArg().ofType(String.class);
             parser.accepts(END2_SUFFIX, "Id suffix used to identify the second read in a pair.  i.e. /2 (omit this option to use bit flag)").withRequiredArg().ofType(String.class);
             parser.accepts(MAPSPLICE_FUSIONS, "Enables special handling of Mapsplice fusions");
+            parser.accepts(NUM_THREADS, "Number of threads used to format reads (default 1)").withRequiredArg().ofType(Integer.class);
+            parser.accepts(COORDINATE_SORTED, "Pair mates from input that is not sorted by read name (i.e. coordinate sorted).  Only primary alignments are output");
+            parser.accepts(MATE_BUFFER_MB, "Memory used to hold unpaired mates before spilling to disk (default " + DEFAULT_MATE_BUFFER_MB + ")").withRequiredArg().ofType(Integer.class);
+            parser.accepts(TEMP_DIR, "Directory for temporary files (default: system temp dir)").withRequiredArg().ofType(String.class);
     	}
     	
     	return parser;
@@ -71,6 +81,26 @@ public class Sam2FastqOptions extends Options {
         	System.err.println("Please either specify both " + END1_SUFFIX + " and " + END2_SUFFIX + " or neither.");
         }
         
+        if ((getOptions().has(COORDINATE_SORTED)) && (!getOptions().has(FASTQ2))) {
+        	isValid = false;
+        	System.err.println(COORDINATE_SORTED + " only applicable for paired end.");
+        }
+        
+        if ((getOptions().has(COORDINATE_SORTED)) && (getOptions().has(NUM_THREADS))) {
+        	isValid = false;
+        	System.err.println(COORDINATE_SORTED + " does not support " + NUM_THREADS);
+        }
+        
+        if (getMateBufferMb() < 1) {
+        	isValid = false;
+        	System.err.println(MATE_BUFFER_MB + " must be greater than zero");
+        }
+        
+        if (getNumThreads() < 1) {
+        	isValid = false;
+        	System.err.println(NUM_THREADS + " must be greater than zero");
+        }
+        
         if (!isValid) {
             printHelp();
         }
@@ -107,6 +137,32 @@ public class Sam2FastqOptions extends Options {
 	public String getEnd2Suffix() {
 		return (String) getOptions().valueOf(END2_SUFFIX);
 	}
+	
+	public boolean isCoordinateSorted() {
+		return getOptions().has(COORDINATE_SORTED);
+	}
+	
+	public int getMateBufferMb() {
+		int mb = DEFAULT_MATE_BUFFER_MB;
+		if (getOptions().hasArgument(MATE_BUFFER_MB)) {
+			mb = (Integer) getOptions().valueOf(MATE_BUFFER_MB);
+		}
+		
+		return mb;
+	}
+	
+	public String getTempDir() {
+		return (String) getOptions().valueOf(TEMP_DIR);
+	}
+	
+	public int getNumThreads() {
+		int threads = 1;
+		if (getOptions().hasArgument(NUM_THREADS)) {
+			threads = (Integer) getOptions().valueOf(NUM_THREADS);
+		}
+		
+		return threads;
+	}
 		
     public boolean isValid() {
         return isValid;
@@ -0,0 +1,342 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory mapped reader for binary column oriented count matrices, as written by
+ * {@code BinaryMatrixWriter}.
+ * <p>
+ * Layout (big endian):
+ * <pre>
+ * header   magic, version, column type, number of rows, data offset
+ * rows     row names (gene or junction ids) as modified UTF-8
+ * columns  one column of int64 or float64 values per sample, starting at the data offset
+ * footer   column (sample) names as modified UTF-8, number of columns, footer offset, magic
+ * </pre>
+ * Columns are stored contiguously, so adding a sample writes a new column over the old
+ * footer followed by a new footer.  Existing columns are never rewritten.
+ * <p>
+ * Values are read directly from the mapping.  Reads may be made concurrently.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class BinaryMatrix {
+
+    public static final int INT64 = 0;
+    public static final int FLOAT64 = 1;
+
+    public static final String EXTENSION = ".ubm";
+
+    static final byte[] MAGIC = { 'U', 'B', 'U', 'M', 'A', 'T', 'R', 'X' };
+    static final int VERSION = 1;
+
+    // magic, version, column type, number of rows, reserved, data offset
+    static final int HEADER_LENGTH = 32;
+
+    // number of columns, footer offset, magic
+    static final int TRAILER_LENGTH = 4 + 8 + 8;
+
+    // Columns are mapped in chunks of whole columns up to this size
+    private static final long MAX_CHUNK_BYTES = Integer.MAX_VALUE & ~7;
+
+    private RandomAccessFile file;
+    private int columnType;
+    private String[] rows;
+    private String[] columns;
+    private Map<String, Integer> rowIndex;
+    private Map<String, Integer> columnIndex;
+
+    private MappedByteBuffer[] chunks;
+    private int columnsPerChunk;
+
+    public BinaryMatrix(String filename) throws IOException {
+        file = new RandomAccessFile(filename, "r");
+
+        try {
+            Header header = readHeader(file, filename);
+            columnType = header.columnType;
+            rows = header.rows;
+            columns = header.columns;
+
+            rowIndex = index(rows);
+            columnIndex = index(columns);
+
+            map(file.getChannel(), header.dataOffset);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private void map(FileChannel channel, long dataOffset) throws IOException {
+        long columnBytes = (long) rows.length * 8;
+
+        if (columnBytes > MAX_CHUNK_BYTES) {
+            throw new IllegalArgumentException("Too many rows to map a column: " + rows.length);
+        }
+
+        columnsPerChunk = columnBytes == 0 ? Math.max(1, columns.length) : (int) (MAX_CHUNK_BYTES / columnBytes);
+        int numChunks = (columns.length + columnsPerChunk - 1) / columnsPerChunk;
+        chunks = new MappedByteBuffer[numChunks];
+
+        for (int i=0; i<numChunks; i++) {
+            int chunkColumns = Math.min(columnsPerChunk, columns.length - i * columnsPerChunk);
+            long offset = dataOffset + (long) i * columnsPerChunk * columnBytes;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, chunkColumns * columnBytes);
+        }
+    }
+
+    private Map<String, Integer> index(String[] names) {
+        Map<String, Integer> index = new HashMap<String, Integer>(names.length * 2);
+        for (int i=0; i<names.length; i++) {
+            index.put(names[i], i);
+        }
+        return index;
+    }
+
+    /**
+     * Returns true if the file starts with the binary matrix magic number.
+     */
+    public static boolean isBinaryMatrix(String filename) throws IOException {
+        File file = new File(filename);
+        if (file.length() < MAGIC.length) {
+            return false;
+        }
+
+        byte[] magic = new byte[MAGIC.length];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(magic);
+        } finally {
+            in.close();
+        }
+
+        return Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * Reads the header, row names and footer.  Used by both the reader and the writer
+     * when appending.
+     */
+    static Header readHeader(RandomAccessFile file, String filename) throws IOException {
+        if (file.length() < HEADER_LENGTH + TRAILER_LENGTH) {
+            throw new IllegalArgumentException("Invalid binary matrix: " + filename);
+        }
+
+        byte[] headerBytes = new byte[HEADER_LENGTH];
+        file.seek(0);
+        file.readFully(headerBytes);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(headerBytes));
+
+        checkMagic(in, filename);
+
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary matrix version: " + version + " in: " + filename);
+        }
+
+        Header header = new Header();
+        header.columnType = in.readInt();
+        int numRows = in.readInt();
+        in.readInt();
+        header.dataOffset = in.readLong();
+
+        byte[] trailerBytes = new byte[TRAILER_LENGTH];
+        file.seek(file.length() - TRAILER_LENGTH);
+        file.readFully(trailerBytes);
+        in = new DataInputStream(new ByteArrayInputStream(trailerBytes));
+
+        int numColumns = in.readInt();
+        header.footerOffset = in.readLong();
+        checkMagic(in, filename);
+
+        if (header.footerOffset != header.dataOffset + (long) numColumns * numRows * 8) {
+            throw new IllegalArgumentException("Invalid binary matrix footer in: " + filename);
+        }
+
+        header.rows = readNames(file, HEADER_LENGTH, header.dataOffset - HEADER_LENGTH, numRows);
+        header.columns = readNames(file, header.footerOffset, file.length() - TRAILER_LENGTH - header.footerOffset, numColumns);
+
+        return header;
+    }
+
+    private static void checkMagic(DataInputStream in, String filename) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IllegalArgumentException("Invalid binary matrix: " + filename);
+        }
+    }
+
+    private static String[] readNames(RandomAccessFile file, long offset, long length, int count) throws IOException {
+        byte[] bytes = new byte[(int) length];
+        file.seek(offset);
+        file.readFully(bytes);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        String[] names = new String[count];
+        for (int i=0; i<count; i++) {
+            names[i] = in.readUTF();
+        }
+
+        return names;
+    }
+
+    public int getNumRows() {
+        return rows.length;
+    }
+
+    public int getNumColumns() {
+        return columns.length;
+    }
+
+    public int getColumnType() {
+        return columnType;
+    }
+
+    public String getRowName(int row) {
+        return rows[row];
+    }
+
+    public String getColumnName(int column) {
+        return columns[column];
+    }
+
+    public List<String> getRowNames() {
+        return new ArrayList<String>(Arrays.asList(rows));
+    }
+
+    public List<String> getColumnNames() {
+        return new ArrayList<String>(Arrays.asList(columns));
+    }
+
+    /**
+     * Returns the index of the named row or -1 if not present.
+     */
+    public int getRowIndex(String name) {
+        Integer idx = rowIndex.get(name);
+        return idx != null ? idx : -1;
+    }
+
+    /**
+     * Returns the index of the named column or -1 if not present.
+     */
+    public int getColumnIndex(String name) {
+        Integer idx = columnIndex.get(name);
+        return idx != null ? idx : -1;
+    }
+
+    /**
+     * Returns the value as a long.  float64 values are truncated.
+     */
+    public long getLong(int row, int column) {
+        checkIndex(row, column);
+        int position = getPosition(row, column);
+        MappedByteBuffer chunk = chunks[column / columnsPerChunk];
+
+        return columnType == INT64 ? chunk.getLong(position) : (long) chunk.getDouble(position);
+    }
+
+    public double getDouble(int row, int column) {
+        checkIndex(row, column);
+        int position = getPosition(row, column);
+        MappedByteBuffer chunk = chunks[column / columnsPerChunk];
+
+        return columnType == FLOAT64 ? chunk.getDouble(position) : chunk.getLong(position);
+    }
+
+    /**
+     * Returns rows startRow (inclusive) to endRow (exclusive) of the column.
+     */
+    public long[] getLongColumn(int column, int startRow, int endRow) {
+        checkRange(startRow, endRow, rows.length);
+        long[] values = new long[endRow - startRow];
+        for (int i=0; i<values.length; i++) {
+            values[i] = getLong(startRow + i, column);
+        }
+        return values;
+    }
+
+    /**
+     * Returns rows startRow (inclusive) to endRow (exclusive) of the column.
+     */
+    public double[] getDoubleColumn(int column, int startRow, int endRow) {
+        checkRange(startRow, endRow, rows.length);
+        double[] values = new double[endRow - startRow];
+        for (int i=0; i<values.length; i++) {
+            values[i] = getDouble(startRow + i, column);
+        }
+        return values;
+    }
+
+    /**
+     * Returns columns startColumn (inclusive) to endColumn (exclusive) of the row.
+     */
+    public long[] getLongRow(int row, int startColumn, int endColumn) {
+        checkRange(startColumn, endColumn, columns.length);
+        long[] values = new long[endColumn - startColumn];
+        for (int i=0; i<values.length; i++) {
+            values[i] = getLong(row, startColumn + i);
+        }
+        return values;
+    }
+
+    /**
+     * Returns columns startColumn (inclusive) to endColumn (exclusive) of the row.
+     */
+    public double[] getDoubleRow(int row, int startColumn, int endColumn) {
+        checkRange(startColumn, endColumn, columns.length);
+        double[] values = new double[endColumn - startColumn];
+        for (int i=0; i<values.length; i++) {
+            values[i] = getDouble(row, startColumn + i);
+        }
+        return values;
+    }
+
+    private int getPosition(int row, int column) {
+        return ((column % columnsPerChunk) * rows.length + row) * 8;
+    }
+
+    private void checkIndex(int row, int column) {
+        if ((row < 0) || (row >= rows.length) || (column < 0) || (column >= columns.length)) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", column: " + column);
+        }
+    }
+
+    private void checkRange(int start, int end, int size) {
+        if ((start < 0) || (end > size) || (start > end)) {
+            throw new IndexOutOfBoundsException("Range: " + start + " - " + end);
+        }
+    }
+
+    /**
+     * Closes the file.  The mapping remains valid until garbage collected.
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+
+    static class Header {
+        int columnType;
+        long dataOffset;
+        long footerOffset;
+        String[] rows;
+        String[] columns;
+    }
+}
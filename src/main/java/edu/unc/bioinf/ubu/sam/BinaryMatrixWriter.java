@@ -0,0 +1,334 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes binary column oriented count matrices.  See {@code BinaryMatrix} for the layout.
+ * <p>
+ * Columns are written as they are added and counted once all of their values are written.
+ * The sample footer is written on close.  When appending to an existing matrix, new columns
+ * are staged in a temp file alongside the matrix, so the existing matrix and its footer are
+ * unchanged until close copies the columns over the old footer and writes the new footer.
+ * The new columns must directly follow the existing ones, so the old footer cannot be kept
+ * while they are copied: a crash during close leaves the matrix without a trailer, and it is
+ * rejected by {@code BinaryMatrix} rather than read with missing or stale sample names.
+ * <p>
+ * If a column fails to be written, or {@link #abort()} is called, the output is discarded:
+ * a new matrix is deleted and an existing matrix is left as it was.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class BinaryMatrixWriter {
+
+    private String filename;
+    private File outputFile;
+    private DataOutputStream out;
+    private int columnType;
+    private List<String> rows;
+    private List<String> columns;
+    private Set<String> columnSet;
+    private long footerOffset;
+    private boolean isAppend;
+    private boolean isFailed = false;
+    private boolean isClosed = false;
+
+    // The existing footer offset, where staged columns are copied to on close
+    private long appendOffset;
+
+    private BinaryMatrixWriter(String filename, int columnType, List<String> rows, List<String> columns, long footerOffset,
+            boolean isAppend) throws IOException {
+
+        this.filename = filename;
+        this.columnType = columnType;
+        this.rows = rows;
+        this.columns = columns;
+        this.columnSet = new HashSet<String>(columns);
+        this.footerOffset = footerOffset;
+        this.appendOffset = footerOffset;
+        this.isAppend = isAppend;
+
+        if (isAppend) {
+            File dir = new File(filename).getAbsoluteFile().getParentFile();
+            outputFile = File.createTempFile("matrix_columns", ".tmp", dir);
+        } else {
+            outputFile = new File(filename);
+        }
+
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile, false), 65536));
+    }
+
+    /**
+     * Creates a new matrix with the specified row names and column type
+     * ({@code BinaryMatrix.INT64} or {@code BinaryMatrix.FLOAT64})
+     */
+    public static BinaryMatrixWriter create(String filename, List<String> rows, int columnType) throws IOException {
+        if ((columnType != BinaryMatrix.INT64) && (columnType != BinaryMatrix.FLOAT64)) {
+            throw new IllegalArgumentException("Invalid column type: " + columnType);
+        }
+
+        ByteArrayOutputStream rowBytes = new ByteArrayOutputStream();
+        DataOutputStream rowOut = new DataOutputStream(rowBytes);
+        for (String row : rows) {
+            rowOut.writeUTF(row);
+        }
+
+        // Align columns to 8 bytes
+        while ((BinaryMatrix.HEADER_LENGTH + rowBytes.size()) % 8 != 0) {
+            rowOut.writeByte(0);
+        }
+
+        long dataOffset = BinaryMatrix.HEADER_LENGTH + rowBytes.size();
+
+        BinaryMatrixWriter writer = new BinaryMatrixWriter(filename, columnType, new ArrayList<String>(rows),
+                new ArrayList<String>(), dataOffset, false);
+
+        boolean isComplete = false;
+        try {
+            writer.out.write(BinaryMatrix.MAGIC);
+            writer.out.writeInt(BinaryMatrix.VERSION);
+            writer.out.writeInt(columnType);
+            writer.out.writeInt(rows.size());
+            writer.out.writeInt(0);
+            writer.out.writeLong(dataOffset);
+            rowBytes.writeTo(writer.out);
+            isComplete = true;
+        } finally {
+            if (!isComplete) {
+                writer.abort();
+            }
+        }
+
+        return writer;
+    }
+
+    /**
+     * Opens an existing matrix for adding columns.  The matrix is not modified until close.
+     */
+    public static BinaryMatrixWriter append(String filename) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+
+        BinaryMatrix.Header header;
+        try {
+            header = BinaryMatrix.readHeader(file, filename);
+        } finally {
+            file.close();
+        }
+
+        return new BinaryMatrixWriter(filename, header.columnType, Arrays.asList(header.rows),
+                new ArrayList<String>(Arrays.asList(header.columns)), header.footerOffset, true);
+    }
+
+    public List<String> getRowNames() {
+        return rows;
+    }
+
+    public int getColumnType() {
+        return columnType;
+    }
+
+    public void addColumn(String name, long[] values) throws IOException {
+        checkColumn(name, values.length);
+
+        boolean isWritten = false;
+        try {
+            for (long value : values) {
+                writeValue(value);
+            }
+            isWritten = true;
+        } finally {
+            completeColumn(name, isWritten);
+        }
+    }
+
+    public void addColumn(String name, int[] values) throws IOException {
+        checkColumn(name, values.length);
+
+        boolean isWritten = false;
+        try {
+            for (int value : values) {
+                writeValue(value);
+            }
+            isWritten = true;
+        } finally {
+            completeColumn(name, isWritten);
+        }
+    }
+
+    public void addColumn(String name, double[] values) throws IOException {
+        checkColumn(name, values.length);
+
+        boolean isWritten = false;
+        try {
+            for (double value : values) {
+                if (columnType == BinaryMatrix.FLOAT64) {
+                    out.writeDouble(value);
+                } else {
+                    out.writeLong((long) value);
+                }
+            }
+            isWritten = true;
+        } finally {
+            completeColumn(name, isWritten);
+        }
+    }
+
+    private void writeValue(long value) throws IOException {
+        if (columnType == BinaryMatrix.INT64) {
+            out.writeLong(value);
+        } else {
+            out.writeDouble(value);
+        }
+    }
+
+    /**
+     * Validates the column before any values are written, so an invalid column leaves the writer usable.
+     */
+    private void checkColumn(String name, int numValues) {
+        if ((isFailed) || (isClosed)) {
+            throw new IllegalStateException("Matrix writer for: " + filename + " is no longer usable");
+        }
+
+        if (numValues != rows.size()) {
+            throw new IllegalArgumentException("Column: " + name + " has " + numValues + " values.  Expected: " + rows.size());
+        }
+
+        if (columnSet.contains(name)) {
+            throw new IllegalArgumentException("Sample: " + name + " already in matrix: " + filename);
+        }
+    }
+
+    private void completeColumn(String name, boolean isWritten) {
+        if (isWritten) {
+            columnSet.add(name);
+            columns.add(name);
+            footerOffset += (long) rows.size() * 8;
+        } else {
+            // A partial column cannot be removed from the stream
+            isFailed = true;
+        }
+    }
+
+    /**
+     * Writes the footer and closes the file.  If a column failed to be written, the output
+     * is discarded as for {@link #abort()} instead.
+     */
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+
+        if (isFailed) {
+            abort();
+            return;
+        }
+
+        isClosed = true;
+        boolean isComplete = false;
+
+        try {
+            if (isAppend) {
+                out.close();
+                replaceFooter();
+            } else {
+                out.write(getFooter());
+                out.close();
+            }
+
+            isComplete = true;
+        } finally {
+            if (!isComplete) {
+                closeQuietly();
+            }
+
+            if ((isAppend) || (!isComplete)) {
+                outputFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Discards the output without writing a footer.  A new matrix is deleted and an existing
+     * matrix is left unchanged.  Does not throw, so may be called from a finally block while
+     * another exception propagates.
+     */
+    public void abort() {
+        if (isClosed) {
+            return;
+        }
+
+        isClosed = true;
+        closeQuietly();
+        outputFile.delete();
+    }
+
+    private void closeQuietly() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Copies the staged columns over the existing footer and writes the new footer.
+     * <p>
+     * The old footer is truncated and synced first, so that if the copy is interrupted, the
+     * file ends with partial column data rather than a trailer that still looks valid.  The
+     * new footer is synced before returning.
+     */
+    private void replaceFooter() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "rw");
+        FileInputStream staged = new FileInputStream(outputFile);
+
+        try {
+            FileChannel channel = file.getChannel();
+            FileChannel stagedChannel = staged.getChannel();
+
+            file.setLength(appendOffset);
+            channel.force(true);
+
+            long position = appendOffset;
+            long size = stagedChannel.size();
+            while (position < appendOffset + size) {
+                position += channel.transferFrom(stagedChannel, position, appendOffset + size - position);
+            }
+
+            byte[] footer = getFooter();
+            channel.write(ByteBuffer.wrap(footer), position);
+            file.setLength(position + footer.length);
+            channel.force(true);
+        } finally {
+            staged.close();
+            file.close();
+        }
+    }
+
+    private byte[] getFooter() throws IOException {
+        ByteArrayOutputStream footerBytes = new ByteArrayOutputStream();
+        DataOutputStream footerOut = new DataOutputStream(footerBytes);
+
+        for (String column : columns) {
+            footerOut.writeUTF(column);
+        }
+
+        footerOut.writeInt(columns.size());
+        footerOut.writeLong(footerOffset);
+        footerOut.write(BinaryMatrix.MAGIC);
+
+        return footerBytes.toByteArray();
+    }
+}
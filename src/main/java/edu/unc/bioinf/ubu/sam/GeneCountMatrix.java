@@ -0,0 +1,161 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts genes for a cohort of samples and writes a gene x sample matrix of
+ * total and unique counts:
+ * <pre>
+ * gene  sample1_total  sample1_unique  sample2_total ...
+ * </pre>
+ * Samples are counted concurrently.  When there are more threads than samples, the
+ * remaining threads are used to count within each sample.
+ * <p>
+ * If the output file name ends with {@code BinaryMatrix.EXTENSION}, a binary matrix is
+ * written with int64 sample_total and sample_unique columns.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class GeneCountMatrix {
+
+	static final String GENE_HEADER = "gene";
+	static final String TOTAL_SUFFIX = "_total";
+	static final String UNIQUE_SUFFIX = "_unique";
+
+	/**
+	 * Counts the genes for a single sample.
+	 */
+	interface SampleCounter {
+		/**
+		 * Returns {total counts, unique counts} indexed by gene id in sorted gene order.
+		 */
+		long[][] countSample(String inputFile, int numThreads) throws IOException, InterruptedException;
+	}
+
+	private List<String> genes;
+
+	public GeneCountMatrix(List<String> genes) {
+		this.genes = genes;
+	}
+
+	public void countCohort(final SampleCounter counter, List<String> samples, List<String> inputFiles,
+			String outputFile, int numThreads) throws IOException, InterruptedException {
+
+		int sampleThreads = Math.max(1, Math.min(numThreads, samples.size()));
+		final int threadsPerSample = Math.max(1, numThreads / Math.max(1, samples.size()));
+
+		System.out.println("Counting " + samples.size() + " samples using " + sampleThreads + " threads");
+
+		ExecutorService workers = Executors.newFixedThreadPool(sampleThreads);
+		List<long[][]> counts = new ArrayList<long[][]>();
+
+		try {
+			List<Future<long[][]>> futures = new ArrayList<Future<long[][]>>();
+			for (final String inputFile : inputFiles) {
+				futures.add(workers.submit(new Callable<long[][]>() {
+					@Override
+					public long[][] call() throws Exception {
+						return counter.countSample(inputFile, threadsPerSample);
+					}
+				}));
+			}
+
+			for (int i=0; i<futures.size(); i++) {
+				counts.add(getCounts(futures.get(i)));
+				System.out.println("Counted sample: " + samples.get(i));
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+
+		if (outputFile.endsWith(BinaryMatrix.EXTENSION)) {
+			writeBinary(outputFile, samples, counts);
+		} else {
+			write(outputFile, samples, counts);
+		}
+	}
+
+	private long[][] getCounts(Future<long[][]> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Writes the matrix in binary form.  counts contains {total counts, unique counts} for each sample.
+	 * The output file is deleted if any column fails.
+	 */
+	public void writeBinary(String outputFile, List<String> samples, List<long[][]> counts) throws IOException {
+		BinaryMatrixWriter writer = BinaryMatrixWriter.create(outputFile, genes, BinaryMatrix.INT64);
+		boolean isComplete = false;
+
+		try {
+			for (int i=0; i<samples.size(); i++) {
+				writer.addColumn(samples.get(i) + TOTAL_SUFFIX, counts.get(i)[0]);
+				writer.addColumn(samples.get(i) + UNIQUE_SUFFIX, counts.get(i)[1]);
+			}
+
+			isComplete = true;
+		} finally {
+			if (!isComplete) {
+				writer.abort();
+			}
+		}
+
+		writer.close();
+	}
+
+	/**
+	 * Writes the matrix.  counts contains {total counts, unique counts} for each sample.
+	 */
+	public void write(String outputFile, List<String> samples, List<long[][]> counts) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile, false));
+
+		try {
+			StringBuilder line = new StringBuilder(GENE_HEADER);
+			for (String sample : samples) {
+				line.append('\t');
+				line.append(sample);
+				line.append(TOTAL_SUFFIX);
+				line.append('\t');
+				line.append(sample);
+				line.append(UNIQUE_SUFFIX);
+			}
+			line.append('\n');
+			writer.write(line.toString());
+
+			for (int i=0; i<genes.size(); i++) {
+				line.setLength(0);
+				line.append(genes.get(i));
+
+				for (long[][] sampleCounts : counts) {
+					line.append('\t');
+					line.append(sampleCounts[0][i]);
+					line.append('\t');
+					line.append(sampleCounts[1][i]);
+				}
+
+				line.append('\n');
+				writer.write(line.toString());
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.util.Arrays;
+
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Total and unique read counts indexed by {@code ReferenceGeneIndex} gene id.
+ * <p>
+ * Not thread safe.  Parallel counters give each worker its own instance and merge
+ * them when done.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+class GeneCounts {
+
+	private ReferenceGeneIndex geneIndex;
+	private long[] totalCounts;
+	private long[] uniqueCounts;
+
+	GeneCounts(ReferenceGeneIndex geneIndex) {
+		this.geneIndex = geneIndex;
+		totalCounts = new long[geneIndex.getNumIds()];
+		uniqueCounts = new long[geneIndex.getNumIds()];
+	}
+
+	ReferenceGeneIndex getGeneIndex() {
+		return geneIndex;
+	}
+
+	int getGene(SAMRecord read) {
+		Integer refIdx = read.getReferenceIndex();
+
+		if ((refIdx != null) && (refIdx >= 0)) {
+			return geneIndex.getGene(refIdx);
+		}
+
+		String isoform = read.getReferenceName();
+		return geneIndex.getGene(isoform, 0, isoform.length());
+	}
+
+	void increment(int gene, boolean isUnique) {
+		totalCounts[gene]++;
+
+		if (isUnique) {
+			uniqueCounts[gene]++;
+		}
+	}
+
+	void merge(GeneCounts counts) {
+		for (int i=0; i<totalCounts.length; i++) {
+			totalCounts[i] += counts.totalCounts[i];
+			uniqueCounts[i] += counts.uniqueCounts[i];
+		}
+	}
+
+	/**
+	 * Returns {total counts, unique counts} for the genes of the isoform gene map,
+	 * in sorted gene order.
+	 */
+	long[][] getCounts() {
+		int numGenes = geneIndex.getNumGenes();
+		return new long[][] { Arrays.copyOf(totalCounts, numGenes), Arrays.copyOf(uniqueCounts, numGenes) };
+	}
+}
@@ -3,54 +3,196 @@ package edu.unc.bioinf.ubu.sam;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.sf.samtools.SAMRecord;
 
 /**
  * Counts total and unique hits for reads against a given gene.
  * The input bam file must be generated by GenomeToTranscriptome with XG tags included.
+ * <p>
+ * With multiple threads, whole read name groups are batched to workers, so a read's
+ * alignments are always counted together.  A cohort of inputs may be counted into
+ * a gene x sample matrix via {@link #countCohort}.
  * 
  * @author Lisle Mose (lmose at unc dot edu)
  */
-public class GeneReadCounter {
+public class GeneReadCounter implements GeneCountMatrix.SampleCounter {
 	
-	private Map<String, Long> totalGeneCounts = new HashMap<String, Long>(); 
-	private Map<String, Long> uniqueGeneCounts = new HashMap<String, Long>();
+	// Read name groups per worker batch
+	private static final int BATCH_SIZE = 10000;
 	
 	private IsoformGeneMap isoformGeneMap = new IsoformGeneMap();
 	
-	private static final Long ONE = (long) 1;
-	private static final Long ZERO = (long) 0;
-
 	public void count(IsoformGeneMap isoformGeneMap, String inputSam, String outputFile) throws IOException {
+		try {
+			count(isoformGeneMap, inputSam, outputFile, 1);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void count(IsoformGeneMap isoformGeneMap, String inputSam, String outputFile, int numThreads) 
+		throws IOException, InterruptedException {
+		
 		this.isoformGeneMap = isoformGeneMap;
 		
+		long[][] counts = countSample(inputSam, numThreads);
+		
 		BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile, false));
 		
-		countGenes(inputSam);
-		outputCounts(writer);
+		try {
+			outputCounts(writer, counts);
+		} finally {
+			writer.close();
+		}
+	}
+	
+	public void countCohort(IsoformGeneMap isoformGeneMap, List<String> samples, List<String> inputFiles,
+			String outputFile, int numThreads) throws IOException, InterruptedException {
+		
+		this.isoformGeneMap = isoformGeneMap;
 		
-		writer.close();
+		new GeneCountMatrix(isoformGeneMap.getSortedGeneList()).countCohort(this, samples, inputFiles, outputFile, numThreads);
 	}
 	
-	private void countGenes(String inputFile) {
+	@Override
+	public long[][] countSample(String inputFile, int numThreads) throws InterruptedException {
 		SamMultiMappingReader reader = new SamMultiMappingReader(inputFile);
 		
-		// For each read
-		for (List<SAMRecord> reads : reader) {
+		try {
+			ReferenceGeneIndex geneIndex = new ReferenceGeneIndex(isoformGeneMap, reader.getFileHeader());
+			
+			if (numThreads > 1) {
+				return countParallel(reader, geneIndex, numThreads);
+			}
+			
+			GroupCounts counts = new GroupCounts(geneIndex);
+			
+			// For each read
+			for (List<SAMRecord> reads : reader) {
+				counts.countGroup(reads);
+			}
+			
+			return counts.getCounts();
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Read name groups are assembled on the calling thread and counted in batches by the workers.
+	 */
+	private long[][] countParallel(SamMultiMappingReader reader, ReferenceGeneIndex geneIndex, int numThreads) 
+		throws InterruptedException {
+		
+		BlockingQueue<GroupCounts> idleCounts = new ArrayBlockingQueue<GroupCounts>(numThreads);
+		List<GroupCounts> workerCounts = new ArrayList<GroupCounts>();
+		for (int i=0; i<numThreads; i++) {
+			GroupCounts worker = new GroupCounts(geneIndex);
+			workerCounts.add(worker);
+			idleCounts.add(worker);
+		}
+		
+		ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+		LinkedList<Future<?>> pending = new LinkedList<Future<?>>();
+		int maxPending = numThreads * 2;
+		
+		try {
+			List<List<SAMRecord>> batch = new ArrayList<List<SAMRecord>>(BATCH_SIZE);
 			
-			Set<String> genes = new HashSet<String>();
+			for (List<SAMRecord> reads : reader) {
+				batch.add(reads);
+				
+				if (batch.size() == BATCH_SIZE) {
+					pending.add(workers.submit(new CountBatch(batch, idleCounts)));
+					batch = new ArrayList<List<SAMRecord>>(BATCH_SIZE);
+					
+					while (pending.size() > maxPending) {
+						waitFor(pending.removeFirst());
+					}
+				}
+			}
+			
+			if (!batch.isEmpty()) {
+				pending.add(workers.submit(new CountBatch(batch, idleCounts)));
+			}
+			
+			while (!pending.isEmpty()) {
+				waitFor(pending.removeFirst());
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+		
+		GroupCounts counts = workerCounts.get(0);
+		for (int i=1; i<workerCounts.size(); i++) {
+			counts.merge(workerCounts.get(i));
+		}
+		
+		return counts.getCounts();
+	}
+	
+	private void waitFor(Future<?> future) throws InterruptedException {
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	private void outputCounts(BufferedWriter writer, long[][] counts) throws IOException {
+		List<String> genes = isoformGeneMap.getSortedGeneList();
+		StringBuilder line = new StringBuilder();
+		
+		// Gene ids are assigned in sorted gene order
+		for (int i=0; i<genes.size(); i++) {
+			line.setLength(0);
+			
+			line.append(genes.get(i));
+			line.append('\t');
+			line.append(counts[0][i]);
+			line.append('\t');
+			line.append(counts[1][i]);
+			
+			line.append('\n');
+			
+			writer.write(line.toString());
+		}
+	}
+	
+	/**
+	 * Counts read name groups.  A read is unique if all of its alignments share the same
+	 * genome coordinates.
+	 */
+	static class GroupCounts extends GeneCounts {
+		
+		// Distinct gene ids for the current read
+		private int[] readGenes = new int[16];
+		
+		GroupCounts(ReferenceGeneIndex geneIndex) {
+			super(geneIndex);
+		}
+		
+		void countGroup(List<SAMRecord> reads) {
+			int numGenes = 0;
 			boolean isUnique = true;
 			String prevGenomeCoords = null;
 
 			for (SAMRecord read : reads) {
-				String isoform = read.getReferenceName();
-				genes.add(isoformGeneMap.getGene(isoform));
+				numGenes = addGene(getGene(read), numGenes);
 				String genomeCoords = read.getStringAttribute("XG");
 				
 				if ((prevGenomeCoords != null) && (!genomeCoords.equals(prevGenomeCoords))) {
@@ -60,58 +202,76 @@ public class GeneReadCounter {
 				prevGenomeCoords = genomeCoords;
 			}
 
-			for (String gene : genes) {
-				incrementCount(totalGeneCounts, gene);
-				
-				if (isUnique) {
-					incrementCount(uniqueGeneCounts, gene);
-				}
+			for (int i=0; i<numGenes; i++) {
+				increment(readGenes[i], isUnique);
 			}
 		}
-	}
-	
-	private void outputCounts(BufferedWriter writer) throws IOException {
-		List<String> genes = isoformGeneMap.getSortedGeneList();
 		
-		for (String gene : genes) {
-			StringBuffer line = new StringBuffer();
-			
-			long totalCount = getCount(totalGeneCounts, gene);
-			long uniqueCount = getCount(uniqueGeneCounts, gene);
-			
-			line.append(gene);
-			line.append('\t');
-			line.append(totalCount);
-			line.append('\t');
-			line.append(uniqueCount);
+		/**
+		 * Adds the gene to the current read's distinct genes, returning the new number of genes.
+		 */
+		private int addGene(int gene, int numGenes) {
+			for (int i=0; i<numGenes; i++) {
+				if (readGenes[i] == gene) {
+					return numGenes;
+				}
+			}
 			
-			line.append('\n');
+			if (numGenes == readGenes.length) {
+				readGenes = Arrays.copyOf(readGenes, numGenes * 2);
+			}
 			
-			writer.write(line.toString());
+			readGenes[numGenes] = gene;
+			return numGenes + 1;
 		}
 	}
 	
-	private void incrementCount(Map<String, Long> counts, String gene) {
-		Long count = counts.get(gene);
-		if (count == null) {
-			counts.put(gene, ONE);
-		} else {
-			counts.put(gene, count + 1);
+	static class CountBatch implements Runnable {
+		private List<List<SAMRecord>> groups;
+		private BlockingQueue<GroupCounts> idleCounts;
+		
+		CountBatch(List<List<SAMRecord>> groups, BlockingQueue<GroupCounts> idleCounts) {
+			this.groups = groups;
+			this.idleCounts = idleCounts;
+		}
+
+		@Override
+		public void run() {
+			GroupCounts counts;
+			try {
+				counts = idleCounts.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			
+			try {
+				for (List<SAMRecord> reads : groups) {
+					counts.countGroup(reads);
+				}
+			} finally {
+				idleCounts.add(counts);
+			}
 		}
 	}
 	
-	private long getCount(Map<String, Long> counts, String gene) {
-		Long count = counts.get(gene);
-		if (count == null) {
-			count = ZERO;
-		}
-		return count;
+	static boolean isSampleList(String input) {
+		String name = input.toLowerCase();
+		return !name.endsWith(".bam") && !name.endsWith(".sam");
 	}
 	
-	public static void main(String[] args) throws IOException {
+	/**
+	 * Usage: isoform_gene_file input output [threads]
+	 * <p>
+	 * If input is not a SAM/BAM file, it is read as a sample list of "path" or
+	 * "sample&lt;tab&gt;path" lines and a gene x sample matrix is output.  The matrix is
+	 * binary if output ends with {@code BinaryMatrix.EXTENSION}.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
 		String isoformGeneFile = args[0];
 		String input = args[1];
 		String output = args[2];
+		int numThreads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
 		
 //		String isoformGeneFile = "/home/lisle/gaf/ref/gaf.knownToLocus";
 //		String input = "/home/lisle/data/gene_counts/small.bam";
@@ -122,7 +282,15 @@ public class GeneReadCounter {
 		IsoformGeneMap isoformGeneMap = new IsoformGeneMap();
 		isoformGeneMap.init(isoformGeneFile);
 		
-		new GeneReadCounter().count(isoformGeneMap, input, output);
+		if (isSampleList(input)) {
+			List<String> samples = new ArrayList<String>();
+			List<String> inputFiles = new ArrayList<String>();
+			SpliceJunctionCounter.loadSampleList(input, samples, inputFiles);
+			
+			new GeneReadCounter().countCohort(isoformGeneMap, samples, inputFiles, output, numThreads);
+		} else {
+			new GeneReadCounter().count(isoformGeneMap, input, output, numThreads);
+		}
 		
 		long e = System.currentTimeMillis();
 		
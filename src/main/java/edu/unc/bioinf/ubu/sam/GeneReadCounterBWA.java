@@ -4,109 +4,256 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileReader;
 import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMRecordIterator;
 import net.sf.samtools.SAMFileReader.ValidationStringency;
 
 /**
  * Counts total and unique hits for reads against a given gene.
  * Input BAM is expected to be aligned to transcriptome.
+ * <p>
+ * With multiple threads, indexed BAMs are sharded by reference region with each worker
+ * querying its own reader.  Other inputs are decoded on the calling thread and counted
+ * in batches by the workers.  A cohort of inputs may be counted into a gene x sample
+ * matrix via {@link #countCohort}.
  * 
  * TODO: Either merge with GeneReadCounter or discard.
  * 
  * @author Lisle Mose (lmose at unc dot edu)
  */
-public class GeneReadCounterBWA {
+public class GeneReadCounterBWA implements GeneCountMatrix.SampleCounter {
 	
-	private Map<String, Long> totalGeneCounts = new HashMap<String, Long>(); 
-	private Map<String, Long> uniqueGeneCounts = new HashMap<String, Long>();
+	private static final int BATCH_SIZE = 10000;
 	
 	private IsoformGeneMap isoformGeneMap = new IsoformGeneMap();
-	
-	private static final Long ONE = (long) 1;
-	private static final Long ZERO = (long) 0;
 
 	public void count(IsoformGeneMap isoformGeneMap, String inputSam, String outputFile) throws IOException {
+		try {
+			count(isoformGeneMap, inputSam, outputFile, 1);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void count(IsoformGeneMap isoformGeneMap, String inputSam, String outputFile, int numThreads) 
+		throws IOException, InterruptedException {
+		
 		this.isoformGeneMap = isoformGeneMap;
 		
+		long[][] counts = countSample(inputSam, numThreads);
+		
 		BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile, false));
 		
-		countGenes(inputSam);
-		outputCounts(writer);
+		try {
+			outputCounts(writer, counts);
+		} finally {
+			writer.close();
+		}
+	}
+	
+	public void countCohort(IsoformGeneMap isoformGeneMap, List<String> samples, List<String> inputFiles,
+			String outputFile, int numThreads) throws IOException, InterruptedException {
+		
+		this.isoformGeneMap = isoformGeneMap;
 		
-		writer.close();
+		new GeneCountMatrix(isoformGeneMap.getSortedGeneList()).countCohort(this, samples, inputFiles, outputFile, numThreads);
 	}
 	
-	private void countGenes(String inputFile) {
+	@Override
+	public long[][] countSample(String inputFile, int numThreads) throws InterruptedException {
 		
         File file = new File(inputFile);
         
         SAMFileReader reader = new SAMFileReader(file);
         reader.setValidationStringency(ValidationStringency.SILENT);
-
-        int cnt = 0;
-        for (SAMRecord read : reader) {
-        	if (!read.getReadUnmappedFlag()) {
-        		Set<String> genes = new HashSet<String>();
-        		
-        		String isoform = read.getReferenceName();
-        		String gene = isoformGeneMap.getGene(isoform);
-        		genes.add(gene);
-        		
-        		int x0 = 1;
-        		Integer x0Tag = read.getIntegerAttribute("X0");
-        		if (x0Tag != null) {
-        			x0 = x0Tag;
-        		}
-        		
-        		String xaTag = read.getStringAttribute("XA");
-
-        		if (xaTag != null) {
-	        		String[] isos = xaTag.split(";");
-	        		for (String iso : isos) {
-	        			String[] fields = iso.split(",");
-	        			if (fields.length > 0) {
-	        				String isoId = fields[0];
-	        				String geneId = isoformGeneMap.getGene(isoId);
-	        				genes.add(geneId);
-	        			}
-	        		}
-        		}
+        
+        try {
+        	SAMFileHeader header = reader.getFileHeader();
+        	ReferenceGeneIndex geneIndex = new ReferenceGeneIndex(isoformGeneMap, header);
+        	
+        	if ((numThreads > 1) && (reader.hasIndex())) {
+        		return countIndexed(file, header, geneIndex, numThreads);
+        	} else if (numThreads > 1) {
+        		return countParallel(reader, geneIndex, numThreads);
+        	}
+        	
+        	ReadCounts counts = new ReadCounts(geneIndex);
+        	
+        	int cnt = 0;
+        	for (SAMRecord read : reader) {
+        		counts.countRead(read);
         		
-        		if ((genes.size() == 1) && (x0 < 100)) {
-        			incrementCount(uniqueGeneCounts, gene);
+        		if ((cnt++ % 1000000) == 0) {
+        			System.out.println("Processed " + cnt + " reads.");
         		}
-        		
-        		incrementCount(totalGeneCounts, gene);
         	}
         	
-            if ((cnt++ % 1000000) == 0) {
-            	System.out.println("Processed " + cnt + " reads.");
-            }
+        	return counts.getCounts();
+        } finally {
+        	reader.close();
         }
 	}
 	
-	private void outputCounts(BufferedWriter writer) throws IOException {
-		List<String> genes = isoformGeneMap.getSortedGeneList();
+	/**
+	 * Each worker opens its own reader and queries shards of the reference sequences
+	 * via the BAM index.
+	 */
+	private long[][] countIndexed(File file, SAMFileHeader header, ReferenceGeneIndex geneIndex, int numThreads) 
+		throws InterruptedException {
+		
+		List<int[]> shards = SamSummarizer.getShards(header, SamSummarizer.SHARD_SIZE);
+		
+		ConcurrentLinkedQueue<int[]> remainingShards = new ConcurrentLinkedQueue<int[]>(shards);
+		ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		List<ReadCounts> workerCounts = new ArrayList<ReadCounts>();
+		
+		try {
+			for (int i=0; i<numThreads; i++) {
+				ReadCounts worker = new ReadCounts(geneIndex);
+				workerCounts.add(worker);
+				futures.add(workers.submit(new CountShards(file, header, remainingShards, worker)));
+			}
+			
+			for (Future<?> future : futures) {
+				waitFor(future);
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+		
+		return merge(workerCounts);
+	}
+	
+	/**
+	 * Reads are decoded on the calling thread and counted in batches by the workers.
+	 */
+	private long[][] countParallel(SAMFileReader reader, ReferenceGeneIndex geneIndex, int numThreads) 
+		throws InterruptedException {
+		
+		BlockingQueue<ReadCounts> idleCounts = new ArrayBlockingQueue<ReadCounts>(numThreads);
+		List<ReadCounts> workerCounts = new ArrayList<ReadCounts>();
+		for (int i=0; i<numThreads; i++) {
+			ReadCounts worker = new ReadCounts(geneIndex);
+			workerCounts.add(worker);
+			idleCounts.add(worker);
+		}
+		
+		ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+		LinkedList<Future<?>> pending = new LinkedList<Future<?>>();
+		int maxPending = numThreads * 2;
+		
+		try {
+			List<SAMRecord> batch = new ArrayList<SAMRecord>(BATCH_SIZE);
+			
+			for (SAMRecord read : reader) {
+				batch.add(read);
+				
+				if (batch.size() == BATCH_SIZE) {
+					pending.add(workers.submit(new CountBatch(batch, idleCounts)));
+					batch = new ArrayList<SAMRecord>(BATCH_SIZE);
+					
+					while (pending.size() > maxPending) {
+						waitFor(pending.removeFirst());
+					}
+				}
+			}
+			
+			if (!batch.isEmpty()) {
+				pending.add(workers.submit(new CountBatch(batch, idleCounts)));
+			}
+			
+			while (!pending.isEmpty()) {
+				waitFor(pending.removeFirst());
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+		
+		return merge(workerCounts);
+	}
+	
+	private long[][] merge(List<ReadCounts> workerCounts) {
+		ReadCounts counts = workerCounts.get(0);
+		for (int i=1; i<workerCounts.size(); i++) {
+			counts.merge(workerCounts.get(i));
+		}
 		
-		for (String gene : genes) {
-			StringBuffer line = new StringBuffer();
+		return counts.getCounts();
+	}
+	
+	private void waitFor(Future<?> future) throws InterruptedException {
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Returns true if all alternate hits in the XA tag (chr,pos,CIGAR,NM;...) are
+	 * isoforms of the specified gene.  The tag is scanned in place.  Hits on references
+	 * missing from the header are treated as other genes.
+	 */
+	static boolean isXaSameGene(String xaTag, int gene, ReferenceGeneIndex geneIndex) {
+		if (xaTag == null) {
+			return true;
+		}
+		
+		int len = xaTag.length();
+		int start = 0;
+		
+		while (start < len) {
+			int hitEnd = xaTag.indexOf(';', start);
+			if (hitEnd < 0) {
+				hitEnd = len;
+			}
+			
+			int nameEnd = xaTag.indexOf(',', start);
+			if ((nameEnd < 0) || (nameEnd > hitEnd)) {
+				nameEnd = hitEnd;
+			}
 			
-			long totalCount = getCount(totalGeneCounts, gene);
+			if ((nameEnd > start) && (geneIndex.getGene(xaTag, start, nameEnd) != gene)) {
+				return false;
+			}
 			
-			long uniqueCount = getCount(uniqueGeneCounts, gene);
+			start = hitEnd + 1;
+		}
+		
+		return true;
+	}
+	
+	private void outputCounts(BufferedWriter writer, long[][] counts) throws IOException {
+		List<String> genes = isoformGeneMap.getSortedGeneList();
+		StringBuilder line = new StringBuilder();
+		
+		// Gene ids are assigned in sorted gene order
+		for (int i=0; i<genes.size(); i++) {
+			line.setLength(0);
 			
-			line.append(gene);
+			line.append(genes.get(i));
 			line.append('\t');
-			line.append(totalCount);
+			line.append(counts[0][i]);
 			line.append('\t');
-			line.append(uniqueCount);
+			line.append(counts[1][i]);
 			
 //			line.append('\t');
 //			line.append(totalCount - uniqueCount);
@@ -117,28 +264,119 @@ public class GeneReadCounterBWA {
 		}
 	}
 	
-	private void incrementCount(Map<String, Long> counts, String gene) {
-		Long count = counts.get(gene);
-		if (count == null) {
-			counts.put(gene, ONE);
-		} else {
-			counts.put(gene, count + 1);
+	/**
+	 * Counts individual alignments.  A read is unique if it has fewer than 100 best hits and
+	 * all of its alternate hits are isoforms of the same gene.
+	 */
+	static class ReadCounts extends GeneCounts {
+		
+		ReadCounts(ReferenceGeneIndex geneIndex) {
+			super(geneIndex);
+		}
+		
+		void countRead(SAMRecord read) {
+			if (!read.getReadUnmappedFlag()) {
+				int gene = getGene(read);
+				
+				int x0 = 1;
+				Integer x0Tag = read.getIntegerAttribute("X0");
+				if (x0Tag != null) {
+					x0 = x0Tag;
+				}
+				
+				String xaTag = read.getStringAttribute("XA");
+				
+				increment(gene, (isXaSameGene(xaTag, gene, getGeneIndex())) && (x0 < 100));
+			}
+		}
+	}
+	
+	static class CountBatch implements Runnable {
+		private List<SAMRecord> reads;
+		private BlockingQueue<ReadCounts> idleCounts;
+		
+		CountBatch(List<SAMRecord> reads, BlockingQueue<ReadCounts> idleCounts) {
+			this.reads = reads;
+			this.idleCounts = idleCounts;
+		}
+
+		@Override
+		public void run() {
+			ReadCounts counts;
+			try {
+				counts = idleCounts.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			
+			try {
+				for (SAMRecord read : reads) {
+					counts.countRead(read);
+				}
+			} finally {
+				idleCounts.add(counts);
+			}
 		}
 	}
 	
-	private long getCount(Map<String, Long> counts, String gene) {
-		Long count = counts.get(gene);
-		if (count == null) {
-			count = ZERO;
+	static class CountShards implements Runnable {
+		private File file;
+		private SAMFileHeader header;
+		private Queue<int[]> shards;
+		private ReadCounts counts;
+		
+		CountShards(File file, SAMFileHeader header, Queue<int[]> shards, ReadCounts counts) {
+			this.file = file;
+			this.header = header;
+			this.shards = shards;
+			this.counts = counts;
+		}
+
+		@Override
+		public void run() {
+			SAMFileReader reader = new SAMFileReader(file);
+			reader.setValidationStringency(ValidationStringency.SILENT);
+			
+			try {
+				int[] shard;
+				while ((shard = shards.poll()) != null) {
+					String reference = header.getSequence(shard[0]).getSequenceName();
+					int shardStart = shard[1];
+					
+					SAMRecordIterator iter = reader.query(reference, shardStart, shard[2], false);
+					try {
+						while (iter.hasNext()) {
+							SAMRecord read = iter.next();
+							
+							// Reads spanning a shard boundary are counted by the shard they start in
+							if (read.getAlignmentStart() >= shardStart) {
+								counts.countRead(read);
+							}
+						}
+					} finally {
+						iter.close();
+					}
+				}
+			} finally {
+				reader.close();
+			}
 		}
-		return count;
 	}
 	
-	public static void main(String[] args) throws IOException {
+	/**
+	 * Usage: isoform_gene_file input output [threads]
+	 * <p>
+	 * If input is not a SAM/BAM file, it is read as a sample list of "path" or
+	 * "sample&lt;tab&gt;path" lines and a gene x sample matrix is output.  The matrix is
+	 * binary if output ends with {@code BinaryMatrix.EXTENSION}.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
 				
 		String isoformGeneFile = args[0];
 		String input = args[1];
 		String output = args[2];
+		int numThreads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
 		
 //		String isoformGeneFile = "/home/lisle/gaf/ref/gaf.knownToLocus";
 //		String input = "/home/lisle/data/gene_counts/bwa2.bam";
@@ -149,7 +387,15 @@ public class GeneReadCounterBWA {
 		IsoformGeneMap isoformGeneMap = new IsoformGeneMap();
 		isoformGeneMap.init(isoformGeneFile);
 		
-		new GeneReadCounterBWA().count(isoformGeneMap, input, output);
+		if (GeneReadCounter.isSampleList(input)) {
+			List<String> samples = new ArrayList<String>();
+			List<String> inputFiles = new ArrayList<String>();
+			SpliceJunctionCounter.loadSampleList(input, samples, inputFiles);
+			
+			new GeneReadCounterBWA().countCohort(isoformGeneMap, samples, inputFiles, output, numThreads);
+		} else {
+			new GeneReadCounterBWA().count(isoformGeneMap, input, output, numThreads);
+		}
 		
 		long e = System.currentTimeMillis();
 		
@@ -1,5 +1,6 @@
 package edu.unc.bioinf.ubu.sam;
 
+import java.io.File;
 import java.util.Date;
 
 /**
@@ -53,28 +54,45 @@ public class GenomeToTranscriptome {
             
             System.out.println(getAllArgsString(options));
             
-            // Load isoform ordering if fasta file is specified
             IsoformOrderLoader isoformOrderLoader = null;
+            IsoformIndex isoformIndex;
             
-            if (options.hasOrderingFastaFile()) {
-                System.out.println("Determining isoform header order");
-                isoformOrderLoader = new IsoformOrderLoader();
-                isoformOrderLoader.loadOrdering(options.getOrderingFastaFile());
+            if (options.hasIndexFile()) {
+                // Prebuilt index contains isoforms and ordering
+                System.out.println("Loading isoform index");
+                IsoformIndexFile indexFile = IsoformIndexFile.load(options.getIndexFile());
+                isoformIndex = indexFile.getIsoformIndex();
+                isoformOrderLoader = indexFile.getIsoformOrderLoader();
             } else {
-                System.out.println("Skipping isoform header order determination");
+                // Load isoform ordering if fasta file is specified
+                if (options.hasOrderingFastaFile()) {
+                    System.out.println("Determining isoform header order");
+                    isoformOrderLoader = new IsoformOrderLoader();
+                    isoformOrderLoader.loadOrdering(options.getOrderingFastaFile());
+                } else {
+                    System.out.println("Skipping isoform header order determination");
+                }
+                
+                // Build read index from bed file
+                System.out.println("Building read index");
+                isoformIndex = new IsoformIndex();
+                isoformIndex.buildReadToIsoformIndex(options.getBedFile());
             }
             
-            // Build read index from bed file
-            System.out.println("Building read index");
-            IsoformIndex isoformIndex = new IsoformIndex();
-            isoformIndex.buildReadToIsoformIndex(options.getBedFile(), options.getReadOffset());
-            
             // Instantiate converter and run
             System.out.println("Converting");
             
             GenomeToTranscriptomeConverter converter = new GenomeToTranscriptomeConverter(isoformIndex, isoformOrderLoader, options.isSingleEnd());
             converter.setPositiveStrandReportingOnly(options.isPositiveStrandReportingOnly());
             converter.setShouldOutputXgTags(options.shouldOutputXgTags());
+            converter.setNumThreads(options.getNumThreads());
+            converter.setOrderedOutput(options.isOrderedOutput());
+            converter.setSortedOutput(options.isSortedOutput());
+            converter.setNumSortBuckets(options.getNumSortBuckets());
+            converter.setMaxRecordsInRam(options.getMaxRecordsInRam());
+            if (options.getTempDir() != null) {
+                converter.setTempDir(new File(options.getTempDir()));
+            }
             
             converter.convertFile(options.getInputAlignmentFile(), options.getOutputAlignmentFile());
                     
@@ -89,6 +107,7 @@ public class GenomeToTranscriptome {
         StringBuffer buf = new StringBuffer();
         
         buf.append("bedFile: " + options.getBedFile() + "\n");            
+        buf.append("indexFile: " + options.getIndexFile() + "\n");
         buf.append("readOffset: " + options.getReadOffset() + "\n");
         buf.append("inputAlignmentFile: " + options.getInputAlignmentFile() + "\n");
         buf.append("outputAlignmentFile: " + options.getOutputAlignmentFile() + "\n");
@@ -105,6 +124,12 @@ public class GenomeToTranscriptome {
         
         buf.append("single: " + options.isSingleEnd() + "\n");
         
+        buf.append("threads: " + options.getNumThreads() + "\n");
+        
+        buf.append("ordered: " + options.isOrderedOutput() + "\n");
+        
+        buf.append("sort: " + options.isSortedOutput() + "\n");
+        
         return buf.toString();
     }
 }
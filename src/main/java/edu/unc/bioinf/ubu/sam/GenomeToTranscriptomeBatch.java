@@ -0,0 +1,85 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Converts a batch of genomic reads or ReadPairs to transcriptome coordinates on a worker thread.
+ * An idle converter is borrowed for the duration of the batch so that its scratch buffers
+ * are never shared between threads.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class GenomeToTranscriptomeBatch implements Callable<List<SAMRecord>> {
+
+	private BlockingQueue<GenomeToTranscriptomeConverter> idleConverters;
+	private SAMFileHeader header;
+	private List<Object> reads;
+	private int capacity;
+
+	public GenomeToTranscriptomeBatch(BlockingQueue<GenomeToTranscriptomeConverter> idleConverters,
+			SAMFileHeader header, int capacity) {
+		this.idleConverters = idleConverters;
+		this.header = header;
+		this.capacity = capacity;
+		this.reads = new ArrayList<Object>(capacity);
+	}
+
+	/**
+	 * Adds a SAMRecord (single end) or ReadPair (paired end).
+	 */
+	public void add(Object read) {
+		reads.add(read);
+	}
+
+	public boolean isFull() {
+		return reads.size() >= capacity;
+	}
+
+	public boolean isEmpty() {
+		return reads.isEmpty();
+	}
+
+	/**
+	 * Returns true if the input ReadPair may share SAMRecords with the last ReadPair in this batch.
+	 */
+	public boolean isSameRead(Object read) {
+		if ((reads.isEmpty()) || (!(read instanceof ReadPair))) {
+			return false;
+		}
+
+		ReadPair last = (ReadPair) reads.get(reads.size()-1);
+		String name = ((ReadPair) read).getRead1().getReadName();
+
+		return name.equals(last.getRead1().getReadName()) || name.equals(last.getRead2().getReadName());
+	}
+
+	@Override
+	public List<SAMRecord> call() throws Exception {
+		List<SAMRecord> output = new ArrayList<SAMRecord>(reads.size());
+		GenomeToTranscriptomeConverter converter = idleConverters.take();
+
+		try {
+			for (Object read : reads) {
+				if (read instanceof ReadPair) {
+					ReadPair pair = (ReadPair) read;
+					converter.convert(pair.getRead1(), pair.getRead2(), header, output);
+				} else {
+					converter.convert((SAMRecord) read, header, output);
+				}
+			}
+		} finally {
+			idleConverters.put(converter);
+		}
+
+		// Release the input reads as soon as they are converted
+		reads = null;
+
+		return output;
+	}
+}
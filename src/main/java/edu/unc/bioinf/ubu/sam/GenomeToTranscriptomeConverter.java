@@ -2,13 +2,20 @@ package edu.unc.bioinf.ubu.sam;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.sf.samtools.Cigar;
-import net.sf.samtools.CigarElement;
-import net.sf.samtools.CigarOperator;
 import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileReader;
 import net.sf.samtools.SAMFileWriter;
@@ -17,6 +24,8 @@ import net.sf.samtools.SAMRecord;
 import net.sf.samtools.SAMSequenceRecord;
 import net.sf.samtools.SAMFileReader.ValidationStringency;
 
+import edu.unc.bioinf.ubu.sam.TranscriptCigarCache.TranscriptCigars;
+
 /**
  * Converts a SAM or BAM file in Genome coordinates to Transcriptome coordinates.
  * 
@@ -34,12 +43,38 @@ public class GenomeToTranscriptomeConverter {
         
     private int totalPairsOutput = 0;
     
+    private int numThreads = 1;
+    private boolean isOrderedOutput = true;
+    private boolean isSortedOutput = false;
+    private int numSortBuckets = TranscriptomeBucketWriter.DEFAULT_NUM_BUCKETS;
+    private int maxRecordsInRam = TranscriptomeBucketWriter.DEFAULT_MAX_RECORDS_IN_RAM;
+    private File tempDir = null;
+    private static final int BATCH_SIZE = 10000;
+    
+    // Reused across reads to avoid per read allocation
+    private List<Isoform> potentialIsoforms = new ArrayList<Isoform>();
+    private int[] coords1 = new int[64];
+    private int[] coords2 = new int[64];
+    private ReadBlockIterator blocks = new ReadBlockIterator();
+    private TranscriptCigarCache cigarCache = new TranscriptCigarCache();
+    private long cigarCacheHits = 0;
+    private long cigarCacheMisses = 0;
+    
     public GenomeToTranscriptomeConverter(IsoformIndex isoformIndex, IsoformOrderLoader isoformOrderLoader,
     		boolean isSingleEnd) {
         this.isoformIndex = isoformIndex;
         this.isoformOrderLoader = isoformOrderLoader;
         this.isSingleEnd = isSingleEnd;
     }
+    
+    /**
+     * Creates a worker converter sharing the template's index and settings, with its own scratch buffers.
+     */
+    private GenomeToTranscriptomeConverter(GenomeToTranscriptomeConverter template) {
+        this(template.isoformIndex, null, template.isSingleEnd);
+        this.isPositiveStrandReportingOnly = template.isPositiveStrandReportingOnly;
+        this.shouldOutputXgTags = template.shouldOutputXgTags;
+    }
    
     private SAMFileHeader buildHeader() {
         SAMFileHeader header = new SAMFileHeader();
@@ -67,78 +102,31 @@ public class GenomeToTranscriptomeConverter {
     }
     
     private List<Isoform> getPotentialIsoforms(SAMRecord read1, SAMRecord read2) {
-    	List<Isoform> isoforms = null;
+    	potentialIsoforms.clear();
     	
     	if (read1.getReferenceName().equals(read2.getReferenceName())) {
-    		isoforms = getPotentialIsoforms(read1.getReferenceName(), read1.getAlignmentStart(), read2.getAlignmentEnd());
-    	} else {
-    		isoforms = new ArrayList<Isoform>();
+    		isoformIndex.getPotentialIsoforms(read1.getReferenceName(), read1.getAlignmentStart(), read2.getAlignmentEnd(), potentialIsoforms);
     	}
     	
-    	return isoforms;
+    	return potentialIsoforms;
     }
     
     /** 
-     * Returns a list all isoforms that approximately match the specified
-     * genomic coordinates. 
+     * Returns a list all isoforms containing the specified genomic coordinates.
+     * The returned list is reused by subsequent calls.
      */
-    public List<Isoform> getPotentialIsoforms(String chromosome, int genomicStartPos, int genomicEndPos) {
-        List<Isoform> potentialIsoforms = new ArrayList<Isoform>();
-        Collection<String> potentials = isoformIndex.getPotentialIsoforms(chromosome, genomicStartPos);
-        
-        for (String isoformId : potentials) {
-            Isoform isoform = isoformIndex.getIsoform(isoformId);
-            if (isoform.containsWithinGenomicRange(genomicStartPos, genomicEndPos)) {
-                potentialIsoforms.add(isoform);
-            }
-        }
-        
+    private List<Isoform> getPotentialIsoforms(String chromosome, int genomicStartPos, int genomicEndPos) {
+        potentialIsoforms.clear();
+        isoformIndex.getPotentialIsoforms(chromosome, genomicStartPos, genomicEndPos, potentialIsoforms);
         return potentialIsoforms;
     }
     
-    private List<CigarElement> stripIntrons(Cigar cigar) {
-        List<CigarElement> elements = new ArrayList<CigarElement>();
-        CigarElement prevNonIntronElement = null;
-        
-        for (CigarElement element : cigar.getCigarElements()) {
-            // Omit introns
-            if (element.getOperator() != CigarOperator.N) {
-                
-                // Combine contiguous elements with the same operator
-                if ((prevNonIntronElement != null) && (prevNonIntronElement.getOperator() == element.getOperator())) {
-                    elements.remove(prevNonIntronElement);
-                    element = new CigarElement(prevNonIntronElement.getLength() + element.getLength(), element.getOperator());
-                    elements.add(element);
-                } else {                
-                    elements.add(element);
-                }
-                
-                prevNonIntronElement = element;
-            }
-        }
-        
-        return elements;        
-    }
-    
-    private Cigar getPositiveStrandCigar(List<CigarElement> elements) {
-        Cigar cigar = new Cigar();
-        
-        for (CigarElement element : elements) {
-            cigar.add(element);
-        }
-        
-        return cigar;
-    }
-    
-    private Cigar getNegativeStrandCigar(List<CigarElement> elements) {
-        Collections.reverse(elements);
-        Cigar cigar = new Cigar();
-        
-        for (CigarElement element : elements) {
-            cigar.add(element);
-        }
-        
-        return cigar;
+    /**
+     * Returns a coordinate buffer large enough to match the input read.
+     */
+    private int[] ensureCapacity(int[] coords, SAMRecord read) {
+        int required = read.getCigarLength() * 2;
+        return coords.length >= required ? coords : new int[required];
     }
     
     private SAMRecord cloneRead(SAMRecord read) {
@@ -152,7 +140,7 @@ public class GenomeToTranscriptomeConverter {
     }
         
     private SAMRecord buildTranscriptRead(SAMRecord read, Isoform isoform, 
-    		SAMFileHeader header, Cigar positiveCigar, Cigar negativeCigar, int sequenceLength, List<Coordinate> readCoordinates) {
+    		SAMFileHeader header, Cigar positiveCigar, Cigar negativeCigar, int sequenceLength, int transcriptStart, int transcriptStop) {
     	
         SAMRecord transcriptRead = cloneRead(read);
         
@@ -166,7 +154,7 @@ public class GenomeToTranscriptomeConverter {
         
         if ((isPositiveStrandReportingOnly) || (isoform.isPositiveStrand())) {
             cigar = positiveCigar;
-            readAlignmentStart = readCoordinates.get(0).getStart();
+            readAlignmentStart = transcriptStart;
             
         } else {
             // Negative strand
@@ -175,7 +163,7 @@ public class GenomeToTranscriptomeConverter {
             cigar = negativeCigar;
 
             // Reference alignments from the end of the isoform
-            readAlignmentStart = isoform.getLength() - readCoordinates.get(readCoordinates.size()-1).getStop() + 1;
+            readAlignmentStart = isoform.getLength() - transcriptStop + 1;
             
             transcriptRead.setReadBases(reverseComplementor.reverseComplement(transcriptRead.getReadBases()));
             transcriptRead.setBaseQualities(reverseComplementor.reverse(transcriptRead.getBaseQualities()));
@@ -203,7 +191,7 @@ public class GenomeToTranscriptomeConverter {
     }
     
     // Single end, does not include dupe or cluster counting.
-    private void convertAndOutput(SAMRecord read, SAMFileWriter outputSam, SAMFileHeader header) {
+    void convert(SAMRecord read, SAMFileHeader header, List<SAMRecord> output) {
                 
         List<Isoform> potentialIsoformMatches = getPotentialIsoforms(read.getReferenceName(), read.getAlignmentStart(), read.getAlignmentEnd());
         
@@ -212,36 +200,36 @@ public class GenomeToTranscriptomeConverter {
         
         // Convert to transcript Cigar
         if (!potentialIsoformMatches.isEmpty()) {
-            List<CigarElement> elements = stripIntrons(read.getCigar());
+            coords1 = ensureCapacity(coords1, read);
+            TranscriptCigars cigars = cigarCache.get(read);
             
-            positiveCigar = getPositiveStrandCigar(elements);
-            // Mutates elements!
-            negativeCigar = getNegativeStrandCigar(elements);
+            positiveCigar = cigars.getPositiveStrandCigar();
+            negativeCigar = cigars.getNegativeStrandCigar();
         }
         
         for (Isoform isoform : potentialIsoformMatches) {
-            List<Coordinate> readCoordinates = isoform.match(read);
+            int numBlocks = isoform.match(read, blocks, coords1);
             
-            if (!readCoordinates.isEmpty()) {
+            if (numBlocks > 0) {
+                int transcriptStart = coords1[0];
+                int transcriptStop = coords1[numBlocks*2-1];
                 
                 // Calc the length of the isoform insert (coordinates are inclusive so add 1 to get correct len)
-                int sequenceLength = 
-                    readCoordinates.get(readCoordinates.size()-1).getStop() -
-                    readCoordinates.get(0).getStart() + 1;
+                int sequenceLength = transcriptStop - transcriptStart + 1;
                 
-                SAMRecord transcriptRead = buildTranscriptRead(read, isoform, header, positiveCigar, negativeCigar, sequenceLength, readCoordinates);
+                SAMRecord transcriptRead = buildTranscriptRead(read, isoform, header, positiveCigar, negativeCigar, sequenceLength, transcriptStart, transcriptStop);
                 // Mate info is unspecified
                 transcriptRead.setMateAlignmentStart(0);
                 transcriptRead.setMateReferenceName("*");
                 transcriptRead.setMateUnmappedFlag(true);
                 
-                outputSam.addAlignment(transcriptRead);
+                output.add(transcriptRead);
             }
         }
     }
 
     // Paired end
-    private void convertAndOutput(SAMRecord read1, SAMRecord read2, SAMFileWriter outputSam, SAMFileHeader header) {
+    void convert(SAMRecord read1, SAMRecord read2, SAMFileHeader header, List<SAMRecord> output) {
 
         List<Isoform> potentialIsoformMatches = getPotentialIsoforms(read1, read2);
         
@@ -252,38 +240,40 @@ public class GenomeToTranscriptomeConverter {
         
         // Convert to transcript Cigar
         if (!potentialIsoformMatches.isEmpty()) {
-            List<CigarElement> elements1 = stripIntrons(read1.getCigar());
-            List<CigarElement> elements2 = stripIntrons(read2.getCigar());
+            coords1 = ensureCapacity(coords1, read1);
+            coords2 = ensureCapacity(coords2, read2);
+            TranscriptCigars cigars1 = cigarCache.get(read1);
+            TranscriptCigars cigars2 = cigarCache.get(read2);
             
-            positiveCigar1 = getPositiveStrandCigar(elements1);
-            // Mutates elements!
-            negativeCigar1 = getNegativeStrandCigar(elements1);
-            positiveCigar2 = getPositiveStrandCigar(elements2);
-            // Mutates elements!
-            negativeCigar2 = getNegativeStrandCigar(elements2);
+            positiveCigar1 = cigars1.getPositiveStrandCigar();
+            negativeCigar1 = cigars1.getNegativeStrandCigar();
+            positiveCigar2 = cigars2.getPositiveStrandCigar();
+            negativeCigar2 = cigars2.getNegativeStrandCigar();
         }
         
         for (Isoform isoform : potentialIsoformMatches) {
-            List<Coordinate> read1Coordinates = isoform.match(read1);
-            List<Coordinate> read2Coordinates = isoform.match(read2);
+            int numBlocks1 = isoform.match(read1, blocks, coords1);
+            int numBlocks2 = numBlocks1 > 0 ? isoform.match(read2, blocks, coords2) : 0;
                         
-            if (!read1Coordinates.isEmpty() && !read2Coordinates.isEmpty()) {
+            if (numBlocks2 > 0) {
+                int transcriptStart1 = coords1[0];
+                int transcriptStop1 = coords1[numBlocks1*2-1];
+                int transcriptStart2 = coords2[0];
+                int transcriptStop2 = coords2[numBlocks2*2-1];
                 
                 // Calc the length of the isoform insert (coordinates are inclusive so add 1 to get correct len)
-                int sequenceLength = 
-                    read2Coordinates.get(read2Coordinates.size()-1).getStop() -
-                    read1Coordinates.get(0).getStart() + 1;
+                int sequenceLength = transcriptStop2 - transcriptStart1 + 1;
                 
-                SAMRecord transcriptRead1 = buildTranscriptRead(read1, isoform, header, positiveCigar1, negativeCigar1, sequenceLength, read1Coordinates);
-                SAMRecord transcriptRead2 = buildTranscriptRead(read2, isoform, header, positiveCigar2, negativeCigar2, -sequenceLength, read2Coordinates);
+                SAMRecord transcriptRead1 = buildTranscriptRead(read1, isoform, header, positiveCigar1, negativeCigar1, sequenceLength, transcriptStart1, transcriptStop1);
+                SAMRecord transcriptRead2 = buildTranscriptRead(read2, isoform, header, positiveCigar2, negativeCigar2, -sequenceLength, transcriptStart2, transcriptStop2);
                 
                 transcriptRead1.setMateAlignmentStart(transcriptRead2.getAlignmentStart());
 	            transcriptRead2.setMateAlignmentStart(transcriptRead1.getAlignmentStart());
 	            transcriptRead1.setMateReferenceName(isoform.getIsoformId());
 	            transcriptRead2.setMateReferenceName(isoform.getIsoformId());
 
-                outputSam.addAlignment(transcriptRead1);
-                outputSam.addAlignment(transcriptRead2);
+                output.add(transcriptRead1);
+                output.add(transcriptRead2);
                 
                 totalPairsOutput++;
             }
@@ -298,9 +288,11 @@ public class GenomeToTranscriptomeConverter {
         SAMFileReader reader = new SAMFileReader(inputFile);
         reader.setValidationStringency(ValidationStringency.SILENT);
         
+        List<SAMRecord> output = new ArrayList<SAMRecord>();
         int cnt = 0;
         for (SAMRecord read : reader) {
-        	convertAndOutput(read, outputSam, header);
+        	convert(read, header, output);
+        	write(output, outputSam);
         	
         	if ((cnt++ % 1000000) == 0) {
         		System.out.println("Processed " + cnt + " reads.");
@@ -313,12 +305,129 @@ public class GenomeToTranscriptomeConverter {
     private void convertFileForPairedEnd(String inputFileName, SAMFileWriter outputSam, SAMFileHeader header) {
     	System.out.println("Processing paired end reads");
         SamReadPairReader reader = new SamReadPairReader(inputFileName);
+        List<SAMRecord> output = new ArrayList<SAMRecord>();
         for (ReadPair readPair : reader) {
-            convertAndOutput(readPair.getRead1(), readPair.getRead2(), outputSam, header);
+            convert(readPair.getRead1(), readPair.getRead2(), header, output);
+            write(output, outputSam);
         }
         reader.close();
     }
     
+    private void write(List<SAMRecord> output, SAMFileWriter outputSam) {
+        for (SAMRecord read : output) {
+            outputSam.addAlignment(read);
+        }
+        output.clear();
+    }
+    
+    /**
+     * Reads the input on the calling thread and converts batches of reads or read pairs
+     * on a pool of worker converters.  Each worker owns its scratch buffers and shares the
+     * immutable IsoformIndex.  Batches are written in input order unless unordered output
+     * was requested, in which case batches are written as they complete.
+     */
+    private void convertFileParallel(String inputFileName, SAMFileWriter outputSam, SAMFileHeader header)
+        throws InterruptedException {
+    	
+    	System.out.println("Processing " + (isSingleEnd ? "single" : "paired") + " end reads using " + numThreads + " threads");
+    	
+    	BlockingQueue<GenomeToTranscriptomeConverter> idleConverters = new ArrayBlockingQueue<GenomeToTranscriptomeConverter>(numThreads);
+    	List<GenomeToTranscriptomeConverter> converters = new ArrayList<GenomeToTranscriptomeConverter>();
+    	for (int i=0; i<numThreads; i++) {
+    		GenomeToTranscriptomeConverter converter = new GenomeToTranscriptomeConverter(this);
+    		converters.add(converter);
+    		idleConverters.add(converter);
+    	}
+    	
+        ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+        CompletionService<List<SAMRecord>> completed = new ExecutorCompletionService<List<SAMRecord>>(workers);
+        LinkedList<Future<List<SAMRecord>>> pending = new LinkedList<Future<List<SAMRecord>>>();
+        int numPending = 0;
+        int maxPending = numThreads * 2;
+        
+        SAMFileReader samReader = null;
+        SamReadPairReader pairReader = null;
+        
+        try {
+        	Iterator<?> iter;
+        	if (isSingleEnd) {
+        		samReader = new SAMFileReader(new File(inputFileName));
+        		samReader.setValidationStringency(ValidationStringency.SILENT);
+        		iter = samReader.iterator();
+        	} else {
+        		pairReader = new SamReadPairReader(inputFileName);
+        		iter = pairReader.iterator();
+        	}
+        	
+        	GenomeToTranscriptomeBatch batch = new GenomeToTranscriptomeBatch(idleConverters, header, BATCH_SIZE);
+        	
+        	while (iter.hasNext()) {
+        		Object next = iter.next();
+        		
+        		// Pairs built from the same read names share SAMRecords, so keep them in the same batch.
+        		if ((batch.isFull()) && (!batch.isSameRead(next))) {
+        			if (isOrderedOutput) {
+        				pending.add(workers.submit(batch));
+        			} else {
+        				completed.submit(batch);
+        			}
+        			numPending++;
+        			batch = new GenomeToTranscriptomeBatch(idleConverters, header, BATCH_SIZE);
+        			
+        			while (numPending > maxPending) {
+        				writeBatch(isOrderedOutput ? pending.removeFirst() : completed.take(), outputSam);
+        				numPending--;
+        			}
+        		}
+        		
+        		batch.add(next);
+        	}
+        	
+        	if (!batch.isEmpty()) {
+        		if (isOrderedOutput) {
+        			pending.add(workers.submit(batch));
+        		} else {
+        			completed.submit(batch);
+        		}
+        		numPending++;
+        	}
+        	
+        	while (numPending > 0) {
+        		writeBatch(isOrderedOutput ? pending.removeFirst() : completed.take(), outputSam);
+        		numPending--;
+        	}
+        } finally {
+        	workers.shutdownNow();
+        	if (samReader != null) {
+        		samReader.close();
+        	}
+        	if (pairReader != null) {
+        		pairReader.close();
+        	}
+        }
+        
+        for (GenomeToTranscriptomeConverter converter : converters) {
+        	totalPairsOutput += converter.totalPairsOutput;
+        	cigarCacheHits += converter.cigarCache.getHits();
+        	cigarCacheMisses += converter.cigarCache.getMisses();
+        }
+    }
+    
+    private void writeBatch(Future<List<SAMRecord>> future, SAMFileWriter outputSam) throws InterruptedException {
+    	List<SAMRecord> output;
+    	
+    	try {
+    		output = future.get();
+    	} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+    	}
+    	
+    	write(output, outputSam);
+    }
+    
     /**
      * Opens the file specified by inputFileName, processes all paired sam
      * records, converts from genome to transcriptome coordinates and writes
@@ -335,10 +444,20 @@ public class GenomeToTranscriptomeConverter {
         
         System.out.println("Writing header");
         SAMFileHeader header = buildHeader();
-        final SAMFileWriter outputSam = new SAMFileWriterFactory().makeSAMOrBAMWriter(header,
-                  true, outputFile);
+        final SAMFileWriter outputSam;
+        
+        if (isSortedOutput) {
+        	System.out.println("Sorting output using " + numSortBuckets + " isoform buckets");
+        	TranscriptomeBucketWriter bucketWriter = new TranscriptomeBucketWriter(header, outputFile, numSortBuckets, tempDir);
+        	bucketWriter.setMaxRecordsInRam(maxRecordsInRam);
+        	outputSam = bucketWriter;
+        } else {
+        	outputSam = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, true, outputFile);
+        }
   
-        if (isSingleEnd) {
+        if (numThreads > 1) {
+        	convertFileParallel(inputFileName, outputSam, header);
+        } else if (isSingleEnd) {
         	convertFileForSingleEnd(inputFileName, outputSam, header);
         } else {
         	convertFileForPairedEnd(inputFileName, outputSam, header);
@@ -346,7 +465,16 @@ public class GenomeToTranscriptomeConverter {
         
         outputSam.close();
         
-        System.out.println("Total pairs output: " + totalPairsOutput);        
+        System.out.println("Total pairs output: " + totalPairsOutput);
+        
+        cigarCacheHits += cigarCache.getHits();
+        cigarCacheMisses += cigarCache.getMisses();
+        long cigarLookups = cigarCacheHits + cigarCacheMisses;
+        if (cigarLookups > 0) {
+        	System.out.println("Cigar cache hits: " + cigarCacheHits + " of " + cigarLookups +
+        			" (" + (cigarCacheHits * 100 / cigarLookups) + "%)");
+        }
+
         System.out.println("Done.");
     }
     
@@ -358,6 +486,42 @@ public class GenomeToTranscriptomeConverter {
         this.shouldOutputXgTags = shouldOutputXgTags;
     }
     
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+    
+    /**
+     * If false, batches are written in the order in which they complete rather than input order.
+     */
+    public void setOrderedOutput(boolean isOrderedOutput) {
+        this.isOrderedOutput = isOrderedOutput;
+    }
+    
+    /**
+     * If true, output is a coordinate sorted and indexed BAM.
+     */
+    public void setSortedOutput(boolean isSortedOutput) {
+        this.isSortedOutput = isSortedOutput;
+    }
+    
+    public void setNumSortBuckets(int numSortBuckets) {
+        this.numSortBuckets = numSortBuckets;
+    }
+    
+    /**
+     * Maximum number of records held in memory while sorting an isoform bucket.
+     */
+    public void setMaxRecordsInRam(int maxRecordsInRam) {
+        this.maxRecordsInRam = maxRecordsInRam;
+    }
+    
+    /**
+     * Directory for sort spill files.  Defaults to the system temp directory.
+     */
+    public void setTempDir(File tempDir) {
+        this.tempDir = tempDir;
+    }
+    
     static class Args {
         
         private String orderFastaFile;
@@ -13,6 +13,7 @@ public class GenomeToTranscriptomeOptions extends Options {
     
     // Option flags
     private static final String BED_FILE    = "bed";
+    private static final String INDEX_FILE  = "index";
     private static final String READ_OFFSET = "offset";
     private static final String INPUT_ALIGNMENT_FILE = "in";
     private static final String OUTPUT_ALIGNMENT_FILE = "out";
@@ -20,6 +21,12 @@ public class GenomeToTranscriptomeOptions extends Options {
     private static final String REVERSE_STRAND_COORDS = "reverse";
     private static final String OUTPUT_XG_TAGS = "xgtags";
     private static final String SINGLE_END = "single";    
+    private static final String NUM_THREADS = "threads";
+    private static final String UNORDERED = "unordered";
+    private static final String SORT = "sort";
+    private static final String SORT_BUCKETS = "sort-buckets";
+    private static final String TEMP_DIR = "tmp";
+    private static final String MAX_RECORDS_IN_RAM = "max-records-in-ram";
     
     private static final int DEFAULT_READ_OFFSET = 25;
     
@@ -30,6 +37,7 @@ public class GenomeToTranscriptomeOptions extends Options {
     	if (parser == null) {
             parser = new OptionParser();
             parser.accepts(BED_FILE, "Bed file definition of isoforms").withRequiredArg().ofType(String.class);
+            parser.accepts(INDEX_FILE, "Isoform index prebuilt with build-index (alternative to bed and order)").withRequiredArg().ofType(String.class);
             parser.accepts(INPUT_ALIGNMENT_FILE, "Input alignment file").withRequiredArg().ofType(String.class);
             parser.accepts(OUTPUT_ALIGNMENT_FILE, "Output alignment file").withRequiredArg().ofType(String.class);
             parser.accepts(READ_OFFSET, "Optional Offset size of read index (default 25)").withRequiredArg().ofType(Integer.class);
@@ -37,6 +45,12 @@ public class GenomeToTranscriptomeOptions extends Options {
             parser.accepts(REVERSE_STRAND_COORDS, "Optional flag indicating that reverse strand coordinates should be reported");
             parser.accepts(OUTPUT_XG_TAGS, "Optional flag indicating that genomic coordinates should be output in a XG tag");
             parser.accepts(SINGLE_END, "Optional flag indicating that reads need not be paired in the same transcript to be output (default is off)");
+            parser.accepts(NUM_THREADS, "Optional number of threads used to convert reads (default 1)").withRequiredArg().ofType(Integer.class);
+            parser.accepts(UNORDERED, "Optional flag indicating that multi-threaded output need not preserve input order");
+            parser.accepts(SORT, "Optional flag indicating that output should be a coordinate sorted and indexed BAM");
+            parser.accepts(SORT_BUCKETS, "Optional number of isoform buckets used when sorting.  Each bucket holds an open spill file (default " + TranscriptomeBucketWriter.DEFAULT_NUM_BUCKETS + ", max " + TranscriptomeBucketWriter.MAX_NUM_BUCKETS + ")").withRequiredArg().ofType(Integer.class);
+            parser.accepts(TEMP_DIR, "Optional directory for sort spill files (default system temp dir)").withRequiredArg().ofType(String.class);
+            parser.accepts(MAX_RECORDS_IN_RAM, "Optional maximum number of records held in memory when sorting a bucket.  Larger buckets are sorted in runs spilled to the temp dir (default " + TranscriptomeBucketWriter.DEFAULT_MAX_RECORDS_IN_RAM + ")").withRequiredArg().ofType(Integer.class);
             parser.accepts(HELP, "Print this help message");
     	}
     	
@@ -46,9 +60,15 @@ public class GenomeToTranscriptomeOptions extends Options {
     protected void validate() {
         isValid = true;
         
-        if (!getOptions().hasArgument(BED_FILE)) {
+        if ((!getOptions().hasArgument(BED_FILE)) && (!getOptions().hasArgument(INDEX_FILE))) {
             isValid = false;
-            System.err.println("Missing required bed file");
+            System.err.println("Missing required bed file or index file");
+        }
+        
+        if ((getOptions().hasArgument(INDEX_FILE)) && 
+            ((getOptions().hasArgument(BED_FILE)) || (getOptions().hasArgument(ORDERING_FASTA)))) {
+            isValid = false;
+            System.err.println("Specify either an index file or a bed file and optional ordering FASTA, not both");
         }
         
         if (!getOptions().hasArgument(INPUT_ALIGNMENT_FILE)) {
@@ -61,6 +81,28 @@ public class GenomeToTranscriptomeOptions extends Options {
             System.err.println("Missing required output alignment file");
         }
         
+        if ((getOptions().hasArgument(NUM_THREADS)) && (getNumThreads() < 1)) {
+            isValid = false;
+            System.err.println("Number of threads must be at least 1");
+        }
+        
+        if ((isSortedOutput()) && (getOptions().hasArgument(OUTPUT_ALIGNMENT_FILE)) &&
+            (!getOutputAlignmentFile().endsWith(".bam"))) {
+            isValid = false;
+            System.err.println("Sorted output must be a BAM file");
+        }
+        
+        if ((getOptions().hasArgument(SORT_BUCKETS)) && 
+            ((getNumSortBuckets() < 1) || (getNumSortBuckets() > TranscriptomeBucketWriter.MAX_NUM_BUCKETS))) {
+            isValid = false;
+            System.err.println("Number of sort buckets must be between 1 and " + TranscriptomeBucketWriter.MAX_NUM_BUCKETS);
+        }
+        
+        if ((getOptions().hasArgument(MAX_RECORDS_IN_RAM)) && (getMaxRecordsInRam() < 1)) {
+            isValid = false;
+            System.err.println("Max records in RAM must be at least 1");
+        }
+        
         if (!isValid) {
             printHelp();
         }
@@ -74,6 +116,14 @@ public class GenomeToTranscriptomeOptions extends Options {
         return (String) getOptions().valueOf(BED_FILE);
     }
     
+    public String getIndexFile() {
+        return (String) getOptions().valueOf(INDEX_FILE);
+    }
+    
+    public boolean hasIndexFile() {
+        return getOptions().hasArgument(INDEX_FILE);
+    }
+    
     public int getReadOffset() {
         int readOffset = DEFAULT_READ_OFFSET;
         
@@ -111,4 +161,46 @@ public class GenomeToTranscriptomeOptions extends Options {
     public boolean isSingleEnd() {
     	return getOptions().has(SINGLE_END);
     }
+    
+    public int getNumThreads() {
+        int threads = 1;
+        
+        if (getOptions().hasArgument(NUM_THREADS)) {
+            threads = (Integer) getOptions().valueOf(NUM_THREADS);
+        }
+        
+        return threads;
+    }
+    
+    public boolean isOrderedOutput() {
+        return !getOptions().has(UNORDERED);
+    }
+    
+    public boolean isSortedOutput() {
+        return getOptions().has(SORT);
+    }
+    
+    public int getNumSortBuckets() {
+        int buckets = TranscriptomeBucketWriter.DEFAULT_NUM_BUCKETS;
+        
+        if (getOptions().hasArgument(SORT_BUCKETS)) {
+            buckets = (Integer) getOptions().valueOf(SORT_BUCKETS);
+        }
+        
+        return buckets;
+    }
+    
+    public String getTempDir() {
+        return (String) getOptions().valueOf(TEMP_DIR);
+    }
+    
+    public int getMaxRecordsInRam() {
+        int maxRecords = TranscriptomeBucketWriter.DEFAULT_MAX_RECORDS_IN_RAM;
+        
+        if (getOptions().hasArgument(MAX_RECORDS_IN_RAM)) {
+            maxRecords = (Integer) getOptions().valueOf(MAX_RECORDS_IN_RAM);
+        }
+        
+        return maxRecords;
+    }
 }
@@ -5,7 +5,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
-import net.sf.samtools.CigarOperator;
 import net.sf.samtools.SAMRecord;
 
 /**
@@ -29,11 +28,17 @@ public class Isoform {
     private Strand strand;
     private int length;
     
+    // Genomic exon bounds sorted by start, and the 1 based isoform position of each exon start
+    private int[] exonStarts;
+    private int[] exonEnds;
+    private int[] exonOffsets;
+    
     public Isoform(String isoformId, Coordinate genomicCoord, String strand, List<Coordinate> exons) {
         this.isoformId = isoformId;
         this.genomicCoord = genomicCoord;
         this.exons = exons;
         this.length = calcLength(); 
+        buildExonTables();
         
         if (strand.equals(FORWARD_STRAND)) {
             this.strand = Strand.FORWARD;
@@ -74,6 +79,31 @@ public class Isoform {
         return length;
     }
     
+    private void buildExonTables() {
+        List<Coordinate> sortedExons = new ArrayList<Coordinate>(exons);
+        Collections.sort(sortedExons);
+        
+        exonStarts = new int[sortedExons.size()];
+        exonEnds = new int[sortedExons.size()];
+        exonOffsets = new int[sortedExons.size()];
+        
+        int exonStartInIsoform = 1;
+        for (int i=0; i<sortedExons.size(); i++) {
+            Coordinate exon = sortedExons.get(i);
+            exonStarts[i] = exon.getStart();
+            exonEnds[i] = exon.getStop();
+            exonOffsets[i] = exonStartInIsoform;
+            exonStartInIsoform += exon.getLength();
+        }
+    }
+    
+    /**
+     * Returns the exon genomic coordinates in their original order.
+     */
+    public List<Coordinate> getExons() {
+        return Collections.unmodifiableList(exons);
+    }
+    
     public Coordinate getGenomicCoordinate() {
         return this.genomicCoord;
     }
@@ -86,11 +116,6 @@ public class Isoform {
         return isoformId + "," + genomicCoord;
     }
     
-    private Coordinate getTranscriptCoordinates(int blockIsoformStart, int blockIsoformStop) {
-        return new Coordinate(blockIsoformStart, blockIsoformStop);
-    }
-    
-
     /**
      * Attempts to match the input read with this Isoform.
      * If it is determined that the read is a match, a list of 1 based isoform coordinates
@@ -100,63 +125,113 @@ public class Isoform {
      * ASSUMES CHROMOSOME HAS ALREADY BEEN MATCHED TO THIS ISOFORM!
      */
     public List<Coordinate> match(SAMRecord read) {
+        int[] coords = new int[read.getCigarLength() * 2];
+        int numBlocks = match(read, coords);
         
-        List<Coordinate> transcriptCoordinates = new ArrayList<Coordinate>();
+        if (numBlocks == 0) {
+            return Collections.emptyList();
+        }
+        
+        List<Coordinate> transcriptCoordinates = new ArrayList<Coordinate>(numBlocks);
+        for (int i=0; i<numBlocks; i++) {
+            transcriptCoordinates.add(new Coordinate(coords[i*2], coords[i*2+1]));
+        }
         
-        boolean isFirstBlock = true;
+        return transcriptCoordinates;
+    }
+    
+    /**
+     * Attempts to match the input read with this Isoform without allocating.
+     * If the read is a match, the 1 based isoform start and stop of each alignment block are
+     * written to coords as consecutive pairs and the number of blocks is returned.
+     * If the read is not a match, 0 is returned.
+     * coords must hold at least 2 ints per cigar element.
+     * <br>
+     * ASSUMES CHROMOSOME HAS ALREADY BEEN MATCHED TO THIS ISOFORM!
+     */
+    public int match(SAMRecord read, int[] coords) {
+        return match(read, new ReadBlockIterator(), coords);
+    }
+    
+    /**
+     * As {@link #match(SAMRecord, int[])}, but walks the read using the caller's block iterator.
+     * Isoforms are shared between threads, so each thread supplies its own iterator.
+     */
+    public int match(SAMRecord read, ReadBlockIterator blocks, int[] coords) {
+        int numBlocks = 0;
         int prevBlockIsoformStop = 0;
         
-        // For each block
-        for (ReadBlock block : ReadBlock.getReadBlocks(read)) {
+        blocks.reset(read);
+        while (blocks.next()) {
+            int length = blocks.getLength();
             
-            if (block.getType() == CigarOperator.M) {
-                boolean isBlockMatch = false;
-                
-                int blockGenomeStart = block.getReferenceStart();
-                // i.e. start = 1, len = 50, so stop = 1 + 50 - 1 = 50
-                int blockGenomeStop  = blockGenomeStart + block.getLength() - 1;
-                
-                int exonStartInIsoform = 1;
-                
-                // Find matching exon for this block
-                for (Coordinate exon : exons) {
-                    if ((exon.contains(blockGenomeStart)) && (exon.contains(blockGenomeStop))) {
-                        // (1 based coordinate) - (1 based coordinate) + (offset into isoform)
-                        int blockIsoformStart = blockGenomeStart - exon.getStart() + exonStartInIsoform ;
-                        int blockIsoformStop  = blockGenomeStop - exon.getStart() + exonStartInIsoform;
-                        
-                        // If this is the first block, we have a match.
-                        // For non-first blocks, if this block starts immediately after the previous
-                        // block's stop (, we have a match
-                        if ((isFirstBlock) || (blockIsoformStart == prevBlockIsoformStop + 1)) {
-                            transcriptCoordinates.add(getTranscriptCoordinates(blockIsoformStart, blockIsoformStop));
-                            isBlockMatch = true;
-                            prevBlockIsoformStop = blockIsoformStop;
-                            break;
-                        }
+            switch (blocks.getType()) {
+                case M:
+                    int blockGenomeStart = blocks.getReferenceStart();
+                    // i.e. start = 1, len = 50, so stop = 1 + 50 - 1 = 50
+                    int blockGenomeStop  = blocks.getReferenceStop();
+                    
+                    // Find the exon containing this block
+                    int exonIdx = findExon(blockGenomeStart);
+                    if ((exonIdx < 0) || (blockGenomeStop > exonEnds[exonIdx])) {
+                        return 0;
                     }
                     
-                    exonStartInIsoform += exon.getLength();
-                }
-                
-                // If any block doesn't match, this read is not a match
-                if (isBlockMatch == false) {
-                    return Collections.EMPTY_LIST;
-                }
-                
-                isFirstBlock = false;
-            } else if (block.getType() == CigarOperator.D) {
-                prevBlockIsoformStop += block.getLength();
-            } else if (block.getType() == CigarOperator.I) {
-                // Insert requires no change.
-            } else if (block.getType() == CigarOperator.S) {
-                // This appears to indicate a fusion for Mapsplice.  This won't map to a transcript,
-                // so discard it.
-                return Collections.EMPTY_LIST;
+                    // (1 based coordinate) - (1 based coordinate) + (offset into isoform)
+                    int blockIsoformStart = blockGenomeStart - exonStarts[exonIdx] + exonOffsets[exonIdx];
+                    
+                    // For non-first blocks, this block must start immediately after the previous block's stop
+                    if ((numBlocks > 0) && (blockIsoformStart != prevBlockIsoformStop + 1)) {
+                        return 0;
+                    }
+                    
+                    prevBlockIsoformStop = blockIsoformStart + length - 1;
+                    coords[numBlocks*2] = blockIsoformStart;
+                    coords[numBlocks*2+1] = prevBlockIsoformStop;
+                    numBlocks++;
+                    break;
+                case D:
+                    prevBlockIsoformStop += length;
+                    break;
+                case N:
+                case I:
+                    // Skips and inserts require no change.
+                    break;
+                case S:
+                    // This appears to indicate a fusion for Mapsplice.  This won't map to a transcript,
+                    // so discard it.
+                    return 0;
+                default:
+                    throw new IllegalStateException(
+                            "Case statement didn't deal with cigar op: " + blocks.getType());
             }
         }
         
-        return transcriptCoordinates;
+        return numBlocks;
+    }
+    
+    /**
+     * Returns the index of the exon containing the input genomic position or -1. 
+     */
+    private int findExon(int genomicPos) {
+        int low = 0;
+        int high = exonStarts.length - 1;
+        
+        // Find the last exon starting at or before genomicPos
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (exonStarts[mid] <= genomicPos) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        
+        if ((high >= 0) && (genomicPos <= exonEnds[high])) {
+            return high;
+        }
+        
+        return -1;
     }
 
     /**
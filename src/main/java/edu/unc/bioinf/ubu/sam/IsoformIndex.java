@@ -6,13 +6,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-
-import org.apache.commons.collections.MultiHashMap;
-import org.apache.commons.collections.MultiMap;
 
 /**
  * This class can be used to read a bed file and cache Isoforms information.
@@ -23,12 +18,7 @@ import org.apache.commons.collections.MultiMap;
  */
 public class IsoformIndex {
     
-    private int readOffset;
-    
-//    private Map<String, MultiHashMap> idxMap = new HashMap<String, MultiHashMap>();
-    
-    private String currentIndexedChromosome = "unset";
-    private MultiHashMap indexMap;
+    private Map<String, IsoformIntervals> intervalsMap = new HashMap<String, IsoformIntervals>();
     private Map<String, List<Isoform>> chromosomeIsoformsMap = new HashMap<String, List<Isoform>>();
     
     private Map<String, Isoform> isoformMap = new HashMap<String, Isoform>();
@@ -58,9 +48,7 @@ public class IsoformIndex {
     /**
      * Build index for fast lookup of isoforms matching a genomic location. 
      */
-    public void buildReadToIsoformIndex(String filename, int readOffset) throws Exception {
-        
-        this.readOffset = readOffset;
+    public void buildReadToIsoformIndex(String filename) throws Exception {
         BufferedReader reader = new BufferedReader(new FileReader(filename));
         
         String line = reader.readLine();
@@ -78,30 +66,27 @@ public class IsoformIndex {
             String exonLengths = fields[10];
             String exonOffsets = fields[11];
             
-//            int startIdx = start - (start % readOffset);
-//            int endIdx   = end + (readOffset - (end % readOffset));
-//            
-//            for (int idx = startIdx; idx <= endIdx; idx += readOffset) {
-//                getCoordinateMap(chromosome).put(idx, isoformId);
-//            }
-            
             if ((cnt++ % 10000) == 0) {
                 //break;
                 System.out.println("Loaded " + cnt + " isoforms.");
             }
             
             Isoform isoform = new Isoform(isoformId, new Coordinate(start, end), strand, getExonCoordinates(start, exonLengths, exonOffsets));
-            isoformMap.put(isoformId, isoform);
-            
-            List<Isoform> isoforms = chromosomeIsoformsMap.get(chromosome);
-            if (isoforms == null) {
-            	isoforms = new ArrayList<Isoform>();
-            	chromosomeIsoformsMap.put(chromosome, isoforms);
-            }
-            isoforms.add(isoform);
+            addIsoform(chromosome, isoform);
             
             line = reader.readLine();
         }
+        
+        reader.close();
+        
+        buildIntervals();
+    }
+    
+    /**
+     * Retained for compatibility.  The index no longer depends upon readOffset.
+     */
+    public void buildReadToIsoformIndex(String filename, int readOffset) throws Exception {
+        buildReadToIsoformIndex(filename);
     }
     
     /**
@@ -111,72 +96,55 @@ public class IsoformIndex {
         return Collections.unmodifiableCollection(isoformMap.values());
     }
     
-    private MultiMap getIndexMap(String chromosome) {
-    	if (!currentIndexedChromosome.equals(chromosome)) {
-    		System.out.println("Indexing isoforms for: " + chromosome);
-    		currentIndexedChromosome = chromosome;
-    		
-    		indexMap = new MultiHashMap();
-    		
-    		List<Isoform> isoformsInChromosome = chromosomeIsoformsMap.get(chromosome); 
-    		
-    		if (isoformsInChromosome != null) {
-	    		for (Isoform isoform : isoformsInChromosome) {
-	    		
-	    			int start = isoform.getGenomicCoordinate().getStart();
-	    			int end = isoform.getGenomicCoordinate().getStop();
-	    			
-		            int startIdx = start - (start % readOffset);
-		            int endIdx   = end + (readOffset - (end % readOffset));
-	    			
-		            for (int idx = startIdx; idx <= endIdx; idx += readOffset) {
-		                indexMap.put(idx, isoform.getIsoformId());
-		            }
-	    		}
-    		}
-    	}
-    	
-    	return indexMap;
+    /**
+     * Caches the input isoform.  buildIntervals must be called once all isoforms are added.
+     */
+    void addIsoform(String chromosome, Isoform isoform) {
+        isoformMap.put(isoform.getIsoformId(), isoform);
+        
+        List<Isoform> isoforms = chromosomeIsoformsMap.get(chromosome);
+        if (isoforms == null) {
+        	isoforms = new ArrayList<Isoform>();
+        	chromosomeIsoformsMap.put(chromosome, isoforms);
+        }
+        isoforms.add(isoform);
+    }
+    
+    /**
+     * Returns the cached isoforms grouped by chromosome.
+     */
+    Map<String, List<Isoform>> getChromosomeIsoforms() {
+        return Collections.unmodifiableMap(chromosomeIsoformsMap);
     }
     
-    /*
-    private MultiMap getCoordinateMap(String chromosome) {
-        MultiMap map = idxMap.get(chromosome);
+    void buildIntervals() {
+        intervalsMap = new HashMap<String, IsoformIntervals>();
         
-        if (map == null) {
-            map = new MultiHashMap();
-            idxMap.put(chromosome, (MultiHashMap) map);
+        for (Map.Entry<String, List<Isoform>> entry : chromosomeIsoformsMap.entrySet()) {
+            intervalsMap.put(entry.getKey(), new IsoformIntervals(entry.getValue()));
         }
-        
-        return map;
     }
-    */
     
-    private Collection<String> getPotentialIsoformsExact(String chromosome, int genomeStart) {
-        Collection<String> isoforms = Collections.EMPTY_LIST;
-        
-//        MultiMap map = idxMap.get(chromosome);
-        MultiMap map = getIndexMap(chromosome);
-        if (map != null) {
-            Collection<String> isoformCol = (Collection<String>) map.get(genomeStart);
-            if (isoformCol != null) {
-                isoforms = isoformCol;
-            }
+    /**
+     * Adds the isoforms on the input chromosome whose genomic range contains the inclusive
+     * range [genomicStart, genomicEnd] to results.  results is not cleared.
+     */
+    public void getPotentialIsoforms(String chromosome, int genomicStart, int genomicEnd, List<Isoform> results) {
+        IsoformIntervals intervals = intervalsMap.get(chromosome);
+        if (intervals != null) {
+            intervals.getContaining(genomicStart, genomicEnd, results);
         }
-        
-        return isoforms;
     }
     
     /**
-     * Returns a Collection of isoforms that potentially match the input chromosome and genome position
+     * Adds the isoforms on the input chromosome overlapping the inclusive
+     * range [genomicStart, genomicEnd] to results.  results is not cleared.
      */
-    public Collection<String> getPotentialIsoforms(String chromosome, int genomePosition) {
-        Set<String> isoforms = new HashSet<String>();
-        
-        isoforms.addAll(getPotentialIsoformsExact(chromosome, genomePosition - (genomePosition % readOffset)));
-        isoforms.addAll(getPotentialIsoformsExact(chromosome, genomePosition + (readOffset - (genomePosition % readOffset))));
-        
-        return Collections.unmodifiableCollection(isoforms);
+    public void getOverlappingIsoforms(String chromosome, int genomicStart, int genomicEnd, List<Isoform> results) {
+        IsoformIntervals intervals = intervalsMap.get(chromosome);
+        if (intervals != null) {
+            intervals.getOverlapping(genomicStart, genomicEnd, results);
+        }
     }
     
     /**
@@ -193,12 +161,14 @@ public class IsoformIndex {
         
         IsoformIndex rdr = new IsoformIndex();
         
-        rdr.buildReadToIsoformIndex("/home/lisle/data/coord_convert/ucsc_known_gene_bed.txt", 200);
+        rdr.buildReadToIsoformIndex("/home/lisle/data/coord_convert/ucsc_known_gene_bed.txt");
         
         long e = System.currentTimeMillis();
         
         System.out.println("elapsed secs: " + (e-s)/1000);
         
-        System.out.println(rdr.getPotentialIsoforms("chr22", 30000000));
+        List<Isoform> isoforms = new ArrayList<Isoform>();
+        rdr.getOverlappingIsoforms("chr22", 30000000, 30000000, isoforms);
+        System.out.println(isoforms);
     }
 }
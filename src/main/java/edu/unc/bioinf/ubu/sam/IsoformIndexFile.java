@@ -0,0 +1,179 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prebuilt binary form of the isoform annotation used by sam-xlate.
+ * <p>
+ * The file contains the isoforms, their exons, strand and length, and optionally the
+ * header order from the transcript FASTA.  It is memory mapped read only when loaded,
+ * so repeated and concurrent runs against the same annotation share the OS page cache
+ * and skip parsing the BED and FASTA files.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class IsoformIndexFile {
+
+    private static final int MAGIC = 0x55584931; // UXI1
+    private static final int NO_ORDER = -1;
+
+    private IsoformIndex isoformIndex;
+    private IsoformOrderLoader isoformOrderLoader;
+
+    private IsoformIndexFile(IsoformIndex isoformIndex, IsoformOrderLoader isoformOrderLoader) {
+        this.isoformIndex = isoformIndex;
+        this.isoformOrderLoader = isoformOrderLoader;
+    }
+
+    public IsoformIndex getIsoformIndex() {
+        return isoformIndex;
+    }
+
+    /**
+     * Returns the header ordering stored in the index, or null if the index was built without ordering.
+     */
+    public IsoformOrderLoader getIsoformOrderLoader() {
+        return isoformOrderLoader;
+    }
+
+    /**
+     * Writes the input isoforms and optional ordering (may be null) to the specified file.
+     */
+    public static void write(String filename, IsoformIndex isoformIndex, IsoformOrderLoader isoformOrderLoader) throws IOException {
+        Map<String, List<Isoform>> chromosomeIsoforms = isoformIndex.getChromosomeIsoforms();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeBoolean(isoformOrderLoader != null);
+            out.writeInt(chromosomeIsoforms.size());
+
+            for (Map.Entry<String, List<Isoform>> entry : chromosomeIsoforms.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue().size());
+
+                for (Isoform isoform : entry.getValue()) {
+                    writeString(out, isoform.getIsoformId());
+                    out.writeInt(isoform.getGenomicCoordinate().getStart());
+                    out.writeInt(isoform.getGenomicCoordinate().getStop());
+                    out.writeBoolean(isoform.isPositiveStrand());
+                    out.writeInt(isoform.getLength());
+                    out.writeInt(isoformOrderLoader != null ? isoformOrderLoader.getOrder(isoform.getIsoformId()) : NO_ORDER);
+
+                    List<Coordinate> exons = isoform.getExons();
+                    out.writeInt(exons.size());
+                    for (Coordinate exon : exons) {
+                        out.writeInt(exon.getStart());
+                        out.writeInt(exon.getStop());
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Maps and loads the specified index file.
+     */
+    public static IsoformIndexFile load(String filename) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+
+        try {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buf.getInt() != MAGIC) {
+                throw new IOException("Invalid isoform index: " + filename);
+            }
+
+            boolean hasOrder = buf.get() != 0;
+            IsoformOrderLoader isoformOrderLoader = hasOrder ? new IsoformOrderLoader() : null;
+            IsoformIndex isoformIndex = new IsoformIndex();
+
+            int numChromosomes = buf.getInt();
+            for (int i=0; i<numChromosomes; i++) {
+                String chromosome = readString(buf);
+                int numIsoforms = buf.getInt();
+
+                for (int j=0; j<numIsoforms; j++) {
+                    String isoformId = readString(buf);
+                    Coordinate genomicCoord = new Coordinate(buf.getInt(), buf.getInt());
+                    String strand = buf.get() != 0 ? "+" : "-";
+                    int length = buf.getInt();
+                    int order = buf.getInt();
+
+                    int numExons = buf.getInt();
+                    List<Coordinate> exons = new ArrayList<Coordinate>(numExons);
+                    for (int k=0; k<numExons; k++) {
+                        exons.add(new Coordinate(buf.getInt(), buf.getInt()));
+                    }
+
+                    Isoform isoform = new Isoform(isoformId, genomicCoord, strand, exons);
+                    if (isoform.getLength() != length) {
+                        throw new IOException("Corrupt isoform index: " + filename + " at isoform: " + isoformId);
+                    }
+
+                    isoformIndex.addIsoform(chromosome, isoform);
+
+                    if (hasOrder) {
+                        isoformOrderLoader.setOrder(isoformId, order);
+                    }
+                }
+            }
+
+            isoformIndex.buildIntervals();
+
+            return new IsoformIndexFile(isoformIndex, isoformOrderLoader);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes("UTF-8");
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(MappedByteBuffer buf) throws IOException {
+        byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+        buf.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    public static void run(String[] args) throws Exception {
+        IsoformIndexFileOptions options = new IsoformIndexFileOptions();
+        options.parseOptions(args);
+
+        if (options.isValid()) {
+            long s = System.currentTimeMillis();
+
+            IsoformOrderLoader isoformOrderLoader = null;
+            if (options.hasOrderingFastaFile()) {
+                System.out.println("Determining isoform header order");
+                isoformOrderLoader = new IsoformOrderLoader();
+                isoformOrderLoader.loadOrdering(options.getOrderingFastaFile());
+            }
+
+            System.out.println("Loading isoforms");
+            IsoformIndex isoformIndex = new IsoformIndex();
+            isoformIndex.buildReadToIsoformIndex(options.getBedFile());
+
+            System.out.println("Writing index: " + options.getOutputFile());
+            write(options.getOutputFile(), isoformIndex, isoformOrderLoader);
+
+            long e = System.currentTimeMillis();
+            System.out.println("Indexed " + isoformIndex.getAllIsoforms().size() + " isoforms.  Elapsed secs: " + (e-s)/1000);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package edu.unc.bioinf.ubu.sam;
+
+import joptsimple.OptionParser;
+import edu.unc.bioinf.ubu.util.Options;
+
+/**
+ * Options parser for {@code IsoformIndexFile}
+ * 
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class IsoformIndexFileOptions extends Options {
+	
+	private static final String BED_FILE = "bed";
+	private static final String ORDERING_FASTA = "order";
+	private static final String OUTPUT = "out";
+
+	private OptionParser parser;
+	private boolean isValid;
+	
+	@Override
+	protected OptionParser getOptionParser() {
+    	if (parser == null) {
+            parser = new OptionParser();
+            parser.accepts(BED_FILE, "Bed file definition of isoforms").withRequiredArg().ofType(String.class);
+            parser.accepts(ORDERING_FASTA, "Optional FASTA file used to determine order of isoforms in BAM header (important for RSEM)").withRequiredArg().ofType(String.class);
+            parser.accepts(OUTPUT, "Output index file").withRequiredArg().ofType(String.class);
+            parser.accepts(HELP, "Print this help message");
+    	}
+    	
+    	return parser;
+	}
+
+	@Override
+	protected void validate() {
+        isValid = true;
+        
+        if (!getOptions().hasArgument(BED_FILE)) {
+            isValid = false;
+            System.err.println("Missing required bed file");
+        }
+        
+        if (!getOptions().hasArgument(OUTPUT)) {
+            isValid = false;
+            System.err.println("Missing required output index file");
+        }
+        
+        if (!isValid) {
+            printHelp();
+        }
+	}
+	
+	public String getBedFile() {
+		return (String) getOptions().valueOf(BED_FILE);
+	}
+	
+	public String getOrderingFastaFile() {
+		return (String) getOptions().valueOf(ORDERING_FASTA);
+	}
+	
+	public boolean hasOrderingFastaFile() {
+		return getOptions().hasArgument(ORDERING_FASTA);
+	}
+	
+	public String getOutputFile() {
+		return (String) getOptions().valueOf(OUTPUT);
+	}
+	
+    public boolean isValid() {
+        return isValid;
+    }
+}
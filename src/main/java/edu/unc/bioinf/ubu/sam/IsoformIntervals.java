@@ -0,0 +1,165 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable interval index over the Isoforms of a single chromosome.
+ * <p>
+ * Isoforms are sorted by genomic start and laid out as an implicit binary tree
+ * (node i sits at level = number of trailing 1 bits in i).  Each node is augmented with
+ * the maximum genomic end in its subtree, allowing queries in O(log n + k) without
+ * allocating.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class IsoformIntervals {
+
+    // Subtrees at or below this level are scanned linearly
+    private static final int SCAN_LEVEL = 3;
+
+    private Isoform[] isoforms;
+    private int[] starts;
+    private int[] ends;
+    private int[] maxEnds;
+    private int maxLevel;
+
+    public IsoformIntervals(List<Isoform> chromosomeIsoforms) {
+        List<Isoform> sorted = new ArrayList<Isoform>(chromosomeIsoforms);
+        Collections.sort(sorted, new GenomicStartComparator());
+
+        int n = sorted.size();
+        isoforms = sorted.toArray(new Isoform[n]);
+        starts = new int[n];
+        ends = new int[n];
+        maxEnds = new int[n];
+
+        for (int i=0; i<n; i++) {
+            starts[i] = isoforms[i].getGenomicCoordinate().getStart();
+            ends[i] = isoforms[i].getGenomicCoordinate().getStop();
+        }
+
+        maxLevel = index();
+    }
+
+    /**
+     * Computes the max end of each subtree bottom up.  Returns the root level.
+     */
+    private int index() {
+        int n = starts.length;
+        if (n == 0) {
+            return -1;
+        }
+
+        int lastIdx = 0;
+        int last = 0;
+
+        // Leaves
+        for (int i=0; i<n; i+=2) {
+            lastIdx = i;
+            maxEnds[i] = ends[i];
+            last = ends[i];
+        }
+
+        int level;
+        for (level=1; (1 << level) <= n; level++) {
+            int x = 1 << (level-1);
+            int step = x << 2;
+
+            for (int i=(x << 1)-1; i<n; i+=step) {
+                int leftMax = maxEnds[i-x];
+                // A missing right child takes the max of the rightmost existing subtree
+                int rightMax = i+x < n ? maxEnds[i+x] : last;
+                maxEnds[i] = Math.max(ends[i], Math.max(leftMax, rightMax));
+            }
+
+            lastIdx = ((lastIdx >> level) & 1) != 0 ? lastIdx - x : lastIdx + x;
+            if ((lastIdx < n) && (maxEnds[lastIdx] > last)) {
+                last = maxEnds[lastIdx];
+            }
+        }
+
+        return level-1;
+    }
+
+    public int size() {
+        return isoforms.length;
+    }
+
+    /**
+     * Adds all isoforms overlapping the inclusive range [start, stop] to results.
+     * Results are appended in genomic start order.
+     */
+    public void getOverlapping(int start, int stop, List<Isoform> results) {
+        query(stop, start, results);
+    }
+
+    /**
+     * Adds all isoforms whose genomic range contains the inclusive range [start, stop] to results.
+     * Results are appended in genomic start order.
+     */
+    public void getContaining(int start, int stop, List<Isoform> results) {
+        query(start, stop, results);
+    }
+
+    /**
+     * Finds all isoforms with start <= maxStart and end >= minEnd.
+     */
+    private void query(int maxStart, int minEnd, List<Isoform> results) {
+        if (maxLevel >= 0) {
+            query((1 << maxLevel) - 1, maxLevel, maxStart, minEnd, results);
+        }
+    }
+
+    private void query(int node, int level, int maxStart, int minEnd, List<Isoform> results) {
+        int n = starts.length;
+
+        if (level <= SCAN_LEVEL) {
+            int first = (node >> level) << level;
+            int last = Math.min(first + (1 << (level+1)) - 1, n);
+
+            for (int i=first; i<last && starts[i] <= maxStart; i++) {
+                if (ends[i] >= minEnd) {
+                    results.add(isoforms[i]);
+                }
+            }
+        } else {
+            int half = 1 << (level-1);
+            int left = node - half;
+
+            // Nodes beyond the array are placeholders, so always descend into their left subtree
+            if ((left >= n) || (maxEnds[left] >= minEnd)) {
+                query(left, level-1, maxStart, minEnd, results);
+            }
+
+            if ((node < n) && (starts[node] <= maxStart)) {
+                if (ends[node] >= minEnd) {
+                    results.add(isoforms[node]);
+                }
+
+                query(node + half, level-1, maxStart, minEnd, results);
+            }
+        }
+    }
+
+    static class GenomicStartComparator implements Comparator<Isoform> {
+
+        @Override
+        public int compare(Isoform isoform1, Isoform isoform2) {
+            Coordinate coord1 = isoform1.getGenomicCoordinate();
+            Coordinate coord2 = isoform2.getGenomicCoordinate();
+
+            if (coord1.getStart() != coord2.getStart()) {
+                return coord1.getStart() < coord2.getStart() ? -1 : 1;
+            }
+
+            if (coord1.getStop() != coord2.getStop()) {
+                return coord1.getStop() < coord2.getStop() ? -1 : 1;
+            }
+
+            return isoform1.getIsoformId().compareTo(isoform2.getIsoformId());
+        }
+    }
+}
@@ -46,6 +46,17 @@ public class IsoformOrderLoader {
         reader.close();
     }
     
+    /**
+     * Sets the order of the specified isoform.  Used when ordering is loaded from a prebuilt index.
+     */
+    void setOrder(String isoformId, int order) {
+        if (isoformOrderMap == null) {
+            isoformOrderMap = new HashMap<String, Integer>();
+        }
+        
+        isoformOrderMap.put(isoformId, order);
+    }
+    
     public Integer getOrder(String isoformId) {
         if (isoformOrderMap == null) {
             throw new IllegalStateException("Isoform order map not initialized.");
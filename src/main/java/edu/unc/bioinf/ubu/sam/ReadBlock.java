@@ -5,8 +5,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
-import net.sf.samtools.Cigar;
-import net.sf.samtools.CigarElement;
 import net.sf.samtools.CigarOperator;
 import net.sf.samtools.SAMRecord;
 
@@ -110,22 +108,18 @@ public class ReadBlock {
     	return length;
     }
     
-    //TODO - Move elsewhere and make non-static
+    /**
+     * Returns the blocks of the input read as a list.  Prefer {@link ReadBlockIterator}
+     * in per read hot paths as it does not allocate.
+     */
     public static List<ReadBlock> getReadBlocks(SAMRecord read) {    
-        final Cigar cigar = read.getCigar();
-        if (cigar == null) return Collections.emptyList();
+        final ReadBlockIterator blockIter = new ReadBlockIterator(read);
+        if (blockIter.getNumBlocks() == 0) return Collections.emptyList();
 
-        final List<ReadBlock> readBlocks = new ArrayList<ReadBlock>();
-        int readBase = 1;
-        int refBase  = read.getAlignmentStart();
+        final List<ReadBlock> readBlocks = new ArrayList<ReadBlock>(blockIter.getNumBlocks());
 
-        for (final CigarElement e : cigar.getCigarElements()) {
-            
-            readBlocks.add(new ReadBlock(readBase, refBase, e.getLength(), e.getOperator()));
-            
-            int[] basePositions = updateBasePositions(readBase, refBase, e.getOperator(), e.getLength());
-            readBase = basePositions[0];
-            refBase = basePositions[1];
+        while (blockIter.next()) {
+            readBlocks.add(blockIter.toReadBlock());
         }
         
         return Collections.unmodifiableList(readBlocks);
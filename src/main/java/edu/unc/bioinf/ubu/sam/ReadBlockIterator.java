@@ -0,0 +1,167 @@
+package edu.unc.bioinf.ubu.sam;
+
+import net.sf.samtools.Cigar;
+import net.sf.samtools.CigarElement;
+import net.sf.samtools.CigarOperator;
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Cursor over the blocks of a read that avoids allocating a ReadBlock per cigar element.
+ * Reset onto a read, then call next() to advance to each block and read the current
+ * block's fields directly.  Fields match those of the equivalent ReadBlock.
+ * <p>
+ * Instances are reusable but not thread safe.
+ * <pre>
+ * blocks.reset(read);
+ * while (blocks.next()) {
+ *     if (blocks.getType() == CigarOperator.N) { ... }
+ * }
+ * </pre>
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class ReadBlockIterator {
+
+    private Cigar cigar;
+    private int numBlocks;
+    private int blockIdx;
+
+    // Current block
+    private int readStart;
+    private int referenceStart;
+    private int length;
+    private CigarOperator type;
+
+    // Start of the next block
+    private int nextReadBase;
+    private int nextRefBase;
+
+    public ReadBlockIterator() {
+    }
+
+    public ReadBlockIterator(SAMRecord read) {
+        reset(read);
+    }
+
+    /**
+     * Positions the cursor before the first block of the input read.
+     */
+    public ReadBlockIterator reset(SAMRecord read) {
+        cigar = read.getCigar();
+        numBlocks = cigar == null ? 0 : cigar.numCigarElements();
+        blockIdx = -1;
+        nextReadBase = 1;
+        nextRefBase = read.getAlignmentStart();
+        type = null;
+
+        return this;
+    }
+
+    /**
+     * Advances to the next block.  Returns false when there are no more blocks.
+     */
+    public boolean next() {
+        if (blockIdx + 1 >= numBlocks) {
+            return false;
+        }
+
+        blockIdx++;
+        CigarElement element = cigar.getCigarElement(blockIdx);
+
+        readStart = nextReadBase;
+        referenceStart = nextRefBase;
+        length = element.getLength();
+        type = element.getOperator();
+
+        switch (type) {
+            case S : nextReadBase += length; break; // soft clip read bases
+            case N : nextRefBase += length; break;  // reference skip
+            case D : nextRefBase += length; break;
+            case I : nextReadBase += length; break;
+            case M :
+                nextReadBase += length;
+                nextRefBase  += length;
+                break;
+            default : throw new IllegalStateException(
+                    "Case statement didn't deal with cigar op: " + type);
+        }
+
+        return true;
+    }
+
+    /**
+     * Advances to the block at the specified 0 based index.  Returns false if the read
+     * has no such block or the cursor is already past it.
+     */
+    public boolean advanceTo(int blockIndex) {
+        while (blockIdx < blockIndex) {
+            if (!next()) {
+                return false;
+            }
+        }
+
+        return (blockIndex >= 0) && (blockIdx == blockIndex);
+    }
+
+    public boolean hasNext() {
+        return blockIdx + 1 < numBlocks;
+    }
+
+    /**
+     * Returns the 0 based index of the current block.
+     */
+    public int getBlockIndex() {
+        return blockIdx;
+    }
+
+    public int getNumBlocks() {
+        return numBlocks;
+    }
+
+    public int getReadStart() {
+        return readStart;
+    }
+
+    public int getReferenceStart() {
+        return referenceStart;
+    }
+
+    public int getReferenceStop() {
+        return referenceStart + length - 1;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getReferenceLength() {
+        return type != CigarOperator.D ? length : 0;
+    }
+
+    public CigarOperator getType() {
+        return type;
+    }
+
+    /**
+     * Returns a ReadBlock as a subset of the current block.
+     * See {@link ReadBlock#getSubBlock(int, int, int)}
+     */
+    public ReadBlock getSubBlock(int accumulatedLength, int positionInRead, int maxLength) {
+        int positionInBlock = positionInRead + accumulatedLength - readStart + 1;
+
+        if ((type == CigarOperator.N) || (type == CigarOperator.D)) {
+            return new ReadBlock(accumulatedLength+1, referenceStart + positionInBlock, length-positionInBlock, type);
+        } else if (type == CigarOperator.S) {
+            return new ReadBlock(accumulatedLength+1, referenceStart, Math.min(maxLength, length - positionInBlock), type);
+        } else {
+            return new ReadBlock(accumulatedLength+1, referenceStart + positionInBlock, Math.min(maxLength, length - positionInBlock), type);
+        }
+    }
+
+    /**
+     * Returns the current block as a new ReadBlock.
+     */
+    public ReadBlock toReadBlock() {
+        return new ReadBlock(readStart, referenceStart, length, type);
+    }
+}
@@ -0,0 +1,120 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Comparator;
+
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Natural order comparison of read names, as used for merging read name sorted
+ * streams such as the groups returned by {@code SamMultiMappingReader}.
+ * <p>
+ * Names are split into fields on ':' and '/'.  Fields consisting only of digits are
+ * compared numerically, other fields are compared as strings.  A name that is a field
+ * prefix of another sorts first.  Numeric fields sort before string fields.
+ * <p>
+ * Each name is tokenised once into a byte sort key with numeric fields encoded as
+ * fixed width big endian longs, so that repeated comparisons are unsigned byte
+ * comparisons.  Callers comparing the same name repeatedly should cache its key
+ * from {@link #getSortKey(String)} and use {@link #compareKeys(byte[], byte[])}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class ReadNameComparator implements Comparator<String> {
+
+    private static final byte NUMERIC_FIELD = 1;
+    private static final byte STRING_FIELD = 2;
+    private static final byte END_OF_STRING = 0;
+
+    // Numeric fields with more digits are compared as strings
+    private static final int MAX_NUMERIC_DIGITS = 18;
+
+    @Override
+    public int compare(String name1, String name2) {
+        return compareKeys(getSortKey(name1), getSortKey(name2));
+    }
+
+    public static byte[] getSortKey(SAMRecord read) {
+        return getSortKey(read.getReadName());
+    }
+
+    public static byte[] getSortKey(String readName) {
+        int len = readName.length();
+
+        // Upper bound is 9 bytes per numeric field or tag + chars + terminator per string field
+        byte[] key = new byte[len * 9 + 2];
+        int keyLen = 0;
+
+        int fieldStart = 0;
+        while (fieldStart <= len) {
+            int fieldEnd = fieldStart;
+            boolean isNumeric = true;
+
+            while ((fieldEnd < len) && (readName.charAt(fieldEnd) != ':') && (readName.charAt(fieldEnd) != '/')) {
+                char ch = readName.charAt(fieldEnd);
+                if ((ch < '0') || (ch > '9')) {
+                    isNumeric = false;
+                }
+                fieldEnd++;
+            }
+
+            int numDigits = fieldEnd - fieldStart;
+
+            if ((isNumeric) && (numDigits > 0) && (numDigits <= MAX_NUMERIC_DIGITS)) {
+                long value = 0;
+                for (int i=fieldStart; i<fieldEnd; i++) {
+                    value = value * 10 + (readName.charAt(i) - '0');
+                }
+
+                key[keyLen++] = NUMERIC_FIELD;
+                for (int shift=56; shift>=0; shift-=8) {
+                    key[keyLen++] = (byte) (value >>> shift);
+                }
+            } else {
+                key[keyLen++] = STRING_FIELD;
+                for (int i=fieldStart; i<fieldEnd; i++) {
+                    char ch = readName.charAt(i);
+                    if ((ch > 0) && (ch < 0x80)) {
+                        key[keyLen++] = (byte) ch;
+                    } else {
+                        keyLen = appendUtf8(key, keyLen, readName.substring(i, i+1));
+                    }
+                }
+                key[keyLen++] = END_OF_STRING;
+            }
+
+            fieldStart = fieldEnd + 1;
+        }
+
+        byte[] sortKey = new byte[keyLen];
+        System.arraycopy(key, 0, sortKey, 0, keyLen);
+        return sortKey;
+    }
+
+    private static int appendUtf8(byte[] key, int keyLen, String ch) {
+        try {
+            byte[] bytes = ch.getBytes("UTF-8");
+            System.arraycopy(bytes, 0, key, keyLen, bytes.length);
+            return keyLen + bytes.length;
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Compares sort keys as unsigned bytes.
+     */
+    public static int compareKeys(byte[] key1, byte[] key2) {
+        int len = Math.min(key1.length, key2.length);
+
+        for (int i=0; i<len; i++) {
+            int b1 = key1[i] & 0xFF;
+            int b2 = key2[i] & 0xFF;
+            if (b1 != b2) {
+                return b1 < b2 ? -1 : 1;
+            }
+        }
+
+        return key1.length - key2.length;
+    }
+}
@@ -0,0 +1,157 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Pairs the first and second of pair records sharing a read name.
+ * <p>
+ * A first of pair and second of pair record are mates if either record's mate
+ * reference and position match the other record's reference and position.  Positions
+ * are compared as primitive (reference index, position) keys.  The common case of
+ * exactly one record of each is handled without any key buffers.
+ * <p>
+ * Multi-mapped groups may contain identical duplicate records.  As with {@code ReadPair}
+ * equality, pairs with the same SAM strings are output once.
+ * <p>
+ * Key buffers are reused between calls.  Not thread safe.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+class ReadPairMatcher {
+
+    private long[] positionKeys1 = new long[16];
+    private long[] mateKeys1 = new long[16];
+    private long[] positionKeys2 = new long[16];
+    private long[] mateKeys2 = new long[16];
+
+    // Reference ids for inputs whose header lacks sequence records
+    private Map<String, Integer> unindexedReferences = new HashMap<String, Integer>();
+
+    /**
+     * Appends the mated pairs found in reads1 and reads2 to readPairs.
+     * Within each pair, read1 is the record with the lower alignment start.
+     */
+    void pairReads(List<SAMRecord> reads1, List<SAMRecord> reads2, List<ReadPair> readPairs) {
+        if ((reads1.size() == 1) && (reads2.size() == 1)) {
+            SAMRecord read1 = reads1.get(0);
+            SAMRecord read2 = reads2.get(0);
+
+            if ((getMateKey(read1) == getPositionKey(read2)) || (getMateKey(read2) == getPositionKey(read1))) {
+                readPairs.add(newReadPair(read1, read2));
+            }
+        } else if ((!reads1.isEmpty()) && (!reads2.isEmpty())) {
+            pairMultiMappedReads(reads1, reads2, readPairs);
+        }
+    }
+
+    private void pairMultiMappedReads(List<SAMRecord> reads1, List<SAMRecord> reads2, List<ReadPair> readPairs) {
+        int numReads1 = reads1.size();
+        int numReads2 = reads2.size();
+
+        ensureCapacity(Math.max(numReads1, numReads2));
+
+        for (int i=0; i<numReads1; i++) {
+            positionKeys1[i] = getPositionKey(reads1.get(i));
+            mateKeys1[i] = getMateKey(reads1.get(i));
+        }
+
+        for (int j=0; j<numReads2; j++) {
+            positionKeys2[j] = getPositionKey(reads2.get(j));
+            mateKeys2[j] = getMateKey(reads2.get(j));
+        }
+
+        int firstPair = readPairs.size();
+
+        // Pair reads in both directions to include asymmetrically mated pairs
+        for (int j=0; j<numReads2; j++) {
+            for (int i=0; i<numReads1; i++) {
+                if (mateKeys1[i] == positionKeys2[j]) {
+                    readPairs.add(newReadPair(reads1.get(i), reads2.get(j)));
+                }
+            }
+        }
+
+        for (int i=0; i<numReads1; i++) {
+            for (int j=0; j<numReads2; j++) {
+                // Skip pairs already found in the first direction
+                if ((mateKeys2[j] == positionKeys1[i]) && (mateKeys1[i] != positionKeys2[j])) {
+                    readPairs.add(newReadPair(reads2.get(j), reads1.get(i)));
+                }
+            }
+        }
+
+        if (readPairs.size() - firstPair > 1) {
+            removeDuplicatePairs(readPairs, firstPair);
+        }
+    }
+
+    /**
+     * Removes pairs equal to an earlier pair from readPairs starting at index start.
+     * Order is retained.
+     */
+    private void removeDuplicatePairs(List<ReadPair> readPairs, int start) {
+        Set<ReadPair> readPairSet = new HashSet<ReadPair>();
+        int idx = start;
+
+        for (int i=start; i<readPairs.size(); i++) {
+            ReadPair pair = readPairs.get(i);
+            if (readPairSet.add(pair)) {
+                readPairs.set(idx++, pair);
+            }
+        }
+
+        readPairs.subList(idx, readPairs.size()).clear();
+    }
+
+    private ReadPair newReadPair(SAMRecord read1, SAMRecord read2) {
+        if (read1.getAlignmentStart() > read2.getAlignmentStart()) {
+            return new ReadPair(read2, read1);
+        }
+
+        return new ReadPair(read1, read2);
+    }
+
+    private void ensureCapacity(int size) {
+        if (positionKeys1.length < size) {
+            int capacity = Math.max(size, positionKeys1.length * 2);
+            positionKeys1 = new long[capacity];
+            mateKeys1 = new long[capacity];
+            positionKeys2 = new long[capacity];
+            mateKeys2 = new long[capacity];
+        }
+    }
+
+    long getPositionKey(SAMRecord read) {
+        return toKey(getReferenceId(read.getReferenceIndex(), read.getReferenceName()), read.getAlignmentStart());
+    }
+
+    long getMateKey(SAMRecord read) {
+        return toKey(getReferenceId(read.getMateReferenceIndex(), read.getMateReferenceName()), read.getMateAlignmentStart());
+    }
+
+    private int getReferenceId(Integer refIndex, String refName) {
+        if (refIndex != null) {
+            return refIndex;
+        }
+
+        // The header does not contain the reference, so assign an id by name.
+        // Ids start at -2 to avoid the unmapped reference index.
+        Integer id = unindexedReferences.get(refName);
+        if (id == null) {
+            id = -2 - unindexedReferences.size();
+            unindexedReferences.put(refName, id);
+        }
+
+        return id;
+    }
+
+    private static long toKey(int refId, int pos) {
+        return ((long) refId << 32) | (pos & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,22 @@
+package edu.unc.bioinf.ubu.sam;
+
+import net.sf.samtools.SAMRecord;
+
+/**
+ * A test applied to a single read by {@code SAMFilter}.
+ * Implementations must be stateless as they are shared by filter worker threads.
+ * 
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public interface ReadPredicate {
+
+    /**
+     * Returns true if the read passes this predicate.
+     */
+    public boolean matches(SAMRecord read);
+    
+    /**
+     * Relative cost of evaluating this predicate.  Cheaper predicates are evaluated first.
+     */
+    public int getCost();
+}
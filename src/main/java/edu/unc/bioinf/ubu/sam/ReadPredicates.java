@@ -0,0 +1,274 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.sf.samtools.Cigar;
+import net.sf.samtools.CigarOperator;
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Factory methods for the {@code ReadPredicate}s supported by {@code SAMFilter}.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class ReadPredicates {
+
+    // Relative predicate costs
+    static final int FIELD_COST = 1;
+    static final int TAG_COST = 2;
+    static final int CIGAR_COST = 3;
+    static final int REGION_COST = 4;
+    static final int READ_NAME_COST = 5;
+
+    private ReadPredicates() {
+    }
+
+    /**
+     * Compiles a filter expression.  An expression is a comma separated list of terms,
+     * all of which must match.  A term may be negated by a leading !
+     * <pre>
+     * all                  every read
+     * mapq&gt;=N             mapping quality at least N
+     * insert&lt;=N           absolute insert size at most N
+     * flags:N              all flag bits in N set (!flags:N - none set)
+     * indels               cigar contains I or D
+     * cigar:OPS            cigar contains any of OPS, i.e. cigar:NS
+     * tag:TAG[:VALUE]      read has the tag, optionally with the value
+     * regions:FILE         read overlaps a region in the BED or GTF file
+     * names:FILE           read name is listed in the file
+     * </pre>
+     */
+    public static ReadPredicate parse(String expression) throws IOException {
+        List<ReadPredicate> predicates = new ArrayList<ReadPredicate>();
+
+        for (String term : expression.split(",")) {
+            term = term.trim();
+            boolean isNegated = term.startsWith("!");
+            if (isNegated) {
+                term = term.substring(1);
+            }
+
+            ReadPredicate predicate;
+
+            try {
+                if (term.equals("all")) {
+                    predicate = all(new ArrayList<ReadPredicate>());
+                } else if (term.startsWith("mapq>=")) {
+                    predicate = minMappingQuality(Integer.parseInt(term.substring("mapq>=".length())));
+                } else if (term.startsWith("insert<=")) {
+                    predicate = maxInsertLen(Integer.parseInt(term.substring("insert<=".length())));
+                } else if (term.startsWith("flags:")) {
+                    int flags = Integer.decode(term.substring("flags:".length()));
+                    predicate = isNegated ? flags(0, flags) : flags(flags, 0);
+                    isNegated = false;
+                } else if (term.equals("indels")) {
+                    predicate = cigarOperators(Arrays.asList(CigarOperator.I, CigarOperator.D), !isNegated);
+                    isNegated = false;
+                } else if (term.startsWith("cigar:")) {
+                    List<CigarOperator> operators = new ArrayList<CigarOperator>();
+                    for (char op : term.substring("cigar:".length()).toCharArray()) {
+                        operators.add(CigarOperator.characterToEnum(op));
+                    }
+                    predicate = cigarOperators(operators, !isNegated);
+                    isNegated = false;
+                } else if (term.startsWith("tag:")) {
+                    String tag = term.substring("tag:".length());
+                    int idx = tag.indexOf(':');
+                    predicate = idx > -1 ? ReadPredicates.tag(tag.substring(0, idx), tag.substring(idx+1), !isNegated) :
+                        ReadPredicates.tag(tag, null, !isNegated);
+                    isNegated = false;
+                } else if (term.startsWith("regions:")) {
+                    predicate = regions(ReadRegions.load(term.substring("regions:".length())));
+                } else if (term.startsWith("names:")) {
+                    predicate = readNames(SAMFilter.loadReadNames(term.substring("names:".length())));
+                } else {
+                    throw new IllegalArgumentException("Unrecognized filter term: " + term);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid filter term: " + term);
+            }
+
+            predicates.add(isNegated ? not(predicate) : predicate);
+        }
+
+        return all(predicates);
+    }
+
+    public static ReadPredicate not(final ReadPredicate predicate) {
+        return new ReadPredicate() {
+            public boolean matches(SAMRecord read) {
+                return !predicate.matches(read);
+            }
+
+            public int getCost() {
+                return predicate.getCost();
+            }
+        };
+    }
+
+    /**
+     * Matches reads with all of the required flag bits set and none of the filtered flag bits set.
+     */
+    public static ReadPredicate flags(final int requiredFlags, final int filteredFlags) {
+        return new ReadPredicate() {
+            public boolean matches(SAMRecord read) {
+                int flags = read.getFlags();
+                return ((flags & requiredFlags) == requiredFlags) && ((flags & filteredFlags) == 0);
+            }
+
+            public int getCost() {
+                return FIELD_COST;
+            }
+        };
+    }
+
+    public static ReadPredicate minMappingQuality(final int minMappingQuality) {
+        return new ReadPredicate() {
+            public boolean matches(SAMRecord read) {
+                return read.getMappingQuality() >= minMappingQuality;
+            }
+
+            public int getCost() {
+                return FIELD_COST;
+            }
+        };
+    }
+
+    public static ReadPredicate maxInsertLen(final int maxInsertLen) {
+        return new ReadPredicate() {
+            public boolean matches(SAMRecord read) {
+                return Math.abs(read.getInferredInsertSize()) <= maxInsertLen;
+            }
+
+            public int getCost() {
+                return FIELD_COST;
+            }
+        };
+    }
+
+    /**
+     * If shouldContain is true, matches reads containing at least one of the specified cigar operators.
+     * Otherwise, matches reads containing none of the specified operators.
+     * The cigar is walked once regardless of the number of operators.
+     */
+    public static ReadPredicate cigarOperators(Collection<CigarOperator> operators, final boolean shouldContain) {
+        final boolean[] isOperatorSelected = new boolean[CigarOperator.values().length];
+        for (CigarOperator operator : operators) {
+            isOperatorSelected[operator.ordinal()] = true;
+        }
+
+        return new ReadPredicate() {
+            public boolean matches(SAMRecord read) {
+                Cigar cigar = read.getCigar();
+                int numElements = cigar.numCigarElements();
+
+                for (int i=0; i<numElements; i++) {
+                    if (isOperatorSelected[cigar.getCigarElement(i).getOperator().ordinal()]) {
+                        return shouldContain;
+                    }
+                }
+
+                return !shouldContain;
+            }
+
+            public int getCost() {
+                return CIGAR_COST;
+            }
+        };
+    }
+
+    /**
+     * Matches reads containing the tag.  If value is not null, the tag's value must also
+     * match.  If shouldContain is false, the result is inverted.
+     */
+    public static ReadPredicate tag(final String tag, final String value, final boolean shouldContain) {
+        return new ReadPredicate() {
+            public boolean matches(SAMRecord read) {
+                Object attribute = read.getAttribute(tag);
+                boolean isMatch = (attribute != null) && ((value == null) || (value.equals(attribute.toString())));
+                return isMatch == shouldContain;
+            }
+
+            public int getCost() {
+                return TAG_COST;
+            }
+        };
+    }
+
+    /**
+     * Matches reads overlapping any of the regions.
+     */
+    public static ReadPredicate regions(final ReadRegions regions) {
+        return new ReadPredicate() {
+            public boolean matches(SAMRecord read) {
+                return (!read.getReadUnmappedFlag()) &&
+                    (regions.overlaps(read.getReferenceName(), read.getAlignmentStart(), read.getAlignmentEnd()));
+            }
+
+            public int getCost() {
+                return REGION_COST;
+            }
+        };
+    }
+
+    /**
+     * Matches reads with one of the specified names.
+     */
+    public static ReadPredicate readNames(Collection<String> readNames) {
+        final Set<String> names = new HashSet<String>(readNames);
+
+        return new ReadPredicate() {
+            public boolean matches(SAMRecord read) {
+                return names.contains(read.getReadName());
+            }
+
+            public int getCost() {
+                return READ_NAME_COST;
+            }
+        };
+    }
+
+    /**
+     * Matches reads passing all of the predicates.  Predicates are evaluated cheapest first,
+     * stopping at the first failure.
+     */
+    public static ReadPredicate all(List<ReadPredicate> predicates) {
+        List<ReadPredicate> sorted = new ArrayList<ReadPredicate>(predicates);
+        Collections.sort(sorted, new Comparator<ReadPredicate>() {
+            public int compare(ReadPredicate p1, ReadPredicate p2) {
+                return p1.getCost() - p2.getCost();
+            }
+        });
+
+        final ReadPredicate[] ordered = sorted.toArray(new ReadPredicate[sorted.size()]);
+        int totalCost = 0;
+        for (ReadPredicate predicate : ordered) {
+            totalCost += predicate.getCost();
+        }
+        final int cost = totalCost;
+
+        return new ReadPredicate() {
+            public boolean matches(SAMRecord read) {
+                for (ReadPredicate predicate : ordered) {
+                    if (!predicate.matches(read)) {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+
+            public int getCost() {
+                return cost;
+            }
+        };
+    }
+}
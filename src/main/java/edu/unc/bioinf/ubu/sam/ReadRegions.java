@@ -0,0 +1,152 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.unc.bioinf.ubu.gtf.Feature;
+import edu.unc.bioinf.ubu.gtf.GtfLoader;
+
+/**
+ * Genomic regions loaded from a BED or GTF file.  Overlapping regions are merged
+ * and held per chromosome as sorted int arrays of 1 based inclusive coordinates.
+ * <p>
+ * Immutable once loaded and may be shared between threads.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class ReadRegions {
+
+    private Map<String, int[][]> chromosomeRegions = new HashMap<String, int[][]>();
+
+    ReadRegions(List<Feature> features) {
+        Map<String, List<Feature>> featuresByChromosome = new HashMap<String, List<Feature>>();
+
+        for (Feature feature : features) {
+            List<Feature> chromosomeFeatures = featuresByChromosome.get(feature.getSeqname());
+            if (chromosomeFeatures == null) {
+                chromosomeFeatures = new ArrayList<Feature>();
+                featuresByChromosome.put(feature.getSeqname(), chromosomeFeatures);
+            }
+            chromosomeFeatures.add(feature);
+        }
+
+        for (Map.Entry<String, List<Feature>> entry : featuresByChromosome.entrySet()) {
+            chromosomeRegions.put(entry.getKey(), merge(entry.getValue()));
+        }
+    }
+
+    /**
+     * Loads regions from a GTF file if the name ends with .gtf, otherwise from a BED file.
+     */
+    public static ReadRegions load(String filename) throws IOException {
+        List<Feature> features;
+
+        if (filename.toLowerCase().endsWith(".gtf")) {
+            features = new GtfLoader().load(filename);
+        } else {
+            features = loadBed(filename);
+        }
+
+        return new ReadRegions(features);
+    }
+
+    private static List<Feature> loadBed(String bedFile) throws IOException {
+        List<Feature> features = new ArrayList<Feature>();
+        BufferedReader reader = new BufferedReader(new FileReader(bedFile));
+
+        try {
+            String line = reader.readLine();
+
+            while (line != null) {
+                if ((line.length() > 0) && (!line.startsWith("#")) && (!line.startsWith("track")) &&
+                    (!line.startsWith("browser"))) {
+
+                    String[] fields = line.split("\t");
+
+                    // BED starts are 0 based, ends are exclusive
+                    features.add(new Feature(fields[0], Long.valueOf(fields[1]) + 1, Long.valueOf(fields[2])));
+                }
+
+                line = reader.readLine();
+            }
+        } finally {
+            reader.close();
+        }
+
+        return features;
+    }
+
+    private static int[][] merge(List<Feature> features) {
+        Collections.sort(features, new Comparator<Feature>() {
+            public int compare(Feature f1, Feature f2) {
+                return f1.getStart() < f2.getStart() ? -1 : (f1.getStart() > f2.getStart() ? 1 : 0);
+            }
+        });
+
+        int[] starts = new int[features.size()];
+        int[] ends = new int[features.size()];
+        int numRegions = 0;
+
+        for (Feature feature : features) {
+            int start = (int) feature.getStart();
+            int end = (int) feature.getEnd();
+
+            if ((numRegions > 0) && (start <= ends[numRegions-1] + 1)) {
+                ends[numRegions-1] = Math.max(ends[numRegions-1], end);
+            } else {
+                starts[numRegions] = start;
+                ends[numRegions] = end;
+                numRegions++;
+            }
+        }
+
+        int[][] regions = new int[numRegions][];
+        for (int i=0; i<numRegions; i++) {
+            regions[i] = new int[] { starts[i], ends[i] };
+        }
+
+        return regions;
+    }
+
+    /**
+     * Returns true if the 1 based inclusive interval overlaps a region.
+     */
+    public boolean overlaps(String chromosome, int start, int end) {
+        int[][] regions = chromosomeRegions.get(chromosome);
+        if (regions == null) {
+            return false;
+        }
+
+        // Find the last region starting at or before end
+        int low = 0;
+        int high = regions.length - 1;
+        int idx = -1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (regions[mid][0] <= end) {
+                idx = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return (idx >= 0) && (regions[idx][1] >= start);
+    }
+
+    /**
+     * Returns the merged {start, end} regions for the chromosome in start order, or an empty array.
+     */
+    public int[][] getRegions(String chromosome) {
+        int[][] regions = chromosomeRegions.get(chromosome);
+        return regions != null ? regions : new int[0][];
+    }
+}
@@ -0,0 +1,124 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.samtools.SAMFileHeader;
+
+/**
+ * Dense int gene ids for the isoform references of a transcriptome BAM header.
+ * <p>
+ * Genes in the {@code IsoformGeneMap} are numbered in sorted gene order from 0 to
+ * {@link #getNumGenes()} - 1, so ids are consistent across inputs with different
+ * headers.  Header references without a gene are treated as their own gene (as with
+ * {@link IsoformGeneMap#getGene(String)}) and are given ids from {@link #getNumGenes()} up.
+ * These are counted but not output.
+ * <p>
+ * Gene ids are looked up by header reference index, or by a character range of a
+ * reference name without allocating a substring.
+ * <p>
+ * Immutable once built and may be shared between threads.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class ReferenceGeneIndex {
+
+	public static final int UNKNOWN_REFERENCE = -1;
+
+	private int numGenes;
+	private int numIds;
+	private int[] referenceGenes;
+
+	// Open addressing table of reference name to gene id
+	private String[] names;
+	private int[] nameGenes;
+	private int mask;
+
+	public ReferenceGeneIndex(IsoformGeneMap isoformGeneMap, SAMFileHeader header) {
+		List<String> genes = isoformGeneMap.getSortedGeneList();
+		Map<String, Integer> geneIds = new HashMap<String, Integer>();
+		for (String gene : genes) {
+			geneIds.put(gene, geneIds.size());
+		}
+
+		numGenes = genes.size();
+
+		int numReferences = header.getSequenceDictionary().size();
+		referenceGenes = new int[numReferences];
+
+		for (int i=0; i<numReferences; i++) {
+			String gene = isoformGeneMap.getGene(header.getSequence(i).getSequenceName());
+			Integer id = geneIds.get(gene);
+			if (id == null) {
+				id = geneIds.size();
+				geneIds.put(gene, id);
+			}
+			referenceGenes[i] = id;
+		}
+
+		numIds = geneIds.size();
+
+		int capacity = 16;
+		while (capacity < numReferences * 2) {
+			capacity *= 2;
+		}
+
+		names = new String[capacity];
+		nameGenes = new int[capacity];
+		mask = capacity - 1;
+
+		for (int i=0; i<numReferences; i++) {
+			String name = header.getSequence(i).getSequenceName();
+			int slot = name.hashCode() & mask;
+			while (names[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			names[slot] = name;
+			nameGenes[slot] = referenceGenes[i];
+		}
+	}
+
+	/**
+	 * Number of genes in the isoform gene map.  These have ids 0 to numGenes - 1
+	 * in sorted gene order.
+	 */
+	public int getNumGenes() {
+		return numGenes;
+	}
+
+	/**
+	 * Number of ids, including references without a gene.  Size count arrays with this.
+	 */
+	public int getNumIds() {
+		return numIds;
+	}
+
+	public int getGene(int referenceIndex) {
+		return referenceGenes[referenceIndex];
+	}
+
+	/**
+	 * Returns the gene id of the reference named by chars start (inclusive) to end (exclusive)
+	 * of str, or UNKNOWN_REFERENCE if the name is not in the header.
+	 */
+	public int getGene(String str, int start, int end) {
+		int hash = 0;
+		for (int i=start; i<end; i++) {
+			hash = 31 * hash + str.charAt(i);
+		}
+
+		int len = end - start;
+		int slot = hash & mask;
+
+		while (names[slot] != null) {
+			String name = names[slot];
+			if ((name.length() == len) && (name.regionMatches(0, str, start, len))) {
+				return nameGenes[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		return UNKNOWN_REFERENCE;
+	}
+}
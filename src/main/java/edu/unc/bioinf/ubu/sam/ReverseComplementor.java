@@ -14,11 +14,22 @@ public class ReverseComplementor {
     
     private static final Map<Byte, Byte> complementMap = new HashMap<Byte, Byte>();
     
+    // Lookup table equivalent of complementMap.  Unmapped bases complement to themselves.
+    private static final byte[] complementTable = new byte[256];
+    
     static {
         complementMap.put((byte) 'C', (byte) 'G');
         complementMap.put((byte) 'G', (byte) 'C');
         complementMap.put((byte) 'T', (byte) 'A');
         complementMap.put((byte) 'A', (byte) 'T');
+        
+        for (int i=0; i<complementTable.length; i++) {
+            complementTable[i] = (byte) i;
+        }
+        
+        for (Map.Entry<Byte, Byte> entry : complementMap.entrySet()) {
+            complementTable[entry.getKey() & 0xFF] = entry.getValue();
+        }
     }
 
     /**
@@ -37,9 +48,17 @@ public class ReverseComplementor {
      */
     public void complementInPlace(byte[] bytes) {
         for (int i=0; i<bytes.length; i++) {
-            if (complementMap.containsKey(bytes[i])) {
-                bytes[i] = complementMap.get(bytes[i]);
-            }
+            bytes[i] = complementTable[bytes[i] & 0xFF];
+        }
+    }
+    
+    /**
+     * Writes the reverse complement of the first len bases of input into output.
+     * No allocation is performed.  input and output must be distinct arrays.
+     */
+    public void reverseComplement(byte[] input, int len, byte[] output) {
+        for (int i=0; i<len; i++) {
+            output[len-1-i] = complementTable[input[i] & 0xFF];
         }
     }
     
@@ -1,144 +1,350 @@
 package edu.unc.bioinf.ubu.sam;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Builds a matrix of expected counts from rsem files.
+ * <p>
+ * Sample files are parsed in parallel into columns of counts, in batches.  Each batch is
+ * spilled to a temp file of rows, then the batches are merged row by row into the matrix.
+ * At most one file per worker is open while parsing, and one file per batch while merging,
+ * so the batch size is chosen to keep the number of batches within the open file limit.
+ * <p>
+ * The gene ids of the first sample form the row dictionary.  Each sample's gene ids are
+ * validated against it once while parsing.  Genes with a zero total count are omitted.
+ * By default, counts are output in the shortest plain decimal form that parses back to the
+ * same value, so no precision is lost and integer counts are output as integers.  A fixed
+ * number of decimal places may be set instead, rounding half up.
+ * <p>
+ * If the output file name ends with {@code BinaryMatrix.EXTENSION}, each batch's columns
+ * are written directly to a float64 binary matrix.  All genes are retained in this case.
+ * The binary matrix is deleted if any batch fails, rather than sealed with partial columns.
  *  
  * @author Lisle Mose (lmose at unc dot edu)
  */
 public class RsemExpectedCountsAggregator {
     
-    private List<RsemFileInfo> fileInfo = new ArrayList<RsemFileInfo>();
-    private BufferedWriter writer;
+    public static final int DEFAULT_MAX_OPEN_FILES = 512;
+    
+    // Decimal places setting for lossless output
+    public static final int ROUND_TRIP = -1;
     
-    private List<BufferedReader> readers = new ArrayList<BufferedReader>(); 
+    // Smallest number of samples per batch.  Bounds the number of spill files for small cohorts.
+    static final int MIN_BATCH_SIZE = 256;
     
-    private int lineNum = 1;
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+    
+    private List<RsemFileInfo> fileInfo = new ArrayList<RsemFileInfo>();
     
     private String countFile;
+    
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+    private int decimalPlaces = ROUND_TRIP;
+    private File tempDir = null;
+    
+    // Row dictionary and total count per row
+    private String[] genes;
+    private double[] totalCounts;
 
-    public void aggregate(String countFile, String outputFile, List<String> directories) throws IOException {
+    public void aggregate(String countFile, String outputFile, List<String> directories) throws IOException, InterruptedException {
         this.countFile = countFile;
-        writer = new BufferedWriter(new FileWriter(outputFile, false));
         findRsemFiles(directories);
-        buildMatrix();
-        writer.close();
-        closeReaders();
+        buildMatrix(outputFile);
     }
     
-    private void closeReaders() throws IOException {
-        for (BufferedReader reader : readers) {
-            reader.close();
+    void buildMatrix(String outputFile) throws IOException, InterruptedException {
+        genes = fileInfo.isEmpty() ? new String[0] : loadGenes(fileInfo.get(0).getGeneFile());
+        totalCounts = new double[genes.length];
+        
+        int batchSize = getBatchSize(fileInfo.size(), maxOpenFiles);
+        List<File> spillFiles = new ArrayList<File>();
+        
+        System.out.println("Parsing " + fileInfo.size() + " samples in batches of " + batchSize + 
+                " using " + numThreads + " threads");
+        
+        ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+        
+        BinaryMatrixWriter binaryWriter = null;
+        boolean isComplete = false;
+        
+        try {
+            if (outputFile.endsWith(BinaryMatrix.EXTENSION)) {
+                binaryWriter = BinaryMatrixWriter.create(outputFile, Arrays.asList(genes), BinaryMatrix.FLOAT64);
+            }
+            
+            for (int start=0; start<fileInfo.size(); start += batchSize) {
+                List<RsemFileInfo> batch = fileInfo.subList(start, Math.min(start + batchSize, fileInfo.size()));
+                
+                double[][] columns = parseBatch(batch, workers);
+                
+                System.out.println("Parsed " + (start + batch.size()) + " samples");
+                
+                if (binaryWriter != null) {
+                    // Columns are written as parsed, so no spill or merge is needed
+                    for (int i=0; i<columns.length; i++) {
+                        binaryWriter.addColumn(batch.get(i).getSampleId(), columns[i]);
+                    }
+                } else {
+                    // Sum in sample order
+                    for (double[] column : columns) {
+                        for (int i=0; i<genes.length; i++) {
+                            totalCounts[i] += column[i];
+                        }
+                    }
+                    
+                    spillFiles.add(spill(columns));
+                }
+            }
+            
+            workers.shutdown();
+            
+            if (binaryWriter == null) {
+                writeMatrix(outputFile, spillFiles, batchSize);
+            } else {
+                binaryWriter.close();
+            }
+            
+            isComplete = true;
+        } finally {
+            workers.shutdownNow();
+            
+            if ((binaryWriter != null) && (!isComplete)) {
+                binaryWriter.abort();
+            }
+            
+            for (File spillFile : spillFiles) {
+                spillFile.delete();
+            }
         }
     }
     
-    private void buildMatrix() throws IOException {
-        initReaders();
-        writeHeader();
-        processFiles();
+    /**
+     * Returns the number of samples per batch, such that the number of batches does
+     * not exceed maxOpenFiles.
+     */
+    static int getBatchSize(int numSamples, int maxOpenFiles) {
+        int batchSize = (numSamples + maxOpenFiles - 1) / maxOpenFiles;
+        return Math.max(batchSize, MIN_BATCH_SIZE);
     }
     
-    private List<String> getNextResultList() throws IOException {
-        List<String> results = new ArrayList<String>();
-        boolean isNullInResults = false;
-        boolean isNonNullInResults = false;
+    private double[][] parseBatch(List<RsemFileInfo> batch, ExecutorService workers) throws IOException, InterruptedException {
+        List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
         
-        for (BufferedReader reader : readers) {
-            String line = reader.readLine();
-            if (line == null) {
-                isNullInResults = true;
-            }
-            
-            if (line != null) {
-                isNonNullInResults = true;
-            }
-            results.add(line);
+        for (RsemFileInfo info : batch) {
+            futures.add(workers.submit(new ParseSample(info.getGeneFile(), genes)));
         }
         
-        if (isNullInResults && isNonNullInResults) {
-            throw new IllegalArgumentException("Invalid EOF reached at line: " + lineNum);
+        double[][] columns = new double[futures.size()][];
+        for (int i=0; i<columns.length; i++) {
+            columns[i] = waitFor(futures.get(i));
         }
         
-        lineNum++;
+        return columns;
+    }
+    
+    private double[] waitFor(Future<double[]> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+    
+    /**
+     * Writes the batch's columns as rows of doubles.
+     */
+    private File spill(double[][] columns) throws IOException {
+        File spillFile = File.createTempFile("rsem_counts_", ".bin", tempDir);
+        spillFile.deleteOnExit();
+        
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile), 65536));
         
-        if (isNullInResults) {
-            results = null;
+        try {
+            for (int i=0; i<genes.length; i++) {
+                for (double[] column : columns) {
+                    out.writeDouble(column[i]);
+                }
+            }
+        } finally {
+            out.close();
         }
         
-        return results;
+        return spillFile;
     }
     
-    private void processFiles() throws IOException {
-        List<String> lines = getNextResultList();
-
-        while (lines != null) {
-            if (containsNonZeroCount(lines)) {
-                outputCount(lines);
+    private void writeMatrix(String outputFile, List<File> spillFiles, int batchSize) throws IOException {
+        List<DataInputStream> inputs = new ArrayList<DataInputStream>();
+        BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile, false), 65536);
+        
+        try {
+            for (File spillFile : spillFiles) {
+                inputs.add(new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile), 65536)));
             }
             
-            lines = getNextResultList();
+            writeHeader(writer);
+            
+            StringBuilder geneLine = new StringBuilder();
+            
+            for (int i=0; i<genes.length; i++) {
+                boolean isNonZero = Math.abs(totalCounts[i]) > .0001;
+                
+                geneLine.setLength(0);
+                geneLine.append(genes[i]);
+                
+                int sample = 0;
+                for (DataInputStream input : inputs) {
+                    int batchEnd = Math.min(sample + batchSize, fileInfo.size());
+                    
+                    // Rows must be consumed whether or not they are output
+                    for (; sample<batchEnd; sample++) {
+                        double count = input.readDouble();
+                        
+                        if (isNonZero) {
+                            geneLine.append('\t');
+                            if (decimalPlaces == ROUND_TRIP) {
+                                appendRoundTrip(geneLine, count);
+                            } else {
+                                appendDecimal(geneLine, count, decimalPlaces);
+                            }
+                        }
+                    }
+                }
+                
+                if (isNonZero) {
+                    geneLine.append('\n');
+                    writer.write(geneLine.toString());
+                }
+            }
+        } finally {
+            writer.close();
+            
+            for (DataInputStream input : inputs) {
+                input.close();
+            }
         }
     }
     
-    private boolean containsNonZeroCount(List<String> lines) {
-        double totalCount = 0.0;
+    /**
+     * Appends the shortest plain (non exponential) decimal that parses to the same value.
+     * Integral values are appended without a decimal point.
+     * <p>
+     * Values with up to 9 decimal places, which includes all rsem output, are appended
+     * directly without allocating.  A decimal with n places parses to the value if the
+     * value scaled by 10^n and rounded, divided by 10^n, is the value, as both the parse
+     * and the division are correctly rounded.
+     */
+    static void appendRoundTrip(StringBuilder str, double value) {
+        if ((Double.isNaN(value)) || (Double.isInfinite(value))) {
+            str.append(value);
+            return;
+        }
+        
+        double abs = Math.abs(value);
         
-        for (String line : lines) {
-            String[] fields = line.split("\t");
-            String countStr = fields[1];
+        // Scaled values must be exact in a double
+        for (int places=0; (places<POWERS_OF_TEN.length) && (abs * POWERS_OF_TEN[places] < 9.0E15); places++) {
+            long scaled = (long) Math.rint(abs * POWERS_OF_TEN[places]);
             
-            totalCount += Double.valueOf(countStr);
+            if ((double) scaled / POWERS_OF_TEN[places] == abs) {
+                appendScaled(str, value < 0, scaled, places);
+                return;
+            }
         }
         
-        boolean isNonZero = false;
+        // Double.toString has the fewest digits that uniquely identify the value
+        str.append(new BigDecimal(Double.toString(value)).stripTrailingZeros().toPlainString());
+    }
+    
+    /**
+     * Appends the value with the specified number of decimal places, rounding half up.
+     * Falls back to Double.toString for values too large to scale to a long.
+     */
+    static void appendDecimal(StringBuilder str, double value, int decimalPlaces) {
+        long scale = POWERS_OF_TEN[decimalPlaces];
+        double abs = Math.abs(value);
         
-        if (Math.abs(totalCount) > .0001) {
-            isNonZero = true;
+        if ((Double.isNaN(value)) || (abs * scale >= 9.0E18)) {
+            str.append(value);
+            return;
         }
         
-        return isNonZero;
+        appendScaled(str, value < 0, Math.round(abs * scale), decimalPlaces);
     }
     
-    private void outputCount(List<String> lines) throws IOException {
-        StringBuffer geneLine = new StringBuffer();
-        String firstLine = lines.get(0);
-        String[] fields = firstLine.split("\t");
-        String geneId = fields[0];
-        geneLine.append(geneId);
+    /**
+     * Appends a non negative value scaled by 10^decimalPlaces as a decimal, with a sign
+     * unless it is zero.
+     */
+    private static void appendScaled(StringBuilder str, boolean isNegative, long scaled, int decimalPlaces) {
+        long scale = POWERS_OF_TEN[decimalPlaces];
         
-        for (String line : lines) {
-            String[] lineFields = line.split("\t");
-            String currGeneId = lineFields[0];
-            if (!(currGeneId.equals(geneId))) {
-                throw new IllegalArgumentException ("Mismatch genes: " + geneId + " - " + currGeneId);
-            }
+        if ((isNegative) && (scaled != 0)) {
+            str.append('-');
+        }
+        
+        str.append(scaled / scale);
+        
+        if (decimalPlaces > 0) {
+            str.append('.');
             
-            String expectedCount = lineFields[1];
+            long fraction = scaled % scale;
+            for (long place = scale / 10; (place > fraction) && (place > 1); place /= 10) {
+                str.append('0');
+            }
             
-            geneLine.append('\t');
-            geneLine.append(expectedCount);
+            str.append(fraction);
         }
-        
-        writer.write(geneLine.toString());
-        writer.write('\n');
     }
     
-    private void initReaders() throws IOException {
-        for (RsemFileInfo info : fileInfo) {
-            readers.add(new BufferedReader(new FileReader(info.getGeneFile())));
+    private String[] loadGenes(String geneFile) throws IOException {
+        List<String> geneList = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(geneFile));
+        
+        try {
+            String line = reader.readLine();
+            while (line != null) {
+                int tab = line.indexOf('\t');
+                geneList.add(tab >= 0 ? line.substring(0, tab) : line);
+                
+                line = reader.readLine();
+            }
+        } finally {
+            reader.close();
         }
+        
+        return geneList.toArray(new String[geneList.size()]);
     }
     
-    private void writeHeader() throws IOException {
-        StringBuffer str = new StringBuffer();
+    private void writeHeader(BufferedWriter writer) throws IOException {
+        StringBuilder str = new StringBuilder();
         for (RsemFileInfo info : fileInfo) {
             // Skip first column
             str.append('\t');
@@ -158,15 +364,96 @@ public class RsemExpectedCountsAggregator {
             for (File fileInDir : filesInDir) {
                 if (fileInDir.isDirectory()) {
                     System.out.println("Adding: " + fileInDir.getName());
-                    fileInfo.add(new RsemFileInfo(
-                            fileInDir.getName(),
-                            fileInDir.getAbsolutePath() + "/" + countFile,
-                            fileInDir.getAbsolutePath() + "/" + "foo"));
+                    addSample(fileInDir.getName(), fileInDir.getAbsolutePath() + "/" + countFile);
                 }
             }
         }
     }
     
+    void addSample(String sampleId, String geneFile) {
+        fileInfo.add(new RsemFileInfo(sampleId, geneFile, new File(geneFile).getParent() + "/" + "foo"));
+    }
+    
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+    
+    public void setMaxOpenFiles(int maxOpenFiles) {
+        this.maxOpenFiles = maxOpenFiles;
+    }
+    
+    /**
+     * Outputs counts with a fixed number of decimal places (0 - 9) rather than the
+     * lossless default.  {@code ROUND_TRIP} restores the default.
+     */
+    public void setDecimalPlaces(int decimalPlaces) {
+        if ((decimalPlaces != ROUND_TRIP) && ((decimalPlaces < 0) || (decimalPlaces >= POWERS_OF_TEN.length))) {
+            throw new IllegalArgumentException("Decimal places must be between 0 and " + (POWERS_OF_TEN.length - 1) +
+                    ": " + decimalPlaces);
+        }
+        this.decimalPlaces = decimalPlaces;
+    }
+    
+    public void setTempDir(File tempDir) {
+        this.tempDir = tempDir;
+    }
+    
+    /**
+     * Parses a sample's expected counts (the second column) into a column indexed by
+     * row of the gene dictionary.
+     */
+    static class ParseSample implements Callable<double[]> {
+        private String geneFile;
+        private String[] genes;
+        
+        ParseSample(String geneFile, String[] genes) {
+            this.geneFile = geneFile;
+            this.genes = genes;
+        }
+
+        @Override
+        public double[] call() throws IOException {
+            double[] counts = new double[genes.length];
+            BufferedReader reader = new BufferedReader(new FileReader(geneFile), 65536);
+            
+            try {
+                int row = 0;
+                String line = reader.readLine();
+                
+                while (line != null) {
+                    if (row == genes.length) {
+                        throw new IllegalArgumentException("Invalid EOF reached at line: " + (row + 1) + " in: " + geneFile);
+                    }
+                    
+                    int geneEnd = line.indexOf('\t');
+                    String gene = genes[row];
+                    
+                    if ((geneEnd != gene.length()) || (!line.startsWith(gene))) {
+                        String currGeneId = geneEnd >= 0 ? line.substring(0, geneEnd) : line;
+                        throw new IllegalArgumentException ("Mismatch genes: " + gene + " - " + currGeneId + " in: " + geneFile);
+                    }
+                    
+                    int countEnd = line.indexOf('\t', geneEnd + 1);
+                    if (countEnd < 0) {
+                        countEnd = line.length();
+                    }
+                    
+                    counts[row++] = Double.parseDouble(line.substring(geneEnd + 1, countEnd));
+                    
+                    line = reader.readLine();
+                }
+                
+                if (row != genes.length) {
+                    throw new IllegalArgumentException("Invalid EOF reached at line: " + (row + 1) + " in: " + geneFile);
+                }
+            } finally {
+                reader.close();
+            }
+            
+            return counts;
+        }
+    }
+    
     static class RsemFileInfo {
         private String sampleId;
         private String geneFile;
@@ -191,32 +478,25 @@ public class RsemExpectedCountsAggregator {
         }
     }
     
-    public static void main(String[] args) throws IOException {
+    public static void run(String[] args) throws IOException, InterruptedException {
+        RsemExpectedCountsAggregatorOptions options = new RsemExpectedCountsAggregatorOptions();
+        options.parseOptions(args);
         
-        if (args.length < 3) {
-            System.out.println("RsemExpectedCountsAggregator <results_file_name> <output_file> <dir1> <dir2> ... <dirn>");
-            System.exit(0);
-        }
-
-        
-//        args = new String[] {
-//                "rsem.genes.results",
-//                "all_gene_counts2.tsv",
-//                "/home/lisle/data/rsem"
-//        };
-
-        
-        String countFile = args[0];
-        String outputFile = args[1];
-        
-        List<String> directories = new ArrayList<String>();
-        
-        for (int i=2; i<args.length; i++) {
-            directories.add(args[i]);
+        if (options.isValid()) {
+            RsemExpectedCountsAggregator aggregator = new RsemExpectedCountsAggregator();
+            aggregator.setNumThreads(options.getNumThreads());
+            aggregator.setMaxOpenFiles(options.getMaxOpenFiles());
+            aggregator.setDecimalPlaces(options.getDecimalPlaces());
+            
+            if (options.getTempDir() != null) {
+                aggregator.setTempDir(new File(options.getTempDir()));
+            }
+            
+            aggregator.aggregate(options.getResultsFileName(), options.getOutputFile(), options.getDirectories());
         }
-        
-        RsemExpectedCountsAggregator aggregator = new RsemExpectedCountsAggregator();
-        aggregator.aggregate(countFile, outputFile, directories);
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        run(args);
     }
 }
-
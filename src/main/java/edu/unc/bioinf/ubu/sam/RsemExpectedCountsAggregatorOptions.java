@@ -0,0 +1,137 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.util.List;
+
+import joptsimple.OptionParser;
+import edu.unc.bioinf.ubu.util.Options;
+
+/**
+ * Options parser for {@code RsemExpectedCountsAggregator}.  The results file name, output
+ * file and sample directories are positional arguments following the options.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class RsemExpectedCountsAggregatorOptions extends Options {
+
+	private static final String USAGE = "RsemExpectedCountsAggregator [options] <results_file_name> <output_file> <dir1> <dir2> ... <dirn>";
+
+	private static final String NUM_THREADS = "threads";
+	private static final String MAX_OPEN_FILES = "max-open-files";
+	private static final String DECIMAL_PLACES = "decimals";
+	private static final String TEMP_DIR = "tmp";
+
+	private OptionParser parser;
+	private boolean isValid;
+
+	@Override
+	protected OptionParser getOptionParser() {
+    	if (parser == null) {
+            parser = new OptionParser();
+            parser.accepts(NUM_THREADS, "Optional number of threads used to parse sample files (default number of processors)").withRequiredArg().ofType(Integer.class);
+            parser.accepts(MAX_OPEN_FILES, "Optional maximum number of spill files open while merging (default " + RsemExpectedCountsAggregator.DEFAULT_MAX_OPEN_FILES + ")").withRequiredArg().ofType(Integer.class);
+            parser.accepts(DECIMAL_PLACES, "Optional fixed number of decimal places (0 - 9) for text output (default shortest lossless form)").withRequiredArg().ofType(Integer.class);
+            parser.accepts(TEMP_DIR, "Optional directory for spill files (default system temp dir)").withRequiredArg().ofType(String.class);
+            parser.accepts(HELP, "Print this help message");
+    	}
+
+    	return parser;
+	}
+
+	@Override
+	protected void printHelp() {
+		System.err.println(USAGE);
+		System.err.println("Output is a binary matrix if output_file ends with " + BinaryMatrix.EXTENSION);
+		super.printHelp();
+	}
+
+	@Override
+	protected void validate() {
+        isValid = true;
+
+        if (getArguments().size() < 3) {
+            isValid = false;
+            System.err.println("Missing required results file name, output file or sample directory");
+        }
+
+        if ((getOptions().hasArgument(NUM_THREADS)) && (getNumThreads() < 1)) {
+            isValid = false;
+            System.err.println("Number of threads must be at least 1");
+        }
+
+        if ((getOptions().hasArgument(MAX_OPEN_FILES)) && (getMaxOpenFiles() < 1)) {
+            isValid = false;
+            System.err.println("Max open files must be at least 1");
+        }
+
+        if ((getOptions().hasArgument(DECIMAL_PLACES)) && ((getDecimalPlaces() < 0) || (getDecimalPlaces() > 9))) {
+            isValid = false;
+            System.err.println("Decimal places must be between 0 and 9");
+        }
+
+        if (!isValid) {
+            printHelp();
+        }
+	}
+
+	private List<String> getArguments() {
+		return getOptions().nonOptionArguments();
+	}
+
+	public String getResultsFileName() {
+		return getArguments().get(0);
+	}
+
+	public String getOutputFile() {
+		return getArguments().get(1);
+	}
+
+	public List<String> getDirectories() {
+		List<String> args = getArguments();
+		return args.subList(2, args.size());
+	}
+
+	public int getNumThreads() {
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		if (getOptions().hasArgument(NUM_THREADS)) {
+			threads = (Integer) getOptions().valueOf(NUM_THREADS);
+		}
+
+		return threads;
+	}
+
+	public int getMaxOpenFiles() {
+		int maxOpenFiles = RsemExpectedCountsAggregator.DEFAULT_MAX_OPEN_FILES;
+
+		if (getOptions().hasArgument(MAX_OPEN_FILES)) {
+			maxOpenFiles = (Integer) getOptions().valueOf(MAX_OPEN_FILES);
+		}
+
+		return maxOpenFiles;
+	}
+
+	/**
+	 * Returns the fixed number of decimal places, or {@code RsemExpectedCountsAggregator.ROUND_TRIP}
+	 * if not specified.
+	 */
+	public int getDecimalPlaces() {
+		int decimalPlaces = RsemExpectedCountsAggregator.ROUND_TRIP;
+
+		if (getOptions().hasArgument(DECIMAL_PLACES)) {
+			decimalPlaces = (Integer) getOptions().valueOf(DECIMAL_PLACES);
+		}
+
+		return decimalPlaces;
+	}
+
+	/**
+	 * Returns the temp directory or null if not specified.
+	 */
+	public String getTempDir() {
+		return (String) getOptions().valueOf(TEMP_DIR);
+	}
+
+    public boolean isValid() {
+        return isValid;
+    }
+}
@@ -1,82 +1,251 @@
 package edu.unc.bioinf.ubu.sam;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import net.sf.samtools.CigarElement;
 import net.sf.samtools.CigarOperator;
+import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileReader;
 import net.sf.samtools.SAMFileReader.ValidationStringency;
-import net.sf.samtools.SAMFileWriter;
-import net.sf.samtools.SAMFileWriterFactory;
 import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMRecordIterator;
+import net.sf.samtools.SAMSequenceRecord;
 
 /**
  * Filters reads from a SAM or BAM file.  For paired end, read pairs are filtered.
  * Candidates for filtering include:<br/>
- * Indels<br/>
+ * Indels or other cigar operators<br/>
  * Clusters greater than a specified insert length<br/>
  * Reads with low mapping quality<br/>
+ * Flags<br/>
+ * Tags<br/>
+ * Regions from a BED or GTF file<br/>
+ * Read names<br/>
+ * <p>
+ * All criteria are compiled into a single {@code ReadPredicate} that evaluates the
+ * cheapest tests first.  Batches of reads are evaluated by a pool of worker threads
+ * and written in input order.  When filtering single end reads by region from an
+ * indexed BAM, only the indexed bins overlapping the regions are read.
+ * <p>
+ * Multiple outputs, each with its own filter expression, may be written in a single
+ * pass over the input.
  * 
  * @author Lisle Mose (lmose at unc dot edu)
  */
 public class SAMFilter {
     
+	private static final int BATCH_SIZE = 10000;
+	
 	private boolean isPairedEnd = true;
     private boolean shouldStripIndels = false;
     private boolean shouldIncludeIndelsOnly = false;
     private int     maxInsertLen = -1;
     private int     minMappingQuality = -1;
+    private int     requiredFlags = 0;
+    private int     filteredFlags = 0;
+    private List<CigarOperator> excludedCigarOperators = new ArrayList<CigarOperator>();
+    private List<ReadPredicate> tagPredicates = new ArrayList<ReadPredicate>();
+    private ReadRegions regions = null;
+    private Collection<String> readNames = null;
+    private int     numThreads = 1;
+    
+    // Compiled on first use
+    private ReadPredicate predicate = null;
 
     public void filter(String input, String output) {
-    	if (isPairedEnd) {
-    		filterPairedEnd(input, output);
-    	} else {
-    		filterSingleEnd(input, output);
+    	split(input, Arrays.asList(output), Arrays.asList(getPredicate()));
+    }
+    
+    /**
+     * Routes each read (or pair) to every output whose predicate it matches in a single
+     * pass over the input.  The filter criteria set on this object apply to all outputs.
+     * Each output is compressed on its own thread.
+     */
+    public void split(String input, List<String> outputs, List<ReadPredicate> outputPredicates) {
+    	ReadPredicate[] predicates = new ReadPredicate[outputPredicates.size()];
+    	for (int i=0; i<predicates.length; i++) {
+    		predicates[i] = ReadPredicates.all(Arrays.asList(getPredicate(), outputPredicates.get(i)));
+    	}
+    	
+    	try {
+	    	if (isPairedEnd) {
+	    		filterPairedEnd(input, outputs, predicates);
+	    	} else {
+	    		filterSingleEnd(input, outputs, predicates);
+	    	}
+    	} catch (InterruptedException e) {
+    		throw new RuntimeException(e);
+    	} catch (IOException e) {
+    		throw new RuntimeException(e);
     	}
     }
     
-    private void filterPairedEnd(String input, String output) {
-        File outputFile = new File(output);
+    private void filterPairedEnd(String input, List<String> outputs, ReadPredicate[] predicates) throws IOException, InterruptedException {
         SamReadPairReader reader = new SamReadPairReader(input);
         
-        final SAMFileWriter writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(reader.getHeader(),
-                true, outputFile);
+        // A record shared by multiple pairs may be split across batches on different workers
+        reader.setDecodeSharedReads(numThreads > 1);
         
-        for (ReadPair pair : reader) {
-            // Output only the pairs that have passed our tests
-            if (isReadPairIncluded(pair)) {
-                writer.addAlignment(pair.getRead1());
-                writer.addAlignment(pair.getRead2());
-            }
-        }
+        final Iterator<ReadPair> pairs = reader.iterator();
+        
+        // Pairs are flattened into consecutive read1, read2 records
+        Iterator<SAMRecord> reads = new Iterator<SAMRecord>() {
+        	private SAMRecord read2 = null;
+        	
+			public boolean hasNext() {
+				return (read2 != null) || (pairs.hasNext());
+			}
+
+			public SAMRecord next() {
+				if (read2 != null) {
+					SAMRecord read = read2;
+					read2 = null;
+					return read;
+				}
+				
+				ReadPair pair = pairs.next();
+				read2 = pair.getRead2();
+				return pair.getRead1();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+        };
         
-        writer.close();
-        reader.close();
+        try {
+        	filterReads(reads, reader.getHeader(), outputs, predicates, 2);
+        } finally {
+	        reader.close();
+        }
     }
     
-    private void filterSingleEnd(String input, String output) {
-        File outputFile = new File(output);
+    private void filterSingleEnd(String input, List<String> outputs, ReadPredicate[] predicates) throws IOException, InterruptedException {
         SAMFileReader reader = new SAMFileReader(new File(input));
         reader.setValidationStringency(ValidationStringency.SILENT);
         
-        final SAMFileWriter writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(reader.getFileHeader(),
-                true, outputFile);
-        
-        int cnt = 0;
-        for (SAMRecord read : reader) {
-            // Output only the pairs that have passed our tests
-            if (isReadIncluded(read)) {
-                writer.addAlignment(read);
-            }
-            cnt++;
-            if ((cnt % 1000000) == 0) {
-                System.out.println("Processed reads: " + cnt);
-            }
+        try {
+        	if ((regions != null) && (reader.hasIndex())) {
+        		System.out.println("Querying indexed regions");
+        		filterReads(new RegionIterator(reader, regions), reader.getFileHeader(), outputs, predicates, 1);
+        	} else {
+        		filterReads(reader.iterator(), reader.getFileHeader(), outputs, predicates, 1);
+        	}
+        } finally {
+	        reader.close();
         }
+    }
+    
+    /**
+     * Evaluates batches of reads and writes the included reads to each output in input order.
+     * readsPerCluster is 2 for paired end, in which case both reads must be included.
+     */
+    private void filterReads(Iterator<SAMRecord> reads, SAMFileHeader header, List<String> outputs,
+    		ReadPredicate[] predicates, int readsPerCluster) throws IOException, InterruptedException {
+    	
+    	SamBatchWriter[] writers = new SamBatchWriter[outputs.size()];
+    	ExecutorService workers = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+        LinkedList<Future<List<List<SAMRecord>>>> pending = new LinkedList<Future<List<List<SAMRecord>>>>();
+        int maxPending = numThreads * 2;
+        int cnt = 0;
+        boolean isComplete = false;
         
-        writer.close();
-        reader.close();
+        try {
+        	for (int i=0; i<writers.length; i++) {
+        		writers[i] = new SamBatchWriter(outputs.get(i), header);
+        		writers[i].start();
+        	}
+        	
+        	List<SAMRecord> batch = new ArrayList<SAMRecord>(BATCH_SIZE);
+        	
+        	while (reads.hasNext()) {
+        		batch.add(reads.next());
+        		
+        		if ((batch.size() >= BATCH_SIZE) && (batch.size() % readsPerCluster == 0)) {
+        			if (workers == null) {
+        				writeReads(writers, new FilterBatch(batch, predicates, readsPerCluster).call());
+        			} else {
+	        			pending.add(workers.submit(new FilterBatch(batch, predicates, readsPerCluster)));
+	        			
+	        			while (pending.size() > maxPending) {
+	        				writeReads(writers, waitFor(pending.removeFirst()));
+	        			}
+        			}
+        			batch = new ArrayList<SAMRecord>(BATCH_SIZE);
+        		}
+        		
+                cnt++;
+                if ((cnt % 1000000) == 0) {
+                    System.out.println("Processed reads: " + cnt);
+                }
+        	}
+        	
+        	if (workers == null) {
+        		writeReads(writers, new FilterBatch(batch, predicates, readsPerCluster).call());
+        	} else {
+        		pending.add(workers.submit(new FilterBatch(batch, predicates, readsPerCluster)));
+        	}
+        	
+        	while (!pending.isEmpty()) {
+        		writeReads(writers, waitFor(pending.removeFirst()));
+        	}
+        	
+        	// Signal all writers before waiting so outputs are flushed concurrently
+        	for (SamBatchWriter writer : writers) {
+        		writer.endInput();
+        	}
+        	
+        	for (SamBatchWriter writer : writers) {
+        		writer.awaitCompletion();
+        	}
+        	
+        	isComplete = true;
+        } finally {
+        	if (workers != null) {
+        		workers.shutdownNow();
+        	}
+        	
+        	// Stop every writer thread without masking the original exception
+        	if (!isComplete) {
+        		for (SamBatchWriter writer : writers) {
+        			if (writer != null) {
+        				writer.abort();
+        			}
+        		}
+        	}
+        }
+    }
+    
+    private void writeReads(SamBatchWriter[] writers, List<List<SAMRecord>> reads) throws IOException, InterruptedException {
+    	for (int i=0; i<writers.length; i++) {
+    		writers[i].write(reads.get(i));
+    	}
+    }
+    
+    private List<List<SAMRecord>> waitFor(Future<List<List<SAMRecord>>> future) throws InterruptedException {
+    	try {
+    		return future.get();
+    	} catch (ExecutionException e) {
+    		if (e.getCause() instanceof RuntimeException) {
+    			throw (RuntimeException) e.getCause();
+    		}
+    		throw new RuntimeException(e.getCause());
+    	}
     }
     
     boolean isReadPairIncluded(ReadPair pair) {
@@ -88,34 +257,60 @@ public class SAMFilter {
     }
     
     boolean isReadIncluded(SAMRecord read) {
-    	return
-    		((!isFilteredDueToIndelCheck(read)) &&
-    		 (!isMaxInsertLenExceeded(read)) &&
-    		 (!isBelowMinMappingQuality(read)));
+    	return getPredicate().matches(read);
     }
     
-    private boolean isBelowMinMappingQuality(SAMRecord read) {
-    	boolean isBelowMin = false;
-    	
-    	if (isMinMappingQualitySpecified()) {
-    		isBelowMin = (read.getMappingQuality() < minMappingQuality);
+    /**
+     * Compiles the filter criteria into a single predicate.
+     */
+    ReadPredicate getPredicate() {
+    	if (predicate == null) {
+    		List<ReadPredicate> predicates = new ArrayList<ReadPredicate>();
+    		
+    		if ((requiredFlags != 0) || (filteredFlags != 0)) {
+    			predicates.add(ReadPredicates.flags(requiredFlags, filteredFlags));
+    		}
+    		
+    		if (isMinMappingQualitySpecified()) {
+    			predicates.add(ReadPredicates.minMappingQuality(minMappingQuality));
+    		}
+    		
+    		if (isMaxInsertLenSpecified()) {
+    			predicates.add(ReadPredicates.maxInsertLen(maxInsertLen));
+    		}
+    		
+    		predicates.addAll(tagPredicates);
+    		
+    		List<CigarOperator> indels = Arrays.asList(CigarOperator.D, CigarOperator.I);
+    		if (shouldStripIndels) {
+    			List<CigarOperator> operators = new ArrayList<CigarOperator>(excludedCigarOperators);
+    			operators.addAll(indels);
+    			predicates.add(ReadPredicates.cigarOperators(operators, false));
+    		} else if (!excludedCigarOperators.isEmpty()) {
+    			predicates.add(ReadPredicates.cigarOperators(excludedCigarOperators, false));
+    		}
+    		
+    		if (shouldIncludeIndelsOnly) {
+    			predicates.add(ReadPredicates.cigarOperators(indels, true));
+    		}
+    		
+    		if (regions != null) {
+    			predicates.add(ReadPredicates.regions(regions));
+    		}
+    		
+    		if (readNames != null) {
+    			predicates.add(ReadPredicates.readNames(readNames));
+    		}
+    		
+    		predicate = ReadPredicates.all(predicates);
     	}
     	
-    	return isBelowMin;
-    }
-    
-    private boolean isMaxInsertLenExceeded(SAMRecord read) {
-        boolean isMaxExceeded = false;
-        
-        if (isMaxInsertLenSpecified()) {
-            isMaxExceeded = (Math.abs(read.getInferredInsertSize()) > maxInsertLen);
-        }
-        
-        return isMaxExceeded;
+    	return predicate;
     }
     
     public void setMaxInsertLen(int len) {
         maxInsertLen = len;
+        predicate = null;
     }
     
     private boolean isMaxInsertLenSpecified() {
@@ -124,6 +319,7 @@ public class SAMFilter {
     
     public void setMinMappingQuality(int min) {
     	minMappingQuality = min;
+    	predicate = null;
     }
     
     private boolean isMinMappingQualitySpecified() {
@@ -132,38 +328,201 @@ public class SAMFilter {
     
     public void setShouldStripIndels(boolean shouldStripIndels) {
         this.shouldStripIndels = shouldStripIndels;
+        predicate = null;
     }
     
     public void setShouldIncludeIndelsOnly(boolean shouldIncludeIndelsOnly) {
 		this.shouldIncludeIndelsOnly = shouldIncludeIndelsOnly;
+		predicate = null;
 	}
 
 	public void setPairedEnd(boolean isPairedEnd) {
 		this.isPairedEnd = isPairedEnd;
 	}
+	
+	/**
+	 * Reads must have all of the required flag bits and none of the filtered flag bits set.
+	 */
+	public void setFlags(int requiredFlags, int filteredFlags) {
+		this.requiredFlags = requiredFlags;
+		this.filteredFlags = filteredFlags;
+		predicate = null;
+	}
+	
+	public void setExcludedCigarOperators(Collection<CigarOperator> operators) {
+		excludedCigarOperators = new ArrayList<CigarOperator>(operators);
+		predicate = null;
+	}
+	
+	/**
+	 * Reads must contain (or if shouldContain is false, not contain) the tag.
+	 * If value is not null, the tag must have the specified value.
+	 */
+	public void addTag(String tag, String value, boolean shouldContain) {
+		tagPredicates.add(ReadPredicates.tag(tag, value, shouldContain));
+		predicate = null;
+	}
+	
+	public void setRegions(ReadRegions regions) {
+		this.regions = regions;
+		predicate = null;
+	}
+	
+	public void setReadNames(Collection<String> readNames) {
+		this.readNames = readNames;
+		predicate = null;
+	}
+	
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+	
+	/**
+	 * Evaluates a batch of reads against each output's predicate, returning the included
+	 * reads for each output.
+	 */
+	static class FilterBatch implements Callable<List<List<SAMRecord>>> {
+		private List<SAMRecord> reads;
+		private ReadPredicate[] predicates;
+		private int readsPerCluster;
+		
+		FilterBatch(List<SAMRecord> reads, ReadPredicate[] predicates, int readsPerCluster) {
+			this.reads = reads;
+			this.predicates = predicates;
+			this.readsPerCluster = readsPerCluster;
+		}
+
+		@Override
+		public List<List<SAMRecord>> call() {
+			List<List<SAMRecord>> included = new ArrayList<List<SAMRecord>>(predicates.length);
+			for (int i=0; i<predicates.length; i++) {
+				included.add(new ArrayList<SAMRecord>());
+			}
+			
+			// Reads shared by multiple writer threads must be decoded up front
+			if (predicates.length > 1) {
+				for (SAMRecord read : reads) {
+					SamBatchWriter.decode(read);
+				}
+			}
+			
+			for (int i=0; i<reads.size(); i+=readsPerCluster) {
+				for (int p=0; p<predicates.length; p++) {
+					boolean isIncluded = true;
+					for (int j=i; j<i+readsPerCluster && isIncluded; j++) {
+						isIncluded = predicates[p].matches(reads.get(j));
+					}
+					
+					if (isIncluded) {
+						for (int j=i; j<i+readsPerCluster; j++) {
+							included.get(p).add(reads.get(j));
+						}
+					}
+				}
+			}
+			
+			return included;
+		}
+	}
+	
+	/**
+	 * Iterates over the reads overlapping the regions using the BAM index.
+	 * Regions are visited in header order, so coordinate sort order is retained.  A read
+	 * overlapping multiple regions is returned once.
+	 */
+	static class RegionIterator implements Iterator<SAMRecord> {
+		private SAMFileReader reader;
+		private List<String> references = new ArrayList<String>();
+		private List<int[]> queries = new ArrayList<int[]>();
+		private int queryIdx = -1;
+		private SAMRecordIterator iter = null;
+		private SAMRecord next = null;
+		
+		RegionIterator(SAMFileReader reader, ReadRegions regions) {
+			this.reader = reader;
+			
+			for (SAMSequenceRecord sequence : reader.getFileHeader().getSequenceDictionary().getSequences()) {
+				int prevEnd = 0;
+				for (int[] region : regions.getRegions(sequence.getSequenceName())) {
+					references.add(sequence.getSequenceName());
+					queries.add(new int[] { region[0], region[1], prevEnd });
+					prevEnd = region[1];
+				}
+			}
+			
+			next = advance();
+		}
+		
+		private SAMRecord advance() {
+			while (true) {
+				while ((iter != null) && (iter.hasNext())) {
+					SAMRecord read = iter.next();
+					
+					// Reads starting within the previous region have already been returned
+					if (read.getAlignmentStart() > queries.get(queryIdx)[2]) {
+						return read;
+					}
+				}
+				
+				if (iter != null) {
+					iter.close();
+					iter = null;
+				}
+				
+				queryIdx++;
+				if (queryIdx >= queries.size()) {
+					return null;
+				}
+				
+				int[] query = queries.get(queryIdx);
+				iter = reader.query(references.get(queryIdx), query[0], query[1], false);
+			}
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
 
-	private boolean isFilteredDueToIndelCheck(SAMRecord read) {
-    	if (shouldStripIndels) {
-	        for (CigarElement element : read.getCigar().getCigarElements()) {
-	            if ((element.getOperator() == CigarOperator.D) ||
-	                (element.getOperator() == CigarOperator.I)) {
-	                return true;
-	            }
-	        }
-	        return false;
-    	} else if (shouldIncludeIndelsOnly) {
-	        for (CigarElement element : read.getCigar().getCigarElements()) {
-	            if ((element.getOperator() == CigarOperator.D) ||
-	                (element.getOperator() == CigarOperator.I)) {
-	                return false;
-	            }
-	        }
-	        return true;
+		public SAMRecord next() {
+			SAMRecord read = next;
+			next = advance();
+			return read;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+        
+    private static void addTag(SAMFilter filter, String tag, boolean shouldContain) {
+    	int idx = tag.indexOf(':');
+    	if (idx > -1) {
+    		filter.addTag(tag.substring(0, idx), tag.substring(idx+1), shouldContain);
+    	} else {
+    		filter.addTag(tag, null, shouldContain);
+    	}
+    }
+    
+    static Set<String> loadReadNames(String filename) throws IOException {
+    	Set<String> readNames = new HashSet<String>();
+    	BufferedReader reader = new BufferedReader(new FileReader(filename));
+    	
+    	try {
+	    	String line = reader.readLine();
+	    	while (line != null) {
+	    		line = line.trim();
+	    		if (line.length() > 0) {
+	    			readNames.add(line);
+	    		}
+	    		line = reader.readLine();
+	    	}
+    	} finally {
+    		reader.close();
     	}
     	
-    	return false;
+    	return readNames;
     }
-        
+    
     public static void run(String[] args) throws IOException {
     	SamFilterOptions options = new SamFilterOptions();
     	options.parseOptions(args);
@@ -178,7 +537,45 @@ public class SAMFilter {
     		filter.setMinMappingQuality(options.getMinMappingQuality());
     		filter.setShouldStripIndels(options.shouldStripIndels());
     		filter.setShouldIncludeIndelsOnly(options.shouldIncludeIndelsOnly());
-    		filter.filter(options.getInputFile(), options.getOutputFile());
+    		filter.setFlags(options.getRequiredFlags(), options.getFilteredFlags());
+    		filter.setExcludedCigarOperators(options.getExcludedCigarOperators());
+    		filter.setNumThreads(options.getNumThreads());
+    		
+    		for (String tag : options.getTags()) {
+    			addTag(filter, tag, true);
+    		}
+    		
+    		for (String tag : options.getExcludedTags()) {
+    			addTag(filter, tag, false);
+    		}
+    		
+    		if (options.getRegionsFile() != null) {
+    			filter.setRegions(ReadRegions.load(options.getRegionsFile()));
+    		}
+    		
+    		if (options.getReadNamesFile() != null) {
+    			filter.setReadNames(loadReadNames(options.getReadNamesFile()));
+    		}
+    		
+    		if (options.getSplits().isEmpty()) {
+    			filter.filter(options.getInputFile(), options.getOutputFile());
+    		} else {
+    			List<String> outputs = new ArrayList<String>();
+    			List<ReadPredicate> predicates = new ArrayList<ReadPredicate>();
+    			
+    			if (options.getOutputFile() != null) {
+    				outputs.add(options.getOutputFile());
+    				predicates.add(ReadPredicates.parse("all"));
+    			}
+    			
+    			for (String split : options.getSplits()) {
+    				int idx = split.indexOf(':');
+    				outputs.add(split.substring(0, idx));
+    				predicates.add(ReadPredicates.parse(split.substring(idx+1)));
+    			}
+    			
+    			filter.split(options.getInputFile(), outputs, predicates);
+    		}
     		
             long e = System.currentTimeMillis();
             
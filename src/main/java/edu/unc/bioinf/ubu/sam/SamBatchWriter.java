@@ -0,0 +1,156 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Writes batches of reads to a single SAM or BAM file on its own thread.
+ * BAM compression happens on the writer thread, so multiple outputs
+ * compress in parallel while the reader continues.
+ * <p>
+ * Reads may be queued to more than one writer, so they must be fully decoded
+ * before they are queued.  See {@link #decode(SAMRecord)}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class SamBatchWriter implements Runnable {
+
+    private static final int MAX_QUEUED_BATCHES = 16;
+    private static final List<SAMRecord> END_OF_INPUT = new ArrayList<SAMRecord>();
+
+    private String filename;
+    private SAMFileHeader header;
+    private BlockingQueue<List<SAMRecord>> queue = new ArrayBlockingQueue<List<SAMRecord>>(MAX_QUEUED_BATCHES);
+    private Thread thread;
+    private volatile Exception error;
+
+    public SamBatchWriter(String filename, SAMFileHeader header) {
+        this.filename = filename;
+        this.header = header;
+    }
+
+    public void start() {
+        thread = new Thread(this);
+        thread.start();
+    }
+
+    /**
+     * Queues a batch for writing, blocking if the writer has fallen behind.
+     */
+    public void write(List<SAMRecord> batch) throws IOException, InterruptedException {
+        if (!batch.isEmpty()) {
+            enqueue(batch);
+        }
+    }
+
+    /**
+     * Signals end of input.  Queued batches continue to be written in the background.
+     */
+    public void endInput() throws IOException, InterruptedException {
+        enqueue(END_OF_INPUT);
+    }
+
+    /**
+     * Waits for all queued batches to be written and the output to be closed.
+     */
+    public void awaitCompletion() throws IOException, InterruptedException {
+        thread.join();
+        checkError();
+    }
+
+    /**
+     * Signals end of input and waits for all queued batches to be written.
+     */
+    public void finish() throws IOException, InterruptedException {
+        endInput();
+        awaitCompletion();
+    }
+
+    /**
+     * Stops the writer thread without writing any remaining queued batches and waits for
+     * it to close the output.  Does not throw, so may be called from a finally block while
+     * another exception propagates.
+     */
+    public void abort() {
+        if (thread == null) {
+            return;
+        }
+
+        thread.interrupt();
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(List<SAMRecord> batch) throws IOException, InterruptedException {
+        // Poll so that a failed writer thread is detected rather than blocking indefinitely
+        while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+            checkError();
+        }
+        checkError();
+    }
+
+    @Override
+    public void run() {
+        SAMFileWriter writer = null;
+        try {
+            writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, true, new File(filename));
+
+            List<SAMRecord> batch = queue.take();
+            while (batch != END_OF_INPUT) {
+                for (SAMRecord read : batch) {
+                    writer.addAlignment(read);
+                }
+                batch = queue.take();
+            }
+        } catch (InterruptedException e) {
+            // Aborted
+            error = e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            error = e;
+        } finally {
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw new IOException("Error writing: " + filename, error);
+        }
+    }
+
+    /**
+     * Forces lazily decoded BAM fields to be decoded on the calling thread, so that
+     * the read may be safely encoded by multiple writer threads.
+     */
+    static void decode(SAMRecord read) {
+        read.getReadName();
+        read.getCigar();
+        read.getReadBases();
+        read.getBaseQualities();
+        read.getAttributes();
+    }
+}
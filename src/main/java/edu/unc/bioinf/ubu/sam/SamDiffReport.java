@@ -0,0 +1,347 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMRecord.SAMTagAndValue;
+
+/**
+ * Field level summary of the differences between 2 read name sorted SAM/BAM files,
+ * accumulated by {@code SamFileDiff} in report mode.
+ * <p>
+ * Records sharing a read name are paired by segment (fragment, first or second of pair)
+ * with primary alignments first, then compared field by field.  Counts of differing
+ * fields and tags, a MAPQ shift histogram and a position delta histogram are reported.
+ * Only every Nth discrepant record is written to the diff outputs.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class SamDiffReport {
+
+	public static final int DEFAULT_SAMPLE_INTERVAL = 1000;
+
+	// Position deltas beyond this are counted in the outermost bins
+	static final int MAX_POSITION_DELTA = 1000;
+
+	static final String[] FIELDS = {
+		"FLAG", "RNAME", "POS", "MAPQ", "CIGAR", "RNEXT", "PNEXT", "TLEN", "SEQ", "QUAL", "TAGS"
+	};
+
+	static final int FLAG = 0;
+	static final int RNAME = 1;
+	static final int POS = 2;
+	static final int MAPQ = 3;
+	static final int CIGAR = 4;
+	static final int RNEXT = 5;
+	static final int PNEXT = 6;
+	static final int TLEN = 7;
+	static final int SEQ = 8;
+	static final int QUAL = 9;
+	static final int TAGS = 10;
+
+	private int sampleInterval;
+
+	private long namesCompared = 0;
+	private long namesUnique1 = 0;
+	private long namesUnique2 = 0;
+	private long recordsUnique1 = 0;
+	private long recordsUnique2 = 0;
+	private long recordsUnpaired1 = 0;
+	private long recordsUnpaired2 = 0;
+	private long recordsCompared = 0;
+	private long recordsDiffering = 0;
+	private long referenceChanges = 0;
+
+	private long[] fieldCounts = new long[FIELDS.length];
+	private Map<String, long[]> tagCounts = new TreeMap<String, long[]>();
+
+	// Indexed by mapq2 - mapq1 + 255
+	private long[] mappingQualityShifts = new long[511];
+
+	// Indexed by pos2 - pos1 + MAX_POSITION_DELTA, for records on the same reference
+	private long[] positionDeltas = new long[MAX_POSITION_DELTA * 2 + 1];
+
+	private long numDiscrepancies = 0;
+
+	public SamDiffReport(int sampleInterval) {
+		this.sampleInterval = sampleInterval;
+	}
+
+	/**
+	 * Counts a read name found only in input 1, writing the records if sampled.
+	 */
+	public void addUnique1(List<SAMRecord> reads, SAMFileWriter out1) {
+		namesUnique1++;
+		recordsUnique1 += reads.size();
+
+		if (isSampled()) {
+			addAlignments(out1, reads);
+		}
+	}
+
+	/**
+	 * Counts a read name found only in input 2, writing the records if sampled.
+	 */
+	public void addUnique2(List<SAMRecord> reads, SAMFileWriter out2) {
+		namesUnique2++;
+		recordsUnique2 += reads.size();
+
+		if (isSampled()) {
+			addAlignments(out2, reads);
+		}
+	}
+
+	/**
+	 * Pairs and compares the records for a read name found in both inputs.
+	 */
+	public void compare(List<SAMRecord> reads1, List<SAMRecord> reads2, SAMFileWriter out1, SAMFileWriter out2) {
+		namesCompared++;
+
+		for (int segment=0; segment<3; segment++) {
+			List<SAMRecord> segment1 = getSegment(reads1, segment);
+			List<SAMRecord> segment2 = getSegment(reads2, segment);
+
+			int numPairs = Math.min(segment1.size(), segment2.size());
+
+			for (int i=0; i<numPairs; i++) {
+				SAMRecord read1 = segment1.get(i);
+				SAMRecord read2 = segment2.get(i);
+
+				if (compare(read1, read2) && (isSampled())) {
+					out1.addAlignment(read1);
+					out2.addAlignment(read2);
+				}
+			}
+
+			recordsUnpaired1 += segment1.size() - numPairs;
+			recordsUnpaired2 += segment2.size() - numPairs;
+		}
+	}
+
+	/**
+	 * Returns the records for the segment (0 - fragment, 1 - first of pair, 2 - second of pair)
+	 * with primary alignments first.
+	 */
+	private List<SAMRecord> getSegment(List<SAMRecord> reads, int segment) {
+		List<SAMRecord> primary = new ArrayList<SAMRecord>(reads.size());
+		List<SAMRecord> secondary = new ArrayList<SAMRecord>();
+
+		for (SAMRecord read : reads) {
+			if (getSegment(read) == segment) {
+				if (read.getNotPrimaryAlignmentFlag()) {
+					secondary.add(read);
+				} else {
+					primary.add(read);
+				}
+			}
+		}
+
+		primary.addAll(secondary);
+		return primary;
+	}
+
+	private int getSegment(SAMRecord read) {
+		if (!read.getReadPairedFlag()) {
+			return 0;
+		}
+
+		return read.getFirstOfPairFlag() ? 1 : 2;
+	}
+
+	/**
+	 * Compares the fields of 2 records, returning true if any differ.
+	 */
+	boolean compare(SAMRecord read1, SAMRecord read2) {
+		recordsCompared++;
+
+		boolean isDiffering = false;
+
+		isDiffering |= countIf(FLAG, read1.getFlags() != read2.getFlags());
+
+		boolean isReferenceChanged = !equals(read1.getReferenceName(), read2.getReferenceName());
+		isDiffering |= countIf(RNAME, isReferenceChanged);
+		isDiffering |= countIf(POS, read1.getAlignmentStart() != read2.getAlignmentStart());
+		isDiffering |= countIf(MAPQ, read1.getMappingQuality() != read2.getMappingQuality());
+		isDiffering |= countIf(CIGAR, !read1.getCigar().equals(read2.getCigar()));
+		isDiffering |= countIf(RNEXT, !equals(read1.getMateReferenceName(), read2.getMateReferenceName()));
+		isDiffering |= countIf(PNEXT, read1.getMateAlignmentStart() != read2.getMateAlignmentStart());
+		isDiffering |= countIf(TLEN, read1.getInferredInsertSize() != read2.getInferredInsertSize());
+		isDiffering |= countIf(SEQ, !Arrays.equals(read1.getReadBases(), read2.getReadBases()));
+		isDiffering |= countIf(QUAL, !Arrays.equals(read1.getBaseQualities(), read2.getBaseQualities()));
+		isDiffering |= countIf(TAGS, compareTags(read1, read2));
+
+		mappingQualityShifts[read2.getMappingQuality() - read1.getMappingQuality() + 255]++;
+
+		if (isReferenceChanged) {
+			referenceChanges++;
+		} else {
+			int delta = read2.getAlignmentStart() - read1.getAlignmentStart();
+			delta = Math.max(-MAX_POSITION_DELTA, Math.min(MAX_POSITION_DELTA, delta));
+			positionDeltas[delta + MAX_POSITION_DELTA]++;
+		}
+
+		if (isDiffering) {
+			recordsDiffering++;
+		}
+
+		return isDiffering;
+	}
+
+	/**
+	 * Counts each tag missing from or differing between the records.  Returns true if any differ.
+	 */
+	private boolean compareTags(SAMRecord read1, SAMRecord read2) {
+		boolean isDiffering = false;
+
+		for (SAMTagAndValue attribute : read1.getAttributes()) {
+			if (!equalValues(attribute.value, read2.getAttribute(attribute.tag))) {
+				countTag(attribute.tag);
+				isDiffering = true;
+			}
+		}
+
+		for (SAMTagAndValue attribute : read2.getAttributes()) {
+			if (read1.getAttribute(attribute.tag) == null) {
+				countTag(attribute.tag);
+				isDiffering = true;
+			}
+		}
+
+		return isDiffering;
+	}
+
+	private boolean equalValues(Object value1, Object value2) {
+		if (value2 == null) {
+			return false;
+		} else if ((value1 instanceof byte[]) && (value2 instanceof byte[])) {
+			return Arrays.equals((byte[]) value1, (byte[]) value2);
+		} else if ((value1 instanceof short[]) && (value2 instanceof short[])) {
+			return Arrays.equals((short[]) value1, (short[]) value2);
+		} else if ((value1 instanceof int[]) && (value2 instanceof int[])) {
+			return Arrays.equals((int[]) value1, (int[]) value2);
+		} else if ((value1 instanceof float[]) && (value2 instanceof float[])) {
+			return Arrays.equals((float[]) value1, (float[]) value2);
+		}
+
+		// Integer tags may be decoded to different types depending upon their encoding
+		return value1.toString().equals(value2.toString());
+	}
+
+	private void countTag(String tag) {
+		long[] count = tagCounts.get(tag);
+		if (count == null) {
+			count = new long[1];
+			tagCounts.put(tag, count);
+		}
+		count[0]++;
+	}
+
+	private boolean countIf(int field, boolean isDiffering) {
+		if (isDiffering) {
+			fieldCounts[field]++;
+		}
+
+		return isDiffering;
+	}
+
+	private boolean equals(String s1, String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+
+	private boolean isSampled() {
+		return (numDiscrepancies++ % sampleInterval) == 0;
+	}
+
+	private void addAlignments(SAMFileWriter out, List<SAMRecord> reads) {
+		for (SAMRecord read : reads) {
+			out.addAlignment(read);
+		}
+	}
+
+	long getFieldCount(int field) {
+		return fieldCounts[field];
+	}
+
+	long getTagCount(String tag) {
+		long[] count = tagCounts.get(tag);
+		return count != null ? count[0] : 0;
+	}
+
+	long getMappingQualityShiftCount(int shift) {
+		return mappingQualityShifts[shift + 255];
+	}
+
+	long getPositionDeltaCount(int delta) {
+		return positionDeltas[delta + MAX_POSITION_DELTA];
+	}
+
+	long getRecordsDiffering() {
+		return recordsDiffering;
+	}
+
+	long getRecordsUnpaired1() {
+		return recordsUnpaired1;
+	}
+
+	long getRecordsUnpaired2() {
+		return recordsUnpaired2;
+	}
+
+	/**
+	 * Writes the report as tab delimited sections.
+	 */
+	public void write(String reportFile) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(reportFile, false));
+
+		try {
+			writer.write("Summary\tCount\n");
+			writer.write("names_compared\t" + namesCompared + "\n");
+			writer.write("names_unique_to_1\t" + namesUnique1 + "\n");
+			writer.write("names_unique_to_2\t" + namesUnique2 + "\n");
+			writer.write("records_unique_to_1\t" + recordsUnique1 + "\n");
+			writer.write("records_unique_to_2\t" + recordsUnique2 + "\n");
+			writer.write("records_unpaired_in_1\t" + recordsUnpaired1 + "\n");
+			writer.write("records_unpaired_in_2\t" + recordsUnpaired2 + "\n");
+			writer.write("records_compared\t" + recordsCompared + "\n");
+			writer.write("records_differing\t" + recordsDiffering + "\n");
+			writer.write("reference_changes\t" + referenceChanges + "\n");
+
+			writer.write("\nField\tRecords_Differing\n");
+			for (int i=0; i<FIELDS.length; i++) {
+				writer.write(FIELDS[i] + "\t" + fieldCounts[i] + "\n");
+			}
+
+			writer.write("\nTag\tRecords_Differing\n");
+			for (Map.Entry<String, long[]> entry : tagCounts.entrySet()) {
+				writer.write(entry.getKey() + "\t" + entry.getValue()[0] + "\n");
+			}
+
+			writer.write("\nMAPQ_Shift\tRecords\n");
+			for (int i=0; i<mappingQualityShifts.length; i++) {
+				if (mappingQualityShifts[i] > 0) {
+					writer.write((i - 255) + "\t" + mappingQualityShifts[i] + "\n");
+				}
+			}
+
+			writer.write("\nPosition_Delta\tRecords\n");
+			for (int i=0; i<positionDeltas.length; i++) {
+				if (positionDeltas[i] > 0) {
+					int delta = i - MAX_POSITION_DELTA;
+					String label = delta == -MAX_POSITION_DELTA ? delta + "-" :
+						(delta == MAX_POSITION_DELTA ? delta + "+" : String.valueOf(delta));
+					writer.write(label + "\t" + positionDeltas[i] + "\n");
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -1,13 +1,12 @@
 package edu.unc.bioinf.ubu.sam;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
-import org.apache.commons.lang.StringUtils;
-
 import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileWriter;
 import net.sf.samtools.SAMFileWriterFactory;
@@ -15,7 +14,7 @@ import net.sf.samtools.SAMRecord;
 
 /**
  * Diffs 2 SAM (or BAM) files.
- * The input files must be sorted by read
+ * The input files must be sorted by read (see {@code ReadNameComparator})
  * Input file sorting should be done via samtools.
  * (OS level sort may produce different results).
  * <p>
@@ -24,6 +23,11 @@ import net.sf.samtools.SAMRecord;
  * a read.
  * <p>
  * Handles multi-mapped reads (as produced by Mapsplice).
+ * <p>
+ * In report mode, matching reads are compared field by field and summarized in a
+ * report (see {@code SamDiffReport}).  Only a sample of discrepant records is output.
+ * <p>
+ * See {@code SamFileHashDiff} for inputs that are not sorted by read.
  * 
  * @author Lisle Mose (lmose at unc dot edu)
  */
@@ -39,8 +43,17 @@ public class SamFileDiff {
 	private Iterator<List<SAMRecord>> iter1;
 	private Iterator<List<SAMRecord>> iter2;
 	
+	// Read name sort keys of the current groups
+	private List<SAMRecord> keyList1;
+	private List<SAMRecord> keyList2;
+	private byte[] key1;
+	private byte[] key2;
+	
 	private boolean isReadIdComparisonOnly;
 	private boolean isReadAndCoordsOnly;
+	
+	private SamDiffReport report = null;
+	private String reportFile = null;
 
 	public void diff(String samInputFileName1, String samInputFileName2, String samOutputFileName1, String samOutputFileName2) {
 		
@@ -70,14 +83,16 @@ public class SamFileDiff {
         	List<SAMRecord> readList1 = getNextList1();
         	List<SAMRecord> readList2 = getNextList2();
         	        	
-        	int compare = compareReadNames(readList1.get(0), readList2.get(0));
+        	int compare = compareReadNames(readList1, readList2);
         	
         	if (compare < 0) {
-        		addAlignments(out1, readList1);
+        		addUnique1(out1, readList1);
         		this.cachedReadList2 = readList2;
         	} else if (compare > 0) {
-        		addAlignments(out2, readList2);
+        		addUnique2(out2, readList2);
         		this.cachedReadList1 = readList1;
+        	} else if (report != null) {
+        		report.compare(readList1, readList2, out1, out2);
         	} else {
         		if (!isReadIdComparisonOnly) {
         			diffReadLists(readList1, readList2, out1, out2);
@@ -86,15 +101,49 @@ public class SamFileDiff {
         }
 
         while (hasNextList1()) {
-        	addAlignments(out1, getNextList1());
+        	addUnique1(out1, getNextList1());
         }
         
         while (hasNextList2()) {
-        	addAlignments(out2, getNextList2());
+        	addUnique2(out2, getNextList2());
         }
         
         out1.close();
         out2.close();
+        
+        if (report != null) {
+        	try {
+        		report.write(reportFile);
+        	} catch (IOException e) {
+        		throw new RuntimeException("Unable to write diff report: " + reportFile, e);
+        	}
+        }
+	}
+	
+	/**
+	 * In report mode, records from matching read names are compared field by field and
+	 * summarized in the report file.  Only every sampleInterval'th discrepancy is written
+	 * to the diff outputs.
+	 */
+	public void setReport(String reportFile, int sampleInterval) {
+		this.reportFile = reportFile;
+		this.report = new SamDiffReport(sampleInterval);
+	}
+	
+	private void addUnique1(SAMFileWriter out1, List<SAMRecord> reads) {
+		if (report != null) {
+			report.addUnique1(reads, out1);
+		} else {
+			addAlignments(out1, reads);
+		}
+	}
+	
+	private void addUnique2(SAMFileWriter out2, List<SAMRecord> reads) {
+		if (report != null) {
+			report.addUnique2(reads, out2);
+		} else {
+			addAlignments(out2, reads);
+		}
 	}
 	
 	public void setReadIdComparisonOnly(boolean isReadIdComparisonOnly) {
@@ -242,27 +291,22 @@ public class SamFileDiff {
         this.cachedRead2 = null;
 	}
 	
-	private int compareReadNames(SAMRecord read1, SAMRecord read2) {
-		int compare = 0;
-		
-		String[] name1 = read1.getReadName().split("[:/]");
-		String[] name2 = read2.getReadName().split("[:/]");
+	/**
+	 * Compares the read names of 2 groups.  Each group's name sort key is computed once
+	 * and reused while the group is cached.
+	 */
+	private int compareReadNames(List<SAMRecord> readList1, List<SAMRecord> readList2) {
+		if (readList1 != keyList1) {
+			key1 = ReadNameComparator.getSortKey(readList1.get(0));
+			keyList1 = readList1;
+		}
 		
-		int idx = 0;
-		while ((idx < name1.length) && (idx < name2.length) && (compare == 0)) {
-			if (StringUtils.isNumeric(name1[idx]) && StringUtils.isNumeric(name2[idx])) {
-				int field1 = Integer.parseInt(name1[idx]);
-				int field2 = Integer.parseInt(name2[idx]);
-				
-				compare = field1 - field2;
-			} else {
-				compare = name1[idx].compareTo(name2[idx]);
-			}
-			
-			idx++;
+		if (readList2 != keyList2) {
+			key2 = ReadNameComparator.getSortKey(readList2.get(0));
+			keyList2 = readList2;
 		}
 		
-		return compare;
+		return ReadNameComparator.compareKeys(key1, key2);
 	}
 	
 	static class SAMRecordComparator implements Comparator<SAMRecord> {
@@ -273,7 +317,7 @@ public class SamFileDiff {
 		}
 	}
 	
-	public static void run(String[] args) {
+	public static void run(String[] args) throws IOException, InterruptedException {
 		
 		SamFileDiffOptions options = new SamFileDiffOptions();
 		options.parseOptions(args);
@@ -281,13 +325,31 @@ public class SamFileDiff {
 			
 			long s = System.currentTimeMillis();
 			
-			SamFileDiff diff = new SamFileDiff();
-			
-			diff.setReadIdComparisonOnly(options.isReadIdComparisonOnly());
-			diff.setReadAndCoordsOnly(options.isReadIdAndPositionComparison());
-			
-			diff.diff(options.getInput1File(), options.getInput2File(),
-					options.getOutput1File(), options.getOutput2File());
+			if (options.isAnyOrder()) {
+				SamFileHashDiff diff = new SamFileHashDiff();
+				
+				diff.setReadIdComparisonOnly(options.isReadIdComparisonOnly());
+				diff.setReadAndCoordsOnly(options.isReadIdAndPositionComparison());
+				diff.setNumBuckets(options.getNumBuckets());
+				diff.setNumThreads(options.getNumThreads());
+				if (options.getTempDir() != null) {
+					diff.setTempDir(new File(options.getTempDir()));
+				}
+				
+				diff.diff(options.getInput1File(), options.getInput2File(),
+						options.getOutput1File(), options.getOutput2File());
+			} else {
+				SamFileDiff diff = new SamFileDiff();
+				
+				diff.setReadIdComparisonOnly(options.isReadIdComparisonOnly());
+				diff.setReadAndCoordsOnly(options.isReadIdAndPositionComparison());
+				if (options.getReportFile() != null) {
+					diff.setReport(options.getReportFile(), options.getSampleInterval());
+				}
+				
+				diff.diff(options.getInput1File(), options.getInput2File(),
+						options.getOutput1File(), options.getOutput2File());
+			}
 			
 			long e = System.currentTimeMillis();
 			
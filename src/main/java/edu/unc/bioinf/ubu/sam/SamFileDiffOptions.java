@@ -16,6 +16,12 @@ public class SamFileDiffOptions extends Options {
 	private static final String OUTPUT2 = "out2";
 	private static final String READ_ID_ONLY = "ids-only";
 	private static final String READ_ID_AND_POSITION_ONLY = "ids-pos";
+	private static final String ANY_ORDER = "any-order";
+	private static final String NUM_BUCKETS = "buckets";
+	private static final String NUM_THREADS = "threads";
+	private static final String TEMP_DIR = "tmp";
+	private static final String REPORT = "report";
+	private static final String SAMPLE_INTERVAL = "sample";
 
 	private OptionParser parser;
 	private boolean isValid;
@@ -24,12 +30,18 @@ public class SamFileDiffOptions extends Options {
 	protected OptionParser getOptionParser() {
     	if (parser == null) {
             parser = new OptionParser();
-            parser.accepts(INPUT1, "Input SAM/BAM file 1 sorted by read").withRequiredArg().ofType(String.class);
-            parser.accepts(INPUT2, "Input SAM/BAM file 2 sorted by read").withRequiredArg().ofType(String.class);
+            parser.accepts(INPUT1, "Input SAM/BAM file 1 sorted by read (unless any-order is specified)").withRequiredArg().ofType(String.class);
+            parser.accepts(INPUT2, "Input SAM/BAM file 2 sorted by read (unless any-order is specified)").withRequiredArg().ofType(String.class);
             parser.accepts(OUTPUT1, "Output SAM/BAM file containing reads unique to input file 1").withRequiredArg().ofType(String.class);
             parser.accepts(OUTPUT2, "Output SAM/BAM file containing reads unique to input file 2").withRequiredArg().ofType(String.class);
             parser.accepts(READ_ID_ONLY, "If specified, compare read id only.  Otherwise, entire read is compared");
             parser.accepts(READ_ID_AND_POSITION_ONLY, "If specified, compare read id and position only.  Otherwise, entire read is compared");
+            parser.accepts(ANY_ORDER, "If specified, inputs may be in any order.  Inputs are partitioned by read name hash into temp files and diffed in memory");
+            parser.accepts(NUM_BUCKETS, "Number of any-order partitions (default " + SamFileHashDiff.DEFAULT_NUM_BUCKETS + ")").withRequiredArg().ofType(Integer.class);
+            parser.accepts(NUM_THREADS, "Number of any-order partitions diffed concurrently (default 1)").withRequiredArg().ofType(Integer.class);
+            parser.accepts(TEMP_DIR, "Directory for any-order partition files (default system temp dir)").withRequiredArg().ofType(String.class);
+            parser.accepts(REPORT, "If specified, write a field level diff report to this file.  Only sampled discrepant records are output").withRequiredArg().ofType(String.class);
+            parser.accepts(SAMPLE_INTERVAL, "In report mode, output every Nth discrepancy (default " + SamDiffReport.DEFAULT_SAMPLE_INTERVAL + ")").withRequiredArg().ofType(Integer.class);
             parser.accepts(HELP, "Print this help message");
     	}
     	
@@ -60,6 +72,36 @@ public class SamFileDiffOptions extends Options {
             System.err.println("Missing required output file 2");
         }
         
+        if ((!getOptions().has(ANY_ORDER)) && ((getOptions().has(NUM_BUCKETS)) || (getOptions().has(NUM_THREADS)) || (getOptions().has(TEMP_DIR)))) {
+            isValid = false;
+            System.err.println("Buckets, threads and tmp options require " + ANY_ORDER);
+        }
+        
+        if ((getOptions().has(REPORT)) && ((getOptions().has(ANY_ORDER)) || (getOptions().has(READ_ID_ONLY)))) {
+            isValid = false;
+            System.err.println(REPORT + " cannot be combined with " + ANY_ORDER + " or " + READ_ID_ONLY);
+        }
+        
+        if ((!getOptions().has(REPORT)) && (getOptions().has(SAMPLE_INTERVAL))) {
+            isValid = false;
+            System.err.println(SAMPLE_INTERVAL + " requires " + REPORT);
+        }
+        
+        if ((getOptions().hasArgument(SAMPLE_INTERVAL)) && (getSampleInterval() < 1)) {
+            isValid = false;
+            System.err.println("Sample interval must be at least 1");
+        }
+        
+        if ((getOptions().hasArgument(NUM_BUCKETS)) && (getNumBuckets() < 1)) {
+            isValid = false;
+            System.err.println("Number of buckets must be at least 1");
+        }
+        
+        if ((getOptions().hasArgument(NUM_THREADS)) && (getNumThreads() < 1)) {
+            isValid = false;
+            System.err.println("Number of threads must be at least 1");
+        }
+        
         if (!isValid) {
             printHelp();
         }
@@ -89,6 +131,48 @@ public class SamFileDiffOptions extends Options {
 		return getOptions().has(READ_ID_AND_POSITION_ONLY);
 	}
 	
+	public boolean isAnyOrder() {
+		return getOptions().has(ANY_ORDER);
+	}
+	
+	public int getNumBuckets() {
+		int buckets = SamFileHashDiff.DEFAULT_NUM_BUCKETS;
+		
+		if (getOptions().hasArgument(NUM_BUCKETS)) {
+			buckets = (Integer) getOptions().valueOf(NUM_BUCKETS);
+		}
+		
+		return buckets;
+	}
+	
+	public int getNumThreads() {
+		int threads = 1;
+		
+		if (getOptions().hasArgument(NUM_THREADS)) {
+			threads = (Integer) getOptions().valueOf(NUM_THREADS);
+		}
+		
+		return threads;
+	}
+	
+	public String getReportFile() {
+		return (String) getOptions().valueOf(REPORT);
+	}
+	
+	public int getSampleInterval() {
+		int interval = SamDiffReport.DEFAULT_SAMPLE_INTERVAL;
+		
+		if (getOptions().hasArgument(SAMPLE_INTERVAL)) {
+			interval = (Integer) getOptions().valueOf(SAMPLE_INTERVAL);
+		}
+		
+		return interval;
+	}
+	
+	public String getTempDir() {
+		return (String) getOptions().valueOf(TEMP_DIR);
+	}
+	
     public boolean isValid() {
         return isValid;
     }
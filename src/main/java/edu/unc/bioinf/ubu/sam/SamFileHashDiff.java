@@ -0,0 +1,289 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
+
+/**
+ * Diffs 2 SAM (or BAM) files in any sort order.
+ * <p>
+ * Both inputs are partitioned into spill files by read name hash, so all records for a
+ * read name land in the same bucket of each input.  Matching buckets are then diffed
+ * in memory in parallel, comparing {@code SamRecordFingerprint}s of the compared fields.
+ * Memory use is bounded by the largest bucket.  Increase the number of buckets for very
+ * large inputs.
+ * <p>
+ * As with {@code SamFileDiff}, 2 output files are produced containing the records found
+ * in one input but not the other.  Duplicate records are matched one for one.  Output is
+ * unsorted.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class SamFileHashDiff {
+
+    public static final int DEFAULT_NUM_BUCKETS = 64;
+
+    // Spill files are short lived, so favor speed over size
+    private static final int SPILL_COMPRESSION_LEVEL = 1;
+
+    private int numBuckets = DEFAULT_NUM_BUCKETS;
+    private int numThreads = 1;
+    private File tempDir = null;
+    private boolean isReadIdComparisonOnly;
+    private boolean isReadAndCoordsOnly;
+
+    public void diff(String samInputFileName1, String samInputFileName2, String samOutputFileName1,
+            String samOutputFileName2) throws IOException, InterruptedException {
+
+        SAMFileHeader header1 = getHeader(samInputFileName1);
+        SAMFileHeader header2 = getHeader(samInputFileName2);
+
+        System.out.println("Partitioning inputs into " + numBuckets + " buckets");
+
+        File[] buckets1 = partition(samInputFileName1, header1, "diff1_");
+        File[] buckets2 = partition(samInputFileName2, header2, "diff2_");
+
+        header1.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+        header2.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+
+        SAMFileWriter out1 = new SAMFileWriterFactory().makeSAMOrBAMWriter(header1, true, new File(samOutputFileName1));
+        SAMFileWriter out2 = new SAMFileWriterFactory().makeSAMOrBAMWriter(header2, true, new File(samOutputFileName2));
+
+        System.out.println("Diffing buckets using " + numThreads + " threads");
+
+        ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+        LinkedList<Future<List<List<SAMRecord>>>> pending = new LinkedList<Future<List<List<SAMRecord>>>>();
+        int maxPending = numThreads * 2;
+
+        try {
+            for (int i=0; i<numBuckets; i++) {
+                pending.add(workers.submit(new DiffBucket(buckets1[i], header1, buckets2[i], header2)));
+
+                while (pending.size() > maxPending) {
+                    writeDiffs(waitFor(pending.removeFirst()), out1, out2);
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                writeDiffs(waitFor(pending.removeFirst()), out1, out2);
+            }
+        } finally {
+            workers.shutdownNow();
+            out1.close();
+            out2.close();
+
+            for (int i=0; i<numBuckets; i++) {
+                buckets1[i].delete();
+                buckets2[i].delete();
+            }
+        }
+    }
+
+    private SAMFileHeader getHeader(String filename) {
+        SAMFileReader reader = new SAMFileReader(new File(filename));
+        reader.setValidationStringency(ValidationStringency.SILENT);
+        SAMFileHeader header = reader.getFileHeader();
+        reader.close();
+
+        return header;
+    }
+
+    private File[] partition(String filename, SAMFileHeader header, String prefix) throws IOException {
+        File[] bucketFiles = new File[numBuckets];
+        SAMFileWriter[] bucketWriters = new SAMFileWriter[numBuckets];
+
+        SAMFileHeader spillHeader = header.clone();
+        spillHeader.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+
+        for (int i=0; i<numBuckets; i++) {
+            bucketFiles[i] = File.createTempFile(prefix + i + "_", ".bam", tempDir);
+            bucketFiles[i].deleteOnExit();
+            bucketWriters[i] = new SAMFileWriterFactory().makeBAMWriter(spillHeader, true, bucketFiles[i], SPILL_COMPRESSION_LEVEL);
+        }
+
+        SAMFileReader reader = new SAMFileReader(new File(filename));
+        reader.setValidationStringency(ValidationStringency.SILENT);
+
+        int count = 0;
+        try {
+            for (SAMRecord read : reader) {
+                bucketWriters[getBucket(read.getReadName(), numBuckets)].addAlignment(read);
+
+                if ((++count % 1000000) == 0) {
+                    System.out.println("Partitioned: " + count + " records from: " + filename);
+                }
+            }
+        } finally {
+            reader.close();
+
+            for (SAMFileWriter writer : bucketWriters) {
+                writer.close();
+            }
+        }
+
+        return bucketFiles;
+    }
+
+    static int getBucket(String readName, int numBuckets) {
+        // Spread the String hash, as read names often differ only in trailing characters
+        int h = readName.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return (h & 0x7fffffff) % numBuckets;
+    }
+
+    private void writeDiffs(List<List<SAMRecord>> diffs, SAMFileWriter out1, SAMFileWriter out2) {
+        for (SAMRecord read : diffs.get(0)) {
+            out1.addAlignment(read);
+        }
+
+        for (SAMRecord read : diffs.get(1)) {
+            out2.addAlignment(read);
+        }
+    }
+
+    private List<List<SAMRecord>> waitFor(Future<List<List<SAMRecord>>> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    SamRecordFingerprint getFingerprint(SAMRecord read) {
+        if (isReadIdComparisonOnly) {
+            return SamRecordFingerprint.ofName(read);
+        } else if (isReadAndCoordsOnly) {
+            return SamRecordFingerprint.ofNameAndPosition(read);
+        } else {
+            return SamRecordFingerprint.ofRecord(read);
+        }
+    }
+
+    /**
+     * Returns the records unique to each input as a 2 element list.
+     * When comparing read ids only, all records for a read name missing from the other
+     * input are returned.  Otherwise, records are matched one for one by fingerprint.
+     */
+    List<List<SAMRecord>> diffRecords(Map<SamRecordFingerprint, List<SAMRecord>> records1,
+            Map<SamRecordFingerprint, List<SAMRecord>> records2) {
+
+        List<SAMRecord> unique1 = new ArrayList<SAMRecord>();
+        List<SAMRecord> unique2 = new ArrayList<SAMRecord>();
+
+        for (Map.Entry<SamRecordFingerprint, List<SAMRecord>> entry : records1.entrySet()) {
+            List<SAMRecord> reads1 = entry.getValue();
+            List<SAMRecord> reads2 = records2.remove(entry.getKey());
+
+            if (reads2 == null) {
+                unique1.addAll(reads1);
+            } else if (!isReadIdComparisonOnly) {
+                if (reads1.size() > reads2.size()) {
+                    unique1.addAll(reads1.subList(reads2.size(), reads1.size()));
+                } else if (reads2.size() > reads1.size()) {
+                    unique2.addAll(reads2.subList(reads1.size(), reads2.size()));
+                }
+            }
+        }
+
+        for (List<SAMRecord> reads2 : records2.values()) {
+            unique2.addAll(reads2);
+        }
+
+        List<List<SAMRecord>> diffs = new ArrayList<List<SAMRecord>>(2);
+        diffs.add(unique1);
+        diffs.add(unique2);
+
+        return diffs;
+    }
+
+    void addRecord(Map<SamRecordFingerprint, List<SAMRecord>> records, SAMRecord read) {
+        SamRecordFingerprint fingerprint = getFingerprint(read);
+        List<SAMRecord> reads = records.get(fingerprint);
+        if (reads == null) {
+            reads = new ArrayList<SAMRecord>(1);
+            records.put(fingerprint, reads);
+        }
+        reads.add(read);
+    }
+
+    public void setReadIdComparisonOnly(boolean isReadIdComparisonOnly) {
+        this.isReadIdComparisonOnly = isReadIdComparisonOnly;
+    }
+
+    public void setReadAndCoordsOnly(boolean isReadAndCoordsOnly) {
+        this.isReadAndCoordsOnly = isReadAndCoordsOnly;
+    }
+
+    public void setNumBuckets(int numBuckets) {
+        this.numBuckets = numBuckets;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public void setTempDir(File tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    class DiffBucket implements Callable<List<List<SAMRecord>>> {
+        private File bucket1;
+        private SAMFileHeader header1;
+        private File bucket2;
+        private SAMFileHeader header2;
+
+        DiffBucket(File bucket1, SAMFileHeader header1, File bucket2, SAMFileHeader header2) {
+            this.bucket1 = bucket1;
+            this.header1 = header1;
+            this.bucket2 = bucket2;
+            this.header2 = header2;
+        }
+
+        @Override
+        public List<List<SAMRecord>> call() {
+            List<List<SAMRecord>> diffs = diffRecords(loadBucket(bucket1, header1), loadBucket(bucket2, header2));
+
+            bucket1.delete();
+            bucket2.delete();
+
+            return diffs;
+        }
+
+        private Map<SamRecordFingerprint, List<SAMRecord>> loadBucket(File bucketFile, SAMFileHeader header) {
+            Map<SamRecordFingerprint, List<SAMRecord>> records = new HashMap<SamRecordFingerprint, List<SAMRecord>>();
+
+            SAMFileReader reader = new SAMFileReader(bucketFile);
+            reader.setValidationStringency(ValidationStringency.SILENT);
+
+            for (SAMRecord read : reader) {
+                read.setHeader(header);
+                addRecord(records, read);
+            }
+
+            reader.close();
+
+            return records;
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package edu.unc.bioinf.ubu.sam;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import joptsimple.OptionParser;
+import net.sf.samtools.CigarOperator;
 import edu.unc.bioinf.ubu.util.Options;
 
 public class SamFilterOptions extends Options {
@@ -11,6 +15,15 @@ public class SamFilterOptions extends Options {
     private static final String MAPPING_QUALITY = "mapq";
     private static final String SINGLE_END = "single";
     private static final String INCLUDE_INDELS_ONLY = "indels-only";
+    private static final String REQUIRED_FLAGS = "require-flags";
+    private static final String FILTERED_FLAGS = "filter-flags";
+    private static final String EXCLUDED_CIGAR_OPERATORS = "exclude-cigar-ops";
+    private static final String TAG = "tag";
+    private static final String EXCLUDED_TAG = "exclude-tag";
+    private static final String REGIONS = "regions";
+    private static final String READ_NAMES = "read-names";
+    private static final String NUM_THREADS = "threads";
+    private static final String SPLIT = "split";
     
 	private OptionParser parser;
 	private boolean isValid;
@@ -20,12 +33,23 @@ public class SamFilterOptions extends Options {
     	if (parser == null) {
             parser = new OptionParser();
             parser.accepts(INPUT_FILE, "Required input sam or bam file").withRequiredArg().ofType(String.class);
-            parser.accepts(OUTPUT_FILE, "Required output sam or bam file").withRequiredArg().ofType(String.class);
+            parser.accepts(OUTPUT_FILE, "Output sam or bam file (required unless split outputs are specified)").withRequiredArg().ofType(String.class);
             parser.accepts(SINGLE_END, "If specified, process bam as single end, discarding reads independently (default paired end)");
             parser.accepts(STRIP_INDELS, "If specified, discard read pairs containing indels from output (default off)");
             parser.accepts(MAX_INSERT_LEN, "If specified, discard clusters greater than specified insert length").withRequiredArg().ofType(Integer.class);
             parser.accepts(MAPPING_QUALITY, "If specified, discard clusters with mapping quality less than the specified value").withRequiredArg().ofType(Integer.class);
             parser.accepts(INCLUDE_INDELS_ONLY, "If specified, discard reads not containing indels (default off)");
+            parser.accepts(REQUIRED_FLAGS, "If specified, discard reads without all of these flag bits set").withRequiredArg().ofType(Integer.class);
+            parser.accepts(FILTERED_FLAGS, "If specified, discard reads with any of these flag bits set").withRequiredArg().ofType(Integer.class);
+            parser.accepts(EXCLUDED_CIGAR_OPERATORS, "If specified, discard reads containing any of these cigar operators, i.e. NS").withRequiredArg().ofType(String.class);
+            parser.accepts(TAG, "If specified, discard reads without this tag.  May be TAG or TAG:VALUE and may be repeated").withRequiredArg().ofType(String.class);
+            parser.accepts(EXCLUDED_TAG, "If specified, discard reads with this tag.  May be TAG or TAG:VALUE and may be repeated").withRequiredArg().ofType(String.class);
+            parser.accepts(REGIONS, "If specified, discard reads not overlapping the regions in this BED or GTF (.gtf) file").withRequiredArg().ofType(String.class);
+            parser.accepts(READ_NAMES, "If specified, discard reads not named in this file (one name per line)").withRequiredArg().ofType(String.class);
+            parser.accepts(NUM_THREADS, "Number of filtering threads (default 1)").withRequiredArg().ofType(Integer.class);
+            parser.accepts(SPLIT, "Additional output as OUTPUT:EXPRESSION, i.e. q20.bam:mapq>=20,!indels.  May be repeated.  " +
+            		"Expression terms: all, mapq>=N, insert<=N, flags:N, indels, cigar:OPS, tag:TAG[:VALUE], regions:FILE, names:FILE.  " +
+            		"Terms may be negated with !").withRequiredArg().ofType(String.class);
     	}
     	
     	return parser;
@@ -40,17 +64,32 @@ public class SamFilterOptions extends Options {
             System.err.println("Missing required input SAM/BAM file");
         }
         
-        if (!getOptions().hasArgument(OUTPUT_FILE)) {
+        if ((!getOptions().hasArgument(OUTPUT_FILE)) && (!getOptions().hasArgument(SPLIT))) {
             isValid = false;
             System.err.println("Missing required output SAM/BAM file");
         }
         
+        for (String split : getSplits()) {
+        	if (split.indexOf(':') < 1) {
+        		isValid = false;
+        		System.err.println("Split output must be specified as OUTPUT:EXPRESSION - " + split);
+        	}
+        }
+        
         // Validate that there is filtering to be done.
         // If no options are specified, only paired reads will be output.
         if ((!getOptions().has(STRIP_INDELS)) && 
         	(!getOptions().hasArgument(MAX_INSERT_LEN)) &&
         	(!getOptions().hasArgument(MAPPING_QUALITY)) &&
         	(!getOptions().has(INCLUDE_INDELS_ONLY)) &&
+        	(!getOptions().hasArgument(REQUIRED_FLAGS)) &&
+        	(!getOptions().hasArgument(FILTERED_FLAGS)) &&
+        	(!getOptions().hasArgument(EXCLUDED_CIGAR_OPERATORS)) &&
+        	(!getOptions().hasArgument(TAG)) &&
+        	(!getOptions().hasArgument(EXCLUDED_TAG)) &&
+        	(!getOptions().hasArgument(REGIONS)) &&
+        	(!getOptions().hasArgument(READ_NAMES)) &&
+        	(!getOptions().hasArgument(SPLIT)) &&
         	(getOptions().has(SINGLE_END))) {
         	isValid = false;
         	System.err.println("At least one filtering option must be specified");
@@ -61,6 +100,20 @@ public class SamFilterOptions extends Options {
         	System.err.println("Cannot specify both " + STRIP_INDELS + " and " + INCLUDE_INDELS_ONLY);
         }
         
+        if (getOptions().hasArgument(EXCLUDED_CIGAR_OPERATORS)) {
+        	try {
+        		getExcludedCigarOperators();
+        	} catch (IllegalArgumentException e) {
+        		isValid = false;
+        		System.err.println("Invalid cigar operators: " + getOptions().valueOf(EXCLUDED_CIGAR_OPERATORS));
+        	}
+        }
+        
+        if ((getOptions().hasArgument(NUM_THREADS)) && (getNumThreads() < 1)) {
+            isValid = false;
+            System.err.println("Number of threads must be at least 1");
+        }
+        
         if (!isValid) {
             printHelp();
         }
@@ -106,6 +159,78 @@ public class SamFilterOptions extends Options {
 		return minMapQ;
 	}
 	
+	public int getRequiredFlags() {
+		return getOptions().hasArgument(REQUIRED_FLAGS) ? (Integer) getOptions().valueOf(REQUIRED_FLAGS) : 0;
+	}
+	
+	public int getFilteredFlags() {
+		return getOptions().hasArgument(FILTERED_FLAGS) ? (Integer) getOptions().valueOf(FILTERED_FLAGS) : 0;
+	}
+	
+	public List<CigarOperator> getExcludedCigarOperators() {
+		List<CigarOperator> operators = new ArrayList<CigarOperator>();
+		
+		if (getOptions().hasArgument(EXCLUDED_CIGAR_OPERATORS)) {
+			String ops = (String) getOptions().valueOf(EXCLUDED_CIGAR_OPERATORS);
+			for (int i=0; i<ops.length(); i++) {
+				operators.add(CigarOperator.characterToEnum(ops.charAt(i)));
+			}
+		}
+		
+		return operators;
+	}
+	
+	/**
+	 * Returns the required tags as TAG or TAG:VALUE
+	 */
+	public List<String> getTags() {
+		return getStrings(TAG);
+	}
+	
+	/**
+	 * Returns the excluded tags as TAG or TAG:VALUE
+	 */
+	public List<String> getExcludedTags() {
+		return getStrings(EXCLUDED_TAG);
+	}
+	
+	private List<String> getStrings(String option) {
+		List<String> values = new ArrayList<String>();
+		
+		if (getOptions().hasArgument(option)) {
+			for (Object value : getOptions().valuesOf(option)) {
+				values.add((String) value);
+			}
+		}
+		
+		return values;
+	}
+	
+	/**
+	 * Returns the split outputs as OUTPUT:EXPRESSION
+	 */
+	public List<String> getSplits() {
+		return getStrings(SPLIT);
+	}
+	
+	public String getRegionsFile() {
+		return (String) getOptions().valueOf(REGIONS);
+	}
+	
+	public String getReadNamesFile() {
+		return (String) getOptions().valueOf(READ_NAMES);
+	}
+	
+	public int getNumThreads() {
+		int threads = 1;
+		
+		if (getOptions().hasArgument(NUM_THREADS)) {
+			threads = (Integer) getOptions().valueOf(NUM_THREADS);
+		}
+		
+		return threads;
+	}
+	
     public boolean isValid() {
         return isValid;
     }
@@ -12,7 +12,8 @@ import net.sf.samtools.SAMRecord;
 
 /**
  * Iterates over a Sam or Bam file returning a List of SAMRecords for each unique read name.
- * Assumes the input file is sorted by read name.
+ * Assumes the input file is sorted by read name.  Groups from multiple readers may be
+ * merged by read name using {@code ReadNameComparator}.
  * 
  * @author Lisle Mose (lmose at unc dot edu)
  */
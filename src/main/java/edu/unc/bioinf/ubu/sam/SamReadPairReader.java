@@ -2,12 +2,10 @@ package edu.unc.bioinf.ubu.sam;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileReader;
@@ -32,6 +30,12 @@ public class SamReadPairReader implements Iterable<ReadPair> {
     private List<ReadPair> readPairCache = new ArrayList<ReadPair>();
     private SAMFileReader inputSam;
     
+    // Reused for each read name
+    private List<SAMRecord> reads1 = new ArrayList<SAMRecord>();
+    private List<SAMRecord> reads2 = new ArrayList<SAMRecord>();
+    private ReadPairMatcher readPairMatcher = new ReadPairMatcher();
+    private boolean shouldDecodeSharedReads = false;
+    
     public SamReadPairReader(String filename) {
         File inputFile = new File(filename);
         
@@ -49,73 +53,21 @@ public class SamReadPairReader implements Iterable<ReadPair> {
         return inputSam.getFileHeader();
     }
     
-    private List<ReadPair> pairReads(List<SAMRecord> reads1, List<SAMRecord> reads2) {
-    	// This Set is used to guarantee uniqueness of ReadPairs
-    	Set<ReadPair> readPairSet = new HashSet<ReadPair>();
-    	
-    	// This List is used to maintain deterministic order (helpful for unit tests)
-    	List<ReadPair> readPairs = new ArrayList<ReadPair>();
-    	
-    	// Pair reads in both directions to include asymmetrically mated pairs
-    	pairReads(reads1, reads2, readPairSet, readPairs);
-    	pairReads(reads2, reads1, readPairSet, readPairs);
-    	
-    	return readPairs;
-    }
-
-    private void pairReads(List<SAMRecord> reads1, List<SAMRecord> reads2, Set<ReadPair> readPairSet, List<ReadPair> readPairs) {
-                
-        // Map of mate info to read1
-        Map<String, List<SAMRecord>> mate1Map = new HashMap<String, List<SAMRecord>>();
-        
-        for (SAMRecord read : reads1) {
-            String key = read.getMateReferenceName() + "_" + read.getMateAlignmentStart();
-            List<SAMRecord> readList = mate1Map.get(key);
-            
-            if (readList == null) {
-            	readList = new ArrayList<SAMRecord>();
-            	mate1Map.put(key, readList);
-            }
-            
-            readList.add(read);
-        }
-        
-        for (SAMRecord read2 : reads2) {
-        	List<SAMRecord> readList = mate1Map.get(read2.getReferenceName() + "_" + read2.getAlignmentStart());
-        	
-        	if (readList != null) {
-        	
-	            for (SAMRecord read1 : readList) {
-	            	
-	            	SAMRecord firstInPair  = read1;
-	            	SAMRecord secondInPair = read2;
-		            
-	                if (read1.getAlignmentStart() > read2.getAlignmentStart()) {
-	                	firstInPair = read2;
-	                	secondInPair = read1;
-	                }
-	            
-	                ReadPair pair = new ReadPair(firstInPair, secondInPair); 
-	                if (!readPairSet.contains(pair)) {
-	                	readPairs.add(pair);
-	                	readPairSet.add(pair);
-	                }
-	            }
-        	}
-        }
+    /**
+     * If true, records shared by more than one pair of a multi-mapped read are fully
+     * decoded before any of the read's pairs are returned.  BAM records are lazily decoded,
+     * which is not thread safe, so this is required if pairs may be handed to different threads.
+     */
+    public void setDecodeSharedReads(boolean shouldDecodeSharedReads) {
+        this.shouldDecodeSharedReads = shouldDecodeSharedReads;
     }
     
-    private String getBaseName(SAMRecord read) {
-    	String baseName;
-    	
-    	int idx = read.getReadName().indexOf('/');
-    	if (idx > -1) {
-    		baseName = read.getReadName().substring(0, idx);
-    	} else {
-    		baseName = read.getReadName();
-    	}
-    	
-        return baseName;
+    /**
+     * Returns the length of the read name up to any /1 or /2 suffix.
+     */
+    private static int getBaseNameLength(String readName) {
+    	int idx = readName.indexOf('/');
+    	return idx > -1 ? idx : readName.length();
     }
     
     private ReadPair getNextReadPair() {
@@ -126,7 +78,7 @@ public class SamReadPairReader implements Iterable<ReadPair> {
         } else {
             
             while (this.hasMoreReads()) {
-                readPairCache = getReadPairs();
+                loadReadPairs();
                 readPairCacheIdx = 0;
                 
                 if (readPairCache.size() > 0) {
@@ -142,17 +94,22 @@ public class SamReadPairReader implements Iterable<ReadPair> {
         return readPairCacheIdx >= readPairCache.size();
     }
     
-    private List<ReadPair> getReadPairs() {
+    /**
+     * Loads the pairs for the next read name into the read pair cache.
+     */
+    private void loadReadPairs() {
         
-        List<SAMRecord> reads1 = new ArrayList<SAMRecord>();
-        List<SAMRecord> reads2 = new ArrayList<SAMRecord>();
+        reads1.clear();
+        reads2.clear();
+        readPairCache.clear();
         
         // Get the list of records for the first read
         SAMRecord read = getNextRead();
         if (read != null) {
-            String baseName = getBaseName(read);
+            String baseName = read.getReadName();
+            int baseNameLength = getBaseNameLength(baseName);
             
-            while ((read != null) && (baseName.equals(getBaseName(read)))) {
+            while ((read != null) && (isSameBaseName(read.getReadName(), baseName, baseNameLength))) {
                 if ((read.getReadPairedFlag()) && (read.getFirstOfPairFlag())) {
                     reads1.add(read);
                 } else if ((read.getReadPairedFlag()) && (read.getSecondOfPairFlag())) {
@@ -170,7 +127,31 @@ public class SamReadPairReader implements Iterable<ReadPair> {
             }
         }
         
-        return pairReads(reads1, reads2);
+        readPairMatcher.pairReads(reads1, reads2, readPairCache);
+        
+        if ((shouldDecodeSharedReads) && (readPairCache.size() > 1)) {
+            decodeSharedReads(readPairCache);
+        }
+    }
+    
+    private static void decodeSharedReads(List<ReadPair> readPairs) {
+        Map<SAMRecord, Boolean> isShared = new IdentityHashMap<SAMRecord, Boolean>();
+        
+        for (ReadPair pair : readPairs) {
+            for (SAMRecord read : new SAMRecord[] { pair.getRead1(), pair.getRead2() }) {
+                Boolean shared = isShared.get(read);
+                if (shared == null) {
+                    isShared.put(read, false);
+                } else if (!shared) {
+                    SamBatchWriter.decode(read);
+                    isShared.put(read, true);
+                }
+            }
+        }
+    }
+    
+    private static boolean isSameBaseName(String readName, String baseName, int baseNameLength) {
+    	return (getBaseNameLength(readName) == baseNameLength) && (readName.regionMatches(0, baseName, 0, baseNameLength));
     }
     
     private boolean hasMoreReads() {
@@ -0,0 +1,252 @@
+package edu.unc.bioinf.ubu.sam;
+
+import net.sf.samtools.Cigar;
+import net.sf.samtools.CigarElement;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMRecord.SAMTagAndValue;
+
+/**
+ * 128 bit fingerprint of the fields of a SAMRecord used by {@code SamFileDiff}.
+ * Records with equal compared fields have equal fingerprints.  Unequal records
+ * collide with negligible probability, so fingerprints are compared in place of
+ * SAM strings.
+ * <p>
+ * Reference names (not indices) are hashed so that records from files with
+ * different headers are comparable.  Tag values are hashed with their SAM type,
+ * so equal text of different types (e.g. i:1 and Z:1) differs.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+final class SamRecordFingerprint {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final long hi;
+    private final long lo;
+
+    SamRecordFingerprint(long hi, long lo) {
+        this.hi = hi;
+        this.lo = lo;
+    }
+
+    /**
+     * Fingerprint of the read name only.
+     */
+    static SamRecordFingerprint ofName(SAMRecord read) {
+        Hasher hasher = new Hasher();
+        hasher.add(read.getReadName());
+        return hasher.finish();
+    }
+
+    /**
+     * Fingerprint of the read name, reference, position and cigar.
+     */
+    static SamRecordFingerprint ofNameAndPosition(SAMRecord read) {
+        Hasher hasher = new Hasher();
+        hasher.add(read.getReadName());
+        hasher.add(read.getReferenceName());
+        hasher.add(read.getAlignmentStart());
+        hasher.add(read.getCigar());
+        return hasher.finish();
+    }
+
+    /**
+     * Fingerprint of all fields of the record, including tags in record order.
+     */
+    static SamRecordFingerprint ofRecord(SAMRecord read) {
+        Hasher hasher = new Hasher();
+        hasher.add(read.getReadName());
+        hasher.add(read.getFlags());
+        hasher.add(read.getReferenceName());
+        hasher.add(read.getAlignmentStart());
+        hasher.add(read.getMappingQuality());
+        hasher.add(read.getCigar());
+        hasher.add(read.getMateReferenceName());
+        hasher.add(read.getMateAlignmentStart());
+        hasher.add(read.getInferredInsertSize());
+        hasher.add(read.getReadBases());
+        hasher.add(read.getBaseQualities());
+
+        for (SAMTagAndValue attribute : read.getAttributes()) {
+            hasher.add(attribute.tag);
+            hasher.addValue(attribute.value);
+        }
+
+        return hasher.finish();
+    }
+
+    long getHi() {
+        return hi;
+    }
+
+    long getLo() {
+        return lo;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof SamRecordFingerprint)) {
+            return false;
+        }
+
+        SamRecordFingerprint that = (SamRecordFingerprint) obj;
+        return (hi == that.hi) && (lo == that.lo);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (lo ^ (lo >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return Long.toHexString(hi) + Long.toHexString(lo);
+    }
+
+    /**
+     * Two independent 64 bit accumulators, each finished with the murmur3 64 bit mixer.
+     */
+    static class Hasher {
+        private long h1 = 0x9e3779b97f4a7c15L;
+        private long h2 = 0xc2b2ae3d27d4eb4fL;
+        private long length = 0;
+
+        void add(long value) {
+            h1 = Long.rotateLeft(h1 ^ (value * C1), 31) * C2 + 0x52dce729;
+            h2 = Long.rotateLeft(h2 ^ (value * C2), 33) * C1 + 0x38495ab5;
+            length++;
+        }
+
+        void add(String value) {
+            if (value == null) {
+                add(-1);
+                return;
+            }
+
+            add(value.length());
+
+            // Pack 4 chars per value
+            int len = value.length();
+            int i = 0;
+            for (; i+4<=len; i+=4) {
+                add(((long) value.charAt(i) << 48) | ((long) value.charAt(i+1) << 32) |
+                    ((long) value.charAt(i+2) << 16) | value.charAt(i+3));
+            }
+
+            long tail = 0;
+            for (; i<len; i++) {
+                tail = (tail << 16) | value.charAt(i);
+            }
+            add(tail);
+        }
+
+        void add(byte[] value) {
+            if (value == null) {
+                add(-1);
+                return;
+            }
+
+            add(value.length);
+
+            // Pack 8 bytes per value
+            int i = 0;
+            for (; i+8<=value.length; i+=8) {
+                long packed = 0;
+                for (int j=i; j<i+8; j++) {
+                    packed = (packed << 8) | (value[j] & 0xFF);
+                }
+                add(packed);
+            }
+
+            long tail = 0;
+            for (; i<value.length; i++) {
+                tail = (tail << 8) | (value[i] & 0xFF);
+            }
+            add(tail);
+        }
+
+        void add(Cigar cigar) {
+            int numElements = cigar.numCigarElements();
+            add(numElements);
+
+            for (int i=0; i<numElements; i++) {
+                CigarElement element = cigar.getCigarElement(i);
+                add(((long) element.getLength() << 8) | element.getOperator().ordinal());
+            }
+        }
+
+        /**
+         * Adds a tag value preceded by its SAM type.  Array values are hashed by content.
+         */
+        void addValue(Object value) {
+            add(getType(value));
+
+            if (value instanceof byte[]) {
+                add((byte[]) value);
+            } else if (value instanceof short[]) {
+                short[] values = (short[]) value;
+                add(values.length);
+                for (short v : values) {
+                    add(v);
+                }
+            } else if (value instanceof int[]) {
+                int[] values = (int[]) value;
+                add(values.length);
+                for (int v : values) {
+                    add(v);
+                }
+            } else if (value instanceof float[]) {
+                float[] values = (float[]) value;
+                add(values.length);
+                for (float v : values) {
+                    add(Float.floatToIntBits(v));
+                }
+            } else {
+                add(String.valueOf(value));
+            }
+        }
+
+        /**
+         * Returns the SAM type of the value.  Integers of any width are type i, as the width
+         * chosen for a value may differ between SAM and BAM.  Arrays are B followed by the
+         * element type.
+         */
+        static int getType(Object value) {
+            if (value instanceof String) {
+                return 'Z';
+            } else if (value instanceof Character) {
+                return 'A';
+            } else if ((value instanceof Float) || (value instanceof Double)) {
+                return 'f';
+            } else if (value instanceof Number) {
+                return 'i';
+            } else if (value instanceof byte[]) {
+                return ('B' << 8) | 'c';
+            } else if (value instanceof short[]) {
+                return ('B' << 8) | 's';
+            } else if (value instanceof int[]) {
+                return ('B' << 8) | 'i';
+            } else if (value instanceof float[]) {
+                return ('B' << 8) | 'f';
+            }
+
+            return '?';
+        }
+
+        SamRecordFingerprint finish() {
+            long a = fmix(h1 ^ length);
+            long b = fmix(h2 ^ length);
+            return new SamRecordFingerprint(a + b, b + a + a);
+        }
+
+        private static long fmix(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+    }
+}
@@ -7,12 +7,22 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import net.sf.samtools.CigarOperator;
+import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileReader;
 import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMRecordIterator;
 import net.sf.samtools.SAMFileReader.ValidationStringency;
 
 /**
@@ -28,11 +38,26 @@ import net.sf.samtools.SAMFileReader.ValidationStringency;
  * number of reads
  * number of reads with zero mapping quality
  * 
+ * Indexed BAM input is split into reference shards that are counted in parallel
+ * when more than one thread is requested.  MAPQ, insert size and per cycle error rate
+ * histograms may optionally be output in the same pass.
+ * 
  * @author Lisle Mose (lmose at unc dot edu)
  */
 public class SamSummarizer {
 	
-	private static final String EDIT_DISTANCE_TAG = "NM";
+	private static final int BATCH_SIZE = 10000;
+	
+	// Indexed input is split into shards of at most this many reference bases
+	static final int SHARD_SIZE = 10000000;
+	
+	// Shard of reads without a reference index, which no reference query returns
+	static final int[] UNPLACED_SHARD = { -1, 0, 0 };
+	
+	private int numThreads = 1;
+	private String mappingQualityFile = null;
+	private String insertSizeFile = null;
+	private String cycleErrorFile = null;
 	
 	private Map<String, ReferenceCounts> refCountMap = new HashMap<String, ReferenceCounts>();
 	
@@ -47,16 +72,25 @@ public class SamSummarizer {
         SAMFileReader inputSam = new SAMFileReader(file);
         inputSam.setValidationStringency(ValidationStringency.SILENT);
         
-        int count = 0;
-
-        for (SAMRecord read : inputSam) {
-        	
-        	countRead(read);
-        	
-            if ((count++ % 1000000) == 0) {
-                System.out.println("Processed " + count + " reads.");
-            }
+        SAMFileHeader header = inputSam.getFileHeader();
+        SamSummaryCounts counts = new SamSummaryCounts(header.getSequenceDictionary().size(),
+        		mappingQualityFile != null, insertSizeFile != null, cycleErrorFile != null);
+        
+        try {
+	        if ((numThreads > 1) && (inputSam.hasIndex())) {
+	        	summarizeIndexed(file, header, counts);
+	        } else if (numThreads > 1) {
+	        	summarizeParallel(inputSam, counts);
+	        } else {
+	        	summarizeSerial(inputSam, counts);
+	        }
+        } catch (InterruptedException e) {
+        	throw new RuntimeException(e);
+        } finally {
+        	inputSam.close();
         }
+        
+        loadReferenceCounts(header, counts);
 
         if (shouldOutputHeader) {
         	outputHeader(writer);
@@ -65,6 +99,8 @@ public class SamSummarizer {
         outputAllCounts(writer);
         writer.close();
         
+        outputHistograms(counts);
+        
         long stop = System.currentTimeMillis();
         
         System.out.println("free mem: " + Runtime.getRuntime().freeMemory());
@@ -73,31 +109,316 @@ public class SamSummarizer {
         System.out.println("Done.  Elapsed secs: " + (stop-start)/1000);
     }
     
-    private void countRead(SAMRecord read) {
-    	int alignedBases = 0;
-    	if (!read.getReadUnmappedFlag()) {
-    		for (ReadBlock block : ReadBlock.getReadBlocks(read)) {
-    			if (block.getType() == CigarOperator.MATCH_OR_MISMATCH) {
-    				alignedBases += block.getLength();
-    			}
+    private void summarizeSerial(SAMFileReader inputSam, SamSummaryCounts counts) {
+        int count = 0;
+
+        for (SAMRecord read : inputSam) {
+        	
+        	counts.countRead(read);
+        	
+            if ((count++ % 1000000) == 0) {
+                System.out.println("Processed " + count + " reads.");
+            }
+        }
+    }
+    
+    /**
+     * Reads are decoded on the calling thread and counted in batches by the workers.
+     * BAM records are lazily decoded, so cigar and tag parsing happens on the workers.
+     */
+    private void summarizeParallel(SAMFileReader inputSam, SamSummaryCounts counts) throws InterruptedException {
+    	
+    	System.out.println("Summarizing using " + numThreads + " threads");
+    	
+    	BlockingQueue<SamSummaryCounts> idleCounts = new ArrayBlockingQueue<SamSummaryCounts>(numThreads);
+    	List<SamSummaryCounts> workerCounts = new ArrayList<SamSummaryCounts>();
+    	for (int i=0; i<numThreads; i++) {
+    		SamSummaryCounts worker = counts.newInstance();
+    		workerCounts.add(worker);
+    		idleCounts.add(worker);
+    	}
+    	
+        ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+        LinkedList<Future<?>> pending = new LinkedList<Future<?>>();
+        int maxPending = numThreads * 2;
+        int count = 0;
+        
+        try {
+        	List<SAMRecord> batch = new ArrayList<SAMRecord>(BATCH_SIZE);
+        	
+        	for (SAMRecord read : inputSam) {
+        		batch.add(read);
+        		
+        		if (batch.size() == BATCH_SIZE) {
+        			pending.add(workers.submit(new CountBatch(batch, idleCounts)));
+        			batch = new ArrayList<SAMRecord>(BATCH_SIZE);
+        			
+        			while (pending.size() > maxPending) {
+        				waitFor(pending.removeFirst());
+        			}
+        		}
+        		
+                if ((count++ % 1000000) == 0) {
+                    System.out.println("Processed " + count + " reads.");
+                }
+        	}
+        	
+        	if (!batch.isEmpty()) {
+        		pending.add(workers.submit(new CountBatch(batch, idleCounts)));
+        	}
+        	
+        	while (!pending.isEmpty()) {
+        		waitFor(pending.removeFirst());
+        	}
+        } finally {
+        	workers.shutdownNow();
+        }
+        
+        for (SamSummaryCounts worker : workerCounts) {
+        	counts.merge(worker);
+        }
+    }
+    
+    /**
+     * Each worker opens its own reader and queries shards of the reference sequences
+     * via the BAM index.
+     */
+    private void summarizeIndexed(File file, SAMFileHeader header, SamSummaryCounts counts) throws InterruptedException {
+    	
+    	List<int[]> shards = getShards(header, SHARD_SIZE);
+    	
+    	System.out.println("Summarizing " + shards.size() + " indexed shards using " + numThreads + " threads");
+    	
+    	// Unplaced reads are counted under "*" as in serial mode.  Queued first as the
+    	// unplaced reads are at the end of the file and may be numerous.
+    	ConcurrentLinkedQueue<int[]> remainingShards = new ConcurrentLinkedQueue<int[]>();
+    	remainingShards.add(UNPLACED_SHARD);
+    	remainingShards.addAll(shards);
+        ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        List<SamSummaryCounts> workerCounts = new ArrayList<SamSummaryCounts>();
+        
+        try {
+        	for (int i=0; i<numThreads; i++) {
+        		SamSummaryCounts worker = counts.newInstance();
+        		workerCounts.add(worker);
+        		futures.add(workers.submit(new CountShards(file, header, remainingShards, worker)));
+        	}
+        	
+        	for (Future<?> future : futures) {
+        		waitFor(future);
+        	}
+        } finally {
+        	workers.shutdownNow();
+        }
+        
+        for (SamSummaryCounts worker : workerCounts) {
+        	counts.merge(worker);
+        }
+    }
+    
+    /**
+     * Returns {reference index, 1 based start, 1 based stop} for each shard.
+     * The stop of the last shard of each reference is 0, indicating the end of the reference.
+     */
+    static List<int[]> getShards(SAMFileHeader header, int shardSize) {
+    	List<int[]> shards = new ArrayList<int[]>();
+    	
+    	for (int i=0; i<header.getSequenceDictionary().size(); i++) {
+    		int length = header.getSequence(i).getSequenceLength();
+    		int start = 1;
+    		
+    		while (start + shardSize <= length) {
+    			shards.add(new int[] { i, start, start + shardSize - 1 });
+    			start += shardSize;
+    		}
+    		
+    		shards.add(new int[] { i, start, 0 });
+    	}
+    	
+    	return shards;
+    }
+    
+    private void waitFor(Future<?> future) throws InterruptedException {
+    	try {
+    		future.get();
+    	} catch (ExecutionException e) {
+    		if (e.getCause() instanceof RuntimeException) {
+    			throw (RuntimeException) e.getCause();
+    		}
+    		throw new RuntimeException(e.getCause());
+    	}
+    }
+    
+    static class CountBatch implements Runnable {
+    	private List<SAMRecord> reads;
+    	private BlockingQueue<SamSummaryCounts> idleCounts;
+    	
+    	CountBatch(List<SAMRecord> reads, BlockingQueue<SamSummaryCounts> idleCounts) {
+    		this.reads = reads;
+    		this.idleCounts = idleCounts;
+    	}
+
+		@Override
+		public void run() {
+			SamSummaryCounts counts;
+			try {
+				counts = idleCounts.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			
+			try {
+				for (SAMRecord read : reads) {
+					counts.countRead(read);
+				}
+			} finally {
+				idleCounts.add(counts);
+			}
+		}
+    }
+    
+    static class CountShards implements Runnable {
+    	private File file;
+    	private SAMFileHeader header;
+    	private Queue<int[]> shards;
+    	private SamSummaryCounts counts;
+    	
+    	CountShards(File file, SAMFileHeader header, Queue<int[]> shards, SamSummaryCounts counts) {
+    		this.file = file;
+    		this.header = header;
+    		this.shards = shards;
+    		this.counts = counts;
+    	}
+
+		@Override
+		public void run() {
+			SAMFileReader reader = new SAMFileReader(file);
+			reader.setValidationStringency(ValidationStringency.SILENT);
+			
+			try {
+				int[] shard;
+				while ((shard = shards.poll()) != null) {
+					int shardStart = shard[1];
+					SAMRecordIterator iter;
+					
+					if (shard[0] < 0) {
+						iter = reader.queryUnmapped();
+					} else {
+						String reference = header.getSequence(shard[0]).getSequenceName();
+						iter = reader.query(reference, shardStart, shard[2], false);
+					}
+					
+					try {
+						while (iter.hasNext()) {
+							SAMRecord read = iter.next();
+							
+							// Reads spanning a shard boundary are counted by the shard they start in
+							if (read.getAlignmentStart() >= shardStart) {
+								counts.countRead(read);
+							}
+						}
+					} finally {
+						iter.close();
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+    }
+    
+    private void loadReferenceCounts(SAMFileHeader header, SamSummaryCounts counts) {
+    	for (int i=0; i<=counts.getNumReferences(); i++) {
+    		if (counts.getReadCount(i) > 0) {
+    			String reference = i < counts.getNumReferences() ?
+    					header.getSequence(i).getSequenceName() : SAMRecord.NO_ALIGNMENT_REFERENCE_NAME;
+    			
+    			ReferenceCounts refCounts = getReferenceCounts(reference);
+    			refCounts.incrementAlignedBases(counts.getAlignedBases(i));
+    			refCounts.incrementEditDistanceCount(counts.getEditDistanceCount(i));
+    			refCounts.incrementMappingQualityZeroCount(counts.getMappingQualityZeroCount(i));
+    			refCounts.incrementReadCount(counts.getReadCount(i));
+    		}
+    	}
+    }
+    
+    private void outputHistograms(SamSummaryCounts counts) throws IOException {
+    	if (mappingQualityFile != null) {
+    		BufferedWriter writer = new BufferedWriter(new FileWriter(mappingQualityFile, false));
+    		try {
+	    		writer.write("MAPQ\tReads\n");
+	    		long[] histogram = counts.getMappingQualityHistogram();
+	    		for (int i=0; i<histogram.length; i++) {
+	    			if (histogram[i] > 0) {
+	    				writer.write(i + "\t" + histogram[i] + "\n");
+	    			}
+	    		}
+    		} finally {
+    			writer.close();
+    		}
+    	}
+    	
+    	if (insertSizeFile != null) {
+    		BufferedWriter writer = new BufferedWriter(new FileWriter(insertSizeFile, false));
+    		try {
+	    		writer.write("Insert_Size\tPairs\n");
+	    		long[] histogram = counts.getInsertSizeHistogram();
+	    		for (int i=0; i<histogram.length; i++) {
+	    			if (histogram[i] > 0) {
+	    				String size = i < SamSummaryCounts.MAX_INSERT_SIZE ? String.valueOf(i) : i + "+";
+	    				writer.write(size + "\t" + histogram[i] + "\n");
+	    			}
+	    		}
+    		} finally {
+    			writer.close();
     		}
+    	}
     	
-	    	Integer editDistance = read.getIntegerAttribute(EDIT_DISTANCE_TAG);
-	    	
-	    	ReferenceCounts counts = getReferenceCounts(read.getReferenceName());
-	    	counts.incrementAlignedBases(alignedBases);
-	    	if (editDistance != null) {
-	    		counts.incrementEditDistanceCount(editDistance);
-	    	}
-	    	
-	    	if (read.getMappingQuality() == 0) {
-	    		counts.incrementMappingQualityZeroCount(1);
-	    	}
-	    	
-	    	counts.incrementReadCount(1);
+    	if (cycleErrorFile != null) {
+    		BufferedWriter writer = new BufferedWriter(new FileWriter(cycleErrorFile, false));
+    		try {
+	    		writer.write("Cycle\tBases\tMismatches\tInsertions\tError_Rate\n");
+	    		long[] bases = counts.getCycleBases();
+	    		long[] mismatches = counts.getCycleMismatches();
+	    		long[] insertions = counts.getCycleInsertions();
+	    		for (int i=0; i<bases.length; i++) {
+	    			// Cycles beyond the shorter reads may have no aligned bases
+	    			double errorRate = bases[i] > 0 ? (double) (mismatches[i] + insertions[i]) / (double) bases[i] : 0;
+	    			writer.write((i+1) + "\t" + bases[i] + "\t" + mismatches[i] + "\t" + insertions[i] + "\t" + errorRate + "\n");
+	    		}
+    		} finally {
+    			writer.close();
+    		}
     	}
     }
     
+    public void setNumThreads(int numThreads) {
+    	this.numThreads = numThreads;
+    }
+    
+    /**
+     * Optional output file for a histogram of mapping quality of aligned reads.
+     */
+    public void setMappingQualityFile(String mappingQualityFile) {
+    	this.mappingQualityFile = mappingQualityFile;
+    }
+    
+    /**
+     * Optional output file for a histogram of insert sizes of properly paired reads.
+     */
+    public void setInsertSizeFile(String insertSizeFile) {
+    	this.insertSizeFile = insertSizeFile;
+    }
+    
+    /**
+     * Optional output file for error rates per sequencing cycle.  Requires MD tags.
+     */
+    public void setCycleErrorFile(String cycleErrorFile) {
+    	this.cycleErrorFile = cycleErrorFile;
+    }
+    
     private void outputAllCounts(BufferedWriter writer) throws IOException {
     	
     	ReferenceCounts totals = new ReferenceCounts();
@@ -228,7 +549,12 @@ public class SamSummarizer {
     	options.parseOptions(args);
     	
     	if (options.isValid()) {
-    		new SamSummarizer().summarize(options.getInputFile(),
+    		SamSummarizer summarizer = new SamSummarizer();
+    		summarizer.setNumThreads(options.getNumThreads());
+    		summarizer.setMappingQualityFile(options.getMappingQualityFile());
+    		summarizer.setInsertSizeFile(options.getInsertSizeFile());
+    		summarizer.setCycleErrorFile(options.getCycleErrorFile());
+    		summarizer.summarize(options.getInputFile(),
     				options.getOutputFile(), options.shouldOutputHeader());
     	}
     }
@@ -13,6 +13,10 @@ public class SamSummarizerOptions extends Options {
 	private static final String INPUT = "in";
 	private static final String OUTPUT = "out";
 	private static final String HEADER = "header";
+	private static final String NUM_THREADS = "threads";
+	private static final String MAPQ_HISTOGRAM = "mapq";
+	private static final String INSERT_HISTOGRAM = "insert";
+	private static final String CYCLE_ERRORS = "cycle-errors";
 
 	private OptionParser parser;
 	private boolean isValid;
@@ -24,6 +28,10 @@ public class SamSummarizerOptions extends Options {
             parser.accepts(INPUT, "Input SAM/BAM file").withRequiredArg().ofType(String.class);
             parser.accepts(OUTPUT, "Output summary file").withRequiredArg().ofType(String.class);
             parser.accepts(HEADER, "Output header");
+            parser.accepts(NUM_THREADS, "Optional number of threads.  Indexed BAM input is summarized by reference shard (default 1)").withRequiredArg().ofType(Integer.class);
+            parser.accepts(MAPQ_HISTOGRAM, "Optional output file for a mapping quality histogram").withRequiredArg().ofType(String.class);
+            parser.accepts(INSERT_HISTOGRAM, "Optional output file for an insert size histogram of properly paired reads").withRequiredArg().ofType(String.class);
+            parser.accepts(CYCLE_ERRORS, "Optional output file for error rates per sequencing cycle (requires MD tags)").withRequiredArg().ofType(String.class);
             parser.accepts(HELP, "Print this help message");
     	}
     	
@@ -44,6 +52,11 @@ public class SamSummarizerOptions extends Options {
             System.err.println("Missing required output summary file");
         }
         
+        if ((getOptions().hasArgument(NUM_THREADS)) && (getNumThreads() < 1)) {
+            isValid = false;
+            System.err.println("Number of threads must be at least 1");
+        }
+        
         if (!isValid) {
             printHelp();
         }
@@ -61,6 +74,37 @@ public class SamSummarizerOptions extends Options {
 		return getOptions().has(HEADER);
 	}
 	
+	public int getNumThreads() {
+		int threads = 1;
+		
+		if (getOptions().hasArgument(NUM_THREADS)) {
+			threads = (Integer) getOptions().valueOf(NUM_THREADS);
+		}
+		
+		return threads;
+	}
+	
+	/**
+	 * Returns the mapping quality histogram file or null if not specified.
+	 */
+	public String getMappingQualityFile() {
+		return (String) getOptions().valueOf(MAPQ_HISTOGRAM);
+	}
+	
+	/**
+	 * Returns the insert size histogram file or null if not specified.
+	 */
+	public String getInsertSizeFile() {
+		return (String) getOptions().valueOf(INSERT_HISTOGRAM);
+	}
+	
+	/**
+	 * Returns the per cycle error rate file or null if not specified.
+	 */
+	public String getCycleErrorFile() {
+		return (String) getOptions().valueOf(CYCLE_ERRORS);
+	}
+	
     public boolean isValid() {
         return isValid;
     }
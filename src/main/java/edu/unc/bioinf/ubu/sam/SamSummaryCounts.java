@@ -0,0 +1,307 @@
+package edu.unc.bioinf.ubu.sam;
+
+import net.sf.samtools.CigarOperator;
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Mergeable summary counters for {@code SamSummarizer}.
+ * <p>
+ * Per reference counts are held in primitive arrays indexed by the read's header
+ * reference index.  Each worker thread owns an instance and instances are merged once
+ * all reads have been counted.  MAPQ, insert size and per cycle error histograms are
+ * optional and only allocated when enabled.
+ * <p>
+ * Not thread safe.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+class SamSummaryCounts {
+
+	static final int MAX_MAPPING_QUALITY = 255;
+
+	// Insert sizes at or above this value are tallied in the last bin
+	static final int MAX_INSERT_SIZE = 10000;
+
+	private static final String EDIT_DISTANCE_TAG = "NM";
+	private static final String MISMATCH_TAG = "MD";
+
+	private int numReferences;
+
+	// Last slot holds reads without a reference index
+	private long[] alignedBases;
+	private long[] editDistanceCount;
+	private long[] mappingQualityZeroCount;
+	private long[] readCount;
+
+	private long[] mappingQualityHistogram;
+	private long[] insertSizeHistogram;
+
+	// Indexed by 0 based sequencing cycle
+	private long[] cycleBases;
+	private long[] cycleMismatches;
+	private long[] cycleInsertions;
+
+	private ReadBlockIterator blocks = new ReadBlockIterator();
+
+	// Cursor into the current read's MD tag
+	private String md;
+	private int mdIdx;
+	private int mdMatches;
+
+	SamSummaryCounts(int numReferences, boolean isMappingQualityEnabled,
+			boolean isInsertSizeEnabled, boolean isCycleErrorEnabled) {
+
+		this.numReferences = numReferences;
+		alignedBases = new long[numReferences + 1];
+		editDistanceCount = new long[numReferences + 1];
+		mappingQualityZeroCount = new long[numReferences + 1];
+		readCount = new long[numReferences + 1];
+
+		if (isMappingQualityEnabled) {
+			mappingQualityHistogram = new long[MAX_MAPPING_QUALITY + 1];
+		}
+
+		if (isInsertSizeEnabled) {
+			insertSizeHistogram = new long[MAX_INSERT_SIZE + 1];
+		}
+
+		if (isCycleErrorEnabled) {
+			cycleBases = new long[0];
+			cycleMismatches = new long[0];
+			cycleInsertions = new long[0];
+		}
+	}
+
+	/**
+	 * Returns an empty instance with the same dimensions and enabled histograms.
+	 */
+	SamSummaryCounts newInstance() {
+		return new SamSummaryCounts(numReferences, mappingQualityHistogram != null,
+				insertSizeHistogram != null, cycleBases != null);
+	}
+
+	/**
+	 * Counts the input read.  Unmapped reads are ignored.
+	 */
+	void countRead(SAMRecord read) {
+		if (read.getReadUnmappedFlag()) {
+			return;
+		}
+
+		int alignedBasesInRead = 0;
+		blocks.reset(read);
+		while (blocks.next()) {
+			if (blocks.getType() == CigarOperator.MATCH_OR_MISMATCH) {
+				alignedBasesInRead += blocks.getLength();
+			}
+		}
+
+		Integer refIndex = read.getReferenceIndex();
+		int refIdx = refIndex != null ? refIndex : numReferences;
+		if ((refIdx < 0) || (refIdx >= numReferences)) {
+			refIdx = numReferences;
+		}
+
+		alignedBases[refIdx] += alignedBasesInRead;
+
+		Integer editDistance = read.getIntegerAttribute(EDIT_DISTANCE_TAG);
+		if (editDistance != null) {
+			editDistanceCount[refIdx] += editDistance;
+		}
+
+		int mapq = read.getMappingQuality();
+		if (mapq == 0) {
+			mappingQualityZeroCount[refIdx]++;
+		}
+
+		readCount[refIdx]++;
+
+		if (mappingQualityHistogram != null) {
+			mappingQualityHistogram[Math.min(Math.max(mapq, 0), MAX_MAPPING_QUALITY)]++;
+		}
+
+		if (insertSizeHistogram != null) {
+			countInsertSize(read);
+		}
+
+		if (cycleBases != null) {
+			countCycleErrors(read);
+		}
+	}
+
+	private void countInsertSize(SAMRecord read) {
+		// Count each properly paired fragment once
+		if ((read.getReadPairedFlag()) && (read.getProperPairFlag()) &&
+			(read.getFirstOfPairFlag()) && (!read.getMateUnmappedFlag()) &&
+			(read.getInferredInsertSize() != 0)) {
+
+			insertSizeHistogram[Math.min(Math.abs(read.getInferredInsertSize()), MAX_INSERT_SIZE)]++;
+		}
+	}
+
+	/**
+	 * Attributes mismatches from the MD tag and inserted bases to sequencing cycles.
+	 * Reads without an MD tag are skipped.
+	 */
+	private void countCycleErrors(SAMRecord read) {
+		md = read.getStringAttribute(MISMATCH_TAG);
+		if (md == null) {
+			return;
+		}
+
+		mdIdx = 0;
+		mdMatches = 0;
+
+		int readLength = read.getCigar().getReadLength();
+		ensureCycleCapacity(readLength);
+		boolean isReverse = read.getReadNegativeStrandFlag();
+
+		blocks.reset(read);
+		while (blocks.next()) {
+			CigarOperator type = blocks.getType();
+
+			if ((type == CigarOperator.M) || (type == CigarOperator.I)) {
+				// 0 based position in read
+				int pos = blocks.getReadStart() - 1;
+
+				for (int i=0; i<blocks.getLength(); i++) {
+					int cycle = isReverse ? readLength - 1 - pos - i : pos + i;
+					cycleBases[cycle]++;
+
+					if (type == CigarOperator.I) {
+						cycleInsertions[cycle]++;
+					} else if (nextReferenceBaseIsMismatch()) {
+						cycleMismatches[cycle]++;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Consumes one aligned base from the MD tag.  Deleted bases are skipped.
+	 * Returns true if the base is a mismatch.
+	 */
+	private boolean nextReferenceBaseIsMismatch() {
+		while (mdMatches == 0) {
+			if (mdIdx >= md.length()) {
+				// Malformed or truncated MD tag
+				return false;
+			}
+
+			char ch = md.charAt(mdIdx);
+
+			if (ch == '^') {
+				// Skip deleted reference bases
+				mdIdx++;
+				while ((mdIdx < md.length()) && (!Character.isDigit(md.charAt(mdIdx)))) {
+					mdIdx++;
+				}
+			} else if (Character.isDigit(ch)) {
+				while ((mdIdx < md.length()) && (Character.isDigit(md.charAt(mdIdx)))) {
+					mdMatches = mdMatches * 10 + (md.charAt(mdIdx) - '0');
+					mdIdx++;
+				}
+			} else {
+				mdIdx++;
+				return true;
+			}
+		}
+
+		mdMatches--;
+		return false;
+	}
+
+	private void ensureCycleCapacity(int readLength) {
+		if (cycleBases.length < readLength) {
+			cycleBases = grow(cycleBases, readLength);
+			cycleMismatches = grow(cycleMismatches, readLength);
+			cycleInsertions = grow(cycleInsertions, readLength);
+		}
+	}
+
+	private static long[] grow(long[] counts, int length) {
+		long[] grown = new long[length];
+		System.arraycopy(counts, 0, grown, 0, counts.length);
+		return grown;
+	}
+
+	private static long[] add(long[] totals, long[] counts) {
+		if (totals.length < counts.length) {
+			totals = grow(totals, counts.length);
+		}
+
+		for (int i=0; i<counts.length; i++) {
+			totals[i] += counts[i];
+		}
+
+		return totals;
+	}
+
+	/**
+	 * Adds the counts from other into this instance.
+	 */
+	void merge(SamSummaryCounts other) {
+		add(alignedBases, other.alignedBases);
+		add(editDistanceCount, other.editDistanceCount);
+		add(mappingQualityZeroCount, other.mappingQualityZeroCount);
+		add(readCount, other.readCount);
+
+		if (mappingQualityHistogram != null) {
+			add(mappingQualityHistogram, other.mappingQualityHistogram);
+		}
+
+		if (insertSizeHistogram != null) {
+			add(insertSizeHistogram, other.insertSizeHistogram);
+		}
+
+		if (cycleBases != null) {
+			cycleBases = add(cycleBases, other.cycleBases);
+			cycleMismatches = add(cycleMismatches, other.cycleMismatches);
+			cycleInsertions = add(cycleInsertions, other.cycleInsertions);
+		}
+	}
+
+	int getNumReferences() {
+		return numReferences;
+	}
+
+	/**
+	 * Per reference accessors.  Index numReferences holds reads without a reference.
+	 */
+	long getAlignedBases(int refIdx) {
+		return alignedBases[refIdx];
+	}
+
+	long getEditDistanceCount(int refIdx) {
+		return editDistanceCount[refIdx];
+	}
+
+	long getMappingQualityZeroCount(int refIdx) {
+		return mappingQualityZeroCount[refIdx];
+	}
+
+	long getReadCount(int refIdx) {
+		return readCount[refIdx];
+	}
+
+	long[] getMappingQualityHistogram() {
+		return mappingQualityHistogram;
+	}
+
+	long[] getInsertSizeHistogram() {
+		return insertSizeHistogram;
+	}
+
+	long[] getCycleBases() {
+		return cycleBases;
+	}
+
+	long[] getCycleMismatches() {
+		return cycleMismatches;
+	}
+
+	long[] getCycleInsertions() {
+		return cycleInsertions;
+	}
+}
@@ -16,6 +16,14 @@ public class SpliceJunction implements Comparable<SpliceJunction> {
         this.coordinate = new Coordinate(start, stop);
     }
     
+    public String getChromosome() {
+        return chromosome;
+    }
+    
+    public Coordinate getCoordinate() {
+        return coordinate;
+    }
+    
     @Override
     public boolean equals(Object obj) {
         SpliceJunction that = (SpliceJunction) obj;
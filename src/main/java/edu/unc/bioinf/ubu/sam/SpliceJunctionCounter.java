@@ -1,87 +1,266 @@
 package edu.unc.bioinf.ubu.sam;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import net.sf.samtools.CigarOperator;
 import net.sf.samtools.SAMFileReader;
 import net.sf.samtools.SAMRecord;
 import net.sf.samtools.SAMFileReader.ValidationStringency;
+import edu.unc.bioinf.ubu.sam.SpliceJunctionIndex.ChromosomeJunctions;
 
 /**
- * Counts splice junctions in a bam or sam file
+ * Counts splice junctions in a bam or sam file.  Only junctions in the input
+ * junction file are counted.
+ * 
+ * In cohort mode, a list of BAMs is counted concurrently against a single shared
+ * junction index and written as a junction x sample matrix.
  * 
  * @author Lisle Mose (lmose at unc dot edu)
  */
 public class SpliceJunctionCounter {
     
+    // Minimum number of samples held in memory between matrix writes
+    private static final int SAMPLES_PER_GROUP = 50;
+    
     private SpliceJunctionMap spliceJunctionMap;
-    private Map<SpliceJunction, Integer> spliceJunctionCounts = new HashMap<SpliceJunction, Integer>(); 
+    private SpliceJunctionIndex spliceJunctionIndex;
+    private int[] spliceJunctionCounts;
     
     public SpliceJunctionCounter(SpliceJunctionMap spliceJunctionMap) {
         this.spliceJunctionMap = spliceJunctionMap;
+        this.spliceJunctionIndex = new SpliceJunctionIndex(spliceJunctionMap);
+        this.spliceJunctionCounts = new int[spliceJunctionIndex.size()];
     }
     
     public void count(String inputFile, String outputFile) throws IOException {
         
         BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile, false));
         
+        spliceJunctionCounts = countSample(inputFile, true);
+                
+        outputCounts(writer);
+        writer.close();
+    }
+    
+    /**
+     * Returns the counts for the input file indexed by junction index.
+     * Uses only the shared immutable junction index, so may be called concurrently.
+     */
+    int[] countSample(String inputFile, boolean isVerbose) {
+        int[] counts = new int[spliceJunctionIndex.size()];
+        
         File file = new File(inputFile);
         
         SAMFileReader inputSam = new SAMFileReader(file);
         inputSam.setValidationStringency(ValidationStringency.SILENT);
         
-        int count = 0;
-
-        for (SAMRecord read : inputSam) {
-            updateJunctionCounts(read);
-            if ((count++ % 1000000) == 0) {
-                System.out.println("Processed " + count + " reads.");
+        try {
+            ChromosomeJunctions[] referenceJunctions = spliceJunctionIndex.getReferenceJunctions(inputSam.getFileHeader());
+            
+            int count = 0;
+    
+            for (SAMRecord read : inputSam) {
+                SpliceJunctionIndex.countJunctions(read, referenceJunctions, counts);
+                if ((isVerbose) && ((count++ % 1000000) == 0)) {
+                    System.out.println("Processed " + count + " reads.");
+                }
             }
+        } finally {
+            inputSam.close();
         }
+        
+        return counts;
+    }
+    
+    /**
+     * Counts junctions for each sample concurrently and writes a junction x sample matrix.
+     * Samples are counted and written in groups to bound memory.  Dense groups are staged
+     * in column files and the matrix is written once after all groups are counted.
+     * If isAppend is true, the samples are added to the existing matrix file, which must
+     * match isSparse or isBinary when specified.  If isBinary is true, a new matrix is
+     * written as a {@code BinaryMatrix}.
+     */
+    public void countCohort(List<String> samples, List<String> inputFiles, String outputFile,
+            boolean isSparse, boolean isBinary, boolean isAppend, int numThreads) throws IOException, InterruptedException {
+        
+        SpliceJunctionMatrix matrix = new SpliceJunctionMatrix(spliceJunctionMap, spliceJunctionIndex);
+        int encoding = getEncoding(outputFile, isSparse, isBinary, isAppend);
+        checkSamples(samples, outputFile, isAppend);
+        
+        int samplesPerGroup = Math.max(numThreads * 4, SAMPLES_PER_GROUP);
+        
+        ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+        List<String> columnFiles = new ArrayList<String>();
+        
+        try {
+            for (int groupStart=0; groupStart<samples.size(); groupStart+=samplesPerGroup) {
+                int groupEnd = Math.min(groupStart + samplesPerGroup, samples.size());
                 
-        outputCounts(writer);
-        writer.close();
+                List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+                for (int i=groupStart; i<groupEnd; i++) {
+                    futures.add(workers.submit(new CountSample(inputFiles.get(i))));
+                }
+                
+                List<int[]> counts = new ArrayList<int[]>();
+                for (int i=groupStart; i<groupEnd; i++) {
+                    counts.add(getCounts(futures.get(i-groupStart)));
+                    System.out.println("Counted sample: " + samples.get(i));
+                }
+                
+                List<String> groupSamples = samples.subList(groupStart, groupEnd);
+                boolean isNewFile = (groupStart == 0) && (!isAppend);
+                
+                if (encoding == SpliceJunctionMatrix.DENSE) {
+                    columnFiles.add(matrix.writeDenseColumns(outputFile, counts));
+                } else if (encoding == SpliceJunctionMatrix.BINARY) {
+                    if (isNewFile) {
+                        matrix.writeBinary(outputFile, groupSamples, counts);
+                    } else {
+                        matrix.append(outputFile, groupSamples, counts);
+                    }
+                } else {
+                    if (isNewFile) {
+                        matrix.write(outputFile, groupSamples, counts, true);
+                    } else {
+                        // Samples were checked against the matrix up front
+                        matrix.appendSparse(outputFile, groupSamples, counts);
+                    }
+                }
+            }
+            
+            if (encoding == SpliceJunctionMatrix.DENSE) {
+                matrix.mergeDense(outputFile, isAppend, samples, columnFiles);
+            }
+        } finally {
+            workers.shutdownNow();
+            
+            for (String columnFile : columnFiles) {
+                new File(columnFile).delete();
+            }
+        }
     }
     
-    private void outputCounts(BufferedWriter writer) throws IOException {
-        System.out.println("Writing counts.");
+    /**
+     * Returns the output matrix encoding.  When appending, the existing file's encoding is
+     * used and must match isSparse or isBinary if either is specified.
+     */
+    static int getEncoding(String outputFile, boolean isSparse, boolean isBinary, boolean isAppend) throws IOException {
+        int encoding = isBinary ? SpliceJunctionMatrix.BINARY :
+            (isSparse ? SpliceJunctionMatrix.SPARSE : SpliceJunctionMatrix.DENSE);
         
-        for (SpliceJunction junction : spliceJunctionMap.getAllSpliceJunctions()) {
-            String junctionKey = spliceJunctionMap.getJunctionKey(junction);
-            int count = 0;
+        if (isAppend) {
+            int existingEncoding = SpliceJunctionMatrix.getEncoding(outputFile);
             
-            if (spliceJunctionCounts.containsKey(junction)) {
-                count = spliceJunctionCounts.get(junction);
+            if ((isSparse || isBinary) && (existingEncoding != encoding)) {
+                throw new IllegalArgumentException("Cannot append " + (isBinary ? "binary" : "sparse") +
+                        " samples to junction matrix: " + outputFile + " with a different encoding");
             }
             
-            String line = junctionKey + "\t" + count + "\n";
-
-            writer.write(line);
+            encoding = existingEncoding;
+        }
+        
+        return encoding;
+    }
+    
+    /**
+     * Verifies that sample names are unique and, if appending, not already in the matrix
+     * before any samples are counted.
+     */
+    static void checkSamples(List<String> samples, String outputFile, boolean isAppend) throws IOException {
+        Set<String> existingSamples = isAppend ? SpliceJunctionMatrix.getSamples(outputFile) : new HashSet<String>();
+        Set<String> newSamples = new HashSet<String>();
+        
+        for (String sample : samples) {
+            if (existingSamples.contains(sample)) {
+                throw new IllegalArgumentException("Sample: " + sample + " already in junction matrix: " + outputFile);
+            }
+            
+            if (!newSamples.add(sample)) {
+                throw new IllegalArgumentException("Duplicate sample: " + sample);
+            }
+        }
+    }
+    
+    private int[] getCounts(Future<int[]> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
         }
     }
     
-    private void updateCount(SpliceJunction junction) {
-        Integer count = spliceJunctionCounts.get(junction);
-        if (count == null) {
-            spliceJunctionCounts.put(junction, 1);
-        } else {
-            spliceJunctionCounts.put(junction, count+1);
+    class CountSample implements Callable<int[]> {
+        private String inputFile;
+        
+        CountSample(String inputFile) {
+            this.inputFile = inputFile;
+        }
+
+        @Override
+        public int[] call() {
+            return countSample(inputFile, false);
         }
     }
     
-    private void updateJunctionCounts(SAMRecord read) {
+    /**
+     * Loads sample names and BAM paths from a file containing one BAM per line.
+     * Lines may optionally be of the form: sample&lt;tab&gt;path.  Otherwise the sample name
+     * is the file name without its extension.
+     */
+    static void loadSampleList(String sampleListFile, List<String> samples, List<String> inputFiles) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(sampleListFile));
         
-        if (read.getCigarString().contains("N")) {
-            for (ReadBlock block : ReadBlock.getReadBlocks(read)) {
-                if (block.getType() == CigarOperator.N) {
-                    updateCount(new SpliceJunction(read.getReferenceName(), block.getReferenceStart(), block.getReferenceStop()));
+        try {
+            String line = reader.readLine();
+            while (line != null) {
+                line = line.trim();
+                
+                if (line.length() > 0) {
+                    String[] fields = line.split("\t");
+                    if (fields.length >= 2) {
+                        samples.add(fields[0]);
+                        inputFiles.add(fields[1]);
+                    } else {
+                        String name = new File(line).getName();
+                        int dot = name.lastIndexOf('.');
+                        samples.add(dot > 0 ? name.substring(0, dot) : name);
+                        inputFiles.add(line);
+                    }
                 }
+                
+                line = reader.readLine();
             }
+        } finally {
+            reader.close();
+        }
+    }
+    
+    private void outputCounts(BufferedWriter writer) throws IOException {
+        System.out.println("Writing counts.");
+        
+        for (SpliceJunction junction : spliceJunctionMap.getAllSpliceJunctions()) {
+            String junctionKey = spliceJunctionMap.getJunctionKey(junction);
+            int count = spliceJunctionCounts[spliceJunctionIndex.indexOf(junction)];
+            
+            String line = junctionKey + "\t" + count + "\n";
+
+            writer.write(line);
         }
     }
     
@@ -95,7 +274,21 @@ public class SpliceJunctionCounter {
             
     		SpliceJunctionMap map = new SpliceJunctionMap(options.getJunctionFile());
     		SpliceJunctionCounter counter = new SpliceJunctionCounter(map);
-    		counter.count(options.getInputFile(), options.getOutputFile());
+    		
+    		if (options.hasSampleListFile()) {
+    			List<String> samples = new ArrayList<String>();
+    			List<String> inputFiles = new ArrayList<String>();
+    			loadSampleList(options.getSampleListFile(), samples, inputFiles);
+    			
+    			try {
+    				counter.countCohort(samples, inputFiles, options.getOutputFile(),
+    						options.isSparse(), options.isBinary(), options.isAppend(), options.getNumThreads());
+    			} catch (InterruptedException e) {
+    				throw new RuntimeException(e);
+    			}
+    		} else {
+    			counter.count(options.getInputFile(), options.getOutputFile());
+    		}
     		
             long stop = System.currentTimeMillis();
             
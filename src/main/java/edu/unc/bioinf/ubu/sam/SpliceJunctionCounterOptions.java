@@ -13,6 +13,11 @@ public class SpliceJunctionCounterOptions extends Options {
 	private static final String INPUT  = "in";
 	private static final String OUTPUT = "out";
 	private static final String JUNCTION_FILE = "junctions";
+	private static final String SAMPLE_LIST = "bams";
+	private static final String NUM_THREADS = "threads";
+	private static final String SPARSE = "sparse";
+	private static final String APPEND = "append";
+	private static final String BINARY = "binary";
 
 	private OptionParser parser;
 	private boolean isValid;
@@ -24,6 +29,11 @@ public class SpliceJunctionCounterOptions extends Options {
             parser.accepts(INPUT, "Input SAM/BAM file").withRequiredArg().ofType(String.class);
             parser.accepts(OUTPUT, "Output file containing junction counts").withRequiredArg().ofType(String.class);
             parser.accepts(JUNCTION_FILE, "Input list of junctions defined in a format similar to: chr1:12227:+,chr1:12595:+").withRequiredArg().ofType(String.class);
+            parser.accepts(SAMPLE_LIST, "Cohort mode.  File listing one SAM/BAM per line, optionally preceded by sample name and a tab.  Output is a junction x sample matrix").withRequiredArg().ofType(String.class);
+            parser.accepts(NUM_THREADS, "Number of samples counted concurrently in cohort mode (default 1)").withRequiredArg().ofType(Integer.class);
+            parser.accepts(SPARSE, "Write the cohort matrix as junction, sample, count rows for non zero counts");
+            parser.accepts(APPEND, "Append the cohort samples to an existing matrix.  The matrix encoding must match sparse or binary if specified");
+            parser.accepts(BINARY, "Write the cohort matrix as a binary, memory mappable matrix with one column per sample");
             parser.accepts(HELP, "Print this help message");
     	}
     	
@@ -34,11 +44,31 @@ public class SpliceJunctionCounterOptions extends Options {
 	protected void validate() {
         isValid = true;
         
-        if (!getOptions().hasArgument(INPUT)) {
+        if (!getOptions().hasArgument(INPUT) && !hasSampleListFile()) {
             isValid = false;
             System.err.println("Missing required input file 1");
         }
         
+        if (getOptions().hasArgument(INPUT) && hasSampleListFile()) {
+            isValid = false;
+            System.err.println("Specify either an input file or a BAM list, not both");
+        }
+        
+        if ((!hasSampleListFile()) && (getOptions().has(SPARSE) || getOptions().has(BINARY) || getOptions().has(APPEND) || getOptions().has(NUM_THREADS))) {
+            isValid = false;
+            System.err.println("Sparse, binary, append and threads options require a BAM list");
+        }
+        
+        if (getOptions().has(SPARSE) && getOptions().has(BINARY)) {
+            isValid = false;
+            System.err.println("Specify either sparse or binary, not both");
+        }
+        
+        if ((getOptions().hasArgument(NUM_THREADS)) && (getNumThreads() < 1)) {
+            isValid = false;
+            System.err.println("Number of threads must be at least 1");
+        }
+        
         if (!getOptions().hasArgument(OUTPUT)) {
             isValid = false;
             System.err.println("Missing required input file 2");
@@ -65,6 +95,36 @@ public class SpliceJunctionCounterOptions extends Options {
 	public String getJunctionFile() {
 		return (String) getOptions().valueOf(JUNCTION_FILE);
 	}
+	
+	public boolean hasSampleListFile() {
+		return getOptions().hasArgument(SAMPLE_LIST);
+	}
+	
+	public String getSampleListFile() {
+		return (String) getOptions().valueOf(SAMPLE_LIST);
+	}
+	
+	public int getNumThreads() {
+		int threads = 1;
+		
+		if (getOptions().hasArgument(NUM_THREADS)) {
+			threads = (Integer) getOptions().valueOf(NUM_THREADS);
+		}
+		
+		return threads;
+	}
+	
+	public boolean isSparse() {
+		return getOptions().has(SPARSE);
+	}
+	
+	public boolean isBinary() {
+		return getOptions().has(BINARY);
+	}
+	
+	public boolean isAppend() {
+		return getOptions().has(APPEND);
+	}
 		
     public boolean isValid() {
         return isValid;
@@ -0,0 +1,169 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.samtools.Cigar;
+import net.sf.samtools.CigarElement;
+import net.sf.samtools.CigarOperator;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Primitive lookup of the junctions in a {@code SpliceJunctionMap}.
+ * <p>
+ * Junctions are grouped by chromosome into sorted arrays of (start << 32 | stop) keys.
+ * Each distinct junction is assigned a dense index, so counts may be held in a plain
+ * int[] of length {@link #size()} owned by the caller.  Lookup is a binary search within
+ * the read's chromosome, which is resolved once per input file by header reference index.
+ * <p>
+ * Immutable once built and may be shared between threads.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class SpliceJunctionIndex {
+
+    private Map<String, ChromosomeJunctions> chromosomes = new HashMap<String, ChromosomeJunctions>();
+    private int size;
+
+    public SpliceJunctionIndex(SpliceJunctionMap spliceJunctionMap) {
+        this(spliceJunctionMap.getAllSpliceJunctions());
+    }
+
+    SpliceJunctionIndex(List<SpliceJunction> junctions) {
+        Map<String, List<SpliceJunction>> junctionsByChromosome = new HashMap<String, List<SpliceJunction>>();
+
+        for (SpliceJunction junction : junctions) {
+            List<SpliceJunction> chromosomeJunctions = junctionsByChromosome.get(junction.getChromosome());
+            if (chromosomeJunctions == null) {
+                chromosomeJunctions = new ArrayList<SpliceJunction>();
+                junctionsByChromosome.put(junction.getChromosome(), chromosomeJunctions);
+            }
+            chromosomeJunctions.add(junction);
+        }
+
+        for (Map.Entry<String, List<SpliceJunction>> entry : junctionsByChromosome.entrySet()) {
+            ChromosomeJunctions chromosomeJunctions = new ChromosomeJunctions(entry.getValue(), size);
+            chromosomes.put(entry.getKey(), chromosomeJunctions);
+            size += chromosomeJunctions.keys.length;
+        }
+    }
+
+    /**
+     * Returns the number of distinct junctions.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the dense index of the specified junction or -1 if it is not in the index.
+     */
+    public int indexOf(SpliceJunction junction) {
+        return indexOf(junction.getChromosome(), junction.getCoordinate().getStart(), junction.getCoordinate().getStop());
+    }
+
+    public int indexOf(String chromosome, int start, int stop) {
+        ChromosomeJunctions chromosomeJunctions = chromosomes.get(chromosome);
+        return chromosomeJunctions != null ? chromosomeJunctions.indexOf(start, stop) : -1;
+    }
+
+    /**
+     * Returns the junctions for each reference in the input header, indexed by header
+     * reference index.  References without junctions are null.
+     */
+    ChromosomeJunctions[] getReferenceJunctions(SAMFileHeader header) {
+        ChromosomeJunctions[] referenceJunctions = new ChromosomeJunctions[header.getSequenceDictionary().size()];
+
+        for (int i=0; i<referenceJunctions.length; i++) {
+            referenceJunctions[i] = chromosomes.get(header.getSequence(i).getSequenceName());
+        }
+
+        return referenceJunctions;
+    }
+
+    /**
+     * Increments the count of each known junction spanned by the read.  Cigar elements are
+     * walked directly.  referenceJunctions is from {@link #getReferenceJunctions(SAMFileHeader)}
+     */
+    static void countJunctions(SAMRecord read, ChromosomeJunctions[] referenceJunctions, int[] counts) {
+        if (read.getReadUnmappedFlag()) {
+            return;
+        }
+
+        Integer refIdx = read.getReferenceIndex();
+        if ((refIdx == null) || (refIdx < 0) || (refIdx >= referenceJunctions.length) ||
+            (referenceJunctions[refIdx] == null)) {
+            return;
+        }
+
+        ChromosomeJunctions chromosomeJunctions = referenceJunctions[refIdx];
+        Cigar cigar = read.getCigar();
+        int numElements = cigar.numCigarElements();
+
+        // A spliced read has at least 3 elements, i.e. 10M100N40M
+        if (numElements < 3) {
+            return;
+        }
+
+        int refPos = read.getAlignmentStart();
+
+        for (int i=0; i<numElements; i++) {
+            CigarElement element = cigar.getCigarElement(i);
+            CigarOperator operator = element.getOperator();
+            int length = element.getLength();
+
+            if (operator == CigarOperator.N) {
+                int idx = chromosomeJunctions.indexOf(refPos, refPos + length - 1);
+                if (idx >= 0) {
+                    counts[idx]++;
+                }
+            }
+
+            if (operator.consumesReferenceBases()) {
+                refPos += length;
+            }
+        }
+    }
+
+    static long toKey(int start, int stop) {
+        return ((long) start << 32) | (stop & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Sorted junction keys for a single chromosome.
+     */
+    static class ChromosomeJunctions {
+        private long[] keys;
+        private int offset;
+
+        ChromosomeJunctions(List<SpliceJunction> junctions, int offset) {
+            long[] allKeys = new long[junctions.size()];
+            for (int i=0; i<allKeys.length; i++) {
+                Coordinate coordinate = junctions.get(i).getCoordinate();
+                allKeys[i] = toKey(coordinate.getStart(), coordinate.getStop());
+            }
+
+            Arrays.sort(allKeys);
+
+            // Collapse duplicates
+            int numKeys = 0;
+            for (int i=0; i<allKeys.length; i++) {
+                if ((numKeys == 0) || (allKeys[i] != allKeys[numKeys-1])) {
+                    allKeys[numKeys++] = allKeys[i];
+                }
+            }
+
+            this.keys = Arrays.copyOf(allKeys, numKeys);
+            this.offset = offset;
+        }
+
+        int indexOf(int start, int stop) {
+            int idx = Arrays.binarySearch(keys, toKey(start, stop));
+            return idx >= 0 ? offset + idx : -1;
+        }
+    }
+}
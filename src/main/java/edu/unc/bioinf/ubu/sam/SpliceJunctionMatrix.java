@@ -0,0 +1,427 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes junction x sample count matrices for {@code SpliceJunctionCounter}.
+ * <p>
+ * Dense matrices contain a header line of sample names followed by one row per junction
+ * in junction file order:
+ * <pre>
+ * junction  sample1  sample2 ...
+ * </pre>
+ * Sparse matrices contain one junction, sample, count row per non zero count.
+ * <p>
+ * Binary matrices ({@code BinaryMatrix}) contain one int64 column per sample.
+ * <p>
+ * Samples may be appended to an existing matrix of any encoding.  Sparse rows and binary
+ * columns are appended in place.  Dense matrices are rewritten with the new columns added,
+ * so samples counted in groups are staged in column files and merged in a single rewrite.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class SpliceJunctionMatrix {
+
+    static final String JUNCTION_HEADER = "junction";
+    static final String SPARSE_HEADER = JUNCTION_HEADER + "\tsample\tcount";
+
+    public static final int DENSE = 0;
+    public static final int SPARSE = 1;
+    public static final int BINARY = 2;
+
+    private SpliceJunctionMap spliceJunctionMap;
+    private SpliceJunctionIndex spliceJunctionIndex;
+
+    public SpliceJunctionMatrix(SpliceJunctionMap spliceJunctionMap, SpliceJunctionIndex spliceJunctionIndex) {
+        this.spliceJunctionMap = spliceJunctionMap;
+        this.spliceJunctionIndex = spliceJunctionIndex;
+    }
+
+    /**
+     * Creates a new matrix file containing the input samples.
+     * counts contains one array per sample indexed by junction index.
+     */
+    public void write(String matrixFile, List<String> samples, List<int[]> counts, boolean isSparse) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(matrixFile, false));
+
+        try {
+            if (isSparse) {
+                writer.write(SPARSE_HEADER);
+                writer.write('\n');
+                writeSparseRows(writer, samples, counts);
+            } else {
+                StringBuilder header = new StringBuilder(JUNCTION_HEADER);
+                for (String sample : samples) {
+                    header.append('\t');
+                    header.append(sample);
+                }
+                header.append('\n');
+                writer.write(header.toString());
+
+                StringBuilder row = new StringBuilder();
+                for (SpliceJunction junction : spliceJunctionMap.getAllSpliceJunctions()) {
+                    row.setLength(0);
+                    row.append(spliceJunctionMap.getJunctionKey(junction));
+                    appendCounts(row, spliceJunctionIndex.indexOf(junction), counts);
+                    row.append('\n');
+                    writer.write(row.toString());
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Creates a new binary matrix file containing the input samples.
+     */
+    public void writeBinary(String matrixFile, List<String> samples, List<int[]> counts) throws IOException {
+        List<String> junctionKeys = new ArrayList<String>();
+        for (SpliceJunction junction : spliceJunctionMap.getAllSpliceJunctions()) {
+            junctionKeys.add(spliceJunctionMap.getJunctionKey(junction));
+        }
+
+        addBinaryColumns(BinaryMatrixWriter.create(matrixFile, junctionKeys, BinaryMatrix.INT64), samples, counts);
+    }
+
+    /**
+     * Returns the encoding ({@code DENSE}, {@code SPARSE} or {@code BINARY}) of an existing matrix file.
+     */
+    public static int getEncoding(String matrixFile) throws IOException {
+        if (BinaryMatrix.isBinaryMatrix(matrixFile)) {
+            return BINARY;
+        }
+
+        BufferedReader reader = new BufferedReader(new FileReader(matrixFile));
+        try {
+            return getEncoding(matrixFile, reader.readLine());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static int getEncoding(String matrixFile, String header) {
+        if (header == null || !header.startsWith(JUNCTION_HEADER)) {
+            throw new IllegalArgumentException("Invalid junction matrix: " + matrixFile);
+        }
+
+        return header.equals(SPARSE_HEADER) ? SPARSE : DENSE;
+    }
+
+    /**
+     * Returns the names of the samples in an existing matrix file.  Sparse matrices are
+     * scanned, so samples without any non zero counts are not returned.
+     */
+    public static Set<String> getSamples(String matrixFile) throws IOException {
+        Set<String> samples = new HashSet<String>();
+
+        if (BinaryMatrix.isBinaryMatrix(matrixFile)) {
+            RandomAccessFile file = new RandomAccessFile(matrixFile, "r");
+            try {
+                samples.addAll(Arrays.asList(BinaryMatrix.readHeader(file, matrixFile).columns));
+            } finally {
+                file.close();
+            }
+            return samples;
+        }
+
+        BufferedReader reader = new BufferedReader(new FileReader(matrixFile));
+        try {
+            String header = reader.readLine();
+
+            if (getEncoding(matrixFile, header) == SPARSE) {
+                String line = reader.readLine();
+                while (line != null) {
+                    String[] fields = line.split("\t");
+                    if (fields.length != 3) {
+                        throw new IllegalArgumentException("Invalid junction matrix line: " + line + " in: " + matrixFile);
+                    }
+                    samples.add(fields[1]);
+                    line = reader.readLine();
+                }
+            } else {
+                String[] headerFields = header.split("\t");
+                for (int i=1; i<headerFields.length; i++) {
+                    samples.add(headerFields[i]);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return samples;
+    }
+
+    /**
+     * Adds the input samples to an existing matrix file.  The file's encoding is retained.
+     */
+    public void append(String matrixFile, List<String> samples, List<int[]> counts) throws IOException {
+        int encoding = getEncoding(matrixFile);
+
+        if (encoding == BINARY) {
+            appendBinary(matrixFile, samples, counts);
+        } else if (encoding == SPARSE) {
+            Set<String> existingSamples = getSamples(matrixFile);
+            for (String sample : samples) {
+                if (existingSamples.contains(sample)) {
+                    throw new IllegalArgumentException("Sample: " + sample + " already in junction matrix: " + matrixFile);
+                }
+            }
+
+            appendSparse(matrixFile, samples, counts);
+        } else {
+            String columnFile = writeDenseColumns(matrixFile, counts);
+            try {
+                mergeDense(matrixFile, true, samples, Arrays.asList(columnFile));
+            } finally {
+                new File(columnFile).delete();
+            }
+        }
+    }
+
+    /**
+     * Appends sparse rows without checking for samples already in the matrix.
+     */
+    void appendSparse(String matrixFile, List<String> samples, List<int[]> counts) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(matrixFile, true));
+        try {
+            writeSparseRows(writer, samples, counts);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the counts for a group of samples to a temporary column file alongside the matrix
+     * file for a later {@code mergeDense}.  Each line contains the tab prefixed counts for one
+     * junction in junction file order.  Returns the column file name.
+     */
+    public String writeDenseColumns(String matrixFile, List<int[]> counts) throws IOException {
+        File dir = new File(matrixFile).getAbsoluteFile().getParentFile();
+        File columnFile = File.createTempFile("junction_columns", ".tmp", dir);
+        BufferedWriter writer = new BufferedWriter(new FileWriter(columnFile, false));
+        boolean isComplete = false;
+
+        try {
+            StringBuilder row = new StringBuilder();
+            for (SpliceJunction junction : spliceJunctionMap.getAllSpliceJunctions()) {
+                row.setLength(0);
+                appendCounts(row, spliceJunctionIndex.indexOf(junction), counts);
+                row.append('\n');
+                writer.write(row.toString());
+            }
+
+            isComplete = true;
+        } finally {
+            writer.close();
+
+            if (!isComplete) {
+                columnFile.delete();
+            }
+        }
+
+        return columnFile.getAbsolutePath();
+    }
+
+    /**
+     * Writes a dense matrix containing the columns of the existing matrix file (if isAppend)
+     * followed by the samples in the column files, in order.  The matrix is written once
+     * via a temporary file, so the existing matrix is retained on failure.
+     */
+    public void mergeDense(String matrixFile, boolean isAppend, List<String> samples, List<String> columnFiles) throws IOException {
+        List<BufferedReader> readers = new ArrayList<BufferedReader>();
+        File file = new File(matrixFile);
+        File temp = new File(matrixFile + ".tmp");
+        BufferedWriter writer = null;
+        boolean isComplete = false;
+
+        try {
+            BufferedReader matrixReader = null;
+            StringBuilder row = new StringBuilder();
+
+            if (isAppend) {
+                matrixReader = new BufferedReader(new FileReader(matrixFile));
+                readers.add(matrixReader);
+
+                String header = matrixReader.readLine();
+                if (getEncoding(matrixFile, header) != DENSE) {
+                    throw new IllegalArgumentException("Junction matrix: " + matrixFile + " is not a dense matrix");
+                }
+
+                Set<String> existingSamples = new HashSet<String>(Arrays.asList(header.split("\t")));
+                existingSamples.remove(JUNCTION_HEADER);
+                for (String sample : samples) {
+                    if (existingSamples.contains(sample)) {
+                        throw new IllegalArgumentException("Sample: " + sample + " already in junction matrix: " + matrixFile);
+                    }
+                }
+
+                row.append(header);
+            } else {
+                row.append(JUNCTION_HEADER);
+            }
+
+            for (String sample : samples) {
+                row.append('\t');
+                row.append(sample);
+            }
+            row.append('\n');
+
+            List<BufferedReader> columnReaders = new ArrayList<BufferedReader>();
+            for (String columnFile : columnFiles) {
+                BufferedReader columnReader = new BufferedReader(new FileReader(columnFile));
+                readers.add(columnReader);
+                columnReaders.add(columnReader);
+            }
+
+            writer = new BufferedWriter(new FileWriter(temp, false));
+            writer.write(row.toString());
+
+            for (SpliceJunction junction : spliceJunctionMap.getAllSpliceJunctions()) {
+                String junctionKey = spliceJunctionMap.getJunctionKey(junction);
+                row.setLength(0);
+
+                if (matrixReader != null) {
+                    String line = matrixReader.readLine();
+
+                    if ((line == null) || (!line.startsWith(junctionKey)) ||
+                        (line.length() > junctionKey.length() && line.charAt(junctionKey.length()) != '\t')) {
+                        throw new IllegalArgumentException("Junction matrix: " + matrixFile + " does not match junction file at: " + junctionKey);
+                    }
+
+                    row.append(line);
+                } else {
+                    row.append(junctionKey);
+                }
+
+                for (BufferedReader columnReader : columnReaders) {
+                    String columns = columnReader.readLine();
+                    if (columns == null) {
+                        throw new IOException("Incomplete column file for junction matrix: " + matrixFile);
+                    }
+                    row.append(columns);
+                }
+
+                row.append('\n');
+                writer.write(row.toString());
+            }
+
+            if ((matrixReader != null) && (matrixReader.readLine() != null)) {
+                throw new IllegalArgumentException("Junction matrix: " + matrixFile + " contains more junctions than the junction file");
+            }
+
+            isComplete = true;
+        } finally {
+            for (BufferedReader reader : readers) {
+                reader.close();
+            }
+
+            if (writer != null) {
+                writer.close();
+            }
+
+            if (!isComplete) {
+                temp.delete();
+            }
+        }
+
+        if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+            throw new IOException("Unable to replace junction matrix: " + matrixFile + " with: " + temp);
+        }
+    }
+
+    private void appendBinary(String matrixFile, List<String> samples, List<int[]> counts) throws IOException {
+        BinaryMatrixWriter writer = BinaryMatrixWriter.append(matrixFile);
+        List<String> rows = writer.getRowNames();
+
+        int i = 0;
+        for (SpliceJunction junction : spliceJunctionMap.getAllSpliceJunctions()) {
+            String junctionKey = spliceJunctionMap.getJunctionKey(junction);
+
+            if ((i >= rows.size()) || (!rows.get(i).equals(junctionKey))) {
+                writer.abort();
+                throw new IllegalArgumentException("Junction matrix: " + matrixFile + " does not match junction file at: " + junctionKey);
+            }
+            i++;
+        }
+
+        if (i != rows.size()) {
+            writer.abort();
+            throw new IllegalArgumentException("Junction matrix: " + matrixFile + " contains more junctions than the junction file");
+        }
+
+        addBinaryColumns(writer, samples, counts);
+    }
+
+    /**
+     * Adds a column per sample in junction file order and closes the writer.  If any
+     * sample fails, the writer is aborted so none of the samples are added.
+     */
+    private void addBinaryColumns(BinaryMatrixWriter writer, List<String> samples, List<int[]> counts) throws IOException {
+        List<SpliceJunction> junctions = spliceJunctionMap.getAllSpliceJunctions();
+        long[] column = new long[junctions.size()];
+        boolean isComplete = false;
+
+        try {
+            for (int i=0; i<samples.size(); i++) {
+                int[] sampleCounts = counts.get(i);
+
+                int row = 0;
+                for (SpliceJunction junction : junctions) {
+                    column[row++] = sampleCounts[spliceJunctionIndex.indexOf(junction)];
+                }
+
+                writer.addColumn(samples.get(i), column);
+            }
+
+            isComplete = true;
+        } finally {
+            if (!isComplete) {
+                writer.abort();
+            }
+        }
+
+        writer.close();
+    }
+
+    private void writeSparseRows(BufferedWriter writer, List<String> samples, List<int[]> counts) throws IOException {
+        StringBuilder row = new StringBuilder();
+
+        for (SpliceJunction junction : spliceJunctionMap.getAllSpliceJunctions()) {
+            String junctionKey = spliceJunctionMap.getJunctionKey(junction);
+            int idx = spliceJunctionIndex.indexOf(junction);
+
+            for (int i=0; i<samples.size(); i++) {
+                int count = counts.get(i)[idx];
+                if (count != 0) {
+                    row.setLength(0);
+                    row.append(junctionKey);
+                    row.append('\t');
+                    row.append(samples.get(i));
+                    row.append('\t');
+                    row.append(count);
+                    row.append('\n');
+                    writer.write(row.toString());
+                }
+            }
+        }
+    }
+
+    private void appendCounts(StringBuilder row, int idx, List<int[]> counts) {
+        for (int[] sampleCounts : counts) {
+            row.append('\t');
+            row.append(sampleCounts[idx]);
+        }
+    }
+}
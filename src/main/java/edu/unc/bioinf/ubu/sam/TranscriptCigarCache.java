@@ -0,0 +1,120 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.samtools.Cigar;
+import net.sf.samtools.CigarElement;
+import net.sf.samtools.CigarOperator;
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Bounded LRU cache of transcript cigars keyed by genomic cigar string.
+ * RNA-seq alignments contain relatively few distinct cigars, so the intron stripped
+ * positive and negative strand cigars are computed once per distinct cigar.
+ * <p>
+ * Cached Cigars are shared between output records and must not be modified.
+ * Not thread safe.  Each converter owns its own cache.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class TranscriptCigarCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private Map<String, TranscriptCigars> cache;
+    private long hits = 0;
+    private long misses = 0;
+
+    public TranscriptCigarCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public TranscriptCigarCache(final int maxSize) {
+        cache = new LinkedHashMap<String, TranscriptCigars>(16, .75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TranscriptCigars> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the transcript cigars for the input read.
+     */
+    public TranscriptCigars get(SAMRecord read) {
+        String key = read.getCigarString();
+        TranscriptCigars cigars = cache.get(key);
+
+        if (cigars == null) {
+            misses++;
+            cigars = new TranscriptCigars(stripIntrons(read.getCigar()));
+            cache.put(key, cigars);
+        } else {
+            hits++;
+        }
+
+        return cigars;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    static List<CigarElement> stripIntrons(Cigar cigar) {
+        List<CigarElement> elements = new ArrayList<CigarElement>(cigar.numCigarElements());
+
+        for (CigarElement element : cigar.getCigarElements()) {
+            // Omit introns
+            if (element.getOperator() != CigarOperator.N) {
+                int last = elements.size() - 1;
+
+                // Combine contiguous elements with the same operator
+                if ((last >= 0) && (elements.get(last).getOperator() == element.getOperator())) {
+                    elements.set(last, new CigarElement(elements.get(last).getLength() + element.getLength(), element.getOperator()));
+                } else {
+                    elements.add(element);
+                }
+            }
+        }
+
+        return elements;
+    }
+
+    /**
+     * Intron stripped cigars for a single genomic cigar.
+     */
+    public static class TranscriptCigars {
+        private Cigar positiveCigar;
+        private Cigar negativeCigar;
+
+        TranscriptCigars(List<CigarElement> elements) {
+            positiveCigar = new Cigar(elements);
+
+            List<CigarElement> reversed = new ArrayList<CigarElement>(elements);
+            Collections.reverse(reversed);
+            negativeCigar = new Cigar(reversed);
+        }
+
+        public Cigar getPositiveStrandCigar() {
+            return positiveCigar;
+        }
+
+        public Cigar getNegativeStrandCigar() {
+            return negativeCigar;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package edu.unc.bioinf.ubu.sam;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+
+import net.sf.samtools.BAMRecordCodec;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
+import net.sf.samtools.util.CloseableIterator;
+import net.sf.samtools.util.SortingCollection;
+
+/**
+ * SAMFileWriter that produces a coordinate sorted, indexed transcriptome BAM without a
+ * separate sort of the full output.
+ * <p>
+ * Records are partitioned into spill files by isoform bucket, where each bucket covers a
+ * contiguous range of header reference indices.  On close, each bucket is sorted and
+ * appended to the output in bucket order.  Buckets are sorted with a {@code SortingCollection},
+ * which spills sorted runs to the temp directory once a bucket exceeds the maximum number
+ * of records in memory, so memory use is bounded regardless of bucket size.
+ * <p>
+ * Each bucket that receives records keeps its spill BAM writer open until close, so up to
+ * the number of buckets (at most {@link #MAX_NUM_BUCKETS}) files are open at once, in
+ * addition to the output and index.  Keep the number of buckets below the process open
+ * file limit.  Spill writers are closed before merging, and a bucket being sorted opens
+ * one file per spilled run.
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class TranscriptomeBucketWriter implements SAMFileWriter {
+
+    public static final int DEFAULT_NUM_BUCKETS = 512;
+
+    // Bounds the number of simultaneously open spill files
+    public static final int MAX_NUM_BUCKETS = 1000;
+
+    public static final int DEFAULT_MAX_RECORDS_IN_RAM = 500000;
+
+    // Spill files are short lived, so favor speed over size
+    private static final int SPILL_COMPRESSION_LEVEL = 1;
+
+    private SAMFileHeader header;
+    private SAMFileHeader spillHeader;
+    private File outputFile;
+    private File tempDir;
+    private int numReferences;
+    private int numBuckets;
+    private File[] bucketFiles;
+    private SAMFileWriter[] bucketWriters;
+    private long numRecords = 0;
+    private int maxRecordsInRam = DEFAULT_MAX_RECORDS_IN_RAM;
+
+    /**
+     * The output header is a copy of the specified header, so the caller's header is not modified.
+     */
+    public TranscriptomeBucketWriter(SAMFileHeader header, File outputFile, int numBuckets, File tempDir) {
+        this.header = header.clone();
+        this.header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        this.outputFile = outputFile;
+        this.tempDir = tempDir != null ? tempDir : new File(System.getProperty("java.io.tmpdir"));
+        this.numReferences = Math.max(1, header.getSequenceDictionary().size());
+        this.numBuckets = Math.max(1, Math.min(Math.min(numBuckets, MAX_NUM_BUCKETS), numReferences));
+        this.bucketFiles = new File[this.numBuckets];
+        this.bucketWriters = new SAMFileWriter[this.numBuckets];
+
+        // Spill files are written in arrival order
+        this.spillHeader = header.clone();
+        this.spillHeader.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+    }
+
+    @Override
+    public void addAlignment(SAMRecord read) {
+        int bucket = getBucket(read.getReferenceIndex());
+
+        if (bucketWriters[bucket] == null) {
+            bucketWriters[bucket] = openBucket(bucket);
+        }
+
+        bucketWriters[bucket].addAlignment(read);
+        numRecords++;
+    }
+
+    @Override
+    public SAMFileHeader getFileHeader() {
+        return header;
+    }
+
+    /**
+     * Merges the buckets into the sorted output and creates the BAM index.
+     */
+    @Override
+    public void close() {
+        for (SAMFileWriter writer : bucketWriters) {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+
+        System.out.println("Merging " + numRecords + " records from isoform buckets");
+
+        SAMFileWriter output = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, true, outputFile);
+        Comparator<SAMRecord> comparator = new TranscriptCoordinateComparator();
+
+        for (int i=0; i<numBuckets; i++) {
+            if (bucketFiles[i] != null) {
+                SortingCollection<SAMRecord> reads = sortBucket(bucketFiles[i], comparator);
+
+                try {
+                    CloseableIterator<SAMRecord> iter = reads.iterator();
+                    while (iter.hasNext()) {
+                        output.addAlignment(iter.next());
+                    }
+                    iter.close();
+                } finally {
+                    reads.cleanup();
+                }
+
+                bucketFiles[i].delete();
+            }
+        }
+
+        output.close();
+    }
+
+    /**
+     * Maximum number of records held in memory while sorting a bucket.  Larger buckets are
+     * sorted in runs spilled to the temp directory.
+     */
+    public void setMaxRecordsInRam(int maxRecordsInRam) {
+        this.maxRecordsInRam = maxRecordsInRam;
+    }
+
+    int getBucket(int referenceIndex) {
+        return (int) ((long) referenceIndex * numBuckets / numReferences);
+    }
+
+    private SAMFileWriter openBucket(int bucket) {
+        try {
+            bucketFiles[bucket] = File.createTempFile("xlate_bucket_" + bucket + "_", ".bam", tempDir);
+            bucketFiles[bucket].deleteOnExit();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to create isoform bucket spill file", e);
+        }
+
+        return new SAMFileWriterFactory().makeBAMWriter(spillHeader, true, bucketFiles[bucket], SPILL_COMPRESSION_LEVEL);
+    }
+
+    private SortingCollection<SAMRecord> sortBucket(File bucketFile, Comparator<SAMRecord> comparator) {
+        SortingCollection<SAMRecord> reads = SortingCollection.newInstance(SAMRecord.class,
+                new BAMRecordCodec(header), comparator, maxRecordsInRam, tempDir);
+
+        SAMFileReader reader = new SAMFileReader(bucketFile);
+        reader.setValidationStringency(ValidationStringency.SILENT);
+
+        for (SAMRecord read : reader) {
+            read.setHeader(header);
+            reads.add(read);
+        }
+
+        reader.close();
+        reads.doneAdding();
+
+        return reads;
+    }
+
+    /**
+     * Orders records by reference index, then position.  Ties are broken by strand and
+     * read name so that output is deterministic.
+     */
+    static class TranscriptCoordinateComparator implements Comparator<SAMRecord> {
+
+        @Override
+        public int compare(SAMRecord read1, SAMRecord read2) {
+            int ref1 = read1.getReferenceIndex();
+            int ref2 = read2.getReferenceIndex();
+            if (ref1 != ref2) {
+                return ref1 < ref2 ? -1 : 1;
+            }
+
+            int start1 = read1.getAlignmentStart();
+            int start2 = read2.getAlignmentStart();
+            if (start1 != start2) {
+                return start1 < start2 ? -1 : 1;
+            }
+
+            if (read1.getReadNegativeStrandFlag() != read2.getReadNegativeStrandFlag()) {
+                return read1.getReadNegativeStrandFlag() ? 1 : -1;
+            }
+
+            return read1.getReadName().compareTo(read2.getReadName());
+        }
+    }
+}
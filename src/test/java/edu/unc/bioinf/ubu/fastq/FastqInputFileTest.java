@@ -4,6 +4,7 @@ import static edu.unc.bioinf.ubu.fastq.FastqTestData.*;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.fail;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
@@ -21,6 +22,9 @@ public class FastqInputFileTest {
     private static final String TEST_FASTQ_FILE = "src/test/java/edu/unc/bioinf/ubu/fastq/testdata/input.fastq";
     private static final int MAX_LINES_TO_CACHE = 3;
     
+    // 12 records
+    private static final String TEST_INDEXED_FASTQ_FILE = "src/test/java/edu/unc/bioinf/ubu/fastq/testdata/scatter_input.fastq";
+    
     private FastqInputFile file;
     
     @BeforeMethod(groups = "unit")
@@ -127,4 +131,114 @@ public class FastqInputFileTest {
         rec = file.getNextRecord();
         assertEquals(rec, null);
     }
+    
+    @Test(groups = "unit")
+    public void testSeekToRecord() throws Exception {
+        FastqIndex.build(TEST_INDEXED_FASTQ_FILE, 5).write(TEST_INDEXED_FASTQ_FILE);
+        
+        try {
+            FastqInputFile sequential = new FastqInputFile();
+            sequential.init(TEST_INDEXED_FASTQ_FILE);
+            FastqRecord[] expected = new FastqRecord[12];
+            for (int i=0; i<12; i++) {
+                expected[i] = sequential.getNextRecord();
+            }
+            sequential.close();
+            
+            FastqInputFile indexed = new FastqInputFile();
+            indexed.init(TEST_INDEXED_FASTQ_FILE);
+            assertEquals(indexed.getIndex().getNumRecords(), 12);
+            
+            for (int i : new int[] { 7, 1, 12, 5, 6, 11 }) {
+                indexed.seekToRecord(i);
+                assertEquals(indexed.getNextRecord(), expected[i-1]);
+            }
+            
+            indexed.seekToRecord(13);
+            assertEquals(indexed.getNextRecord(), null);
+            indexed.close();
+        } finally {
+            new File(FastqIndex.getIndexFilename(TEST_INDEXED_FASTQ_FILE)).delete();
+        }
+    }
+    
+    @Test(groups = "unit")
+    public void testSplit() throws Exception {
+        FastqIndex.build(TEST_INDEXED_FASTQ_FILE, 2).write(TEST_INDEXED_FASTQ_FILE);
+        
+        try {
+            FastqInputFile sequential = new FastqInputFile();
+            sequential.init(TEST_INDEXED_FASTQ_FILE);
+            
+            FastqRange[] ranges = sequential.split(4);
+            assertEquals(ranges.length, 4);
+            
+            long expectedFirst = 0;
+            for (FastqRange range : ranges) {
+                assertEquals(range.getFirstRecord(), expectedFirst);
+                
+                FastqInputFile part = new FastqInputFile();
+                part.init(TEST_INDEXED_FASTQ_FILE, range);
+                for (int i=0; i<range.getNumRecords(); i++) {
+                    assertEquals(part.getNextRecord(), sequential.getNextRecord());
+                }
+                assertEquals(part.getNextRecord(), null);
+                part.close();
+                
+                expectedFirst += range.getNumRecords();
+            }
+            
+            assertEquals(expectedFirst, 12);
+            assertEquals(sequential.getNextRecord(), null);
+            sequential.close();
+        } finally {
+            new File(FastqIndex.getIndexFilename(TEST_INDEXED_FASTQ_FILE)).delete();
+        }
+    }
+    
+    @Test(groups = "unit")
+    public void testEnableIndexing() throws Exception {
+        try {
+            FastqInputFile in = new FastqInputFile();
+            in.init(TEST_INDEXED_FASTQ_FILE);
+            in.enableIndexing();
+            while (in.getNextRecord() != null);
+            in.close();
+            
+            FastqIndex index = FastqIndex.load(TEST_INDEXED_FASTQ_FILE);
+            assertEquals(index.getNumRecords(), 12);
+        } finally {
+            new File(FastqIndex.getIndexFilename(TEST_INDEXED_FASTQ_FILE)).delete();
+        }
+    }
+    
+    @Test(groups = "unit")
+    public void testEnableIndexingRange() throws Exception {
+        FastqIndex.build(TEST_INDEXED_FASTQ_FILE, 2).write(TEST_INDEXED_FASTQ_FILE);
+        
+        try {
+            FastqInputFile sequential = new FastqInputFile();
+            sequential.init(TEST_INDEXED_FASTQ_FILE);
+            FastqRange[] ranges = sequential.split(4);
+            sequential.close();
+            new File(FastqIndex.getIndexFilename(TEST_INDEXED_FASTQ_FILE)).delete();
+            
+            // The first range starts at record 0, but covers only part of the file
+            FastqInputFile part = new FastqInputFile();
+            part.init(TEST_INDEXED_FASTQ_FILE, ranges[0]);
+            try {
+                part.enableIndexing();
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException e) {
+                assertEquals(e.getMessage(), "Indexing requires reading the whole file: " + TEST_INDEXED_FASTQ_FILE);
+            }
+            
+            while (part.getNextRecord() != null);
+            part.close();
+            
+            assertEquals(new File(FastqIndex.getIndexFilename(TEST_INDEXED_FASTQ_FILE)).exists(), false);
+        } finally {
+            new File(FastqIndex.getIndexFilename(TEST_INDEXED_FASTQ_FILE)).delete();
+        }
+    }
 }
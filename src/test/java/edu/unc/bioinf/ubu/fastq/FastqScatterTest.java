@@ -0,0 +1,158 @@
+package edu.unc.bioinf.ubu.fastq;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import edu.unc.bioinf.ubu.util.FileLoader;
+
+/**
+ * Unit tests for {@code FastqScatter}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class FastqScatterTest {
+
+	private static final String TEST_DIR = "src/test/java/edu/unc/bioinf/ubu/fastq/testdata/";
+
+	// 12 records.  Some quality lines begin with '@'
+	private static final String INPUT = TEST_DIR + "scatter_input.fastq";
+	private static final String OUTPUT_PREFIX = TEST_DIR + "scatter_out";
+	private static final int NUM_RECORDS = 12;
+
+	@BeforeMethod(groups = "unit")
+	public void cleanup() {
+		for (int i=0; i<NUM_RECORDS; i++) {
+			new File(OUTPUT_PREFIX + "." + String.format("%03d", i) + ".fastq").delete();
+			new File(OUTPUT_PREFIX + "." + String.format("%03d", i) + "_1.fastq").delete();
+			new File(OUTPUT_PREFIX + "." + String.format("%03d", i) + "_2.fastq").delete();
+		}
+	}
+
+	@Test(groups = "unit")
+	public void testFindRecordStart() throws Exception {
+		RandomAccessFile file = new RandomAccessFile(INPUT, "r");
+		FastqByteReader reader = new FastqByteReader(INPUT);
+		FastqByteRecord rec = new FastqByteRecord();
+
+		long prevStart = 0;
+		while (reader.next(rec)) {
+			// Every offset after the previous record start resolves to the current record
+			for (long offset = prevStart+1; offset <= rec.getOffset(); offset++) {
+				assertEquals(FastqByteReader.findRecordStart(file, offset), rec.getOffset());
+			}
+			prevStart = rec.getOffset();
+		}
+
+		assertEquals(FastqByteReader.findRecordStart(file, prevStart+1), file.length());
+
+		reader.close();
+		file.close();
+	}
+
+	@Test(groups = "unit")
+	public void testSplitTruncatedInput() throws Exception {
+		File truncated = File.createTempFile("truncated", ".fastq");
+		truncated.deleteOnExit();
+		FileWriter writer = new FileWriter(truncated);
+		writer.write("@read1\nACGT\n+\nIIII\n@read2\nACGT\n");
+		writer.close();
+
+		FastqScatter scatter = new FastqScatter();
+
+		// Fails rather than hanging on the started writer threads
+		try {
+			scatter.splitRoundRobin(truncated.getAbsolutePath(), OUTPUT_PREFIX, 2);
+			throw new AssertionError("Expected incomplete record");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Incomplete fastq record"));
+		}
+
+		try {
+			scatter.splitByRecords(truncated.getAbsolutePath(), OUTPUT_PREFIX, 1);
+			throw new AssertionError("Expected incomplete record");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Incomplete fastq record"));
+		}
+	}
+
+	@Test(groups = "unit")
+	public void testSplitByBytes() throws Exception {
+		FastqScatter scatter = new FastqScatter();
+		scatter.setNumThreads(3);
+		scatter.splitByBytes(INPUT, OUTPUT_PREFIX, 100);
+
+		List<Long> boundaries = FastqScatter.getChunkBoundaries(INPUT, 100);
+		assertTrue(boundaries.size() > 2);
+
+		FileLoader fileLoader = new FileLoader();
+		StringBuffer combined = new StringBuffer();
+		for (int i=0; i<boundaries.size()-1; i++) {
+			combined.append(fileLoader.loadFileContent(OUTPUT_PREFIX + "." + String.format("%03d", i) + ".fastq"));
+		}
+
+		assertEquals(combined.toString(), fileLoader.loadFileContent(INPUT));
+	}
+
+	@Test(groups = "unit")
+	public void testSplitByRecords() throws Exception {
+		FastqScatter scatter = new FastqScatter();
+		scatter.splitByRecords(INPUT, OUTPUT_PREFIX, 5);
+
+		FileLoader fileLoader = new FileLoader();
+		String chunk1 = fileLoader.loadFileContent(OUTPUT_PREFIX + ".000.fastq");
+		String chunk2 = fileLoader.loadFileContent(OUTPUT_PREFIX + ".001.fastq");
+		String chunk3 = fileLoader.loadFileContent(OUTPUT_PREFIX + ".002.fastq");
+
+		assertEquals(chunk1.split("\n").length, 20);
+		assertEquals(chunk2.split("\n").length, 20);
+		assertEquals(chunk3.split("\n").length, 8);
+		assertEquals(chunk1 + chunk2 + chunk3, fileLoader.loadFileContent(INPUT));
+	}
+
+	@Test(groups = "unit")
+	public void testSplitRoundRobin_paired() throws Exception {
+		FastqScatter scatter = new FastqScatter();
+		scatter.setPaired(true);
+		scatter.setSplitPosition(10);
+		scatter.splitRoundRobin(INPUT, OUTPUT_PREFIX, 2);
+
+		FastqInputFile in = new FastqInputFile();
+		in.init(INPUT);
+		FastqInputFile[] ends1 = new FastqInputFile[] { new FastqInputFile(), new FastqInputFile() };
+		FastqInputFile[] ends2 = new FastqInputFile[] { new FastqInputFile(), new FastqInputFile() };
+		for (int i=0; i<2; i++) {
+			ends1[i].init(OUTPUT_PREFIX + ".00" + i + "_1.fastq");
+			ends2[i].init(OUTPUT_PREFIX + ".00" + i + "_2.fastq");
+		}
+
+		for (int i=0; i<NUM_RECORDS; i++) {
+			FastqRecord rec = in.getNextRecord();
+			FastqRecord end1 = ends1[i % 2].getNextRecord();
+			FastqRecord end2 = ends2[i % 2].getNextRecord();
+
+			assertEquals(end1.getId(), rec.getId() + "/1");
+			assertEquals(end2.getId(), rec.getId() + "/2");
+			assertEquals(end1.getSequence(), rec.getSequence().substring(0, 10));
+			assertEquals(end2.getSequence(), rec.getSequence().substring(10));
+			assertEquals(end1.getQuality(), rec.getQuality().substring(0, 10));
+			assertEquals(end2.getQuality(), rec.getQuality().substring(10));
+		}
+
+		in.close();
+		for (int i=0; i<2; i++) {
+			assertEquals(ends1[i].getNextRecord(), null);
+			assertEquals(ends2[i].getNextRecord(), null);
+			ends1[i].close();
+			ends2[i].close();
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package edu.unc.bioinf.ubu.fastq;
+
+import static org.testng.Assert.assertEquals;
+
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code MatePairer}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class MatePairerTest {
+
+	private static final int NUM_PAIRS = 1000;
+
+	@Test(groups = "unit")
+	public void testPairing_inMemory() throws Exception {
+		testPairing(Long.MAX_VALUE);
+	}
+
+	@Test(groups = "unit")
+	public void testPairing_spilled() throws Exception {
+		testPairing(2000);
+	}
+
+	@Test(groups = "unit")
+	public void testDuplicatesAndOrphans() throws Exception {
+		ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+		ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+		MatePairer pairer = new MatePairer(out1, out2, Long.MAX_VALUE, null);
+
+		pairer.add("a", 0, "a1\n".getBytes());
+		pairer.add("a", 0, "a1dupe\n".getBytes());
+		pairer.add("b", 1, "b2\n".getBytes());
+		pairer.add("a", 1, "a2\n".getBytes());
+		pairer.finish();
+
+		assertEquals(out1.toString(), "a1\n");
+		assertEquals(out2.toString(), "a2\n");
+		assertEquals(pairer.getNumPairs(), 1);
+		assertEquals(pairer.getNumDuplicates(), 1);
+		assertEquals(pairer.getNumOrphans(), 1);
+	}
+
+	@Test(groups = "unit")
+	public void testPairing_splitPartitions() throws Exception {
+		MatePairer pairer = testPairing(500);
+		assertTrue(pairer.getNumSplits() > 0);
+	}
+
+	@Test(groups = "unit")
+	public void testDuplicateRule_inMemory() throws Exception {
+		testDuplicateRule(Long.MAX_VALUE);
+	}
+
+	@Test(groups = "unit")
+	public void testDuplicateRule_partlySpilled() throws Exception {
+		testDuplicateRule(300);
+	}
+
+	@Test(groups = "unit")
+	public void testDuplicateRule_allSpilled() throws Exception {
+		// Every add exceeds the budget
+		testDuplicateRule(1);
+	}
+
+	/**
+	 * The same pairs, duplicates and orphans are expected regardless of which records are spilled.
+	 */
+	private void testDuplicateRule(long maxBytes) throws Exception {
+		ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+		ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+		MatePairer pairer = new MatePairer(out1, out2, maxBytes, null);
+
+		String[][] records = {
+			{ "a", "0", "a1" },
+			{ "a", "0", "a1dupe" },  // duplicate of the pending mate
+			{ "b", "1", "b2" },      // orphan
+			{ "a", "1", "a2" },
+			{ "a", "0", "a1late" },  // arrives after a is paired, so an orphan
+			{ "c", "0", "c1" },
+			{ "c", "1", "c2" },
+			{ "c", "1", "c2late" },  // orphan
+			{ "d", "1", "d2" },
+			{ "d", "0", "d1" },
+			{ "e", "0", "e1" },
+			{ "e", "1", "e2" },
+			{ "e", "1", "e2second" }, // a second pair for e
+			{ "e", "0", "e1second" },
+		};
+
+		for (String[] record : records) {
+			pairer.add(record[0], Integer.parseInt(record[1]), (record[2] + "\n").getBytes());
+		}
+
+		pairer.finish();
+
+		String[] lines1 = out1.toString().split("\n");
+		String[] lines2 = out2.toString().split("\n");
+		assertEquals(lines1.length, lines2.length);
+
+		// Spilled pairs are written at finish, so compare regardless of order
+		List<String> pairs = new ArrayList<String>();
+		for (int i=0; i<lines1.length; i++) {
+			pairs.add(lines1[i] + "," + lines2[i]);
+		}
+		Collections.sort(pairs);
+
+		List<String> expected = new ArrayList<String>();
+		Collections.addAll(expected, "a1,a2", "c1,c2", "d1,d2", "e1,e2", "e1second,e2second");
+
+		assertEquals(pairs, expected);
+		assertEquals(pairer.getNumPairs(), 5);
+		assertEquals(pairer.getNumDuplicates(), 1);
+		assertEquals(pairer.getNumOrphans(), 3);
+	}
+
+	private MatePairer testPairing(long maxBytes) throws Exception {
+		ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+		ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+		MatePairer pairer = new MatePairer(out1, out2, maxBytes, null);
+
+		// Second mates arrive in a different order than first mates, as in coordinate sorted input
+		for (int i=0; i<NUM_PAIRS; i++) {
+			pairer.add("read" + i, 0, ("read" + i + "/1\n").getBytes());
+			int mate = (i * 7 + 3) % NUM_PAIRS;
+			pairer.add("read" + mate, 1, ("read" + mate + "/2\n").getBytes());
+		}
+
+		pairer.finish();
+
+		String[] lines1 = out1.toString().split("\n");
+		String[] lines2 = out2.toString().split("\n");
+
+		assertEquals(lines1.length, NUM_PAIRS);
+		assertEquals(lines2.length, NUM_PAIRS);
+		assertEquals(pairer.getNumPairs(), NUM_PAIRS);
+		assertEquals(pairer.getNumOrphans(), 0);
+
+		Set<String> names = new HashSet<String>();
+		for (int i=0; i<NUM_PAIRS; i++) {
+			String name = lines1[i].substring(0, lines1[i].length()-2);
+			assertEquals(lines2[i], name + "/2");
+			names.add(name);
+		}
+
+		assertEquals(names.size(), NUM_PAIRS);
+
+		return pairer;
+	}
+}
@@ -0,0 +1,73 @@
+package edu.unc.bioinf.ubu.fastq;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code ReadNameIndex}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class ReadNameIndexTest {
+
+	@Test(groups = "unit")
+	public void testContains() {
+		ReadNameIndex index = new ReadNameIndex();
+		index.add("UNC16-SN851_55:2:1101:1487:1950");
+		index.add("UNC16-SN851_55:2:1101:1487:2001/1");
+		index.add("UNC16-SN851_55:2:1101:1487:2001/2");
+		index.freeze();
+
+		assertEquals(index.size(), 2);
+
+		assertTrue(index.contains("UNC16-SN851_55:2:1101:1487:1950"));
+		assertTrue(index.contains("UNC16-SN851_55:2:1101:1487:1950/2"));
+		assertTrue(index.contains("UNC16-SN851_55:2:1101:1487:2001"));
+		assertFalse(index.contains("UNC16-SN851_55:2:1101:1487:2002"));
+		assertFalse(index.contains("UNC16-SN851_55:2:1101:1487:195"));
+	}
+
+	@Test(groups = "unit")
+	public void testContainsFastqId() {
+		ReadNameIndex index = new ReadNameIndex();
+		index.add("UNC15-SN850:105:D047RACXX:1:1101:1242:2131");
+		index.freeze();
+
+		assertTrue(index.containsFastqId("@UNC15-SN850:105:D047RACXX:1:1101:1242:2131 1:N:0:ATCACG"));
+		assertTrue(index.containsFastqId("@UNC15-SN850:105:D047RACXX:1:1101:1242:2131/1"));
+		assertFalse(index.containsFastqId("@UNC15-SN850:105:D047RACXX:1:1101:1242:2132/1"));
+	}
+
+	@Test(groups = "unit")
+	public void testExact() {
+		ReadNameIndex index = new ReadNameIndex(true);
+		for (int i=0; i<10000; i+=2) {
+			index.add("read_" + i + "/1");
+			index.add("read_" + i + "/2");
+		}
+		index.freeze();
+
+		assertEquals(index.size(), 5000);
+
+		for (int i=0; i<10000; i++) {
+			assertEquals(index.containsFastqId("@read_" + i + "/1"), i % 2 == 0);
+		}
+	}
+
+	@Test(groups = "unit")
+	public void testLookupBeforeFreeze() {
+		ReadNameIndex index = new ReadNameIndex();
+		index.add("read1");
+
+		try {
+			index.contains("read1");
+			fail("Expected exception on lookup prior to freeze.");
+		} catch (IllegalStateException e) {
+			// OK - Exception is expected
+		}
+	}
+}
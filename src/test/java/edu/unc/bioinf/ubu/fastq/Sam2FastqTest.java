@@ -3,6 +3,9 @@ package edu.unc.bioinf.ubu.fastq;
 import static org.testng.Assert.assertEquals;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -42,4 +45,54 @@ public class Sam2FastqTest {
 		assertEquals(fileLoader.loadFileContent(PAIRED_END_OUT1), fileLoader.loadFileContent(PAIRED_END_EXPECTED_OUT1));
 		assertEquals(fileLoader.loadFileContent(PAIRED_END_OUT2), fileLoader.loadFileContent(PAIRED_END_EXPECTED_OUT2));
 	}
+	
+	@Test(groups = "unit")
+	public void testSam2Fastq_pairedEndMultiThreaded() throws Exception {
+		Sam2Fastq sam2Fastq = new Sam2Fastq();
+		sam2Fastq.setEndSuffixes("/1", "/2");
+		sam2Fastq.setNumThreads(3);
+		sam2Fastq.convert(TEST_PAIRED_END_SAM_FILE, PAIRED_END_OUT1, PAIRED_END_OUT2);
+		
+		FileLoader fileLoader = new FileLoader();
+		assertEquals(fileLoader.loadFileContent(PAIRED_END_OUT1), fileLoader.loadFileContent(PAIRED_END_EXPECTED_OUT1));
+		assertEquals(fileLoader.loadFileContent(PAIRED_END_OUT2), fileLoader.loadFileContent(PAIRED_END_EXPECTED_OUT2));
+	}
+	
+	@Test(groups = "unit")
+	public void testSam2Fastq_coordinateSortedSpilled() throws Exception {
+		Sam2Fastq sam2Fastq = new Sam2Fastq();
+		sam2Fastq.setEndSuffixes("/1", "/2");
+		
+		// Every mate exceeds the buffer, so all pairing is done from the spill files
+		sam2Fastq.setMateBufferBytes(1);
+		sam2Fastq.convertCoordinateSorted(TEST_PAIRED_END_SAM_FILE, PAIRED_END_OUT1, PAIRED_END_OUT2);
+		
+		// Spilled pairs are written in partition order
+		assertEquals(loadPairs(PAIRED_END_OUT1, PAIRED_END_OUT2), loadPairs(PAIRED_END_EXPECTED_OUT1, PAIRED_END_EXPECTED_OUT2));
+	}
+	
+	/**
+	 * Returns the sorted fastq records of each pair, joined by end.
+	 */
+	private List<String> loadPairs(String file1, String file2) throws Exception {
+		FileLoader fileLoader = new FileLoader();
+		String[] lines1 = fileLoader.loadFileContent(file1).split("\n");
+		String[] lines2 = fileLoader.loadFileContent(file2).split("\n");
+		assertEquals(lines1.length, lines2.length);
+		
+		List<String> pairs = new ArrayList<String>();
+		for (int i=0; i<lines1.length; i+=4) {
+			StringBuilder pair = new StringBuilder();
+			for (int j=i; j<i+4; j++) {
+				pair.append(lines1[j]).append('\n');
+			}
+			for (int j=i; j<i+4; j++) {
+				pair.append(lines2[j]).append('\n');
+			}
+			pairs.add(pair.toString());
+		}
+		
+		Collections.sort(pairs);
+		return pairs;
+	}
 }
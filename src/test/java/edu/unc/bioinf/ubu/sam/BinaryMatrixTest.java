@@ -0,0 +1,147 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code BinaryMatrix} and {@code BinaryMatrixWriter}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class BinaryMatrixTest {
+
+    private String matrixFile;
+
+    @BeforeMethod (groups = "unit")
+    public void setUp() throws IOException {
+        File file = File.createTempFile("matrix", BinaryMatrix.EXTENSION);
+        file.deleteOnExit();
+        matrixFile = file.getAbsolutePath();
+    }
+
+    @Test (groups = "unit")
+    public void testWriteAndRead() throws IOException {
+        BinaryMatrixWriter writer = BinaryMatrixWriter.create(matrixFile, Arrays.asList("GENEA", "GENEB", "GENEC"), BinaryMatrix.FLOAT64);
+        writer.addColumn("s1", new double[] { 1.5, 0, 3.25 });
+        writer.addColumn("s2", new double[] { 4, 5.5, 6 });
+        writer.close();
+
+        assertTrue(BinaryMatrix.isBinaryMatrix(matrixFile));
+
+        BinaryMatrix matrix = new BinaryMatrix(matrixFile);
+        assertEquals(matrix.getNumRows(), 3);
+        assertEquals(matrix.getNumColumns(), 2);
+        assertEquals(matrix.getColumnType(), BinaryMatrix.FLOAT64);
+        assertEquals(matrix.getRowName(1), "GENEB");
+        assertEquals(matrix.getColumnName(1), "s2");
+        assertEquals(matrix.getRowIndex("GENEC"), 2);
+        assertEquals(matrix.getColumnIndex("s1"), 0);
+        assertEquals(matrix.getRowIndex("GENEZ"), -1);
+
+        assertEquals(matrix.getDouble(0, 0), 1.5);
+        assertEquals(matrix.getDouble(2, 1), 6.0);
+        assertEquals(matrix.getLong(2, 0), 3);
+        assertTrue(Arrays.equals(matrix.getDoubleColumn(1, 1, 3), new double[] { 5.5, 6 }));
+        assertTrue(Arrays.equals(matrix.getDoubleRow(2, 0, 2), new double[] { 3.25, 6 }));
+        matrix.close();
+    }
+
+    @Test (groups = "unit")
+    public void testAppend() throws IOException {
+        BinaryMatrixWriter writer = BinaryMatrixWriter.create(matrixFile, Arrays.asList("J1", "J2"), BinaryMatrix.INT64);
+        writer.addColumn("s1", new long[] { 5, 0 });
+        writer.close();
+
+        writer = BinaryMatrixWriter.append(matrixFile);
+        assertEquals(writer.getRowNames(), Arrays.asList("J1", "J2"));
+        writer.addColumn("s2", new int[] { 1, 2 });
+        writer.addColumn("s3", new long[] { 0, 7 });
+        writer.close();
+
+        BinaryMatrix matrix = new BinaryMatrix(matrixFile);
+        assertEquals(matrix.getNumColumns(), 3);
+        assertEquals(matrix.getColumnNames(), Arrays.asList("s1", "s2", "s3"));
+        assertTrue(Arrays.equals(matrix.getLongRow(0, 0, 3), new long[] { 5, 1, 0 }));
+        assertTrue(Arrays.equals(matrix.getLongColumn(2, 0, 2), new long[] { 0, 7 }));
+        matrix.close();
+    }
+
+    @Test (groups = "unit")
+    public void testDuplicateSampleRetainsMatrix() throws IOException {
+        BinaryMatrixWriter writer = BinaryMatrixWriter.create(matrixFile, Arrays.asList("J1"), BinaryMatrix.INT64);
+        writer.addColumn("s1", new long[] { 5 });
+        writer.close();
+
+        writer = BinaryMatrixWriter.append(matrixFile);
+        try {
+            writer.addColumn("s1", new long[] { 6 });
+            throw new AssertionError("Expected duplicate sample");
+        } catch (IllegalArgumentException e) {
+            writer.close();
+        }
+
+        BinaryMatrix matrix = new BinaryMatrix(matrixFile);
+        assertEquals(matrix.getNumColumns(), 1);
+        assertEquals(matrix.getLong(0, 0), 5);
+        matrix.close();
+    }
+
+    @Test (groups = "unit")
+    public void testAppendUnchangedUntilClose() throws IOException {
+        BinaryMatrixWriter writer = BinaryMatrixWriter.create(matrixFile, Arrays.asList("J1", "J2"), BinaryMatrix.INT64);
+        writer.addColumn("s1", new long[] { 5, 0 });
+        writer.close();
+        long length = new File(matrixFile).length();
+
+        writer = BinaryMatrixWriter.append(matrixFile);
+        writer.addColumn("s2", new long[] { 1, 2 });
+
+        // Staged columns do not touch the existing footer
+        assertEquals(new File(matrixFile).length(), length);
+        BinaryMatrix matrix = new BinaryMatrix(matrixFile);
+        assertEquals(matrix.getColumnNames(), Arrays.asList("s1"));
+        matrix.close();
+
+        writer.abort();
+
+        matrix = new BinaryMatrix(matrixFile);
+        assertEquals(matrix.getColumnNames(), Arrays.asList("s1"));
+        assertEquals(matrix.getLong(0, 0), 5);
+        matrix.close();
+    }
+
+    @Test (groups = "unit")
+    public void testAbortDeletesNewMatrix() throws IOException {
+        BinaryMatrixWriter writer = BinaryMatrixWriter.create(matrixFile, Arrays.asList("GENEA"), BinaryMatrix.FLOAT64);
+        writer.addColumn("s1", new double[] { 1.5 });
+        writer.abort();
+
+        assertFalse(new File(matrixFile).exists());
+    }
+
+    @Test (groups = "unit")
+    public void testEmptyMatrix() throws IOException {
+        BinaryMatrixWriter.create(matrixFile, Arrays.asList("GENEA", "GENEB"), BinaryMatrix.INT64).close();
+
+        BinaryMatrix matrix = new BinaryMatrix(matrixFile);
+        assertEquals(matrix.getNumRows(), 2);
+        assertEquals(matrix.getNumColumns(), 0);
+        matrix.close();
+    }
+
+    @Test (groups = "unit")
+    public void testIsBinaryMatrix() throws IOException {
+        File file = File.createTempFile("matrix", ".txt");
+        file.deleteOnExit();
+
+        assertFalse(BinaryMatrix.isBinaryMatrix(file.getAbsolutePath()));
+    }
+}
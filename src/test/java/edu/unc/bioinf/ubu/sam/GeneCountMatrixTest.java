@@ -0,0 +1,91 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code GeneCountMatrix}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class GeneCountMatrixTest {
+
+	@Test (groups = "unit")
+	public void testCountCohort() throws Exception {
+		GeneCountMatrix.SampleCounter counter = new GeneCountMatrix.SampleCounter() {
+			@Override
+			public long[][] countSample(String inputFile, int numThreads) {
+				long base = Long.parseLong(inputFile) * 10;
+				return new long[][] { { base + 1, base + 2 }, { base, base + 1 } };
+			}
+		};
+
+		File output = File.createTempFile("gene_matrix", ".tsv");
+		output.deleteOnExit();
+
+		new GeneCountMatrix(Arrays.asList("GENEA", "GENEB")).countCohort(counter,
+				Arrays.asList("s1", "s2", "s3"), Arrays.asList("1", "2", "3"), output.getAbsolutePath(), 2);
+
+		List<String> lines = readLines(output);
+		assertEquals(lines.size(), 3);
+		assertEquals(lines.get(0), "gene\ts1_total\ts1_unique\ts2_total\ts2_unique\ts3_total\ts3_unique");
+		assertEquals(lines.get(1), "GENEA\t11\t10\t21\t20\t31\t30");
+		assertEquals(lines.get(2), "GENEB\t12\t11\t22\t21\t32\t31");
+	}
+
+	@Test (groups = "unit")
+	public void testMergeCounts() {
+		IsoformGeneMap isoformGeneMap = new IsoformGeneMap();
+		isoformGeneMap.isoformGeneMap.put("uc001.1", "GENEB");
+		isoformGeneMap.isoformGeneMap.put("uc002.1", "GENEA");
+
+		SAMFileHeader header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("uc001.1", 1000));
+		header.addSequence(new SAMSequenceRecord("uc002.1", 1000));
+		header.addSequence(new SAMSequenceRecord("uc009.1", 1000));
+
+		ReferenceGeneIndex index = new ReferenceGeneIndex(isoformGeneMap, header);
+
+		GeneCounts counts1 = new GeneCounts(index);
+		counts1.increment(0, true);
+		counts1.increment(1, false);
+		counts1.increment(2, true);
+
+		GeneCounts counts2 = new GeneCounts(index);
+		counts2.increment(0, false);
+		counts2.increment(1, true);
+
+		counts1.merge(counts2);
+
+		// Genes without an isoform gene map entry are not output
+		long[][] counts = counts1.getCounts();
+		assertEquals(counts[0], new long[] { 2, 2 });
+		assertEquals(counts[1], new long[] { 1, 1 });
+	}
+
+	private List<String> readLines(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+}
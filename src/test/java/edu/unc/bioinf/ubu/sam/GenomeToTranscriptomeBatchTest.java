@@ -0,0 +1,108 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code GenomeToTranscriptomeBatch}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class GenomeToTranscriptomeBatchTest {
+
+	private static final String BED =
+		"chr1\t1000\t2000\tiso1\t0\t+\t1000\t2000\t0\t3\t300,200,100,\t0,500,900,\n";
+
+	private BlockingQueue<GenomeToTranscriptomeConverter> idleConverters;
+	private SAMFileHeader header;
+
+	@BeforeMethod (groups = "unit")
+	void setUp() throws Exception {
+		File bed = File.createTempFile("isoforms", ".bed");
+		bed.deleteOnExit();
+		FileWriter writer = new FileWriter(bed);
+		writer.write(BED);
+		writer.close();
+
+		IsoformIndex isoformIndex = new IsoformIndex();
+		isoformIndex.buildReadToIsoformIndex(bed.getAbsolutePath());
+
+		header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("iso1", 600));
+
+		idleConverters = new ArrayBlockingQueue<GenomeToTranscriptomeConverter>(1);
+		idleConverters.add(new GenomeToTranscriptomeConverter(isoformIndex, null, true));
+	}
+
+	@Test (groups = "unit")
+	public void testSingleEnd() throws Exception {
+		GenomeToTranscriptomeBatch batch = new GenomeToTranscriptomeBatch(idleConverters, header, 10);
+		batch.add(createRead("read1", 1291, "10M200N40M"));
+		// Spans into an intron
+		batch.add(createRead("read2", 1291, "50M"));
+		batch.add(createRead("read3", 1951, "50M"));
+
+		List<SAMRecord> output = batch.call();
+
+		assertEquals(output.size(), 2);
+		assertEquals(output.get(0).getReadName(), "read1");
+		assertEquals(output.get(0).getReferenceName(), "iso1");
+		assertEquals(output.get(0).getAlignmentStart(), 291);
+		assertEquals(output.get(0).getCigarString(), "50M");
+		assertEquals(output.get(1).getReadName(), "read3");
+		assertEquals(output.get(1).getAlignmentStart(), 551);
+
+		// The converter is returned for use by the next batch
+		assertEquals(idleConverters.size(), 1);
+	}
+
+	@Test (groups = "unit")
+	public void testPairedEnd() throws Exception {
+		GenomeToTranscriptomeBatch batch = new GenomeToTranscriptomeBatch(idleConverters, header, 1);
+		ReadPair pair = new ReadPair(createRead("pair/1", 1001, "50M"), createRead("pair/2", 1951, "50M"));
+		batch.add(pair);
+
+		List<SAMRecord> output = batch.call();
+
+		assertEquals(output.size(), 2);
+		assertEquals(output.get(0).getAlignmentStart(), 1);
+		assertEquals(output.get(0).getMateAlignmentStart(), 551);
+		assertEquals(output.get(0).getInferredInsertSize(), 600);
+		assertEquals(output.get(1).getInferredInsertSize(), -600);
+	}
+
+	@Test (groups = "unit")
+	public void testIsSameRead() {
+		GenomeToTranscriptomeBatch batch = new GenomeToTranscriptomeBatch(idleConverters, header, 1);
+		batch.add(new ReadPair(createRead("a/1", 1001, "50M"), createRead("a/2", 1951, "50M")));
+
+		// Mates may be swapped by alignment position within a pair
+		assertEquals(batch.isSameRead(new ReadPair(createRead("a/2", 1001, "50M"), createRead("a/1", 1951, "50M"))), true);
+		assertEquals(batch.isSameRead(new ReadPair(createRead("b/1", 1001, "50M"), createRead("b/2", 1951, "50M"))), false);
+	}
+
+	private SAMRecord createRead(String name, int alignmentStart, String cigar) {
+		SAMRecord read = new SAMRecord(header);
+
+		read.setReadName(name);
+		read.setReferenceName("chr1");
+		read.setAlignmentStart(alignmentStart);
+		read.setCigarString(cigar);
+		read.setReadString("ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTAC");
+		read.setBaseQualityString("IIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIII");
+
+		return read;
+	}
+}
@@ -79,6 +79,71 @@ public class GenomeToTranscriptomeOptionsTest {
         assertFalse(parser.isSingleEnd());
     }
     
+    @Test (groups = "unit")
+    public void testThreads() {
+        parser.parseOptions(
+                "--bed bedfile --in infile --out outfile --threads 8 --unordered".split(" "));
+
+        assertTrue(parser.isValid());
+        validateBasicParams();
+        assertEquals(parser.getNumThreads(), 8);
+        assertFalse(parser.isOrderedOutput());
+    }
+    
+    @Test (groups = "unit")
+    public void testDefaultThreads() {
+        parser.parseOptions(
+                "--bed bedfile --in infile --out outfile".split(" "));
+
+        assertEquals(parser.getNumThreads(), 1);
+        assertTrue(parser.isOrderedOutput());
+    }
+    
+    @Test (groups = "unit")
+    public void testInvalidThreads() {
+        parser.parseOptions(
+                "--bed bedfile --in infile --out outfile --threads 0".split(" "));
+
+        assertFalse(parser.isValid());
+    }
+    
+    @Test (groups = "unit")
+    public void testIndexFile() {
+        parser.parseOptions(
+                "--index indexfile --in infile --out outfile".split(" "));
+
+        assertTrue(parser.isValid());
+        assertTrue(parser.hasIndexFile());
+        assertEquals(parser.getIndexFile(), "indexfile");
+    }
+    
+    @Test (groups = "unit")
+    public void testIndexFileWithBed() {
+        parser.parseOptions(
+                "--index indexfile --bed bedfile --in infile --out outfile".split(" "));
+
+        assertFalse(parser.isValid());
+    }
+    
+    @Test (groups = "unit")
+    public void testSort() {
+        parser.parseOptions(
+                "--bed bedfile --in infile --out out.bam --sort --sort-buckets 64 --tmp tmpdir".split(" "));
+
+        assertTrue(parser.isValid());
+        assertTrue(parser.isSortedOutput());
+        assertEquals(parser.getNumSortBuckets(), 64);
+        assertEquals(parser.getTempDir(), "tmpdir");
+    }
+    
+    @Test (groups = "unit")
+    public void testSortRequiresBam() {
+        parser.parseOptions(
+                "--bed bedfile --in infile --out out.sam --sort".split(" "));
+
+        assertFalse(parser.isValid());
+    }
+    
     @Test (groups = "unit")
     public void testMissingFile() {
         parser.parseOptions(
@@ -0,0 +1,93 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code IsoformIndexFile}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class IsoformIndexFileTest {
+
+	private static final String BED =
+		"chr1\t1000\t2000\tiso1\t0\t+\t1000\t2000\t0\t3\t300,200,100,\t0,500,900,\n" +
+		"chr1\t1500\t1700\tiso2\t0\t-\t1500\t1700\t0\t1\t200,\t0,\n" +
+		"chr2\t5000\t6000\tiso3\t0\t+\t5000\t6000\t0\t2\t100,100,\t0,900,\n";
+
+	private static final String ORDER = ">iso3\nACGT\n>iso1\nACGT\n>iso2\nACGT\n";
+
+	@Test (groups = "unit")
+	public void testWriteAndLoad() throws Exception {
+		IsoformIndex original = new IsoformIndex();
+		original.buildReadToIsoformIndex(createFile(".bed", BED));
+
+		IsoformOrderLoader order = new IsoformOrderLoader();
+		order.loadOrdering(createFile(".fa", ORDER));
+
+		String indexFile = createFile(".idx", "");
+		IsoformIndexFile.write(indexFile, original, order);
+
+		IsoformIndexFile loaded = IsoformIndexFile.load(indexFile);
+		IsoformIndex index = loaded.getIsoformIndex();
+
+		assertEquals(index.getAllIsoforms().size(), 3);
+
+		Isoform iso1 = index.getIsoform("iso1");
+		assertEquals(iso1.getGenomicCoordinate(), new Coordinate(1001, 2001));
+		assertEquals(iso1.getExons(), original.getIsoform("iso1").getExons());
+		assertEquals(iso1.getLength(), 600);
+		assertTrue(iso1.isPositiveStrand());
+		assertTrue(index.getIsoform("iso2").isNegativeStrand());
+
+		List<Isoform> isoforms = new ArrayList<Isoform>();
+		index.getPotentialIsoforms("chr1", 1600, 1650, isoforms);
+		assertEquals(isoforms.size(), 2);
+
+		isoforms.clear();
+		index.getPotentialIsoforms("chr2", 5001, 5050, isoforms);
+		assertEquals(isoforms.size(), 1);
+
+		IsoformOrderLoader loadedOrder = loaded.getIsoformOrderLoader();
+		assertEquals(loadedOrder.getOrder("iso3"), Integer.valueOf(1));
+		assertEquals(loadedOrder.getOrder("iso1"), Integer.valueOf(2));
+		assertEquals(loadedOrder.getOrder("iso2"), Integer.valueOf(3));
+	}
+
+	@Test (groups = "unit")
+	public void testWithoutOrdering() throws Exception {
+		IsoformIndex original = new IsoformIndex();
+		original.buildReadToIsoformIndex(createFile(".bed", BED));
+
+		String indexFile = createFile(".idx", "");
+		IsoformIndexFile.write(indexFile, original, null);
+
+		IsoformIndexFile loaded = IsoformIndexFile.load(indexFile);
+		assertNull(loaded.getIsoformOrderLoader());
+		assertEquals(loaded.getIsoformIndex().getAllIsoforms().size(), 3);
+	}
+
+	@Test (groups = "unit", expectedExceptions = IOException.class)
+	public void testInvalidFile() throws Exception {
+		IsoformIndexFile.load(createFile(".idx", "not an index"));
+	}
+
+	private String createFile(String suffix, String contents) throws IOException {
+		File file = File.createTempFile("isoforms", suffix);
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		writer.write(contents);
+		writer.close();
+
+		return file.getAbsolutePath();
+	}
+}
@@ -0,0 +1,107 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code IsoformIntervals}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class IsoformIntervalsTest {
+
+    @Test (groups = "unit")
+    public void testGetContaining() {
+        Isoform iso1 = newIsoform("iso1", 1001, 2000);
+        Isoform iso2 = newIsoform("iso2", 1501, 5000);
+        Isoform iso3 = newIsoform("iso3", 3000, 3100);
+
+        IsoformIntervals intervals = new IsoformIntervals(Arrays.asList(iso3, iso2, iso1));
+
+        List<Isoform> results = new ArrayList<Isoform>();
+        intervals.getContaining(1600, 1700, results);
+        assertEquals(results, Arrays.asList(iso1, iso2));
+
+        results.clear();
+        intervals.getContaining(1900, 2100, results);
+        assertEquals(results, Arrays.asList(iso2));
+
+        results.clear();
+        intervals.getContaining(900, 1100, results);
+        assertTrue(results.isEmpty());
+
+        results.clear();
+        intervals.getOverlapping(900, 1100, results);
+        assertEquals(results, Arrays.asList(iso1));
+    }
+
+    @Test (groups = "unit")
+    public void testEmpty() {
+        IsoformIntervals intervals = new IsoformIntervals(new ArrayList<Isoform>());
+        List<Isoform> results = new ArrayList<Isoform>();
+        intervals.getOverlapping(1, 1000, results);
+        assertTrue(results.isEmpty());
+    }
+
+    @Test (groups = "unit")
+    public void testMatchesLinearScan() {
+        Random random = new Random(1);
+
+        // Sizes around powers of 2 exercise the placeholder nodes of the implicit tree
+        for (int n : new int[] { 1, 2, 3, 7, 8, 9, 31, 32, 33, 100, 1000 }) {
+            List<Isoform> isoforms = new ArrayList<Isoform>();
+            for (int i=0; i<n; i++) {
+                int start = random.nextInt(100000) + 1;
+                int length = random.nextInt(10) == 0 ? random.nextInt(50000) : random.nextInt(2000);
+                isoforms.add(newIsoform("iso" + i, start, start + length));
+            }
+
+            IsoformIntervals intervals = new IsoformIntervals(isoforms);
+            List<Isoform> results = new ArrayList<Isoform>();
+
+            for (int q=0; q<200; q++) {
+                int start = random.nextInt(110000);
+                int stop = start + random.nextInt(500);
+
+                results.clear();
+                intervals.getOverlapping(start, stop, results);
+                assertEquals(results.size(), countLinear(isoforms, start, stop, false));
+
+                results.clear();
+                intervals.getContaining(start, stop, results);
+                assertEquals(results.size(), countLinear(isoforms, start, stop, true));
+                for (Isoform isoform : results) {
+                    assertTrue(isoform.containsWithinGenomicRange(start, stop));
+                }
+            }
+        }
+    }
+
+    private int countLinear(List<Isoform> isoforms, int start, int stop, boolean isContaining) {
+        int count = 0;
+
+        for (Isoform isoform : isoforms) {
+            Coordinate coord = isoform.getGenomicCoordinate();
+            if (isContaining) {
+                if (isoform.containsWithinGenomicRange(start, stop)) {
+                    count++;
+                }
+            } else if ((coord.getStart() <= stop) && (coord.getStop() >= start)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private Isoform newIsoform(String id, int start, int stop) {
+        return new Isoform(id, new Coordinate(start, stop), "+", Arrays.asList(new Coordinate(start, stop)));
+    }
+}
@@ -4,6 +4,7 @@ import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -212,6 +213,36 @@ public class IsoformTest {
         assertTrue(coords.isEmpty());
     }
     
+    @Test (groups = "unit")
+    public void testMatch_coordinateBuffer() {
+        SAMRecord read = createRead("chr1", 1291, "10M200N40M");
+        
+        int[] coords = new int[4];
+        assertEquals(iso1.match(read, coords), 2);
+        assertEquals(coords, new int[] { 291, 300, 301, 340 });
+        
+        assertEquals(iso1.match(createRead("chr1", 1291, "10M201N40M"), coords), 0);
+    }
+    
+    @Test (groups = "unit")
+    public void testMatch_manyExons() {
+        // 200 exons of 10 bases separated by 90 base introns
+        List<Coordinate> exons = new ArrayList<Coordinate>();
+        for (int i=0; i<200; i++) {
+            exons.add(new Coordinate(1001 + i*100, 1010 + i*100));
+        }
+        Isoform isoform = new Isoform("iso3", new Coordinate(1001, 20910), "+", exons);
+        
+        SAMRecord read = createRead("chr1", 15006, "5M90N10M90N5M");
+        
+        int[] coords = new int[6];
+        assertEquals(isoform.match(read, coords), 3);
+        // Exon 140 begins at isoform position 1401
+        assertEquals(coords, new int[] { 1406, 1410, 1411, 1420, 1421, 1425 });
+        
+        assertEquals(isoform.match(createRead("chr1", 15011, "10M"), coords), 0);
+    }
+    
     private SAMRecord createRead(String refName, int alignmentStart, String cigar) {
         SAMRecord read = new SAMRecord(new SAMFileHeader());
         
@@ -0,0 +1,140 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import net.sf.samtools.CigarOperator;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code ReadBlockIterator}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class ReadBlockIteratorTest {
+
+    @Test (groups = "unit")
+    public void testNext() {
+        ReadBlockIterator blocks = new ReadBlockIterator(createRead(100, "5S10M200N20M3I7M2D5M"));
+
+        assertEquals(blocks.getNumBlocks(), 8);
+        assertBlock(blocks, CigarOperator.S, 1, 100, 5);
+        assertBlock(blocks, CigarOperator.M, 6, 100, 10);
+        assertBlock(blocks, CigarOperator.N, 16, 110, 200);
+        assertEquals(blocks.getReferenceStop(), 309);
+        assertBlock(blocks, CigarOperator.M, 16, 310, 20);
+        assertBlock(blocks, CigarOperator.I, 36, 330, 3);
+        assertBlock(blocks, CigarOperator.M, 39, 330, 7);
+        assertBlock(blocks, CigarOperator.D, 46, 337, 2);
+        assertEquals(blocks.getReferenceLength(), 0);
+        assertEquals(blocks.getBlockIndex(), 6);
+        assertTrue(blocks.hasNext());
+        assertBlock(blocks, CigarOperator.M, 46, 339, 5);
+        assertFalse(blocks.hasNext());
+        assertFalse(blocks.next());
+    }
+
+    @Test (groups = "unit")
+    public void testMatchesExpectedBlocks() {
+        String[] cigars = { "50M", "10S40M", "20M100N25M5S", "10M2I10M3D28M" };
+
+        // Hand computed {type, read start, reference start, length} for reads aligned at 1000
+        Object[][][] expectedBlocks = {
+            { { CigarOperator.M, 1, 1000, 50 } },
+            { { CigarOperator.S, 1, 1000, 10 }, { CigarOperator.M, 11, 1000, 40 } },
+            { { CigarOperator.M, 1, 1000, 20 }, { CigarOperator.N, 21, 1020, 100 },
+              { CigarOperator.M, 21, 1120, 25 }, { CigarOperator.S, 46, 1145, 5 } },
+            { { CigarOperator.M, 1, 1000, 10 }, { CigarOperator.I, 11, 1010, 2 }, { CigarOperator.M, 13, 1010, 10 },
+              { CigarOperator.D, 23, 1020, 3 }, { CigarOperator.M, 23, 1023, 28 } }
+        };
+
+        ReadBlockIterator blocks = new ReadBlockIterator();
+
+        for (int i=0; i<cigars.length; i++) {
+            SAMRecord read = createRead(1000, cigars[i]);
+            List<ReadBlock> readBlocks = ReadBlock.getReadBlocks(read);
+            assertEquals(readBlocks.size(), expectedBlocks[i].length);
+
+            blocks.reset(read);
+            for (int j=0; j<expectedBlocks[i].length; j++) {
+                Object[] expected = expectedBlocks[i][j];
+                CigarOperator type = (CigarOperator) expected[0];
+                int readStart = (Integer) expected[1];
+                int refStart = (Integer) expected[2];
+                int length = (Integer) expected[3];
+                int refLength = type == CigarOperator.D ? 0 : length;
+
+                assertTrue(blocks.next());
+                assertEquals(blocks.getType(), type);
+                assertEquals(blocks.getReadStart(), readStart);
+                assertEquals(blocks.getReferenceStart(), refStart);
+                assertEquals(blocks.getReferenceStop(), refStart + length - 1);
+                assertEquals(blocks.getReferenceLength(), refLength);
+                assertEquals(blocks.getLength(), length);
+
+                ReadBlock block = readBlocks.get(j);
+                assertEquals(block.getType(), type);
+                assertEquals(block.getReadStart(), readStart);
+                assertEquals(block.getReferenceStart(), refStart);
+                assertEquals(block.getReferenceStop(), refStart + length - 1);
+                assertEquals(block.getReferenceLength(), refLength);
+                assertEquals(block.getLength(), length);
+            }
+            assertFalse(blocks.next());
+        }
+    }
+
+    @Test (groups = "unit")
+    public void testAdvanceTo() {
+        ReadBlockIterator blocks = new ReadBlockIterator(createRead(100, "30M5S"));
+
+        assertTrue(blocks.advanceTo(blocks.getNumBlocks()-2));
+        assertEquals(blocks.getType(), CigarOperator.M);
+        assertEquals(blocks.getReferenceStop(), 129);
+
+        assertTrue(blocks.advanceTo(1));
+        assertEquals(blocks.getType(), CigarOperator.S);
+        assertFalse(blocks.advanceTo(0));
+        assertFalse(blocks.advanceTo(2));
+
+        // Reads with a single block have no block before the last
+        blocks.reset(createRead(100, "50M"));
+        assertFalse(blocks.advanceTo(blocks.getNumBlocks()-2));
+        assertFalse(blocks.advanceTo(1));
+    }
+
+    @Test (groups = "unit")
+    public void testGetSubBlock() {
+        ReadBlockIterator blocks = new ReadBlockIterator(createRead(100, "50M"));
+        blocks.next();
+
+        ReadBlock subBlock = blocks.getSubBlock(0, 10, 20);
+        ReadBlock expected = blocks.toReadBlock().getSubBlock(0, 10, 20);
+
+        assertEquals(subBlock.getReadStart(), expected.getReadStart());
+        assertEquals(subBlock.getReferenceStart(), 110);
+        assertEquals(subBlock.getReferenceStart(), expected.getReferenceStart());
+        assertEquals(subBlock.getLength(), 20);
+    }
+
+    private void assertBlock(ReadBlockIterator blocks, CigarOperator type, int readStart, int refStart, int length) {
+        assertTrue(blocks.next());
+        assertEquals(blocks.getType(), type);
+        assertEquals(blocks.getReadStart(), readStart);
+        assertEquals(blocks.getReferenceStart(), refStart);
+        assertEquals(blocks.getLength(), length);
+    }
+
+    private SAMRecord createRead(int alignmentStart, String cigar) {
+        SAMRecord read = new SAMRecord(new SAMFileHeader());
+        read.setAlignmentStart(alignmentStart);
+        read.setCigarString(cigar);
+        return read;
+    }
+}
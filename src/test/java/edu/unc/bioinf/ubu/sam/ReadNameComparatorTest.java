@@ -0,0 +1,49 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code ReadNameComparator}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class ReadNameComparatorTest {
+
+    private ReadNameComparator comparator = new ReadNameComparator();
+
+    @Test (groups = "unit")
+    public void testNumericFields() {
+        assertTrue(comparator.compare("HWI:1:9:100", "HWI:1:10:5") < 0);
+        assertTrue(comparator.compare("HWI:1:10:5", "HWI:1:9:100") > 0);
+        assertEquals(comparator.compare("HWI:1:10:5/1", "HWI:1:10:5/1"), 0);
+        assertTrue(comparator.compare("HWI:1:10:5/1", "HWI:1:10:5/2") < 0);
+    }
+
+    @Test (groups = "unit")
+    public void testLargeNumericFields() {
+        // Larger than Integer.MAX_VALUE
+        assertTrue(comparator.compare("read:3000000000", "read:20000000000") < 0);
+    }
+
+    @Test (groups = "unit")
+    public void testStringFields() {
+        assertTrue(comparator.compare("HWI-A:1", "HWI-B:1") < 0);
+        assertTrue(comparator.compare("abc", "abcd") < 0);
+        assertTrue(comparator.compare("abc:1", "abcd:1") < 0);
+        assertTrue(comparator.compare("read:1", "read:1:2") < 0);
+        assertTrue(comparator.compare("read:12", "read:x") < 0);
+    }
+
+    @Test (groups = "unit")
+    public void testSortKeys() {
+        byte[] key1 = ReadNameComparator.getSortKey("HWI:1:200:5");
+        byte[] key2 = ReadNameComparator.getSortKey("HWI:1:1000:5");
+
+        assertTrue(ReadNameComparator.compareKeys(key1, key2) < 0);
+        assertTrue(ReadNameComparator.compareKeys(key2, key1) > 0);
+        assertEquals(ReadNameComparator.compareKeys(key1, ReadNameComparator.getSortKey("HWI:1:200:5")), 0);
+    }
+}
@@ -0,0 +1,134 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code ReadPairMatcher}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class ReadPairMatcherTest {
+
+    private SAMFileHeader header = createHeader();
+
+    @Test (groups = "unit")
+    public void testSinglePair() {
+        SAMRecord read1 = createRead(0, 500, 0, 100);
+        SAMRecord read2 = createRead(0, 100, 0, 500);
+
+        List<ReadPair> pairs = pairReads(Arrays.asList(read1), Arrays.asList(read2));
+
+        assertEquals(pairs.size(), 1);
+        // Lower alignment start first
+        assertTrue(pairs.get(0).getRead1() == read2);
+        assertTrue(pairs.get(0).getRead2() == read1);
+    }
+
+    @Test (groups = "unit")
+    public void testSinglePairNotMated() {
+        SAMRecord read1 = createRead(0, 100, 0, 300);
+        SAMRecord read2 = createRead(1, 300, 1, 100);
+
+        assertEquals(pairReads(Arrays.asList(read1), Arrays.asList(read2)).size(), 0);
+    }
+
+    @Test (groups = "unit")
+    public void testSinglePairAsymmetricMate() {
+        // Only read2 points at its mate
+        SAMRecord read1 = createRead(0, 100, 0, 900);
+        SAMRecord read2 = createRead(0, 300, 0, 100);
+
+        assertEquals(pairReads(Arrays.asList(read1), Arrays.asList(read2)).size(), 1);
+    }
+
+    @Test (groups = "unit")
+    public void testMultiMappedReads() {
+        SAMRecord read1a = createRead(0, 100, 0, 300);
+        SAMRecord read1b = createRead(1, 100, 1, 300);
+        SAMRecord read2a = createRead(0, 300, 0, 100);
+        SAMRecord read2b = createRead(1, 300, 1, 100);
+        SAMRecord read2c = createRead(2, 300, 2, 100);
+
+        List<ReadPair> pairs = pairReads(Arrays.asList(read1a, read1b), Arrays.asList(read2a, read2b, read2c));
+
+        // Each mated pair is output once
+        assertEquals(pairs.size(), 2);
+        assertTrue(pairs.get(0).getRead1() == read1a);
+        assertTrue(pairs.get(0).getRead2() == read2a);
+        assertTrue(pairs.get(1).getRead1() == read1b);
+        assertTrue(pairs.get(1).getRead2() == read2b);
+    }
+
+    @Test (groups = "unit")
+    public void testDuplicateRecords() {
+        SAMRecord read1a = createRead(0, 100, 0, 300);
+        SAMRecord read1b = createRead(0, 100, 0, 300);
+        SAMRecord read2a = createRead(0, 300, 0, 100);
+        SAMRecord read2b = createRead(1, 300, 1, 100);
+
+        // Identical records produce a single pair
+        List<ReadPair> pairs = pairReads(Arrays.asList(read1a, read1b), Arrays.asList(read2a, read2b));
+
+        assertEquals(pairs.size(), 1);
+        assertTrue(pairs.get(0).getRead1() == read1a);
+        assertTrue(pairs.get(0).getRead2() == read2a);
+    }
+
+    @Test (groups = "unit")
+    public void testUnindexedReferences() {
+        SAMRecord read1 = createRead("chr1", 100, "chr1", 300);
+        SAMRecord read2 = createRead("chr1", 300, "chr1", 100);
+        SAMRecord read3 = createRead("chr2", 100, "chr2", 300);
+
+        ReadPairMatcher matcher = new ReadPairMatcher();
+        assertEquals(matcher.getMateKey(read1), matcher.getPositionKey(read2));
+        assertTrue(matcher.getPositionKey(read1) != matcher.getPositionKey(read3));
+
+        assertEquals(pairReads(Arrays.asList(read1, read3), Arrays.asList(read2)).size(), 1);
+    }
+
+    private List<ReadPair> pairReads(List<SAMRecord> reads1, List<SAMRecord> reads2) {
+        List<ReadPair> pairs = new ArrayList<ReadPair>();
+        new ReadPairMatcher().pairReads(reads1, reads2, pairs);
+        return pairs;
+    }
+
+    private SAMFileHeader createHeader() {
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("chr1", 1000));
+        header.addSequence(new SAMSequenceRecord("chr2", 1000));
+        header.addSequence(new SAMSequenceRecord("chr3", 1000));
+        return header;
+    }
+
+    private SAMRecord createRead(int refIdx, int start, int mateRefIdx, int mateStart) {
+        SAMRecord read = new SAMRecord(header);
+        read.setReadName("read");
+        read.setReadPairedFlag(true);
+        read.setReferenceName(header.getSequence(refIdx).getSequenceName());
+        read.setAlignmentStart(start);
+        read.setMateReferenceName(header.getSequence(mateRefIdx).getSequenceName());
+        read.setMateAlignmentStart(mateStart);
+        return read;
+    }
+
+    private SAMRecord createRead(String ref, int start, String mateRef, int mateStart) {
+        SAMRecord read = new SAMRecord(new SAMFileHeader());
+        read.setReferenceName(ref);
+        read.setAlignmentStart(start);
+        read.setMateReferenceName(mateRef);
+        read.setMateAlignmentStart(mateStart);
+        return read;
+    }
+}
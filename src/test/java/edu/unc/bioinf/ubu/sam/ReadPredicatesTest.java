@@ -0,0 +1,160 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.samtools.CigarOperator;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+
+import org.testng.annotations.Test;
+
+import edu.unc.bioinf.ubu.gtf.Feature;
+
+/**
+ * Unit tests for {@code ReadPredicates} and {@code ReadRegions}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class ReadPredicatesTest {
+
+    @Test (groups = "unit")
+    public void testFlags() {
+        ReadPredicate predicate = ReadPredicates.flags(0x1, 0x400);
+
+        SAMRecord read = createRead("chr1", 100, "50M");
+        assertFalse(predicate.matches(read));
+
+        read.setReadPairedFlag(true);
+        assertTrue(predicate.matches(read));
+
+        read.setDuplicateReadFlag(true);
+        assertFalse(predicate.matches(read));
+    }
+
+    @Test (groups = "unit")
+    public void testCigarOperators() {
+        ReadPredicate noSplices = ReadPredicates.cigarOperators(Arrays.asList(CigarOperator.N, CigarOperator.S), false);
+        ReadPredicate indelsOnly = ReadPredicates.cigarOperators(Arrays.asList(CigarOperator.I, CigarOperator.D), true);
+
+        assertTrue(noSplices.matches(createRead("chr1", 100, "20M2I28M")));
+        assertFalse(noSplices.matches(createRead("chr1", 100, "20M100N30M")));
+        assertFalse(noSplices.matches(createRead("chr1", 100, "5S45M")));
+
+        assertTrue(indelsOnly.matches(createRead("chr1", 100, "20M2I28M")));
+        assertFalse(indelsOnly.matches(createRead("chr1", 100, "50M")));
+    }
+
+    @Test (groups = "unit")
+    public void testTag() {
+        SAMRecord read = createRead("chr1", 100, "50M");
+        read.setAttribute("NM", 2);
+
+        assertTrue(ReadPredicates.tag("NM", null, true).matches(read));
+        assertTrue(ReadPredicates.tag("NM", "2", true).matches(read));
+        assertFalse(ReadPredicates.tag("NM", "0", true).matches(read));
+        assertFalse(ReadPredicates.tag("NM", null, false).matches(read));
+        assertTrue(ReadPredicates.tag("XA", null, false).matches(read));
+    }
+
+    @Test (groups = "unit")
+    public void testRegions() {
+        ReadRegions regions = new ReadRegions(new ArrayList<Feature>(Arrays.asList(
+                new Feature("chr1", 1000, 2000),
+                new Feature("chr1", 1500, 2500),
+                new Feature("chr1", 5000, 6000),
+                new Feature("chr2", 100, 200))));
+
+        // Overlapping regions are merged
+        assertEquals(regions.getRegions("chr1").length, 2);
+        assertEquals(regions.getRegions("chr1")[0][1], 2500);
+        assertEquals(regions.getRegions("chr3").length, 0);
+
+        ReadPredicate predicate = ReadPredicates.regions(regions);
+
+        assertTrue(predicate.matches(createRead("chr1", 951, "50M")));
+        assertFalse(predicate.matches(createRead("chr1", 950, "50M")));
+        assertTrue(predicate.matches(createRead("chr1", 2500, "50M")));
+        assertFalse(predicate.matches(createRead("chr1", 2501, "50M")));
+        // Spans the gap between regions
+        assertTrue(predicate.matches(createRead("chr1", 2400, "100M3000N50M")));
+        assertFalse(predicate.matches(createRead("chr2", 201, "50M")));
+        assertFalse(predicate.matches(createRead("chr3", 100, "50M")));
+    }
+
+    @Test (groups = "unit")
+    public void testAllEvaluatesCheapestFirst() {
+        final List<Integer> evaluated = new ArrayList<Integer>();
+
+        ReadPredicate predicate = ReadPredicates.all(Arrays.asList(
+                countingPredicate(ReadPredicates.READ_NAME_COST, evaluated),
+                countingPredicate(ReadPredicates.FIELD_COST, evaluated),
+                countingPredicate(ReadPredicates.CIGAR_COST, evaluated)));
+
+        assertTrue(predicate.matches(createRead("chr1", 100, "50M")));
+        assertEquals(evaluated, Arrays.asList(ReadPredicates.FIELD_COST, ReadPredicates.CIGAR_COST, ReadPredicates.READ_NAME_COST));
+        assertTrue(ReadPredicates.all(new ArrayList<ReadPredicate>()).matches(createRead("chr1", 100, "50M")));
+    }
+
+    @Test (groups = "unit")
+    public void testReadNames() {
+        ReadPredicate predicate = ReadPredicates.readNames(Arrays.asList("read1", "read2"));
+
+        SAMRecord read = createRead("chr1", 100, "50M");
+        read.setReadName("read2");
+        assertTrue(predicate.matches(read));
+
+        read.setReadName("read3");
+        assertFalse(predicate.matches(read));
+    }
+
+    private ReadPredicate countingPredicate(final int cost, final List<Integer> evaluated) {
+        return new ReadPredicate() {
+            public boolean matches(SAMRecord read) {
+                evaluated.add(cost);
+                return true;
+            }
+
+            public int getCost() {
+                return cost;
+            }
+        };
+    }
+
+    private SAMRecord createRead(String reference, int start, String cigar) {
+        SAMRecord read = new SAMRecord(new SAMFileHeader());
+        read.setReferenceName(reference);
+        read.setAlignmentStart(start);
+        read.setCigarString(cigar);
+        return read;
+    }
+
+    @Test (groups = "unit")
+    public void testParse() throws IOException {
+        SAMRecord read = createRead("chr1", 100, "20M100N30M");
+        read.setMappingQuality(30);
+        read.setInferredInsertSize(-400);
+        read.setReadPairedFlag(true);
+        read.setAttribute("NM", 1);
+
+        assertTrue(ReadPredicates.parse("all").matches(read));
+        assertTrue(ReadPredicates.parse("mapq>=30, insert<=400, flags:1, !flags:0x400").matches(read));
+        assertFalse(ReadPredicates.parse("mapq>=31").matches(read));
+        assertFalse(ReadPredicates.parse("insert<=399").matches(read));
+        assertTrue(ReadPredicates.parse("!indels,cigar:N").matches(read));
+        assertFalse(ReadPredicates.parse("!cigar:N").matches(read));
+        assertTrue(ReadPredicates.parse("tag:NM:1,!tag:XA").matches(read));
+        assertFalse(ReadPredicates.parse("tag:NM:0").matches(read));
+    }
+
+    @Test (groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testParseInvalidTerm() throws IOException {
+        ReadPredicates.parse("mapq>20");
+    }
+}
@@ -0,0 +1,72 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code ReferenceGeneIndex}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class ReferenceGeneIndexTest {
+
+	private ReferenceGeneIndex index;
+
+	@BeforeMethod (groups = "unit")
+	public void setUp() {
+		IsoformGeneMap isoformGeneMap = new IsoformGeneMap();
+		isoformGeneMap.isoformGeneMap.put("uc001.1", "GENEB");
+		isoformGeneMap.isoformGeneMap.put("uc001.2", "GENEB");
+		isoformGeneMap.isoformGeneMap.put("uc002.1", "GENEA");
+		isoformGeneMap.isoformGeneMap.put("uc003.1", "GENEC");
+
+		SAMFileHeader header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("uc001.2", 1000));
+		header.addSequence(new SAMSequenceRecord("uc002.1", 1000));
+		header.addSequence(new SAMSequenceRecord("uc001.1", 1000));
+		header.addSequence(new SAMSequenceRecord("uc009.1", 1000));
+
+		index = new ReferenceGeneIndex(isoformGeneMap, header);
+	}
+
+	@Test (groups = "unit")
+	public void testGeneIds() {
+		assertEquals(index.getNumGenes(), 3);
+		assertEquals(index.getNumIds(), 4);
+
+		// Ids are in sorted gene order
+		assertEquals(index.getGene(0), 1);
+		assertEquals(index.getGene(1), 0);
+		assertEquals(index.getGene(2), 1);
+
+		// No gene for this isoform
+		assertEquals(index.getGene(3), 3);
+	}
+
+	@Test (groups = "unit")
+	public void testGeneByName() {
+		String xa = "uc002.1,+100,50M,0;uc001.1,-200,50M,1;";
+
+		assertEquals(index.getGene(xa, 0, 7), 0);
+		assertEquals(index.getGene(xa, 19, 26), 1);
+		assertEquals(index.getGene(xa, 0, 6), ReferenceGeneIndex.UNKNOWN_REFERENCE);
+		assertEquals(index.getGene("uc003.1", 0, 7), ReferenceGeneIndex.UNKNOWN_REFERENCE);
+	}
+
+	@Test (groups = "unit")
+	public void testIsXaSameGene() {
+		assertTrue(GeneReadCounterBWA.isXaSameGene(null, 1, index));
+		assertTrue(GeneReadCounterBWA.isXaSameGene("uc001.1,-200,50M,1;", 1, index));
+		assertTrue(GeneReadCounterBWA.isXaSameGene("uc001.1,-200,50M,1;uc001.2,+300,50M,0;", 1, index));
+		assertTrue(GeneReadCounterBWA.isXaSameGene("uc001.1", 1, index));
+		assertFalse(GeneReadCounterBWA.isXaSameGene("uc001.1,-200,50M,1;uc002.1,+300,50M,0;", 1, index));
+		assertFalse(GeneReadCounterBWA.isXaSameGene("uc003.1,-200,50M,1;", 1, index));
+	}
+}
@@ -0,0 +1,224 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code RsemExpectedCountsAggregator}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class RsemExpectedCountsAggregatorTest {
+
+    @Test (groups = "unit")
+    public void testAppendDecimal() {
+        assertEquals(format(0.0, 2), "0.00");
+        assertEquals(format(12.5, 2), "12.50");
+        assertEquals(format(3.05, 2), "3.05");
+        assertEquals(format(1234567.89, 2), "1234567.89");
+        assertEquals(format(0.125, 2), "0.13");
+        assertEquals(format(-2.5, 2), "-2.50");
+        assertEquals(format(-0.001, 2), "0.00");
+        assertEquals(format(7.0, 0), "7");
+        assertEquals(format(1.0E300, 2), "1.0E300");
+    }
+
+    @Test (groups = "unit")
+    public void testAppendRoundTrip() {
+        assertEquals(formatRoundTrip(0.0), "0");
+        assertEquals(formatRoundTrip(-0.0), "0");
+        assertEquals(formatRoundTrip(1.0), "1");
+        assertEquals(formatRoundTrip(256.0), "256");
+        assertEquals(formatRoundTrip(0.5), "0.5");
+        assertEquals(formatRoundTrip(3.05), "3.05");
+        assertEquals(formatRoundTrip(0.125), "0.125");
+        assertEquals(formatRoundTrip(-2.25), "-2.25");
+        assertEquals(formatRoundTrip(12345678.901234), "12345678.901234");
+        assertEquals(formatRoundTrip(1.0E-7), "0.0000001");
+        assertEquals(formatRoundTrip(1.0E20), "100000000000000000000");
+        assertEquals(formatRoundTrip(0.1 + 0.2), String.valueOf(0.1 + 0.2));
+        assertEquals(Double.parseDouble(formatRoundTrip(1.0 / 3.0)), 1.0 / 3.0);
+        assertEquals(formatRoundTrip(-0.01), "-0.01");
+        assertEquals(formatRoundTrip(1.0E-9), "0.000000001");
+        assertEquals(formatRoundTrip(1.0E-10), "0.0000000001");
+        assertEquals(formatRoundTrip(9.0E15), "9000000000000000");
+    }
+
+    @Test (groups = "unit")
+    public void testAppendRoundTripMatchesShortest() {
+        // rsem counts have 2 decimal places
+        for (int i=0; i<200000; i++) {
+            double value = i / 100.0;
+            String expected = new BigDecimal(Double.toString(value)).stripTrailingZeros().toPlainString();
+            assertEquals(formatRoundTrip(value), expected);
+        }
+    }
+
+    @Test (groups = "unit")
+    public void testSetDecimalPlaces() {
+        RsemExpectedCountsAggregator aggregator = new RsemExpectedCountsAggregator();
+        aggregator.setDecimalPlaces(0);
+        aggregator.setDecimalPlaces(9);
+        aggregator.setDecimalPlaces(RsemExpectedCountsAggregator.ROUND_TRIP);
+
+        try {
+            aggregator.setDecimalPlaces(10);
+            throw new AssertionError("Expected invalid decimal places");
+        } catch (IllegalArgumentException e) {
+            assertEquals(e.getMessage(), "Decimal places must be between 0 and 9: 10");
+        }
+    }
+
+    @Test (groups = "unit")
+    public void testGetBatchSize() {
+        assertEquals(RsemExpectedCountsAggregator.getBatchSize(10, 512), RsemExpectedCountsAggregator.MIN_BATCH_SIZE);
+        assertEquals(RsemExpectedCountsAggregator.getBatchSize(10000, 4), 2500);
+        assertEquals(RsemExpectedCountsAggregator.getBatchSize(10001, 4), 2501);
+    }
+
+    @Test (groups = "unit")
+    public void testBuildMatrix() throws Exception {
+        RsemExpectedCountsAggregator aggregator = new RsemExpectedCountsAggregator();
+        aggregator.setNumThreads(2);
+
+        // Batches of MIN_BATCH_SIZE, so one sample spills to a second file
+        int numSamples = RsemExpectedCountsAggregator.MIN_BATCH_SIZE + 1;
+        for (int i=0; i<numSamples; i++) {
+            aggregator.addSample("s" + i, writeSample(
+                    "GENEA\t" + i + ".00\t0\n" +
+                    "GENEB\t0.00\t0\n" +
+                    "GENEC\t0.5\t0\n"));
+        }
+
+        File output = File.createTempFile("rsem_matrix", ".tsv");
+        output.deleteOnExit();
+
+        aggregator.buildMatrix(output.getAbsolutePath());
+
+        List<String> lines = readLines(output);
+        assertEquals(lines.size(), 3);
+        assertEquals(lines.get(0).split("\t").length, numSamples + 1);
+        assertEquals(lines.get(0).split("\t")[numSamples], "s" + (numSamples - 1));
+
+        String[] geneA = lines.get(1).split("\t");
+        assertEquals(geneA[0], "GENEA");
+        assertEquals(geneA[1], "0");
+        assertEquals(geneA[numSamples], String.valueOf(numSamples - 1));
+
+        // GENEB is omitted
+        String[] geneC = lines.get(2).split("\t");
+        assertEquals(geneC[0], "GENEC");
+        assertEquals(geneC[numSamples], "0.5");
+    }
+
+    @Test (groups = "unit")
+    public void testBuildFixedPointMatrix() throws Exception {
+        RsemExpectedCountsAggregator aggregator = new RsemExpectedCountsAggregator();
+        aggregator.setDecimalPlaces(2);
+        aggregator.addSample("s1", writeSample("GENEA\t1\t0\nGENEB\t0.125\t0\n"));
+
+        File output = File.createTempFile("rsem_matrix", ".tsv");
+        output.deleteOnExit();
+
+        aggregator.buildMatrix(output.getAbsolutePath());
+
+        List<String> lines = readLines(output);
+        assertEquals(lines.get(1), "GENEA\t1.00");
+        assertEquals(lines.get(2), "GENEB\t0.13");
+    }
+
+    @Test (groups = "unit")
+    public void testBuildBinaryMatrix() throws Exception {
+        RsemExpectedCountsAggregator aggregator = new RsemExpectedCountsAggregator();
+        aggregator.addSample("s1", writeSample("GENEA\t1.50\nGENEB\t0.00\n"));
+        aggregator.addSample("s2", writeSample("GENEA\t2.00\nGENEB\t0.00\n"));
+
+        File output = File.createTempFile("rsem_matrix", BinaryMatrix.EXTENSION);
+        output.deleteOnExit();
+
+        aggregator.buildMatrix(output.getAbsolutePath());
+
+        // Zero count genes are retained
+        BinaryMatrix matrix = new BinaryMatrix(output.getAbsolutePath());
+        assertEquals(matrix.getRowNames(), Arrays.asList("GENEA", "GENEB"));
+        assertEquals(matrix.getColumnNames(), Arrays.asList("s1", "s2"));
+        assertEquals(matrix.getDouble(0, 0), 1.5);
+        assertEquals(matrix.getDouble(0, 1), 2.0);
+        matrix.close();
+    }
+
+    @Test (groups = "unit")
+    public void testParseMismatchedGene() throws Exception {
+        String[] genes = { "GENEA", "GENEB" };
+        String geneFile = writeSample("GENEA\t1.00\nGENEC\t2.00\n");
+
+        try {
+            new RsemExpectedCountsAggregator.ParseSample(geneFile, genes).call();
+            throw new AssertionError("Expected gene mismatch");
+        } catch (IllegalArgumentException e) {
+            assertEquals(e.getMessage(), "Mismatch genes: GENEB - GENEC in: " + geneFile);
+        }
+    }
+
+    @Test (groups = "unit")
+    public void testParseShortFile() throws Exception {
+        String[] genes = { "GENEA", "GENEB" };
+        String geneFile = writeSample("GENEA\t1.00\n");
+
+        try {
+            new RsemExpectedCountsAggregator.ParseSample(geneFile, genes).call();
+            throw new AssertionError("Expected invalid EOF");
+        } catch (IllegalArgumentException e) {
+            assertEquals(e.getMessage(), "Invalid EOF reached at line: 2 in: " + geneFile);
+        }
+    }
+
+    private String format(double value, int decimalPlaces) {
+        StringBuilder str = new StringBuilder();
+        RsemExpectedCountsAggregator.appendDecimal(str, value, decimalPlaces);
+        return str.toString();
+    }
+
+    private String formatRoundTrip(double value) {
+        StringBuilder str = new StringBuilder();
+        RsemExpectedCountsAggregator.appendRoundTrip(str, value);
+        return str.toString();
+    }
+
+    private String writeSample(String contents) throws IOException {
+        File file = File.createTempFile("rsem", ".genes.results");
+        file.deleteOnExit();
+
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+        writer.write(contents);
+        writer.close();
+
+        return file.getAbsolutePath();
+    }
+
+    private List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
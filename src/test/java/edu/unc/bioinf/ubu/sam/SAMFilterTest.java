@@ -1,7 +1,13 @@
 package edu.unc.bioinf.ubu.sam;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
 import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMRecord;
 
@@ -123,4 +129,55 @@ public class SAMFilterTest {
 		SAMRecord read2 = buildTestRead("50M", 1, 10001);
 		assertFalse(filter.isReadPairIncluded(new ReadPair(read1, read2)));
 	}
+	
+	@Test (groups = "unit")
+	public void testFilterBatch_pairedEnd() {
+		SAMRecord read1 = buildTestRead("50M", 1, 500);
+		SAMRecord read2 = buildTestRead("50M", 0, 500);
+		SAMRecord read3 = buildTestRead("50M", 1, 500);
+		SAMRecord read4 = buildTestRead("50M", 1, 500);
+		
+		List<SAMRecord> included = new SAMFilter.FilterBatch(Arrays.asList(read1, read2, read3, read4),
+				new ReadPredicate[] { filter.getPredicate() }, 2).call().get(0);
+		
+		// The first pair is excluded due to read2's mapping quality
+		assertEquals(included.size(), 2);
+		assertTrue(included.get(0) == read3);
+		assertTrue(included.get(1) == read4);
+	}
+	
+	@Test (groups = "unit")
+	public void testIsReadIncluded_excludeTag() {
+		filter.addTag("XA", null, false);
+		
+		SAMRecord read = buildTestRead("50M", 1, 500);
+		assertTrue(filter.isReadIncluded(read));
+		
+		read.setAttribute("XA", "chr2,+100,50M,0;");
+		assertFalse(filter.isReadIncluded(read));
+	}
+	
+	@Test (groups = "unit")
+	public void testFilterBatch_multipleOutputs() throws IOException {
+		SAMRecord read1 = buildTestRead("50M", 30, 500);
+		SAMRecord read2 = buildTestRead("20M2D30M", 10, 500);
+		SAMRecord read3 = buildTestRead("20M2I28M", 30, 500);
+		
+		ReadPredicate[] predicates = new ReadPredicate[] {
+				ReadPredicates.parse("indels"),
+				ReadPredicates.parse("!indels"),
+				ReadPredicates.parse("mapq>=20") };
+		
+		List<List<SAMRecord>> included = new SAMFilter.FilterBatch(Arrays.asList(read1, read2, read3),
+				predicates, 1).call();
+		
+		assertEquals(included.get(0).size(), 2);
+		assertTrue(included.get(0).get(0) == read2);
+		assertTrue(included.get(0).get(1) == read3);
+		assertEquals(included.get(1).size(), 1);
+		assertTrue(included.get(1).get(0) == read1);
+		assertEquals(included.get(2).size(), 2);
+		assertTrue(included.get(2).get(0) == read1);
+		assertTrue(included.get(2).get(1) == read3);
+	}
 }
@@ -0,0 +1,139 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMRecord;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code SamDiffReport}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class SamDiffReportTest {
+
+	@Test (groups = "unit")
+	public void testCompare() {
+		SamDiffReport report = new SamDiffReport(1);
+
+		SAMRecord read1 = createRead("chr1", 100, "50M", 30);
+		SAMRecord read2 = createRead("chr1", 100, "50M", 30);
+		assertFalse(report.compare(read1, read2));
+
+		read2 = createRead("chr1", 105, "45M5S", 10);
+		read2.setAttribute("NM", 2);
+		read1.setAttribute("NM", 1);
+		read1.setAttribute("XA", "chr2,+100,50M,1;");
+		assertTrue(report.compare(read1, read2));
+
+		assertEquals(report.getRecordsDiffering(), 1);
+		assertEquals(report.getFieldCount(SamDiffReport.POS), 1);
+		assertEquals(report.getFieldCount(SamDiffReport.CIGAR), 1);
+		assertEquals(report.getFieldCount(SamDiffReport.MAPQ), 1);
+		assertEquals(report.getFieldCount(SamDiffReport.TAGS), 1);
+		assertEquals(report.getFieldCount(SamDiffReport.RNAME), 0);
+		assertEquals(report.getTagCount("NM"), 1);
+		assertEquals(report.getTagCount("XA"), 1);
+		assertEquals(report.getMappingQualityShiftCount(0), 1);
+		assertEquals(report.getMappingQualityShiftCount(-20), 1);
+		assertEquals(report.getPositionDeltaCount(0), 1);
+		assertEquals(report.getPositionDeltaCount(5), 1);
+
+		// Large deltas are counted in the outermost bin
+		report.compare(createRead("chr1", 100, "50M", 30), createRead("chr1", 50000, "50M", 30));
+		assertEquals(report.getPositionDeltaCount(SamDiffReport.MAX_POSITION_DELTA), 1);
+	}
+
+	@Test (groups = "unit")
+	public void testCompareGroupsPairsBySegment() {
+		SamDiffReport report = new SamDiffReport(1);
+
+		SAMRecord first1 = createRead("chr1", 100, "50M", 30);
+		first1.setReadPairedFlag(true);
+		first1.setFirstOfPairFlag(true);
+		SAMRecord second1 = createRead("chr1", 300, "50M", 30);
+		second1.setReadPairedFlag(true);
+		second1.setSecondOfPairFlag(true);
+
+		SAMRecord second2 = createRead("chr1", 300, "50M", 30);
+		second2.setReadPairedFlag(true);
+		second2.setSecondOfPairFlag(true);
+		SAMRecord first2 = createRead("chr1", 101, "50M", 30);
+		first2.setReadPairedFlag(true);
+		first2.setFirstOfPairFlag(true);
+		SAMRecord secondary2 = createRead("chr2", 100, "50M", 0);
+		secondary2.setReadPairedFlag(true);
+		secondary2.setFirstOfPairFlag(true);
+		secondary2.setNotPrimaryAlignmentFlag(true);
+
+		List<SAMRecord> written1 = new ArrayList<SAMRecord>();
+		List<SAMRecord> written2 = new ArrayList<SAMRecord>();
+
+		report.compare(Arrays.asList(first1, second1), Arrays.asList(secondary2, second2, first2),
+				new CollectingWriter(written1), new CollectingWriter(written2));
+
+		assertEquals(report.getRecordsDiffering(), 1);
+		assertEquals(report.getRecordsUnpaired1(), 0);
+		assertEquals(report.getRecordsUnpaired2(), 1);
+
+		// The discrepant primary first of pair records are sampled
+		assertEquals(written1.size(), 1);
+		assertTrue(written1.get(0) == first1);
+		assertTrue(written2.get(0) == first2);
+	}
+
+	@Test (groups = "unit")
+	public void testSampling() {
+		SamDiffReport report = new SamDiffReport(3);
+		List<SAMRecord> written = new ArrayList<SAMRecord>();
+		CollectingWriter writer = new CollectingWriter(written);
+
+		for (int i=0; i<7; i++) {
+			report.addUnique1(Arrays.asList(createRead("chr1", i+1, "50M", 30)), writer);
+		}
+
+		// Discrepancies 0, 3 and 6
+		assertEquals(written.size(), 3);
+		assertEquals(written.get(1).getAlignmentStart(), 4);
+	}
+
+	private SAMRecord createRead(String reference, int start, String cigar, int mappingQuality) {
+		SAMRecord read = new SAMRecord(new SAMFileHeader());
+		read.setReadName("read1");
+		read.setReferenceName(reference);
+		read.setAlignmentStart(start);
+		read.setCigarString(cigar);
+		read.setMappingQuality(mappingQuality);
+		read.setReadString("ACGTACGTAC");
+		read.setBaseQualityString("IIIIIIIIII");
+		return read;
+	}
+
+	static class CollectingWriter implements SAMFileWriter {
+		private List<SAMRecord> reads;
+
+		CollectingWriter(List<SAMRecord> reads) {
+			this.reads = reads;
+		}
+
+		public void addAlignment(SAMRecord read) {
+			reads.add(read);
+		}
+
+		public SAMFileHeader getFileHeader() {
+			return null;
+		}
+
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code SamFileHashDiff} and {@code SamRecordFingerprint}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class SamFileHashDiffTest {
+
+    @Test (groups = "unit")
+    public void testFingerprints() {
+        SAMRecord read1 = createRead("read1", "chr1", 100, "50M", 30);
+        SAMRecord read2 = createRead("read1", "chr1", 100, "50M", 30);
+
+        assertEquals(SamRecordFingerprint.ofRecord(read1), SamRecordFingerprint.ofRecord(read2));
+
+        read2.setMappingQuality(0);
+        assertFalse(SamRecordFingerprint.ofRecord(read1).equals(SamRecordFingerprint.ofRecord(read2)));
+        assertEquals(SamRecordFingerprint.ofNameAndPosition(read1), SamRecordFingerprint.ofNameAndPosition(read2));
+
+        read2.setCigarString("49M1I");
+        assertFalse(SamRecordFingerprint.ofNameAndPosition(read1).equals(SamRecordFingerprint.ofNameAndPosition(read2)));
+        assertEquals(SamRecordFingerprint.ofName(read1), SamRecordFingerprint.ofName(read2));
+
+        read1.setAttribute("NM", 1);
+        SAMRecord read3 = createRead("read1", "chr1", 100, "50M", 30);
+        read3.setAttribute("NM", 2);
+        assertFalse(SamRecordFingerprint.ofRecord(read1).equals(SamRecordFingerprint.ofRecord(read3)));
+    }
+
+    @Test (groups = "unit")
+    public void testFingerprintTagTypes() {
+        SAMRecord intTag = createRead("read1", "chr1", 100, "50M", 30);
+        intTag.setAttribute("XN", 1);
+        SAMRecord stringTag = createRead("read1", "chr1", 100, "50M", 30);
+        stringTag.setAttribute("XN", "1");
+        SAMRecord charTag = createRead("read1", "chr1", 100, "50M", 30);
+        charTag.setAttribute("XN", '1');
+
+        assertFalse(SamRecordFingerprint.ofRecord(intTag).equals(SamRecordFingerprint.ofRecord(stringTag)));
+        assertFalse(SamRecordFingerprint.ofRecord(charTag).equals(SamRecordFingerprint.ofRecord(stringTag)));
+
+        // Integer width is not significant
+        SAMRecord shortTag = createRead("read1", "chr1", 100, "50M", 30);
+        shortTag.setAttribute("XN", (short) 1);
+        assertEquals(SamRecordFingerprint.ofRecord(intTag), SamRecordFingerprint.ofRecord(shortTag));
+    }
+
+    @Test (groups = "unit")
+    public void testDiffRecords() {
+        SamFileHashDiff diff = new SamFileHashDiff();
+
+        Map<SamRecordFingerprint, List<SAMRecord>> records1 = new HashMap<SamRecordFingerprint, List<SAMRecord>>();
+        Map<SamRecordFingerprint, List<SAMRecord>> records2 = new HashMap<SamRecordFingerprint, List<SAMRecord>>();
+
+        SAMRecord shared1 = createRead("read1", "chr1", 100, "50M", 30);
+        SAMRecord moved1 = createRead("read2", "chr1", 200, "50M", 30);
+        SAMRecord duplicate1 = createRead("read3", "chr1", 300, "50M", 30);
+        SAMRecord duplicate2 = createRead("read3", "chr1", 300, "50M", 30);
+
+        SAMRecord shared2 = createRead("read1", "chr1", 100, "50M", 30);
+        SAMRecord moved2 = createRead("read2", "chr1", 250, "50M", 30);
+        SAMRecord duplicate3 = createRead("read3", "chr1", 300, "50M", 30);
+        SAMRecord extra2 = createRead("read4", "chr2", 100, "50M", 30);
+
+        for (SAMRecord read : new SAMRecord[] { shared1, moved1, duplicate1, duplicate2 }) {
+            diff.addRecord(records1, read);
+        }
+
+        for (SAMRecord read : new SAMRecord[] { shared2, moved2, duplicate3, extra2 }) {
+            diff.addRecord(records2, read);
+        }
+
+        List<List<SAMRecord>> diffs = diff.diffRecords(records1, records2);
+
+        // One copy of the duplicated record is unmatched
+        assertEquals(diffs.get(0).size(), 2);
+        assertTrue(diffs.get(0).contains(moved1));
+        assertEquals(diffs.get(1).size(), 2);
+        assertTrue(diffs.get(1).contains(moved2));
+        assertTrue(diffs.get(1).contains(extra2));
+    }
+
+    @Test (groups = "unit")
+    public void testDiffRecordsIdsOnly() {
+        SamFileHashDiff diff = new SamFileHashDiff();
+        diff.setReadIdComparisonOnly(true);
+
+        Map<SamRecordFingerprint, List<SAMRecord>> records1 = new HashMap<SamRecordFingerprint, List<SAMRecord>>();
+        Map<SamRecordFingerprint, List<SAMRecord>> records2 = new HashMap<SamRecordFingerprint, List<SAMRecord>>();
+
+        diff.addRecord(records1, createRead("read1", "chr1", 100, "50M", 30));
+        diff.addRecord(records1, createRead("read1", "chr2", 100, "50M", 30));
+        diff.addRecord(records1, createRead("read2", "chr1", 100, "50M", 30));
+        diff.addRecord(records2, createRead("read1", "chr3", 100, "50M", 30));
+
+        List<List<SAMRecord>> diffs = diff.diffRecords(records1, records2);
+
+        assertEquals(diffs.get(0).size(), 1);
+        assertEquals(diffs.get(0).get(0).getReadName(), "read2");
+        assertEquals(diffs.get(1).size(), 0);
+    }
+
+    @Test (groups = "unit")
+    public void testGetBucket() {
+        for (int i=0; i<1000; i++) {
+            int bucket = SamFileHashDiff.getBucket("HWI-ST:1:" + i, 64);
+            assertTrue((bucket >= 0) && (bucket < 64));
+        }
+
+        assertEquals(SamFileHashDiff.getBucket("read1", 64), SamFileHashDiff.getBucket("read1", 64));
+    }
+
+    private SAMRecord createRead(String name, String reference, int start, String cigar, int mappingQuality) {
+        SAMRecord read = new SAMRecord(new SAMFileHeader());
+        read.setReadName(name);
+        read.setReferenceName(reference);
+        read.setAlignmentStart(start);
+        read.setCigarString(cigar);
+        read.setMappingQuality(mappingQuality);
+        read.setReadString("ACGTACGTAC");
+        read.setBaseQualityString("IIIIIIIIII");
+        return read;
+    }
+}
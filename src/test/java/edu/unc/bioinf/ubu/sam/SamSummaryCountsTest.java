@@ -0,0 +1,186 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code SamSummaryCounts}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class SamSummaryCountsTest {
+
+    @Test (groups = "unit")
+    public void testCountRead() {
+        SamSummaryCounts counts = new SamSummaryCounts(2, false, false, false);
+
+        counts.countRead(createRead(1, "10S40M", 60, 2));
+        counts.countRead(createRead(1, "20M100N30M", 0, 1));
+        counts.countRead(createRead(-1, "50M", 10, 0));
+
+        SAMRecord unmapped = createRead(0, "50M", 60, 5);
+        unmapped.setReadUnmappedFlag(true);
+        counts.countRead(unmapped);
+
+        assertEquals(counts.getReadCount(0), 0);
+        assertEquals(counts.getReadCount(1), 2);
+        assertEquals(counts.getAlignedBases(1), 90);
+        assertEquals(counts.getEditDistanceCount(1), 3);
+        assertEquals(counts.getMappingQualityZeroCount(1), 1);
+
+        // Reads without a reference index are tallied in the last slot
+        assertEquals(counts.getReadCount(2), 1);
+
+        assertNull(counts.getMappingQualityHistogram());
+        assertNull(counts.getCycleBases());
+    }
+
+    @Test (groups = "unit")
+    public void testMerge() {
+        SamSummaryCounts counts1 = new SamSummaryCounts(2, true, true, true);
+        SamSummaryCounts counts2 = counts1.newInstance();
+
+        counts1.countRead(createRead(0, "50M", 60, 1));
+        SAMRecord read = createRead(0, "100M", 60, 2);
+        read.setAttribute("MD", "99A0");
+        counts2.countRead(read);
+
+        counts1.merge(counts2);
+
+        assertEquals(counts1.getReadCount(0), 2);
+        assertEquals(counts1.getAlignedBases(0), 150);
+        assertEquals(counts1.getEditDistanceCount(0), 3);
+        assertEquals(counts1.getMappingQualityHistogram()[60], 2);
+        assertEquals(counts1.getCycleBases().length, 100);
+        assertEquals(counts1.getCycleMismatches()[99], 1);
+    }
+
+    @Test (groups = "unit")
+    public void testInsertSizeHistogram() {
+        SamSummaryCounts counts = new SamSummaryCounts(1, false, true, false);
+
+        SAMRecord first = createPairedRead(true, -250);
+        SAMRecord second = createPairedRead(false, 250);
+        SAMRecord large = createPairedRead(true, 50000);
+
+        counts.countRead(first);
+        counts.countRead(second);
+        counts.countRead(large);
+
+        assertEquals(counts.getInsertSizeHistogram()[250], 1);
+        assertEquals(counts.getInsertSizeHistogram()[SamSummaryCounts.MAX_INSERT_SIZE], 1);
+    }
+
+    @Test (groups = "unit")
+    public void testCycleErrors() {
+        SamSummaryCounts counts = new SamSummaryCounts(1, false, false, true);
+
+        // Mismatch at read position 3, 2 inserted bases at positions 6-7, a deletion and a mismatch at position 9
+        SAMRecord read = createRead(0, "2S4M2I2D4M", 60, 5);
+        read.setAttribute("MD", "1C2^TT1G2");
+        counts.countRead(read);
+
+        long[] bases = counts.getCycleBases();
+        assertEquals(bases.length, 12);
+        assertEquals(bases[0], 0);
+        assertEquals(bases[2], 1);
+        assertEquals(counts.getCycleMismatches()[3], 1);
+        assertEquals(counts.getCycleInsertions()[6], 1);
+        assertEquals(counts.getCycleInsertions()[7], 1);
+        assertEquals(counts.getCycleMismatches()[9], 1);
+        assertEquals(counts.getCycleMismatches()[10], 0);
+
+        // Reverse strand cycles are counted from the end of the read
+        SAMRecord reverse = createRead(0, "10M", 60, 1);
+        reverse.setReadNegativeStrandFlag(true);
+        reverse.setAttribute("MD", "0A9");
+        counts.countRead(reverse);
+
+        assertEquals(counts.getCycleMismatches()[9], 2);
+        assertEquals(counts.getCycleBases()[0], 1);
+    }
+
+    @Test (groups = "unit")
+    public void testGetShards() {
+        List<int[]> shards = SamSummarizer.getShards(createHeader(), 10);
+
+        assertEquals(shards.size(), 4);
+        assertShard(shards.get(0), 0, 1, 10);
+        assertShard(shards.get(1), 0, 11, 20);
+        assertShard(shards.get(2), 0, 21, 0);
+        assertShard(shards.get(3), 1, 1, 0);
+    }
+
+    @Test (groups = "unit")
+    public void testCountShardsUnplaced() throws IOException {
+        File file = File.createTempFile("summary", ".sam");
+        file.deleteOnExit();
+
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+        writer.write("@SQ\tSN:chr1\tLN:25\n@SQ\tSN:chr2\tLN:10\n");
+        writer.write("r1\t0\tchr1\t5\t60\t10M\t*\t0\t0\tAAAAAAAAAA\tIIIIIIIIII\n");
+        // Mapped flag without a reference, as counted under "*" in serial mode
+        writer.write("r2\t0\t*\t0\t0\t10M\t*\t0\t0\tAAAAAAAAAA\tIIIIIIIIII\n");
+        writer.write("r3\t4\t*\t0\t0\t*\t*\t0\t0\tAAAAAAAAAA\tIIIIIIIIII\n");
+        writer.close();
+
+        SAMFileHeader header = createHeader();
+        ConcurrentLinkedQueue<int[]> shards = new ConcurrentLinkedQueue<int[]>();
+        shards.add(SamSummarizer.UNPLACED_SHARD);
+        shards.addAll(SamSummarizer.getShards(header, 10));
+
+        SamSummaryCounts counts = new SamSummaryCounts(2, false, false, false);
+        new SamSummarizer.CountShards(file, header, shards, counts).run();
+
+        assertEquals(counts.getReadCount(0), 1);
+        assertEquals(counts.getReadCount(1), 0);
+        assertEquals(counts.getReadCount(2), 1);
+    }
+
+    private void assertShard(int[] shard, int refIdx, int start, int stop) {
+        assertEquals(shard[0], refIdx);
+        assertEquals(shard[1], start);
+        assertEquals(shard[2], stop);
+    }
+
+    private SAMRecord createPairedRead(boolean isFirst, int insertSize) {
+        SAMRecord read = createRead(0, "50M", 60, 0);
+        read.setReadPairedFlag(true);
+        read.setProperPairFlag(true);
+        read.setFirstOfPairFlag(isFirst);
+        read.setSecondOfPairFlag(!isFirst);
+        read.setInferredInsertSize(insertSize);
+        return read;
+    }
+
+    private SAMFileHeader createHeader() {
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("chr1", 25));
+        header.addSequence(new SAMSequenceRecord("chr2", 10));
+        return header;
+    }
+
+    private SAMRecord createRead(int refIdx, String cigar, int mapq, int editDistance) {
+        // Reference indices must resolve against the header's sequence dictionary
+        SAMRecord read = new SAMRecord(createHeader());
+        read.setReferenceIndex(refIdx);
+        read.setAlignmentStart(100);
+        read.setCigarString(cigar);
+        read.setMappingQuality(mapq);
+        read.setAttribute("NM", editDistance);
+        return read;
+    }
+}
@@ -0,0 +1,73 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code SpliceJunctionCounter}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class SpliceJunctionCounterTest {
+
+    @Test (groups = "unit")
+    public void testGetEncoding() throws IOException {
+        String dense = writeMatrix("junction\ts1\nchr1:100:+,chr1:201:+\t5\n");
+
+        assertEquals(SpliceJunctionCounter.getEncoding(dense, false, false, false), SpliceJunctionMatrix.DENSE);
+        assertEquals(SpliceJunctionCounter.getEncoding(dense, true, false, false), SpliceJunctionMatrix.SPARSE);
+        assertEquals(SpliceJunctionCounter.getEncoding(dense, false, true, false), SpliceJunctionMatrix.BINARY);
+        assertEquals(SpliceJunctionCounter.getEncoding(dense, false, false, true), SpliceJunctionMatrix.DENSE);
+
+        try {
+            SpliceJunctionCounter.getEncoding(dense, true, false, true);
+            throw new AssertionError("Expected encoding mismatch");
+        } catch (IllegalArgumentException e) {
+            assertEquals(e.getMessage(), "Cannot append sparse samples to junction matrix: " + dense + " with a different encoding");
+        }
+
+        String sparse = writeMatrix(SpliceJunctionMatrix.SPARSE_HEADER + "\nchr1:100:+,chr1:201:+\ts1\t5\n");
+        assertEquals(SpliceJunctionCounter.getEncoding(sparse, false, false, true), SpliceJunctionMatrix.SPARSE);
+        assertEquals(SpliceJunctionCounter.getEncoding(sparse, true, false, true), SpliceJunctionMatrix.SPARSE);
+    }
+
+    @Test (groups = "unit")
+    public void testCheckSamples() throws IOException {
+        String sparse = writeMatrix(SpliceJunctionMatrix.SPARSE_HEADER + "\nchr1:100:+,chr1:201:+\ts1\t5\n");
+
+        SpliceJunctionCounter.checkSamples(Arrays.asList("s1", "s2"), sparse, false);
+        SpliceJunctionCounter.checkSamples(Arrays.asList("s2", "s3"), sparse, true);
+
+        try {
+            SpliceJunctionCounter.checkSamples(Arrays.asList("s2", "s1"), sparse, true);
+            throw new AssertionError("Expected duplicate sample");
+        } catch (IllegalArgumentException e) {
+            assertEquals(e.getMessage(), "Sample: s1 already in junction matrix: " + sparse);
+        }
+
+        try {
+            SpliceJunctionCounter.checkSamples(Arrays.asList("s2", "s2"), sparse, true);
+            throw new AssertionError("Expected duplicate sample");
+        } catch (IllegalArgumentException e) {
+            assertEquals(e.getMessage(), "Duplicate sample: s2");
+        }
+    }
+
+    private String writeMatrix(String contents) throws IOException {
+        File file = File.createTempFile("junction_matrix", ".txt");
+        file.deleteOnExit();
+
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+        writer.write(contents);
+        writer.close();
+
+        return file.getAbsolutePath();
+    }
+}
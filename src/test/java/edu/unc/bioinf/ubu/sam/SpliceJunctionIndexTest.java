@@ -0,0 +1,99 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.testng.annotations.Test;
+
+import edu.unc.bioinf.ubu.sam.SpliceJunctionIndex.ChromosomeJunctions;
+
+/**
+ * Unit tests for {@code SpliceJunctionIndex}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class SpliceJunctionIndexTest {
+
+    @Test (groups = "unit")
+    public void testIndexOf() {
+        SpliceJunctionIndex index = new SpliceJunctionIndex(Arrays.asList(
+                new SpliceJunction("chr1", 500, 600),
+                new SpliceJunction("chr1", 100, 200),
+                new SpliceJunction("chr2", 100, 200),
+                new SpliceJunction("chr1", 100, 200)));
+
+        assertEquals(index.size(), 3);
+        assertEquals(index.indexOf("chr1", 100, 199), -1);
+        assertEquals(index.indexOf("chr3", 100, 200), -1);
+
+        int idx1 = index.indexOf(new SpliceJunction("chr1", 100, 200));
+        int idx2 = index.indexOf("chr1", 500, 600);
+        int idx3 = index.indexOf("chr2", 100, 200);
+
+        // Each distinct junction has a dense index
+        assertEquals(idx1 + idx2 + idx3, 3);
+        assertTrue((idx1 != idx2) && (idx1 != idx3) && (idx2 != idx3));
+    }
+
+    @Test (groups = "unit")
+    public void testCountJunctions() {
+        SpliceJunctionIndex index = new SpliceJunctionIndex(Arrays.asList(
+                new SpliceJunction("chr1", 111, 210),
+                new SpliceJunction("chr1", 241, 340),
+                new SpliceJunction("chr2", 111, 210)));
+
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("chrM", 1000));
+        header.addSequence(new SAMSequenceRecord("chr1", 1000));
+        header.addSequence(new SAMSequenceRecord("chr2", 1000));
+
+        ChromosomeJunctions[] referenceJunctions = index.getReferenceJunctions(header);
+        assertNull(referenceJunctions[0]);
+
+        int[] counts = new int[index.size()];
+
+        SpliceJunctionIndex.countJunctions(createRead(header, 1, 101, "10M100N30M100N10M"), referenceJunctions, counts);
+        // Leading soft clip and deletion before the intron
+        SpliceJunctionIndex.countJunctions(createRead(header, 1, 101, "5S5M2D3M100N10M"), referenceJunctions, counts);
+        // Unknown junction
+        SpliceJunctionIndex.countJunctions(createRead(header, 1, 101, "10M99N10M"), referenceJunctions, counts);
+        SpliceJunctionIndex.countJunctions(createRead(header, 0, 101, "10M100N10M"), referenceJunctions, counts);
+        SpliceJunctionIndex.countJunctions(createRead(header, 2, 101, "50M"), referenceJunctions, counts);
+
+        assertEquals(counts[index.indexOf("chr1", 111, 210)], 2);
+        assertEquals(counts[index.indexOf("chr1", 241, 340)], 1);
+        assertEquals(counts[index.indexOf("chr2", 111, 210)], 0);
+
+        SpliceJunctionIndex.countJunctions(createRead(header, 1, 101, "10M100N30M100N10M"), referenceJunctions, counts);
+        assertEquals(counts[index.indexOf("chr1", 111, 210)], 3);
+    }
+
+    @Test (groups = "unit")
+    public void testToKeyOrdering() {
+        long key1 = SpliceJunctionIndex.toKey(100, 200);
+        long key2 = SpliceJunctionIndex.toKey(100, 300);
+        long key3 = SpliceJunctionIndex.toKey(101, 150);
+
+        assertTrue(key1 < key2);
+        assertTrue(key2 < key3);
+    }
+
+    /**
+     * The header must contain refIdx, as setReferenceIndex resolves the reference name
+     * through the header's sequence dictionary.
+     */
+    private SAMRecord createRead(SAMFileHeader header, int refIdx, int start, String cigar) {
+        SAMRecord read = new SAMRecord(header);
+        read.setReferenceIndex(refIdx);
+        read.setAlignmentStart(start);
+        read.setCigarString(cigar);
+        return read;
+    }
+}
@@ -0,0 +1,172 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code SpliceJunctionMatrix}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class SpliceJunctionMatrixTest {
+
+    private static final String JUNCTION1 = "chr1:100:+,chr1:201:+";
+    private static final String JUNCTION2 = "chr2:500:-,chr2:601:-";
+
+    private SpliceJunctionMap map;
+    private SpliceJunctionIndex index;
+    private SpliceJunctionMatrix matrix;
+    private File matrixFile;
+
+    @BeforeMethod (groups = "unit")
+    public void setUp() throws IOException {
+        File junctionFile = File.createTempFile("junctions", ".txt");
+        junctionFile.deleteOnExit();
+        BufferedWriter writer = new BufferedWriter(new FileWriter(junctionFile));
+        writer.write(JUNCTION1 + "\n" + JUNCTION2 + "\n");
+        writer.close();
+
+        map = new SpliceJunctionMap(junctionFile.getAbsolutePath());
+        index = new SpliceJunctionIndex(map);
+        matrix = new SpliceJunctionMatrix(map, index);
+
+        matrixFile = File.createTempFile("junction_matrix", ".txt");
+        matrixFile.deleteOnExit();
+    }
+
+    @Test (groups = "unit")
+    public void testWriteAndAppendDense() throws IOException {
+        matrix.write(matrixFile.getAbsolutePath(), Arrays.asList("s1", "s2"),
+                Arrays.asList(counts(5, 0), counts(1, 2)), false);
+
+        matrix.append(matrixFile.getAbsolutePath(), Arrays.asList("s3"), Arrays.asList(counts(0, 7)));
+
+        List<String> lines = readLines(matrixFile);
+        assertEquals(lines.size(), 3);
+        assertEquals(lines.get(0), "junction\ts1\ts2\ts3");
+        assertEquals(lines.get(1), JUNCTION1 + "\t5\t1\t0");
+        assertEquals(lines.get(2), JUNCTION2 + "\t0\t2\t7");
+    }
+
+    @Test (groups = "unit")
+    public void testWriteAndAppendSparse() throws IOException {
+        matrix.write(matrixFile.getAbsolutePath(), Arrays.asList("s1", "s2"),
+                Arrays.asList(counts(5, 0), counts(1, 2)), true);
+
+        matrix.append(matrixFile.getAbsolutePath(), Arrays.asList("s3"), Arrays.asList(counts(0, 7)));
+
+        List<String> lines = readLines(matrixFile);
+        assertEquals(lines.size(), 5);
+        assertEquals(lines.get(0), SpliceJunctionMatrix.SPARSE_HEADER);
+        assertEquals(lines.get(1), JUNCTION1 + "\ts1\t5");
+        assertEquals(lines.get(2), JUNCTION1 + "\ts2\t1");
+        assertEquals(lines.get(3), JUNCTION2 + "\ts2\t2");
+        assertEquals(lines.get(4), JUNCTION2 + "\ts3\t7");
+    }
+
+    @Test (groups = "unit")
+    public void testWriteAndAppendBinary() throws IOException {
+        matrix.writeBinary(matrixFile.getAbsolutePath(), Arrays.asList("s1", "s2"),
+                Arrays.asList(counts(5, 0), counts(1, 2)));
+
+        matrix.append(matrixFile.getAbsolutePath(), Arrays.asList("s3"), Arrays.asList(counts(0, 7)));
+
+        BinaryMatrix binary = new BinaryMatrix(matrixFile.getAbsolutePath());
+        assertEquals(binary.getColumnNames(), Arrays.asList("s1", "s2", "s3"));
+        assertEquals(binary.getRowNames(), Arrays.asList(JUNCTION1, JUNCTION2));
+        assertEquals(binary.getLong(0, 0), 5);
+        assertEquals(binary.getLong(1, 1), 2);
+        assertEquals(binary.getLong(1, 2), 7);
+        binary.close();
+    }
+
+    @Test (groups = "unit")
+    public void testMergeDenseGroups() throws IOException {
+        String file = matrixFile.getAbsolutePath();
+        matrix.write(file, Arrays.asList("s1"), Arrays.asList(counts(5, 0)), false);
+
+        List<String> columnFiles = Arrays.asList(
+                matrix.writeDenseColumns(file, Arrays.asList(counts(1, 2), counts(3, 4))),
+                matrix.writeDenseColumns(file, Arrays.asList(counts(0, 7))));
+        matrix.mergeDense(file, true, Arrays.asList("s2", "s3", "s4"), columnFiles);
+
+        for (String columnFile : columnFiles) {
+            new File(columnFile).delete();
+        }
+
+        List<String> lines = readLines(matrixFile);
+        assertEquals(lines.size(), 3);
+        assertEquals(lines.get(0), "junction\ts1\ts2\ts3\ts4");
+        assertEquals(lines.get(1), JUNCTION1 + "\t5\t1\t3\t0");
+        assertEquals(lines.get(2), JUNCTION2 + "\t0\t2\t4\t7");
+    }
+
+    @Test (groups = "unit")
+    public void testAppendDuplicateSparseSample() throws IOException {
+        String file = matrixFile.getAbsolutePath();
+        matrix.write(file, Arrays.asList("s1", "s2"), Arrays.asList(counts(5, 0), counts(1, 2)), true);
+
+        assertEquals(SpliceJunctionMatrix.getEncoding(file), SpliceJunctionMatrix.SPARSE);
+        assertEquals(SpliceJunctionMatrix.getSamples(file), new HashSet<String>(Arrays.asList("s1", "s2")));
+
+        try {
+            matrix.append(file, Arrays.asList("s2"), Arrays.asList(counts(0, 7)));
+            throw new AssertionError("Expected duplicate sample");
+        } catch (IllegalArgumentException e) {
+            assertEquals(e.getMessage(), "Sample: s2 already in junction matrix: " + file);
+        }
+
+        assertEquals(readLines(matrixFile).size(), 4);
+    }
+
+    @Test (groups = "unit")
+    public void testAppendDuplicateDenseSample() throws IOException {
+        String file = matrixFile.getAbsolutePath();
+        matrix.write(file, Arrays.asList("s1"), Arrays.asList(counts(5, 0)), false);
+
+        try {
+            matrix.append(file, Arrays.asList("s1"), Arrays.asList(counts(0, 7)));
+            throw new AssertionError("Expected duplicate sample");
+        } catch (IllegalArgumentException e) {
+            assertEquals(e.getMessage(), "Sample: s1 already in junction matrix: " + file);
+        }
+
+        assertEquals(readLines(matrixFile).get(0), "junction\ts1");
+        assertFalse(new File(file + ".tmp").exists());
+    }
+
+    private int[] counts(int junction1Count, int junction2Count) {
+        int[] counts = new int[index.size()];
+        counts[index.indexOf("chr1", 101, 200)] = junction1Count;
+        counts[index.indexOf("chr2", 501, 600)] = junction2Count;
+        return counts;
+    }
+
+    private List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+
+        String line = reader.readLine();
+        while (line != null) {
+            lines.add(line);
+            line = reader.readLine();
+        }
+
+        reader.close();
+        return lines;
+    }
+}
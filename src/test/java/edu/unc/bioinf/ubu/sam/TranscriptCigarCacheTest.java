@@ -0,0 +1,59 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.TextCigarCodec;
+
+import org.testng.annotations.Test;
+
+import edu.unc.bioinf.ubu.sam.TranscriptCigarCache.TranscriptCigars;
+
+/**
+ * Unit tests for {@code TranscriptCigarCache}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class TranscriptCigarCacheTest {
+
+    @Test (groups = "unit")
+    public void testStripIntrons() {
+        TranscriptCigarCache cache = new TranscriptCigarCache();
+
+        TranscriptCigars cigars = cache.get(createRead("10M200N30M5I5M"));
+        assertEquals(encode(cigars), "40M5I5M");
+        assertEquals(TextCigarCodec.getSingleton().encode(cigars.getNegativeStrandCigar()), "5M5I40M");
+    }
+
+    @Test (groups = "unit")
+    public void testHitsAndEviction() {
+        TranscriptCigarCache cache = new TranscriptCigarCache(2);
+
+        TranscriptCigars cigars1 = cache.get(createRead("10M100N40M"));
+        assertSame(cache.get(createRead("10M100N40M")), cigars1);
+        assertEquals(cache.getHits(), 1);
+        assertEquals(cache.getMisses(), 1);
+
+        cache.get(createRead("50M"));
+        // Refresh the first cigar so that 50M is least recently used
+        cache.get(createRead("10M100N40M"));
+        cache.get(createRead("25M100N25M"));
+
+        assertEquals(cache.size(), 2);
+        assertSame(cache.get(createRead("10M100N40M")), cigars1);
+        cache.get(createRead("50M"));
+        assertEquals(cache.getMisses(), 4);
+    }
+
+    private String encode(TranscriptCigars cigars) {
+        return TextCigarCodec.getSingleton().encode(cigars.getPositiveStrandCigar());
+    }
+
+    private SAMRecord createRead(String cigar) {
+        SAMRecord read = new SAMRecord(new SAMFileHeader());
+        read.setCigarString(cigar);
+        return read;
+    }
+}
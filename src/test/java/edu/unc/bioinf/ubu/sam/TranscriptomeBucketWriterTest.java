@@ -0,0 +1,111 @@
+package edu.unc.bioinf.ubu.sam;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@code TranscriptomeBucketWriter}
+ *
+ * @author Lisle Mose (lmose at unc dot edu)
+ */
+public class TranscriptomeBucketWriterTest {
+
+    @Test (groups = "unit")
+    public void testGetBucket() throws IOException {
+        TranscriptomeBucketWriter writer = new TranscriptomeBucketWriter(createHeader(), createOutput(), 2, null);
+
+        assertEquals(writer.getBucket(0), 0);
+        assertEquals(writer.getBucket(1), 0);
+        assertEquals(writer.getBucket(2), 1);
+        assertEquals(writer.getBucket(3), 1);
+    }
+
+    @Test (groups = "unit")
+    public void testSortedMerge() throws IOException {
+        SAMFileHeader header = createHeader();
+        File output = createOutput();
+
+        TranscriptomeBucketWriter writer = new TranscriptomeBucketWriter(header, output, 2, null);
+
+        // Bucket 0 exceeds the in memory limit
+        writer.setMaxRecordsInRam(2);
+
+        // Out of order across both buckets
+        int[][] reads = {
+            { 3, 50 }, { 0, 200 }, { 2, 10 }, { 0, 100 }, { 1, 5 }, { 3, 20 }, { 0, 150 }, { 2, 10 }
+        };
+
+        for (int i=0; i<reads.length; i++) {
+            writer.addAlignment(createRead(header, "read" + i, reads[i][0], reads[i][1]));
+        }
+
+        writer.close();
+
+        SAMFileReader reader = new SAMFileReader(output);
+        reader.setValidationStringency(ValidationStringency.SILENT);
+
+        List<SAMRecord> merged = new ArrayList<SAMRecord>();
+        for (SAMRecord read : reader) {
+            merged.add(read);
+        }
+        reader.close();
+
+        assertEquals(merged.size(), reads.length);
+        assertEquals(merged.get(0).getReadName(), "read3");
+        assertEquals(merged.get(merged.size()-1).getReadName(), "read0");
+
+        for (int i=1; i<merged.size(); i++) {
+            SAMRecord prev = merged.get(i-1);
+            SAMRecord read = merged.get(i);
+
+            assertTrue((prev.getReferenceIndex() < read.getReferenceIndex()) ||
+                    ((prev.getReferenceIndex().equals(read.getReferenceIndex())) &&
+                     (prev.getAlignmentStart() <= read.getAlignmentStart())));
+        }
+
+        assertEquals(writer.getFileHeader().getSortOrder(), SAMFileHeader.SortOrder.coordinate);
+        assertEquals(header.getSortOrder(), SAMFileHeader.SortOrder.unsorted);
+    }
+
+    private SAMFileHeader createHeader() {
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+        header.addSequence(new SAMSequenceRecord("uc001.1", 1000));
+        header.addSequence(new SAMSequenceRecord("uc002.1", 1000));
+        header.addSequence(new SAMSequenceRecord("uc003.1", 1000));
+        header.addSequence(new SAMSequenceRecord("uc004.1", 1000));
+        return header;
+    }
+
+    private File createOutput() throws IOException {
+        File output = File.createTempFile("bucket_sorted", ".bam");
+        output.deleteOnExit();
+        new File(output.getAbsolutePath().replace(".bam", ".bai")).deleteOnExit();
+        return output;
+    }
+
+    private SAMRecord createRead(SAMFileHeader header, String name, int refIdx, int start) {
+        SAMRecord read = new SAMRecord(header);
+        read.setReadName(name);
+        read.setReferenceIndex(refIdx);
+        read.setAlignmentStart(start);
+        read.setCigarString("4M");
+        read.setReadString("ACGT");
+        read.setBaseQualityString("IIII");
+        read.setMappingQuality(30);
+        return read;
+    }
+}